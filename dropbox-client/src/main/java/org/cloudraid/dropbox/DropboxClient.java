@@ -2,16 +2,27 @@ package org.cloudraid.dropbox;
 
 import com.dropbox.client2.DropboxAPI;
 import com.dropbox.client2.ProgressListener;
+import com.dropbox.client2.RESTUtility;
+import com.dropbox.client2.exception.DropboxServerException;
 import com.dropbox.client2.session.AccessTokenPair;
 import com.dropbox.client2.session.AppKeyPair;
 import com.dropbox.client2.session.Session;
 import com.dropbox.client2.session.WebAuthSession;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.log4j.Logger;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * Client interface to a Dropbox account.
@@ -22,6 +33,7 @@ public class DropboxClient {
 
     private static final int INITIAL_BUFFER_SIZE = 4096;
     private static final int PROGRESS_INTERVAL = 10000; // 10 secs
+    private static final int RANGE_NOT_SATISFIABLE = 416;
 
     private static final Logger logger = Logger.getLogger(DropboxClient.class);
 
@@ -53,9 +65,26 @@ public class DropboxClient {
      * @throws DropboxClientException
      */
     public byte[] download(String path) throws DropboxClientException {
+        ByteArrayOutputStream tempOut = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+        download(path, tempOut);
+
+        return tempOut.toByteArray();
+    }
+
+    /**
+     * Downloads the file from the given path in the Dropbox account, writing the content to the stream while it's
+     * being downloaded. If a write fails, the download is aborted.
+     *
+     * @param path
+     *          the path to download the file from
+     * @param out
+     *          the stream to write the file content to
+     * @throws DropboxClientException
+     */
+    public void download(String path, OutputStream out) throws DropboxClientException {
         // Connect to Dropbox
         DropboxAPI<?> client = connect();
-        ByteArrayOutputStream tempOut = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
 
         String fullPath = getFullPath(path);
         ProgressListener progressListener = null;
@@ -64,9 +93,10 @@ public class DropboxClient {
             progressListener = new LoggingProgressListener("Downloaded", PROGRESS_INTERVAL, fullPath);
         }
 
-        // Download the file
+        // Download the file. If the thread is interrupted (the download was cancelled), the next write fails and the
+        // request is aborted
         try {
-            client.getFile(fullPath, null, tempOut, progressListener);
+            client.getFile(fullPath, null, new InterruptibleOutputStream(out), progressListener);
         } catch (Exception e) {
             throw new DropboxClientException("Error while trying to download file dropbox://" + uid + fullPath, e);
         }
@@ -74,8 +104,75 @@ public class DropboxClient {
         if (logger.isDebugEnabled()) {
             logger.debug("Finished downloading file dropbox://" + uid + fullPath);
         }
+    }
 
-        return tempOut.toByteArray();
+    /**
+     * Downloads a range of the file from the given path in the Dropbox account. The range is requested with an HTTP
+     * Range header, so only the range is transferred.
+     *
+     * @param path
+     *          the path to download the file from
+     * @param offset
+     *          the offset in the file of the first byte to download
+     * @param length
+     *          the number of bytes to download
+     * @return the content of the range (shorter than length if the file ends before the end of the range)
+     * @throws DropboxClientException
+     */
+    public byte[] download(String path, long offset, int length) throws DropboxClientException {
+        if (length == 0) {
+            return new byte[0];
+        }
+
+        // Connect to Dropbox
+        DropboxAPI<?> client = connect();
+        Session session = client.getSession();
+
+        String fullPath = getFullPath(path);
+        String url = RESTUtility.buildURL(session.getContentServer(), DropboxAPI.VERSION, "/files/" +
+                session.getAccessType() + fullPath, new String[] {"locale", session.getLocale().toString()});
+
+        HttpGet request = new HttpGet(url);
+        request.addHeader("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        session.sign(request);
+
+        // Download the range
+        DropboxAPI.DropboxInputStream in = null;
+        try {
+            HttpResponse response;
+            try {
+                response = RESTUtility.execute(session, request);
+            } catch (DropboxServerException e) {
+                if (e.error == RANGE_NOT_SATISFIABLE) {
+                    // The file ends before the offset
+                    return new byte[0];
+                }
+
+                throw e;
+            }
+
+            in = new DropboxAPI.DropboxInputStream(request, response);
+
+            // If the range is ignored the whole file is returned
+            if (response.getStatusLine().getStatusCode() != DropboxServerException._206_PARTIAL_CONTENT) {
+                IOUtils.skip(in, offset);
+            }
+
+            byte[] range = new byte[length];
+            int read = read(in, range);
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Finished downloading " + read + " bytes at offset " + offset + " of file dropbox://" +
+                        uid + fullPath);
+            }
+
+            return read < length ? Arrays.copyOf(range, read) : range;
+        } catch (Exception e) {
+            throw new DropboxClientException("Error while trying to download range of " + length + " bytes at " +
+                    "offset " + offset + " of file dropbox://" + uid + fullPath, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
     }
 
     /**
@@ -88,9 +185,24 @@ public class DropboxClient {
      * @throws DropboxClientException
      */
     public void upload(String path, byte[] content) throws DropboxClientException {
+        upload(path, new ByteArrayInputStream(content), content.length);
+    }
+
+    /**
+     * Uploads the file to the given path in the Dropbox account, creating it if it doesn't exist or overwriting it if it
+     * exists. The content is read from the stream while it's being uploaded.
+     *
+     * @param path
+     *          the path to upload the file to
+     * @param content
+     *          the stream to read the file content from
+     * @param length
+     *          the length of the file content
+     * @throws DropboxClientException
+     */
+    public void upload(String path, InputStream content, long length) throws DropboxClientException {
         // Connect to Dropbox
         DropboxAPI<?> client = connect();
-        ByteArrayInputStream tempIn = new ByteArrayInputStream(content);
 
         String fullPath = getFullPath(path);
         ProgressListener progressListener = null;
@@ -101,7 +213,7 @@ public class DropboxClient {
 
         // Upload the file
         try {
-            client.putFileOverwrite(fullPath, tempIn, content.length, progressListener);
+            client.putFileOverwrite(fullPath, content, length, progressListener);
         } catch (Exception e) {
             throw new DropboxClientException("Error while trying to upload file dropbox://" + uid + fullPath, e);
         }
@@ -134,6 +246,33 @@ public class DropboxClient {
         }
     }
 
+    /**
+     * Reads the stream into the buffer, up to the end of the buffer or the stream, and stops with an
+     * {@link InterruptedIOException} if the thread is interrupted (the download was cancelled).
+     */
+    private int read(InputStream in, byte[] buffer) throws IOException {
+        int read = 0;
+
+        while (read < buffer.length) {
+            checkInterrupted();
+
+            int n = in.read(buffer, read, buffer.length - read);
+            if (n < 0) {
+                break;
+            }
+
+            read += n;
+        }
+
+        return read;
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Download interrupted");
+        }
+    }
+
     private DropboxAPI<?> connect() {
         WebAuthSession session = new WebAuthSession(appKeyPair, Session.AccessType.DROPBOX, accessTokenPair);
 
@@ -174,4 +313,29 @@ public class DropboxClient {
         }
     }
 
+    /**
+     * Output stream that fails the writes once the thread is interrupted, so the Dropbox API stops a download that was
+     * cancelled, and aborts its request, instead of downloading the rest of the file.
+     */
+    private static class InterruptibleOutputStream extends FilterOutputStream {
+
+        private InterruptibleOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkInterrupted();
+
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkInterrupted();
+
+            out.write(b, off, len);
+        }
+    }
+
 }
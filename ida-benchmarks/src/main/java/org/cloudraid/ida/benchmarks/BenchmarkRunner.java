@@ -0,0 +1,43 @@
+package org.cloudraid.ida.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the IDA benchmarks with the GC profiler, so the results include the allocation rate (gc.alloc.rate.norm is
+ * the bytes allocated per operation), and writes them to ida-benchmarks.json besides the console. Any JMH command line
+ * option can be passed, e.g. to run just a subset of the benchmarks and params:
+ *
+ * <pre>
+ *     java -jar ida-benchmarks.jar CauchyCodecBenchmark.decode -p config=6/3 -p size=1048576
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    public static final String RESULTS_FILE = "ida-benchmarks.json";
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        OptionsBuilder builder = new OptionsBuilder();
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+        }
+
+        Options options = builder
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(RESULTS_FILE)
+                .build();
+
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,133 @@
+package org.cloudraid.ida.benchmarks;
+
+import org.jigdfs.ida.cauchyreedsolomon.CauchyInformationDispersalCodec;
+import org.jigdfs.ida.cauchyreedsolomon.CauchyInformationDispersalDecoder;
+import org.jigdfs.ida.cauchyreedsolomon.CauchyInformationDispersalEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the JigDFS {@link CauchyInformationDispersalEncoder} and {@link CauchyInformationDispersalDecoder}.
+ * The codec is created the same way {@link org.cloudraid.ida.persistence.impl.CrsInformationDispersalAlgorithm}
+ * does: the config param is "FragmentNum/RedundantFragmentNum".
+ *
+ * <p>
+ *     The 256MB size with the 16/4 config holds the data, the received fragments and the encoded fragments of an
+ *     invocation (plus the output buffers, for {@link #encodeIntoBuffers}), so the fork gets an 8GB heap.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms8g", "-Xmx8g"})
+public class CauchyCodecBenchmark {
+
+    @Param({"6/3", "10/4", "16/4"})
+    public String config;
+
+    @Param({"4096", "65536", "1048576", "16777216", "268435456"})
+    public int size;
+
+    @Param({"NONE", "DATA", "PARITY"})
+    public ErasurePattern erasure;
+
+    @Param({"4096"})
+    public int chunkSize;
+
+    private CauchyInformationDispersalEncoder encoder;
+    private CauchyInformationDispersalDecoder decoder;
+    private byte[] data;
+    private ByteBuffer dataBuffer;
+    private List<byte[]> receivedFragments;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        String[] fragmentNums = config.split("/");
+        int fragmentNumber = Integer.parseInt(fragmentNums[0]);
+        int redundantFragmentNumber = Integer.parseInt(fragmentNums[1]);
+        int threshold = fragmentNumber - redundantFragmentNumber;
+
+        CauchyInformationDispersalCodec codec = new CauchyInformationDispersalCodec(fragmentNumber, threshold,
+                chunkSize);
+        encoder = codec.getEncoder();
+        decoder = codec.getDecoder();
+
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+
+        dataBuffer = ByteBuffer.wrap(data);
+
+        // The data fragments are the first ones, and there are as many as redundant fragments. The decoder needs
+        // as many fragments as data fragments
+        List<byte[]> fragments = encoder.process(data);
+        receivedFragments = erasure.erase(fragments, redundantFragmentNumber,
+                fragmentNumber - redundantFragmentNumber);
+    }
+
+    @Benchmark
+    public List<byte[]> encode(Throughput throughput) throws Exception {
+        List<byte[]> fragments = encoder.process(data);
+        throughput.add(size);
+
+        return fragments;
+    }
+
+    @Benchmark
+    public int encodeIntoBuffers(OutputBuffers outputBuffers, Throughput throughput) throws Exception {
+        dataBuffer.clear();
+        for (ByteBuffer outputBuffer : outputBuffers.buffers) {
+            outputBuffer.clear();
+        }
+
+        int fragmentLength = encoder.process(dataBuffer, outputBuffers.buffers);
+        throughput.add(size);
+
+        return fragmentLength;
+    }
+
+    @Benchmark
+    public byte[] decode(Throughput throughput) throws Exception {
+        byte[] decoded = decoder.process(receivedFragments);
+        throughput.add(size);
+
+        return decoded;
+    }
+
+    /**
+     * The direct buffers {@link #encodeIntoBuffers} encodes into. They're a separate state, so they're only allocated
+     * for that benchmark, and not kept during the other ones.
+     */
+    @State(Scope.Benchmark)
+    public static class OutputBuffers {
+
+        private List<ByteBuffer> buffers;
+
+        @Setup(Level.Trial)
+        public void setUp(CauchyCodecBenchmark benchmark) {
+            int fragmentNumber = Integer.parseInt(benchmark.config.split("/")[0]);
+            int fragmentLength = benchmark.encoder.getFragmentLength(benchmark.size);
+
+            buffers = new ArrayList<ByteBuffer>(fragmentNumber);
+            for (int i = 0; i < fragmentNumber; i++) {
+                buffers.add(ByteBuffer.allocateDirect(fragmentLength));
+            }
+        }
+
+    }
+
+}
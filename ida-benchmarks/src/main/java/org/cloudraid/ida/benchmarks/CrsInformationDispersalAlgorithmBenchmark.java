@@ -0,0 +1,123 @@
+package org.cloudraid.ida.benchmarks;
+
+import org.cloudraid.ida.persistence.api.Configuration;
+import org.cloudraid.ida.persistence.api.Context;
+import org.cloudraid.ida.persistence.impl.CrsInformationDispersalAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmarks of the {@link CrsInformationDispersalAlgorithm}, configured through its init params like in the server
+ * config.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class CrsInformationDispersalAlgorithmBenchmark {
+
+    @Param({"6/3", "10/4", "16/4"})
+    public String config;
+
+    @Param({"4096", "65536", "1048576", "16777216", "268435456"})
+    public int size;
+
+    @Param({"NONE", "DATA", "PARITY"})
+    public ErasurePattern erasure;
+
+    @Param({"4096"})
+    public String chunkSize;
+
+    @Param({"word"})
+    public String kernel;
+
+    @Param({"1"})
+    public String parallelism;
+
+    private CrsInformationDispersalAlgorithm ida;
+    private ExecutorService executor;
+    private byte[] data;
+    private List<byte[]> receivedFragments;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        String[] fragmentNums = config.split("/");
+
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put("FragmentNum", fragmentNums[0]);
+        params.put("RedundantFragmentNum", fragmentNums[1]);
+        params.put("ChunkSize", chunkSize);
+        params.put("Kernel", kernel);
+        params.put("Parallelism", parallelism);
+
+        final Context context = new Context();
+        if (Integer.parseInt(parallelism) > 1) {
+            executor = new ForkJoinPool(Integer.parseInt(parallelism));
+            context.setThreadPoolExecutor(executor);
+        }
+
+        ida = new CrsInformationDispersalAlgorithm();
+        ida.init(new Configuration() {
+
+            @Override
+            public String getInitParameter(String name) {
+                return params.get(name);
+            }
+
+            @Override
+            public Context getContext() {
+                return context;
+            }
+
+        });
+
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+
+        List<byte[]> fragments = ida.split(data);
+        receivedFragments = erasure.erase(fragments, ida.getRedundantFragmentNumber(),
+                ida.getFragmentNumber() - ida.getRedundantFragmentNumber());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<byte[]> split(Throughput throughput) throws Exception {
+        List<byte[]> fragments = ida.split(data);
+        throughput.add(size);
+
+        return fragments;
+    }
+
+    @Benchmark
+    public byte[] combine(Throughput throughput) throws Exception {
+        byte[] combined = ida.combine(receivedFragments);
+        throughput.add(size);
+
+        return combined;
+    }
+
+}
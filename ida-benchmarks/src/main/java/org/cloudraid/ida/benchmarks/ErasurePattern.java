@@ -0,0 +1,57 @@
+package org.cloudraid.ida.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The fragments lost before decoding in the benchmarks.
+ */
+public enum ErasurePattern {
+
+    /**
+     * No fragment is lost.
+     */
+    NONE,
+    /**
+     * As many data fragments as possible are lost (and code fragments if there are less data fragments than
+     * fragments that can be lost), so most of the data has to be recovered.
+     */
+    DATA,
+    /**
+     * Only code fragments are lost, so the data can be just copied from the data fragments.
+     */
+    PARITY;
+
+    /**
+     * Returns a copy of the fragments with the lost ones set to null.
+     *
+     * @param fragments
+     *          all the fragments, data fragments first
+     * @param numDataFragments
+     *          the number of data fragments
+     * @param maxLost
+     *          the max number of fragments that can be lost
+     */
+    public List<byte[]> erase(List<byte[]> fragments, int numDataFragments, int maxLost) {
+        List<byte[]> received = new ArrayList<byte[]>(fragments);
+        int lost = 0;
+
+        switch (this) {
+            case DATA:
+                for (int i = 0; i < received.size() && lost < maxLost; i++, lost++) {
+                    received.set(i, null);
+                }
+                break;
+            case PARITY:
+                for (int i = received.size() - 1; i >= numDataFragments && lost < maxLost; i--, lost++) {
+                    received.set(i, null);
+                }
+                break;
+            default:
+                break;
+        }
+
+        return received;
+    }
+
+}
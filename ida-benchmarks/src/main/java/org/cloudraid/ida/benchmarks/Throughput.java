@@ -0,0 +1,30 @@
+package org.cloudraid.ida.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Extra counter reported by the benchmarks, so the results include the MB/s processed (of the original data) besides
+ * the operations per second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+    }
+
+    public void add(long bytes) {
+        megabytes += bytes / MEGABYTE;
+    }
+
+}
@@ -48,4 +48,39 @@ public interface FragmentMetaDataRepository {
      */
     void deleteFragmentMetaData(FragmentMetaData metaData) throws RepositoryException;
 
+    /**
+     * Saves the metadata of a fragment that couldn't be saved in its repository (the data was saved with the rest of
+     * its fragments), or that couldn't be patched when the data was updated (so it's outdated), so it can be repaired
+     * later. Missing fragments aren't loaded until they're repaired.
+     *
+     * @param metaData
+     *          the metadata of the missing fragment, with the repository where it should have been saved
+     */
+    void saveMissingFragmentMetaData(FragmentMetaData metaData) throws RepositoryException;
+
+    /**
+     * Returns the metadata of all the missing fragments, of any data, that need to be repaired.
+     *
+     * @return a list of {@link FragmentMetaData} objects for the missing fragments (empty if none)
+     */
+    List<FragmentMetaData> getAllMissingFragmentMetaData() throws RepositoryException;
+
+    /**
+     * Returns the metadata of the missing fragments of a particular data.
+     *
+     * @param dataId
+     *          the data ID
+     * @return a list of {@link FragmentMetaData} objects for the missing fragments of the data (empty if none)
+     */
+    List<FragmentMetaData> getAllMissingFragmentMetaDataForData(String dataId) throws RepositoryException;
+
+    /**
+     * Deletes the missing fragment metadata specified by the data ID and fragment number, once the fragment is
+     * repaired or the data deleted.
+     *
+     * @param metaData
+     *          the missing fragment metadata to delete
+     */
+    void deleteMissingFragmentMetaData(FragmentMetaData metaData) throws RepositoryException;
+
 }
@@ -0,0 +1,119 @@
+package org.cloudraid.ida.persistence.api;
+
+import java.util.Arrays;
+
+/**
+ * A change to a region of a fragment, produced when a region of the original data is rewritten. Since the IDAs are
+ * linear, the change is the XOR of the old and new contents of the fragment region, and can be computed from the old
+ * and new data alone, without reading the fragment.
+ */
+public class FragmentPatch {
+
+    private final int fragmentIndex;
+    private final long offset;
+    private final byte[] delta;
+
+    public FragmentPatch(int fragmentIndex, long offset, byte[] delta) {
+        this.fragmentIndex = fragmentIndex;
+        this.offset = offset;
+        this.delta = delta;
+    }
+
+    /**
+     * Creates the patch for a region of a fragment, without the zeros at the start and end of the delta (the bytes
+     * that don't change).
+     *
+     * @param fragmentIndex
+     *          the index of the fragment
+     * @param offset
+     *          the offset in the fragment of the first byte of the delta
+     * @param delta
+     *          the XOR of the old and new contents of the region
+     * @return the patch, or null if the delta is all zeros (the fragment doesn't change)
+     */
+    public static FragmentPatch create(int fragmentIndex, long offset, byte[] delta) {
+        int start = 0;
+        while (start < delta.length && delta[start] == 0) {
+            start++;
+        }
+
+        if (start == delta.length) {
+            return null;
+        }
+
+        int end = delta.length;
+        while (delta[end - 1] == 0) {
+            end--;
+        }
+
+        if (start == 0 && end == delta.length) {
+            return new FragmentPatch(fragmentIndex, offset, delta);
+        } else {
+            return new FragmentPatch(fragmentIndex, offset + start, Arrays.copyOfRange(delta, start, end));
+        }
+    }
+
+    /**
+     * Returns the index of the fragment the patch is for (the same as in the list returned by
+     * {@link InformationDispersalAlgorithm#split(byte[])}).
+     */
+    public int getFragmentIndex() {
+        return fragmentIndex;
+    }
+
+    /**
+     * Returns the offset in the fragment of the region that changes.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the XOR of the old and new contents of the region that changes.
+     */
+    public byte[] getDelta() {
+        return delta;
+    }
+
+    public int getLength() {
+        return delta.length;
+    }
+
+    /**
+     * Applies the patch to the whole fragment.
+     *
+     * @throws IllegalArgumentException if the fragment is too short for the patch
+     */
+    public void applyTo(byte[] fragment) {
+        if (offset + delta.length > fragment.length) {
+            throw new IllegalArgumentException("Patch of " + delta.length + " bytes at offset " + offset +
+                    " is out of the bounds of a fragment of " + fragment.length + " bytes");
+        }
+
+        applyTo(fragment, (int) offset);
+    }
+
+    /**
+     * Applies the patch to a region of the fragment that starts at the patch offset.
+     *
+     * @param region
+     *          the array with the region
+     * @param regionOffset
+     *          the offset of the region in the array
+     */
+    public void applyTo(byte[] region, int regionOffset) {
+        for (int i = 0; i < delta.length; i++) {
+            region[regionOffset + i] ^= delta[i];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentPatch[" +
+                "fragmentIndex=" + fragmentIndex +
+                ", offset=" + offset +
+                ", length=" + delta.length +
+                ']';
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.cloudraid.ida.persistence.api;
+
+/**
+ * A range of bytes of a fragment, returned by {@link InformationDispersalAlgorithm#getFragmentRange(byte[], long, int)}
+ * for the range of the data that needs to be read.
+ */
+public class FragmentRange {
+
+    private final long offset;
+    private final int length;
+
+    public FragmentRange(long offset, int length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns the offset in the fragment of the first byte of the range.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentRange[" +
+                "offset=" + offset +
+                ", length=" + length +
+                ']';
+    }
+
+}
@@ -2,6 +2,9 @@ package org.cloudraid.ida.persistence.api;
 
 import org.cloudraid.ida.persistence.exception.RepositoryException;
 
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
 /**
  * Represents a repository where IDA fragments can be stored.
  *
@@ -32,6 +35,19 @@ public interface FragmentRepository {
      */
     void saveFragment(String name, byte[] fragment) throws RepositoryException;
 
+    /**
+     * Stores the IDA fragment read from the given channel in the repository, without having the whole fragment in
+     * memory.
+     *
+     * @param name
+     *          the name of the fragment
+     * @param fragment
+     *          the channel to read the IDA fragment from
+     * @param length
+     *          the length of the fragment (the number of bytes that are read from the channel)
+     */
+    void saveFragment(String name, ReadableByteChannel fragment, long length) throws RepositoryException;
+
     /**
      * Loads the fragment of the given name from the repository.
      *
@@ -41,6 +57,42 @@ public interface FragmentRepository {
      */
     byte[] loadFragment(String name) throws RepositoryException;
 
+    /**
+     * Loads the fragment of the given name from the repository, writing it to the given channel while it's being
+     * read. If a write fails (e.g. the channel finds a corrupt block), the load stops without reading the rest of the
+     * fragment.
+     *
+     * @param name
+     *          the name of the fragment
+     * @param fragment
+     *          the channel to write the IDA fragment to
+     */
+    void loadFragment(String name, WritableByteChannel fragment) throws RepositoryException;
+
+    /**
+     * Loads a range of the fragment of the given name from the repository, without loading the rest of the fragment.
+     *
+     * @param name
+     *          the name of the fragment
+     * @param offset
+     *          the offset in the fragment of the first byte to load
+     * @param length
+     *          the number of bytes to load
+     * @return the bytes of the range (fewer than {@code length} if the fragment ends before the end of the range, none
+     *          if it ends before the offset)
+     */
+    byte[] loadFragment(String name, long offset, int length) throws RepositoryException;
+
+    /**
+     * Applies the patch to the fragment of the given name, XORing the delta of the patch into the fragment region.
+     *
+     * @param name
+     *          the name of the fragment
+     * @param patch
+     *          the patch to apply
+     */
+    void patchFragment(String name, FragmentPatch patch) throws RepositoryException;
+
     /**
      * Loads the fragment of the given name from the repository.
      *
@@ -2,6 +2,8 @@ package org.cloudraid.ida.persistence.api;
 
 import org.cloudraid.ida.persistence.exception.IdaException;
 
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 /**
@@ -40,6 +42,46 @@ public interface InformationDispersalAlgorithm {
      */
     List<byte[]> split(byte[] data) throws IdaException;
 
+    /**
+     * Splits the data read from the given channel into {@code numberOfFragments}. Each fragment is written to its
+     * channel while the data is being read, so the whole data doesn't need to be in memory.
+     *
+     * @param data
+     *          the channel to read the data to split from
+     * @param fragments
+     *          the channels where the fragments are written (one per fragment)
+     * @return the size of each fragment
+     */
+    long split(ReadableByteChannel data, List<? extends WritableByteChannel> fragments) throws IdaException;
+
+    /**
+     * Splits the data read from the given channel like {@link #split(ReadableByteChannel, List)}, when the length of
+     * the data is known before it's read. The fragments are the same, but the length is kept in their headers, so
+     * the data doesn't need to be measured when it's combined.
+     *
+     * @param data
+     *          the channel to read the data to split from
+     * @param fragments
+     *          the channels where the fragments are written (one per fragment)
+     * @param dataLength
+     *          the number of bytes of the channel, or -1 if it's unknown
+     * @return the size of each fragment
+     * @throws IdaException if the channel doesn't have {@code dataLength} bytes
+     */
+    long split(ReadableByteChannel data, List<? extends WritableByteChannel> fragments, long dataLength)
+            throws IdaException;
+
+    /**
+     * Returns the size of each fragment written by {@link #split(java.nio.channels.ReadableByteChannel, java.util.List)}
+     * for data of the given length, so the fragments can be streamed to repositories that need to know their length
+     * before they're written.
+     *
+     * @param dataLength
+     *          the length of the data to split
+     * @return the size of each fragment
+     */
+    long getFragmentLength(long dataLength) throws IdaException;
+
     /**
      * Combines the given fragments to reconstruct the original data.
      *
@@ -47,7 +89,103 @@ public interface InformationDispersalAlgorithm {
      *          the fragments to reconstruct the data from (should be at least
      *          {@code numberOfFragments} - {@code numberOfRedundantFragments});
      * @return the reconstructed, original data.
+     * @throws org.cloudraid.ida.persistence.exception.CorruptFragmentException if the algorithm checks the fragments
+     *          against each other, and finds that one of them is corrupt
      */
     byte[] combine(List<byte[]> fragments) throws IdaException;
 
+    /**
+     * Returns the number of bytes at the start of every fragment that are needed to find where a range of the data is
+     * in the fragment (the header of the fragment).
+     */
+    int getFragmentHeaderLength();
+
+    /**
+     * Returns the range of the fragments that holds a range of the data, so only that range of the fragments needs
+     * to be loaded to read it. The range is the same in all the fragments.
+     *
+     * @param fragmentHeader
+     *          the first {@link #getFragmentHeaderLength()} bytes of one of the fragments (fewer if the fragment is
+     *          shorter)
+     * @param offset
+     *          the offset in the data of the range
+     * @param length
+     *          the length of the range
+     * @return the range of the fragments
+     */
+    FragmentRange getFragmentRange(byte[] fragmentHeader, long offset, int length) throws IdaException;
+
+    /**
+     * Combines ranges of the fragments to reconstruct a range of the original data.
+     *
+     * @param fragmentRanges
+     *          the ranges of the fragments (at least as many as needed by {@link #combine(java.util.List)}), each one
+     *          made of the header of the fragment followed by the bytes of the range returned by
+     *          {@link #getFragmentRange(byte[], long, int)} (fewer if the fragment ends before)
+     * @param offset
+     *          the offset in the data of the range
+     * @param length
+     *          the length of the range
+     * @return the range of the original data (shorter than {@code length} if the data ends before the end of the
+     *          range)
+     * @throws org.cloudraid.ida.persistence.exception.CorruptFragmentException if the algorithm checks the fragments
+     *          against each other, and finds that one of them is corrupt
+     */
+    byte[] combineRange(List<byte[]> fragmentRanges, long offset, int length) throws IdaException;
+
+    /**
+     * Returns the length of the data the fragments were split from, as stored in the fragment header.
+     *
+     * @param fragmentHeader
+     *          the first {@link #getFragmentHeaderLength()} bytes of one of the fragments (fewer if the fragment is
+     *          shorter)
+     * @return the length of the data, or -1 if the header doesn't have it (like the headers of the fragments split
+     *          from a channel of unknown length)
+     */
+    long getDataLength(byte[] fragmentHeader) throws IdaException;
+
+    /**
+     * Returns the changes to the fragments of some data when a region of the data is rewritten, so only the affected
+     * fragment regions need to be written instead of splitting the whole data again. The region must be inside the
+     * data (the length of the data can't change). The patches are computed with the parameters the fragments were
+     * split with, which are read from the fragment header, not with the current configuration of the algorithm.
+     *
+     * @param fragmentHeader
+     *          the first {@link #getFragmentHeaderLength()} bytes of one of the fragments (fewer if the fragment is
+     *          shorter)
+     * @param offset
+     *          the offset in the data of the rewritten region
+     * @param oldData
+     *          the old contents of the region
+     * @param newData
+     *          the new contents of the region (same length as the old contents)
+     * @return the patches of the fragments that change (fragments that don't change don't have a patch)
+     */
+    List<FragmentPatch> createPatches(byte[] fragmentHeader, long offset, byte[] oldData, byte[] newData)
+            throws IdaException;
+
+    /**
+     * Returns the indexes of the fragments that need to be loaded to rebuild a lost fragment with
+     * {@link #repair(java.util.List, int)}, when all the other fragments are available. Codes with local groups
+     * return the other fragments of the group, so a repair loads fewer fragments than a combine. Other codes return
+     * as many fragments as a combine needs (any other fragments of the data can be used instead).
+     *
+     * @param fragmentIndex
+     *          the index of the lost fragment
+     * @return the indexes of the fragments to load
+     */
+    int[] getRepairFragmentIndexes(int fragmentIndex) throws IdaException;
+
+    /**
+     * Rebuilds a lost fragment (or one that is outdated), so it can be saved again in its repository.
+     *
+     * @param fragments
+     *          the fragments returned by {@link #getRepairFragmentIndexes(int)}, or any other fragments of the data
+     *          the lost fragment can be rebuilt from, in any order
+     * @param fragmentIndex
+     *          the index of the fragment to rebuild
+     * @return the rebuilt fragment, with its header
+     */
+    byte[] repair(List<byte[]> fragments, int fragmentIndex) throws IdaException;
+
 }
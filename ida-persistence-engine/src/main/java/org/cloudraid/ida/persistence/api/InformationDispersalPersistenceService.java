@@ -2,6 +2,9 @@ package org.cloudraid.ida.persistence.api;
 
 import org.cloudraid.ida.persistence.exception.IdaPersistenceException;
 
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
 /**
  * Service for persisting files through IDAs.
  *
@@ -27,6 +30,20 @@ public interface InformationDispersalPersistenceService {
      */
     void saveData(String id, byte[] data) throws IdaPersistenceException;
 
+    /**
+     * Stores the data read from the given channel across several fragment repositories through an IDA. The data is
+     * split and the fragments are sent to the repositories while the data is being read, so the whole data doesn't
+     * need to be in memory.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param data
+     *          the channel to read the data to store from
+     * @param size
+     *          the size of the data (the number of bytes that are read from the channel)
+     */
+    void saveData(String id, ReadableByteChannel data, long size) throws IdaPersistenceException;
+
     /**
      * Loads the data, which is recombined from the fragments of several repositories.
      *
@@ -36,6 +53,45 @@ public interface InformationDispersalPersistenceService {
      */
     byte[] loadData(String id) throws IdaPersistenceException;
 
+    /**
+     * Loads the data, which is recombined from the fragments of several repositories, and writes it to the given
+     * channel. The data is loaded and written a part at a time, so the whole data doesn't need to be in memory.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param data
+     *          the channel to write the loaded data to
+     */
+    void loadData(String id, WritableByteChannel data) throws IdaPersistenceException;
+
+    /**
+     * Loads a range of the data, reading only the ranges of the fragments that hold it.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param offset
+     *          the offset in the data of the range
+     * @param length
+     *          the length of the range
+     * @return the range of the data (shorter than {@code length} if the data ends before the end of the range)
+     */
+    byte[] loadData(String id, long offset, int length) throws IdaPersistenceException;
+
+    /**
+     * Rewrites a region of the stored data, patching only the regions of the fragments that change instead of saving
+     * the whole data again. The length of the data can't change.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param offset
+     *          the offset in the data of the rewritten region
+     * @param oldData
+     *          the old contents of the region
+     * @param newData
+     *          the new contents of the region (same length as the old contents)
+     */
+    void updateData(String id, long offset, byte[] oldData, byte[] newData) throws IdaPersistenceException;
+
     /**
      * Deletes the fragments for the given data ID from their respective repositories.
      *
@@ -45,4 +101,21 @@ public interface InformationDispersalPersistenceService {
      */
     int deleteData(String id) throws IdaPersistenceException;
 
+    /**
+     * Repairs the missing fragments of the data (the fragments that couldn't be saved, or couldn't be patched when
+     * the data was updated): each one is rebuilt from other fragments of the data and saved again in its repository.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @return the number of fragments that were repaired
+     */
+    int repairData(String id) throws IdaPersistenceException;
+
+    /**
+     * Repairs the missing fragments of all the data (see {@link #repairData(String)}).
+     *
+     * @return the number of fragments that were repaired
+     */
+    int repairMissingFragments() throws IdaPersistenceException;
+
 }
@@ -2,6 +2,8 @@ package org.cloudraid.ida.persistence.crypto;
 
 import org.cloudraid.ida.persistence.exception.CryptoException;
 
+import java.nio.channels.WritableByteChannel;
+
 /**
  * Dencrypts using an internal, implementation-specific encryption algorithm.
  *
@@ -18,4 +20,35 @@ public interface Decryptor {
      */
     byte[] decrypt(byte[] encryptedData) throws CryptoException;
 
+    /**
+     * Returns a channel where the encrypted data is written, which writes it decrypted to the specified channel, so
+     * the whole data doesn't need to be in memory. The returned channel needs to be closed after the last byte of the
+     * encrypted data to finish the decryption, but closing it doesn't close the specified channel.
+     *
+     * @param decryptedData
+     *          the channel to write the decrypted data to
+     * @return the channel to write the encrypted data to
+     * @throws CryptoException
+     */
+    WritableByteChannel decrypt(WritableByteChannel decryptedData) throws CryptoException;
+
+    /**
+     * Returns true if the decryptor can decrypt a range of the encrypted data without the bytes before it (see
+     * {@link #decrypt(byte[], long)}).
+     */
+    boolean isRandomAccess();
+
+    /**
+     * Decrypts a range of the encrypted data, starting at the specified offset of the data. Only supported if
+     * {@link #isRandomAccess()} is true.
+     *
+     * @param encryptedData
+     *          the range of the encrypted data to decrypt
+     * @param offset
+     *          the offset of the range in the encrypted data
+     * @return the decrypted range
+     * @throws CryptoException if the decryptor is not random access, or the decryption failed
+     */
+    byte[] decrypt(byte[] encryptedData, long offset) throws CryptoException;
+
 }
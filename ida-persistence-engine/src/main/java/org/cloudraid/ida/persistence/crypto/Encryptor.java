@@ -2,6 +2,8 @@ package org.cloudraid.ida.persistence.crypto;
 
 import org.cloudraid.ida.persistence.exception.CryptoException;
 
+import java.nio.channels.ReadableByteChannel;
+
 /**
  * Encrypts using an internal, implementation-specific encryption algorithm.
  *
@@ -19,4 +21,41 @@ public interface Encryptor {
      */
     byte[] encrypt(byte[] data) throws CryptoException;
 
+    /**
+     * Returns a channel that reads the data from the specified channel and returns it encrypted, so the whole data
+     * doesn't need to be in memory.
+     *
+     * @param data
+     *          the channel to read the data to encrypt from
+     * @return the channel to read the encrypted data from
+     * @throws CryptoException
+     */
+    ReadableByteChannel encrypt(ReadableByteChannel data) throws CryptoException;
+
+    /**
+     * Returns the length of the encrypted data for data of the specified length.
+     */
+    long getEncryptedLength(long dataLength);
+
+    /**
+     * Returns true if the encryptor can encrypt a range of the data without the bytes before it (see
+     * {@link #encrypt(byte[], long)}), so several ranges can be encrypted at the same time.
+     */
+    boolean isRandomAccess();
+
+    /**
+     * Encrypts a range of the data, starting at the specified offset of the data. The encrypted range has the same
+     * length as the range, and is the same as the range of the data encrypted as a whole. Only supported if
+     * {@link #isRandomAccess()} is true. Unlike the other methods, it can be called by several threads at the same
+     * time.
+     *
+     * @param data
+     *          the range of the data to encrypt
+     * @param offset
+     *          the offset of the range in the data
+     * @return the encrypted range
+     * @throws CryptoException if the encryptor is not random access, or the encryption failed
+     */
+    byte[] encrypt(byte[] data, long offset) throws CryptoException;
+
 }
@@ -0,0 +1,72 @@
+package org.cloudraid.ida.persistence.crypto.jce;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Channel that reads from another channel and returns what it reads through an initialized {@link Cipher}. Only a
+ * buffer of the data is held in memory.
+ */
+public class CipherReadableChannel implements ReadableByteChannel {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private ReadableByteChannel channel;
+    private Cipher cipher;
+    private ByteBuffer input;
+    private ByteBuffer output;
+    private boolean finished;
+
+    public CipherReadableChannel(ReadableByteChannel channel, Cipher cipher) {
+        this.channel = channel;
+        this.cipher = cipher;
+        this.input = ByteBuffer.allocate(BUFFER_SIZE);
+        this.output = ByteBuffer.allocate(0);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while (!output.hasRemaining()) {
+            if (finished) {
+                return -1;
+            }
+
+            input.clear();
+            int read = channel.read(input);
+
+            try {
+                byte[] processed;
+                if (read < 0) {
+                    processed = cipher.doFinal();
+                    finished = true;
+                } else {
+                    processed = cipher.update(input.array(), 0, read);
+                }
+
+                output = ByteBuffer.wrap(processed != null ? processed : new byte[0]);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cipher failed", e);
+            }
+        }
+
+        int length = Math.min(dst.remaining(), output.remaining());
+        dst.put(output.array(), output.position(), length);
+        output.position(output.position() + length);
+
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.cloudraid.ida.persistence.crypto.jce;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Channel that writes what's written to it to another channel, through an initialized {@link Cipher}. The channel
+ * needs to be closed after the last byte to finish the cipher, but closing it doesn't close the other channel.
+ */
+public class CipherWritableChannel implements WritableByteChannel {
+
+    private WritableByteChannel channel;
+    private Cipher cipher;
+    private boolean open;
+
+    public CipherWritableChannel(WritableByteChannel channel, Cipher cipher) {
+        this.channel = channel;
+        this.cipher = cipher;
+        this.open = true;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        byte[] input = new byte[length];
+
+        src.get(input);
+
+        writeFully(cipher.update(input));
+
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+
+            try {
+                writeFully(cipher.doFinal());
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cipher failed", e);
+            }
+        }
+    }
+
+    private void writeFully(byte[] bytes) throws IOException {
+        if (bytes != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+}
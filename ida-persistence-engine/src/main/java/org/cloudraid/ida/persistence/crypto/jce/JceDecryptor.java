@@ -4,9 +4,11 @@ import org.cloudraid.ida.persistence.crypto.Decryptor;
 import org.cloudraid.ida.persistence.exception.CryptoException;
 
 import javax.crypto.Cipher;
+import java.nio.channels.WritableByteChannel;
 
 /**
- * {@link Decryptor} implementation that uses the Java Cryptography Extension (JCE).
+ * {@link Decryptor} implementation that uses the Java Cryptography Extension (JCE). Ranges of the data can only be
+ * decrypted with the CTR mode, where the counter for any block can be computed from the IV.
  *
  * @author avasquez
  */
@@ -34,4 +36,45 @@ public class JceDecryptor implements Decryptor {
         }
     }
 
+    @Override
+    public WritableByteChannel decrypt(WritableByteChannel decryptedData) throws CryptoException {
+        Cipher cipher = params.getCipher();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, params.getSecretKey(), params.getIvParameterSpec());
+        } catch (Exception e) {
+            throw new CryptoException("Unable to initialize cipher", e);
+        }
+
+        return new CipherWritableChannel(decryptedData, cipher);
+    }
+
+    @Override
+    public boolean isRandomAccess() {
+        return params.isCounterMode();
+    }
+
+    @Override
+    public byte[] decrypt(byte[] encryptedData, long offset) throws CryptoException {
+        if (!isRandomAccess()) {
+            throw new CryptoException("Cipher " + params.getCipher().getAlgorithm() + " can't decrypt a range of the " +
+                    "data");
+        }
+
+        Cipher cipher = params.getCipher();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, params.getSecretKey(), params.getIvParameterSpec(offset));
+        } catch (Exception e) {
+            throw new CryptoException("Unable to initialize cipher", e);
+        }
+
+        try {
+            // Skip the key stream bytes of the first block that are before the offset.
+            cipher.update(new byte[(int) (offset % cipher.getBlockSize())]);
+
+            return cipher.doFinal(encryptedData);
+        } catch (Exception e) {
+            throw new CryptoException("Decryption failed", e);
+        }
+    }
+
 }
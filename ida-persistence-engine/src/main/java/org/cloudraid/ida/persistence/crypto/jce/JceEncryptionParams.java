@@ -1,5 +1,6 @@
 package org.cloudraid.ida.persistence.crypto.jce;
 
+import org.apache.commons.lang.StringUtils;
 import org.cloudraid.ida.persistence.crypto.EncryptionParams;
 
 import javax.crypto.Cipher;
@@ -33,6 +34,29 @@ public class JceEncryptionParams implements EncryptionParams {
         return ivParameterSpec;
     }
 
+    /**
+     * Returns true if the cipher is in CTR mode, where any block of the data can be encrypted or decrypted on its own,
+     * with the counter computed from the IV (see {@link #getIvParameterSpec(long)}).
+     */
+    public boolean isCounterMode() {
+        String mode = StringUtils.substringBefore(StringUtils.substringAfter(cipher.getAlgorithm(), "/"), "/");
+
+        return mode.equalsIgnoreCase("CTR");
+    }
+
+    /**
+     * Returns the IV to start the CTR mode cipher at the block of the data that holds the offset: the counter of the
+     * IV plus the number of blocks before it. The bytes of the key stream of that block that are before the offset
+     * still need to be skipped.
+     */
+    public IvParameterSpec getIvParameterSpec(long offset) {
+        byte[] counter = ivParameterSpec.getIV();
+
+        addToCounter(counter, offset / cipher.getBlockSize());
+
+        return new IvParameterSpec(counter);
+    }
+
     @Override
     public byte[] getKey() {
         return secretKey.getEncoded();
@@ -43,4 +67,17 @@ public class JceEncryptionParams implements EncryptionParams {
         return ivParameterSpec.getIV();
     }
 
+    /**
+     * Adds the number of blocks to the counter, a big endian number that wraps around like in the cipher.
+     */
+    private void addToCounter(byte[] counter, long blocks) {
+        long carry = blocks;
+        for (int i = counter.length - 1; i >= 0 && carry != 0; i--) {
+            long sum = (counter[i] & 0xFF) + (carry & 0xFF);
+
+            counter[i] = (byte) sum;
+            carry = (carry >>> 8) + (sum >>> 8);
+        }
+    }
+
 }
@@ -4,9 +4,11 @@ import org.cloudraid.ida.persistence.crypto.Encryptor;
 import org.cloudraid.ida.persistence.exception.CryptoException;
 
 import javax.crypto.Cipher;
+import java.nio.channels.ReadableByteChannel;
 
 /**
- * {@link Encryptor} implementation that uses the Java Cryptography Extension (JCE).
+ * {@link Encryptor} implementation that uses the Java Cryptography Extension (JCE). Ranges of the data can only be
+ * encrypted with the CTR mode, where the counter for any block can be computed from the IV.
  *
  * @author avasquez
  */
@@ -34,4 +36,67 @@ public class JceEncryptor implements Encryptor {
         }
     }
 
+    @Override
+    public ReadableByteChannel encrypt(ReadableByteChannel data) throws CryptoException {
+        Cipher cipher = params.getCipher();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, params.getSecretKey(), params.getIvParameterSpec());
+        } catch (Exception e) {
+            throw new CryptoException("Unable to initialize cipher", e);
+        }
+
+        return new CipherReadableChannel(data, cipher);
+    }
+
+    /**
+     * Returns the length of the data, padded to the next whole block if the transformation uses padding (like the
+     * default PKCS5Padding of a block cipher).
+     */
+    @Override
+    public long getEncryptedLength(long dataLength) {
+        Cipher cipher = params.getCipher();
+        String[] transformation = cipher.getAlgorithm().split("/");
+        int blockSize = cipher.getBlockSize();
+
+        if (blockSize == 0 || (transformation.length == 3 && transformation[2].equalsIgnoreCase("NoPadding"))) {
+            return dataLength;
+        } else {
+            return (dataLength / blockSize + 1) * blockSize;
+        }
+    }
+
+    @Override
+    public boolean isRandomAccess() {
+        return params.isCounterMode();
+    }
+
+    /**
+     * Encrypts the range with a new cipher, since the cipher of the params can't be shared by the threads that encrypt
+     * ranges at the same time.
+     */
+    @Override
+    public byte[] encrypt(byte[] data, long offset) throws CryptoException {
+        if (!isRandomAccess()) {
+            throw new CryptoException("Cipher " + params.getCipher().getAlgorithm() + " can't encrypt a range of the " +
+                    "data");
+        }
+
+        Cipher cipher;
+        try {
+            cipher = Cipher.getInstance(params.getCipher().getAlgorithm());
+            cipher.init(Cipher.ENCRYPT_MODE, params.getSecretKey(), params.getIvParameterSpec(offset));
+        } catch (Exception e) {
+            throw new CryptoException("Unable to initialize cipher", e);
+        }
+
+        try {
+            // Skip the key stream bytes of the first block that are before the offset.
+            cipher.update(new byte[(int) (offset % cipher.getBlockSize())]);
+
+            return cipher.doFinal(data);
+        } catch (Exception e) {
+            throw new CryptoException("Encryption failed", e);
+        }
+    }
+
 }
@@ -0,0 +1,26 @@
+package org.cloudraid.ida.persistence.exception;
+
+/**
+ * Exception thrown by {@link org.cloudraid.ida.persistence.api.InformationDispersalAlgorithm} when the fragments being
+ * combined are inconsistent, which means at least one of them is corrupt. If the corrupt fragment could be located,
+ * its index is reported, so it can be replaced by the fragment of another repository.
+ */
+public class CorruptFragmentException extends IdaException {
+
+    private final int fragmentIndex;
+
+    public CorruptFragmentException(String message, int fragmentIndex, Throwable cause) {
+        super(message, cause);
+
+        this.fragmentIndex = fragmentIndex;
+    }
+
+    /**
+     * Returns the index of the corrupt fragment, or -1 if it couldn't be located (there were not enough fragments to
+     * tell which one is corrupt).
+     */
+    public int getFragmentIndex() {
+        return fragmentIndex;
+    }
+
+}
@@ -0,0 +1,923 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.apache.commons.lang.StringUtils;
+import org.cloudraid.ida.persistence.api.Configuration;
+import org.cloudraid.ida.persistence.api.FragmentPatch;
+import org.cloudraid.ida.persistence.api.FragmentRange;
+import org.cloudraid.ida.persistence.api.InformationDispersalAlgorithm;
+import org.cloudraid.ida.persistence.exception.IdaException;
+import org.jigdfs.ida.cauchyreedsolomon.XorKernel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base for the systematic, byte oriented IDAs over GF(2^8). The data is split in stripes of
+ * {@code dataFragmentNumber * stripeUnit} bytes, and each stripe unit is copied as is to its data fragment, so the
+ * data fragments are plain pieces of the data. The parity fragments are linear combinations of the data fragments,
+ * defined by the parity matrix of the subclass and computed one stripe at a time (so the units being combined stay in
+ * the cache). Each fragment starts with a {@link StripedFragmentHeader} instead of having a slice index per message.
+ *
+ * <p>
+ *     Missing fragments are recovered by expressing them as a combination of the available ones. The combination is
+ *     found once per set of available fragments (preferring the data fragments and then the parity fragments in
+ *     order), cached, and then applied to every stripe.
+ * </p>
+ */
+public abstract class AbstractStripedInformationDispersalAlgorithm implements InformationDispersalAlgorithm {
+
+    public static final int DEFAULT_REDUNDANT_FRAG_NUM = 2;
+    public static final int DEFAULT_STRIPE_UNIT = 16384;
+    public static final int MAX_CACHED_RECOVERY_PLANS = 256;
+
+    protected int fragmentNumber;
+    protected int redundantFragmentNumber;
+    protected int dataFragmentNumber;
+    protected int parityFragmentNumber;
+    protected int stripeUnit;
+    protected XorKernel kernel;
+    protected int[][] generatorMatrix;
+
+    private Map<String, RecoveryPlan> recoveryPlans;
+
+    @Override
+    public int getFragmentNumber() {
+        return fragmentNumber;
+    }
+
+    @Override
+    public int getRedundantFragmentNumber() {
+        return redundantFragmentNumber;
+    }
+
+    public int getDataFragmentNumber() {
+        return dataFragmentNumber;
+    }
+
+    public int getParityFragmentNumber() {
+        return parityFragmentNumber;
+    }
+
+    public int getStripeUnit() {
+        return stripeUnit;
+    }
+
+    @Override
+    public void init(Configuration config) throws IdaException {
+        String fragmentNumParam = config.getInitParameter("FragmentNum");
+        String redundantFragmentNumParam = config.getInitParameter("RedundantFragmentNum");
+        String stripeUnitParam = config.getInitParameter("StripeUnit");
+        String kernelParam = config.getInitParameter("Kernel");
+
+        if (StringUtils.isEmpty(fragmentNumParam)) {
+            throw new IdaException("No FragmentNum param specified");
+        }
+
+        try {
+            fragmentNumber = Integer.parseInt(fragmentNumParam);
+        } catch (NumberFormatException e) {
+            throw new IdaException("Invalid format for FragmentNum param '" + fragmentNumParam + "'", e);
+        }
+
+        if (StringUtils.isNotEmpty(redundantFragmentNumParam)) {
+            try {
+                redundantFragmentNumber = Integer.parseInt(redundantFragmentNumParam);
+            } catch (NumberFormatException e) {
+                throw new IdaException("Invalid format for RedundantFragmentNum param '" + redundantFragmentNumParam +
+                        "'", e);
+            }
+        } else {
+            redundantFragmentNumber = DEFAULT_REDUNDANT_FRAG_NUM;
+        }
+
+        if (StringUtils.isNotEmpty(stripeUnitParam)) {
+            try {
+                stripeUnit = Integer.parseInt(stripeUnitParam);
+            } catch (NumberFormatException e) {
+                throw new IdaException("Invalid format for StripeUnit param '" + stripeUnitParam + "'", e);
+            }
+        } else {
+            stripeUnit = DEFAULT_STRIPE_UNIT;
+        }
+
+        if (stripeUnit <= 0) {
+            throw new IdaException("StripeUnit '" + stripeUnit + "' should be greater than 0");
+        }
+
+        try {
+            kernel = XorKernel.forName(kernelParam);
+        } catch (IllegalArgumentException e) {
+            throw new IdaException("Invalid Kernel param '" + kernelParam + "'", e);
+        }
+
+        parityFragmentNumber = redundantFragmentNumber;
+
+        initParameters(config);
+
+        dataFragmentNumber = fragmentNumber - parityFragmentNumber;
+
+        if (redundantFragmentNumber < 0 || parityFragmentNumber < 0) {
+            throw new IdaException("Redundant fragment number '" + redundantFragmentNumber + "' can't be negative");
+        }
+        if (dataFragmentNumber <= 0) {
+            throw new IdaException("Redundant fragment number '" + redundantFragmentNumber + "' can't be greater than " +
+                    "or equal to fragment number '" + fragmentNumber + "'");
+        }
+        if (fragmentNumber > GaloisField256.FIELD_SIZE) {
+            throw new IdaException("Fragment number '" + fragmentNumber + "' can't be greater than " +
+                    GaloisField256.FIELD_SIZE);
+        }
+
+        int[][] parityMatrix = createParityMatrix();
+
+        generatorMatrix = new int[fragmentNumber][];
+        for (int i = 0; i < dataFragmentNumber; i++) {
+            generatorMatrix[i] = new int[dataFragmentNumber];
+            generatorMatrix[i][i] = 1;
+        }
+        for (int j = 0; j < parityFragmentNumber; j++) {
+            generatorMatrix[dataFragmentNumber + j] = parityMatrix[j];
+        }
+
+        recoveryPlans = Collections.synchronizedMap(new LinkedHashMap<String, RecoveryPlan>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RecoveryPlan> eldest) {
+                return size() > MAX_CACHED_RECOVERY_PLANS;
+            }
+
+        });
+    }
+
+    @Override
+    public List<byte[]> split(byte[] data) throws IdaException {
+        int stripeLength = dataFragmentNumber * stripeUnit;
+        int stripeNum = (int) (((long) data.length + stripeLength - 1) / stripeLength);
+        int fragmentLength = getFragmentLengthForStripes(stripeNum);
+
+        byte[][] fragments = new byte[fragmentNumber][fragmentLength];
+
+        for (int stripe = 0; stripe < stripeNum; stripe++) {
+            int offset = StripedFragmentHeader.LENGTH + stripe * stripeUnit;
+            long dataOffset = (long) stripe * stripeLength;
+
+            for (int i = 0; i < dataFragmentNumber; i++, dataOffset += stripeUnit) {
+                if (dataOffset < data.length) {
+                    int length = (int) Math.min(stripeUnit, data.length - dataOffset);
+                    System.arraycopy(data, (int) dataOffset, fragments[i], offset, length);
+                }
+            }
+
+            encodeStripe(fragments, offset, stripeUnit);
+        }
+
+        for (int i = 0; i < fragmentNumber; i++) {
+            createHeader(i, stripeUnit, data.length).write(fragments[i]);
+        }
+
+        return new ArrayList<byte[]>(Arrays.asList(fragments));
+    }
+
+    @Override
+    public long split(ReadableByteChannel data, List<? extends WritableByteChannel> fragments) throws IdaException {
+        return split(data, fragments, StripedFragmentHeader.UNKNOWN_DATA_LENGTH);
+    }
+
+    @Override
+    public long split(ReadableByteChannel data, List<? extends WritableByteChannel> fragments, long dataLength)
+            throws IdaException {
+        if (fragments.size() != fragmentNumber) {
+            throw new IdaException("Expected " + fragmentNumber + " fragment channels, got " + fragments.size());
+        }
+
+        byte[][] stripe = new byte[fragmentNumber][stripeUnit];
+        long fragmentLength = StripedFragmentHeader.LENGTH;
+        long readLength = 0;
+
+        try {
+            for (int i = 0; i < fragmentNumber; i++) {
+                writeFully(fragments.get(i), ByteBuffer.wrap(createHeader(i, stripeUnit, dataLength).toBytes()));
+            }
+
+            // The length of the data may be unknown until the end of the channel, so the data is followed by a 0x01
+            // filler byte and zeros up to the end of the last stripe (a whole stripe of filler is added if the data
+            // ends at the end of a stripe)
+            boolean eof = false;
+            while (!eof) {
+                boolean fillerAdded = false;
+
+                for (int i = 0; i < dataFragmentNumber; i++) {
+                    ByteBuffer unit = ByteBuffer.wrap(stripe[i]);
+                    if (!eof) {
+                        eof = !readFully(data, unit);
+                        readLength += unit.position();
+                    }
+
+                    if (eof) {
+                        int position = unit.position();
+                        if (!fillerAdded) {
+                            stripe[i][position++] = 1;
+                            fillerAdded = true;
+                        }
+
+                        Arrays.fill(stripe[i], position, stripeUnit, (byte) 0);
+                    }
+                }
+
+                encodeStripe(stripe, 0, stripeUnit);
+
+                for (int i = 0; i < fragmentNumber; i++) {
+                    writeFully(fragments.get(i), ByteBuffer.wrap(stripe[i]));
+                }
+
+                fragmentLength += stripeUnit;
+            }
+        } catch (IOException e) {
+            throw new IdaException("Error while splitting data", e);
+        }
+
+        if (dataLength != StripedFragmentHeader.UNKNOWN_DATA_LENGTH && readLength != dataLength) {
+            throw new IdaException("The data had " + readLength + " bytes instead of the " + dataLength + " in the " +
+                    "fragment headers");
+        }
+
+        return fragmentLength;
+    }
+
+    /**
+     * Returns the length of the fragments of the streamed split: the header and a stripe unit for every stripe of the
+     * data, plus one (the last stripe always carries at least the filler byte).
+     */
+    @Override
+    public long getFragmentLength(long dataLength) {
+        long stripeNum = dataLength / ((long) dataFragmentNumber * stripeUnit) + 1;
+
+        return StripedFragmentHeader.LENGTH + stripeNum * stripeUnit;
+    }
+
+    @Override
+    public byte[] combine(List<byte[]> fragments) throws IdaException {
+        byte[][] shards = new byte[fragmentNumber][];
+        StripedFragmentHeader header = placeFragments(fragments, shards);
+
+        int unit = header.getStripeUnit();
+        int payloadLength = shards[firstIndex(shards)].length - StripedFragmentHeader.LENGTH;
+        int stripeNum = payloadLength / unit;
+        long stripedLength = (long) stripeNum * dataFragmentNumber * unit;
+        if (stripedLength > Integer.MAX_VALUE) {
+            throw new IdaException("The combined data would be too big: " + stripedLength + " bytes");
+        }
+        if (header.getDataLength() > stripedLength) {
+            throw new IdaException("The fragments are too short for " + header.getDataLength() + " bytes of data");
+        }
+
+        RecoveryPlan plan = null;
+        int[] missing = getMissingDataFragments(shards);
+        if (missing.length > 0) {
+            plan = getRecoveryPlan(getAvailable(shards), missing);
+            for (int index : missing) {
+                shards[index] = new byte[payloadLength + StripedFragmentHeader.LENGTH];
+            }
+        }
+
+        int dataLength = header.isDataLengthKnown() ? (int) header.getDataLength() : (int) stripedLength;
+        byte[] data = new byte[dataLength];
+
+        for (int stripe = 0; stripe < stripeNum; stripe++) {
+            int offset = StripedFragmentHeader.LENGTH + stripe * unit;
+            if (plan != null) {
+                plan.apply(shards, offset, unit, kernel);
+            }
+
+            int dataOffset = stripe * dataFragmentNumber * unit;
+            for (int i = 0; i < dataFragmentNumber && dataOffset < dataLength; i++, dataOffset += unit) {
+                System.arraycopy(shards[i], offset, data, dataOffset, Math.min(unit, dataLength - dataOffset));
+            }
+        }
+
+        if (!header.isDataLengthKnown()) {
+            data = removeFiller(data);
+        }
+
+        return data;
+    }
+
+    @Override
+    public int getFragmentHeaderLength() {
+        return StripedFragmentHeader.LENGTH;
+    }
+
+    /**
+     * Returns the range of the stripes that hold the data range. If the length of the data isn't in the header, the
+     * range has one byte more, which tells if the last stripe of the range is the last of the fragments (the one with
+     * the filler).
+     */
+    @Override
+    public FragmentRange getFragmentRange(byte[] fragmentHeader, long offset, int length) throws IdaException {
+        StripedFragmentHeader header = StripedFragmentHeader.read(fragmentHeader);
+        checkHeader(header);
+
+        if (header.isDataLengthKnown()) {
+            length = (int) Math.max(0, Math.min(length, header.getDataLength() - offset));
+        }
+        if (length <= 0) {
+            return new FragmentRange(StripedFragmentHeader.LENGTH, 0);
+        }
+
+        int unit = header.getStripeUnit();
+        long stripeLength = (long) dataFragmentNumber * unit;
+        long firstStripe = offset / stripeLength;
+        long stripeNum = (offset + length - 1) / stripeLength - firstStripe + 1;
+        long rangeLength = stripeNum * unit + (header.isDataLengthKnown() ? 0 : 1);
+
+        if (rangeLength > Integer.MAX_VALUE) {
+            throw new IdaException("Range of " + length + " bytes is too big to be combined in memory");
+        }
+
+        return new FragmentRange(StripedFragmentHeader.LENGTH + firstStripe * unit, (int) rangeLength);
+    }
+
+    @Override
+    public byte[] combineRange(List<byte[]> fragmentRanges, long offset, int length) throws IdaException {
+        byte[] fragmentRange = null;
+        for (byte[] range : fragmentRanges) {
+            if (range != null) {
+                fragmentRange = range;
+                break;
+            }
+        }
+
+        if (fragmentRange == null) {
+            throw new IdaException("No fragment ranges to combine");
+        }
+
+        StripedFragmentHeader header = StripedFragmentHeader.read(fragmentRange);
+        checkHeader(header);
+
+        if (header.isDataLengthKnown() && offset >= header.getDataLength()) {
+            return new byte[0];
+        }
+
+        // Without the data length, ranges that don't end with the extra byte end with the last stripe
+        int unit = header.getStripeUnit();
+        int extra = (fragmentRange.length - StripedFragmentHeader.LENGTH) % unit;
+        boolean includesLast = !header.isDataLengthKnown() && extra == 0;
+
+        if (extra > 0) {
+            List<byte[]> ranges = new ArrayList<byte[]>(fragmentRanges.size());
+            for (byte[] range : fragmentRanges) {
+                ranges.add(range != null ? Arrays.copyOf(range, range.length - extra) : null);
+            }
+
+            fragmentRanges = ranges;
+        }
+
+        byte[][] shards = new byte[fragmentNumber][];
+        placeFragments(fragmentRanges, shards);
+
+        int payloadLength = shards[firstIndex(shards)].length - StripedFragmentHeader.LENGTH;
+        int stripeNum = payloadLength / unit;
+        long stripeLength = (long) dataFragmentNumber * unit;
+        long rangeStart = offset / stripeLength * stripeLength;
+        long rangeEnd = rangeStart + stripeNum * stripeLength;
+
+        if (header.isDataLengthKnown()) {
+            rangeEnd = Math.min(rangeEnd, header.getDataLength());
+        }
+        if (rangeEnd - rangeStart > Integer.MAX_VALUE) {
+            throw new IdaException("The combined data range would be too big: " + (rangeEnd - rangeStart) + " bytes");
+        }
+        if (stripeNum == 0) {
+            return new byte[0];
+        }
+
+        RecoveryPlan plan = null;
+        int[] missing = getMissingDataFragments(shards);
+        if (missing.length > 0) {
+            plan = getRecoveryPlan(getAvailable(shards), missing);
+            for (int index : missing) {
+                shards[index] = new byte[payloadLength + StripedFragmentHeader.LENGTH];
+            }
+        }
+
+        int dataLength = (int) (rangeEnd - rangeStart);
+        byte[] data = new byte[dataLength];
+
+        for (int stripe = 0; stripe < stripeNum; stripe++) {
+            int stripeOffset = StripedFragmentHeader.LENGTH + stripe * unit;
+            if (plan != null) {
+                plan.apply(shards, stripeOffset, unit, kernel);
+            }
+
+            int dataOffset = stripe * dataFragmentNumber * unit;
+            for (int i = 0; i < dataFragmentNumber && dataOffset < dataLength; i++, dataOffset += unit) {
+                System.arraycopy(shards[i], stripeOffset, data, dataOffset, Math.min(unit, dataLength - dataOffset));
+            }
+        }
+
+        if (includesLast) {
+            data = removeFiller(data);
+        }
+
+        int start = (int) Math.min(offset - rangeStart, data.length);
+        int end = (int) Math.min((long) start + length, data.length);
+
+        return start == 0 && end == data.length ? data : Arrays.copyOfRange(data, start, end);
+    }
+
+    @Override
+    public long getDataLength(byte[] fragmentHeader) throws IdaException {
+        StripedFragmentHeader header = StripedFragmentHeader.read(fragmentHeader);
+        checkHeader(header);
+
+        return header.isDataLengthKnown() ? header.getDataLength() : -1;
+    }
+
+    /**
+     * Returns the patches of the stripes of the region, with the stripe unit in the fragment header.
+     */
+    @Override
+    public List<FragmentPatch> createPatches(byte[] fragmentHeader, long offset, byte[] oldData, byte[] newData)
+            throws IdaException {
+        if (oldData.length != newData.length) {
+            throw new IdaException("The old and new data of the region have different lengths: " + oldData.length +
+                    " and " + newData.length);
+        }
+        if (offset < 0) {
+            throw new IdaException("Invalid data offset " + offset);
+        }
+        if (oldData.length == 0) {
+            return new ArrayList<FragmentPatch>();
+        }
+
+        StripedFragmentHeader header = StripedFragmentHeader.read(fragmentHeader);
+        checkHeader(header);
+
+        int unit = header.getStripeUnit();
+        long stripeLength = (long) dataFragmentNumber * unit;
+        long firstStripe = offset / stripeLength;
+        long stripeNum = (offset + oldData.length - 1) / stripeLength - firstStripe + 1;
+
+        // The deltas of the data units are the XOR of the old and new data, and the deltas of the parity units are
+        // encoded from them like any other stripe
+        byte[][] deltas = new byte[fragmentNumber][(int) stripeNum * unit];
+
+        // The region is processed a run at a time, each run being the part of the region in a stripe unit
+        long stripeOffset = offset - firstStripe * stripeLength;
+        for (int i = 0; i < oldData.length; ) {
+            int stripe = (int) (stripeOffset / stripeLength);
+            int unitOffset = (int) (stripeOffset % stripeLength);
+            int unitStart = unitOffset % unit;
+            int runLength = Math.min(unit - unitStart, oldData.length - i);
+            byte[] delta = deltas[unitOffset / unit];
+            int deltaOffset = stripe * unit + unitStart;
+
+            System.arraycopy(oldData, i, delta, deltaOffset, runLength);
+            kernel.xor(delta, deltaOffset, newData, i, runLength);
+
+            i += runLength;
+            stripeOffset += runLength;
+        }
+
+        for (int stripe = 0; stripe < stripeNum; stripe++) {
+            encodeStripe(deltas, stripe * unit, unit);
+        }
+
+        long deltaOffset = StripedFragmentHeader.LENGTH + firstStripe * unit;
+        List<FragmentPatch> patches = new ArrayList<FragmentPatch>(fragmentNumber);
+
+        for (int i = 0; i < fragmentNumber; i++) {
+            FragmentPatch patch = FragmentPatch.create(i, deltaOffset, deltas[i]);
+            if (patch != null) {
+                patches.add(patch);
+            }
+        }
+
+        return patches;
+    }
+
+    /**
+     * Returns the sources of the recovery plan of the fragment (see {@link #createRecoveryPlan(BitSet, int[])}). Codes
+     * with local groups read less than {@code dataFragmentNumber} fragments.
+     */
+    @Override
+    public int[] getRepairFragmentIndexes(int fragmentIndex) throws IdaException {
+        if (fragmentIndex < 0 || fragmentIndex >= fragmentNumber) {
+            throw new IdaException("Invalid fragment index " + fragmentIndex);
+        }
+
+        BitSet available = new BitSet(fragmentNumber);
+        available.set(0, fragmentNumber);
+        available.clear(fragmentIndex);
+
+        BitSet sources = getRecoveryPlan(available, new int[] {fragmentIndex}).getSources();
+
+        int[] indexes = new int[sources.cardinality()];
+        for (int i = sources.nextSetBit(0), j = 0; i >= 0; i = sources.nextSetBit(i + 1)) {
+            indexes[j++] = i;
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Rebuilds the fragment stripe by stripe with its recovery plan. The fragments don't need to include everything
+     * needed to combine the data, just the ones returned by {@link #getRepairFragmentIndexes(int)} (or any other set
+     * the lost fragment can be computed from).
+     */
+    @Override
+    public byte[] repair(List<byte[]> fragments, int fragmentIndex) throws IdaException {
+        if (fragmentIndex < 0 || fragmentIndex >= fragmentNumber) {
+            throw new IdaException("Invalid fragment index " + fragmentIndex);
+        }
+
+        byte[][] shards = new byte[fragmentNumber][];
+        StripedFragmentHeader header = placeFragments(fragments, shards);
+
+        if (shards[fragmentIndex] != null) {
+            return shards[fragmentIndex];
+        }
+
+        int unit = header.getStripeUnit();
+        int fragmentLength = shards[firstIndex(shards)].length;
+
+        RecoveryPlan plan = getRecoveryPlan(getAvailable(shards), new int[] {fragmentIndex});
+
+        shards[fragmentIndex] = new byte[fragmentLength];
+        for (int offset = StripedFragmentHeader.LENGTH; offset < fragmentLength; offset += unit) {
+            plan.apply(shards, offset, Math.min(unit, fragmentLength - offset), kernel);
+        }
+
+        createHeader(fragmentIndex, unit, header.getDataLength()).write(shards[fragmentIndex]);
+
+        return shards[fragmentIndex];
+    }
+
+    /**
+     * Returns the plan to recover the target fragments from the available ones.
+     *
+     * @throws IdaException if the target fragments can't be recovered from the available fragments
+     */
+    public RecoveryPlan getRecoveryPlan(BitSet available, int[] targets) throws IdaException {
+        String key = available + "->" + Arrays.toString(targets);
+
+        RecoveryPlan plan = recoveryPlans.get(key);
+        if (plan == null) {
+            plan = createRecoveryPlan(available, targets);
+            recoveryPlans.put(key, plan);
+        }
+
+        return plan;
+    }
+
+    /**
+     * Returns the ID of the algorithm, written in the fragment headers so fragments split by other algorithms are
+     * detected.
+     */
+    protected abstract int getAlgorithmId();
+
+    /**
+     * Returns the coefficients of the parity fragments: parity fragment j is the sum of {@code matrix[j][i] * data
+     * fragment i}.
+     */
+    protected abstract int[][] createParityMatrix() throws IdaException;
+
+    /**
+     * Reads additional parameters of the subclass. Called after the common parameters have been read, and before
+     * the parity matrix is created. Can change {@code parityFragmentNumber} (which by default is the
+     * {@code redundantFragmentNumber}).
+     */
+    protected void initParameters(Configuration config) throws IdaException {
+    }
+
+    /**
+     * Computes the parity units of a stripe from its data units. The units of fragment i are at
+     * {@code fragments[i][offset, offset + length)}.
+     */
+    protected void encodeStripe(byte[][] fragments, int offset, int length) {
+        for (int j = 0; j < parityFragmentNumber; j++) {
+            byte[] parity = fragments[dataFragmentNumber + j];
+            int[] coefficients = generatorMatrix[dataFragmentNumber + j];
+            boolean first = true;
+
+            for (int i = 0; i < dataFragmentNumber; i++) {
+                if (coefficients[i] == 0) {
+                    continue;
+                }
+
+                if (first) {
+                    GaloisField256.multiply(parity, offset, fragments[i], offset, length, coefficients[i]);
+                    first = false;
+                } else {
+                    GaloisField256.multiplyAdd(parity, offset, fragments[i], offset, length, coefficients[i], kernel);
+                }
+            }
+
+            if (first) {
+                Arrays.fill(parity, offset, offset + length, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Finds, for each target fragment, the combination of available fragments that's equal to it. The available
+     * fragments are reduced (Gaussian elimination over GF(2^8)) in index order until there are enough of them, so the
+     * data fragments and the first parity fragments are preferred.
+     */
+    protected RecoveryPlan createRecoveryPlan(BitSet available, int[] targets) throws IdaException {
+        List<int[]> basis = new ArrayList<int[]>();
+        List<int[]> combinations = new ArrayList<int[]>();
+        List<Integer> pivots = new ArrayList<Integer>();
+
+        for (int r = available.nextSetBit(0); r >= 0 && basis.size() < dataFragmentNumber;
+             r = available.nextSetBit(r + 1)) {
+            int[] vector = generatorMatrix[r].clone();
+            int[] combination = new int[fragmentNumber];
+            combination[r] = 1;
+
+            reduce(vector, combination, basis, combinations, pivots);
+
+            int pivot = firstNonZero(vector);
+            if (pivot < 0) {
+                continue;
+            }
+
+            int inverse = GaloisField256.inverse(vector[pivot]);
+            scale(vector, inverse);
+            scale(combination, inverse);
+
+            basis.add(vector);
+            combinations.add(combination);
+            pivots.add(pivot);
+        }
+
+        int[][] sources = new int[targets.length][];
+        int[][] coefficients = new int[targets.length][];
+
+        for (int t = 0; t < targets.length; t++) {
+            int[] vector = generatorMatrix[targets[t]].clone();
+            int[] combination = new int[fragmentNumber];
+
+            reduce(vector, combination, basis, combinations, pivots);
+
+            if (firstNonZero(vector) >= 0) {
+                throw new IdaException("Not enough fragments to recover fragment " + targets[t] + " (available " +
+                        "fragments: " + available + ")");
+            }
+
+            int count = 0;
+            for (int c : combination) {
+                if (c != 0) {
+                    count++;
+                }
+            }
+
+            sources[t] = new int[count];
+            coefficients[t] = new int[count];
+            for (int r = 0, s = 0; r < fragmentNumber; r++) {
+                if (combination[r] != 0) {
+                    sources[t][s] = r;
+                    coefficients[t][s] = combination[r];
+                    s++;
+                }
+            }
+        }
+
+        return new RecoveryPlan(targets.clone(), sources, coefficients);
+    }
+
+    protected StripedFragmentHeader createHeader(int fragmentIndex, int stripeUnit, long dataLength) {
+        return new StripedFragmentHeader(getAlgorithmId(), fragmentIndex, dataFragmentNumber, parityFragmentNumber,
+                stripeUnit, dataLength);
+    }
+
+    protected void checkHeader(StripedFragmentHeader header) throws IdaException {
+        if (header.getAlgorithm() != getAlgorithmId() || header.getDataFragmentNumber() != dataFragmentNumber ||
+                header.getParityFragmentNumber() != parityFragmentNumber) {
+            throw new IdaException("Fragment " + header + " wasn't split by " + this);
+        }
+        if (header.getFragmentIndex() >= fragmentNumber) {
+            throw new IdaException("Invalid fragment index in " + header);
+        }
+        if (header.getStripeUnit() <= 0) {
+            throw new IdaException("Invalid stripe unit in " + header);
+        }
+    }
+
+    /**
+     * Puts every fragment at its index in the shards array, after checking its header.
+     *
+     * @return the header of the fragments
+     * @throws IdaException if there are no fragments, or if they weren't split from the same data by this algorithm
+     */
+    protected StripedFragmentHeader placeFragments(List<byte[]> fragments, byte[][] shards) throws IdaException {
+        StripedFragmentHeader header = null;
+
+        for (byte[] fragment : fragments) {
+            if (fragment == null) {
+                continue;
+            }
+
+            StripedFragmentHeader fragmentHeader = StripedFragmentHeader.read(fragment);
+            checkHeader(fragmentHeader);
+
+            if (header == null) {
+                header = fragmentHeader;
+            } else if (fragmentHeader.getStripeUnit() != header.getStripeUnit() ||
+                    fragmentHeader.getDataLength() != header.getDataLength() ||
+                    fragment.length != shards[firstIndex(shards)].length) {
+                throw new IdaException("Fragment " + fragmentHeader + " doesn't belong to the same data as " + header);
+            }
+
+            shards[fragmentHeader.getFragmentIndex()] = fragment;
+        }
+
+        if (header == null) {
+            throw new IdaException("No fragments to combine");
+        }
+
+        int payloadLength = shards[firstIndex(shards)].length - StripedFragmentHeader.LENGTH;
+        if (payloadLength % header.getStripeUnit() != 0) {
+            throw new IdaException("Fragment payload of " + payloadLength + " bytes is not a multiple of the stripe " +
+                    "unit " + header.getStripeUnit());
+        }
+
+        return header;
+    }
+
+    protected BitSet getAvailable(byte[][] shards) {
+        BitSet available = new BitSet(fragmentNumber);
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] != null) {
+                available.set(i);
+            }
+        }
+
+        return available;
+    }
+
+    private int getFragmentLengthForStripes(int stripeNum) throws IdaException {
+        long fragmentLength = StripedFragmentHeader.LENGTH + (long) stripeNum * stripeUnit;
+        if (fragmentLength > Integer.MAX_VALUE) {
+            throw new IdaException("The data is too big to be split in memory");
+        }
+
+        return (int) fragmentLength;
+    }
+
+    private int[] getMissingDataFragments(byte[][] shards) {
+        int count = 0;
+        for (int i = 0; i < dataFragmentNumber; i++) {
+            if (shards[i] == null) {
+                count++;
+            }
+        }
+
+        int[] missing = new int[count];
+        for (int i = 0, m = 0; i < dataFragmentNumber; i++) {
+            if (shards[i] == null) {
+                missing[m++] = i;
+            }
+        }
+
+        return missing;
+    }
+
+    private static int firstIndex(byte[][] shards) {
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] != null) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void reduce(int[] vector, int[] combination, List<int[]> basis, List<int[]> combinations,
+                               List<Integer> pivots) {
+        for (int b = 0; b < basis.size(); b++) {
+            int factor = vector[pivots.get(b)];
+            if (factor != 0) {
+                addMultiple(vector, basis.get(b), factor);
+                addMultiple(combination, combinations.get(b), factor);
+            }
+        }
+    }
+
+    private static void addMultiple(int[] dst, int[] src, int factor) {
+        for (int i = 0; i < dst.length; i++) {
+            dst[i] ^= GaloisField256.multiply(src[i], factor);
+        }
+    }
+
+    private static void scale(int[] vector, int factor) {
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = GaloisField256.multiply(vector[i], factor);
+        }
+    }
+
+    private static int firstNonZero(int[] vector) {
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] != 0) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads from the channel until the buffer is full.
+     *
+     * @return false if the end of the channel was reached before the buffer was full
+     */
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static byte[] removeFiller(byte[] data) throws IdaException {
+        int end = data.length - 1;
+        while (end >= 0 && data[end] == 0) {
+            end--;
+        }
+
+        if (end < 0 || data[end] != 1) {
+            throw new IdaException("The data of the fragments doesn't end with the filler");
+        }
+
+        return Arrays.copyOf(data, end);
+    }
+
+    /**
+     * The combinations of available fragments that recover a set of target fragments.
+     */
+    public static class RecoveryPlan {
+
+        private final int[] targets;
+        private final int[][] sources;
+        private final int[][] coefficients;
+
+        public RecoveryPlan(int[] targets, int[][] sources, int[][] coefficients) {
+            this.targets = targets;
+            this.sources = sources;
+            this.coefficients = coefficients;
+        }
+
+        public int[] getTargets() {
+            return targets;
+        }
+
+        /**
+         * Returns the indexes of all the fragments read to recover the targets.
+         */
+        public BitSet getSources() {
+            BitSet all = new BitSet();
+            for (int[] targetSources : sources) {
+                for (int source : targetSources) {
+                    all.set(source);
+                }
+            }
+
+            return all;
+        }
+
+        /**
+         * Recovers the units of the target fragments at {@code [offset, offset + length)}.
+         */
+        public void apply(byte[][] fragments, int offset, int length, XorKernel kernel) {
+            for (int t = 0; t < targets.length; t++) {
+                byte[] target = fragments[targets[t]];
+
+                GaloisField256.multiply(target, offset, fragments[sources[t][0]], offset, length,
+                        coefficients[t][0]);
+                for (int s = 1; s < sources[t].length; s++) {
+                    GaloisField256.multiplyAdd(target, offset, fragments[sources[t][s]], offset, length,
+                            coefficients[t][s], kernel);
+                }
+            }
+        }
+
+    }
+
+}
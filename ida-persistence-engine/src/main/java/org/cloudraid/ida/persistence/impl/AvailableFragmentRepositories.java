@@ -4,6 +4,7 @@ import org.cloudraid.ida.persistence.api.FragmentRepository;
 
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 
 /**
@@ -29,4 +30,22 @@ public class AvailableFragmentRepositories {
         return repositories.poll();
     }
 
+    /**
+     * Takes the first of the preferred repositories that is still in the pool, or any repository if none is, and
+     * removes it from the pool.
+     *
+     * @param preferredRepositories
+     *          the repositories to take first, in order of preference
+     * @return a repository
+     */
+    public FragmentRepository take(List<FragmentRepository> preferredRepositories) {
+        for (FragmentRepository repository : preferredRepositories) {
+            if (repositories.remove(repository)) {
+                return repository;
+            }
+        }
+
+        return take();
+    }
+
 }
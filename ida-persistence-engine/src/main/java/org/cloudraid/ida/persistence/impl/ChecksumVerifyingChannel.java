@@ -0,0 +1,162 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.cloudraid.ida.persistence.exception.RepositoryException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Channel returned by {@link FragmentChecksums#removeChecksums()}. It's written the fragment with checksums while the
+ * fragment is loaded, and keeps the fragment without them. The checksum of every block is verified as soon as the
+ * block is complete, and the write fails with an {@link IOException} if it doesn't match, so the load of a corrupt
+ * fragment stops there. Fragments that don't start with a checksum header are kept as they are.
+ */
+public class ChecksumVerifyingChannel implements WritableByteChannel {
+
+    private static final int INITIAL_CAPACITY = 65536;
+
+    private final ByteBuffer header;
+    private final ByteBuffer checksum;
+    private final CRC32 crc;
+    private boolean checksummed;
+    private int blockSize;
+    private int blockLength;
+    private int blockNum;
+    private byte[] fragment;
+    private int length;
+    private boolean open;
+
+    public ChecksumVerifyingChannel() {
+        header = ByteBuffer.allocate(FragmentChecksums.HEADER_LENGTH);
+        checksum = ByteBuffer.allocate(FragmentChecksums.CHECKSUM_LENGTH);
+        crc = new CRC32();
+        fragment = new byte[INITIAL_CAPACITY];
+        open = true;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = src.remaining();
+
+        if (header.hasRemaining()) {
+            readHeader(src);
+        }
+        if (!checksummed) {
+            append(src, src.remaining());
+
+            return written;
+        }
+
+        while (src.hasRemaining()) {
+            if (checksum.hasRemaining()) {
+                while (src.hasRemaining() && checksum.hasRemaining()) {
+                    checksum.put(src.get());
+                }
+            } else {
+                int blockBytes = Math.min(src.remaining(), blockSize - blockLength);
+
+                append(src, blockBytes);
+                blockLength += blockBytes;
+
+                if (blockLength == blockSize) {
+                    verifyBlock();
+                }
+            }
+        }
+
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    /**
+     * Verifies the last block, which can be shorter than the block size, and returns the fragment without checksums.
+     *
+     * @throws RepositoryException if the fragment ends in the middle of a checksum or the last block doesn't match
+     */
+    public byte[] getFragment() throws RepositoryException {
+        if (header.hasRemaining()) {
+            // Too short for a checksum header, so the fragment is kept as it is
+            return Arrays.copyOf(header.array(), header.position());
+        }
+
+        if (checksummed) {
+            if (checksum.position() > 0 && blockLength == 0) {
+                throw new RepositoryException("Block " + blockNum + " of the fragment is truncated");
+            }
+
+            if (blockLength > 0) {
+                try {
+                    verifyBlock();
+                } catch (IOException e) {
+                    throw new RepositoryException(e.getMessage());
+                }
+            }
+        }
+
+        return length == fragment.length ? fragment : Arrays.copyOf(fragment, length);
+    }
+
+    /**
+     * Reads the checksum header from the start of the fragment. If the fragment turns out not to have one, the bytes
+     * read so far are kept as the start of the fragment.
+     */
+    private void readHeader(ByteBuffer src) throws IOException {
+        while (src.hasRemaining() && header.hasRemaining()) {
+            header.put(src.get());
+
+            if (header.get(0) != FragmentChecksums.MARKER) {
+                // The header is left without remaining bytes, so it isn't read again
+                header.flip();
+                append(header, header.remaining());
+                header.position(header.limit());
+
+                return;
+            }
+        }
+
+        if (!header.hasRemaining()) {
+            try {
+                blockSize = FragmentChecksums.getBlockSize(header.array());
+            } catch (RepositoryException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+
+            checksummed = true;
+        }
+    }
+
+    private void verifyBlock() throws IOException {
+        int expected = checksum.getInt(0);
+        int actual = FragmentChecksums.computeChecksum(crc, fragment, length - blockLength, blockLength, blockSize);
+
+        if (actual != expected) {
+            throw new IOException("Checksum mismatch in block " + blockNum + " of the fragment");
+        }
+
+        blockNum++;
+        blockLength = 0;
+        checksum.clear();
+    }
+
+    private void append(ByteBuffer src, int count) {
+        if (length + count > fragment.length) {
+            fragment = Arrays.copyOf(fragment, Math.max(length + count, fragment.length * 2));
+        }
+
+        src.get(fragment, length, count);
+        length += count;
+    }
+
+}
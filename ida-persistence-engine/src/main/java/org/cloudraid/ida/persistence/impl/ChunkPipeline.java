@@ -0,0 +1,278 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stage of a streamed save that reads the data ahead of the IDA, in chunks, and optionally processes every chunk (like
+ * encrypting it) before the IDA reads it. The chunks are read by a task of the executor and processed by up to
+ * {@code workers} tasks at the same time, while the IDA reads the chunks already processed, in order, through
+ * {@link #read(ByteBuffer)}. So the next chunks are read and processed while the IDA splits the current one.
+ *
+ * <p>
+ *     Up to {@code queueSize} chunks (being processed or already processed) wait for the IDA, so the reader blocks
+ *     when the IDA is slower than the rest, and the memory used is bounded. If reading or processing a chunk fails,
+ *     the IDA gets the error when it reaches that chunk.
+ * </p>
+ */
+public class ChunkPipeline implements ReadableByteChannel {
+
+    private static final Logger logger = Logger.getLogger(ChunkPipeline.class);
+
+    private static final long CLOSE_CHECK_INTERVAL = 100;
+
+    private ReadableByteChannel source;
+    private int chunkSize;
+    private Processor processor;
+    private Semaphore workerPermits;
+    private BlockingQueue<Future<byte[]>> chunks;
+    private Executor taskExecutor;
+    private ByteBuffer currentChunk;
+    private boolean endOfData;
+    private volatile boolean closed;
+
+    /**
+     * Creates the pipeline. {@link #start()} needs to be called to start reading the source.
+     *
+     * @param source
+     *          the channel to read the data from
+     * @param chunkSize
+     *          the size of the chunks the data is read in
+     * @param processor
+     *          the processor of the chunks, or null to pass the chunks to the IDA as they're read
+     * @param workers
+     *          the number of chunks that can be processed at the same time
+     * @param queueSize
+     *          the number of chunks that can wait for the IDA
+     * @param taskExecutor
+     *          the executor that runs the reader and the processing of the chunks
+     */
+    public ChunkPipeline(ReadableByteChannel source, int chunkSize, Processor processor, int workers, int queueSize,
+                         Executor taskExecutor) {
+        this.source = source;
+        this.chunkSize = chunkSize;
+        this.processor = processor;
+        this.workerPermits = new Semaphore(workers);
+        this.chunks = new ArrayBlockingQueue<Future<byte[]>>(queueSize);
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Starts reading the source in a task of the executor.
+     */
+    public void start() {
+        taskExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                readChunks();
+            }
+
+        });
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+
+        while (currentChunk == null || !currentChunk.hasRemaining()) {
+            if (endOfData) {
+                return -1;
+            }
+
+            byte[] chunk;
+            try {
+                chunk = chunks.take().get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for the next chunk of the data");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                } else {
+                    throw new IOException("Error while trying to process chunk of the data", e.getCause());
+                }
+            }
+
+            if (chunk != null) {
+                currentChunk = ByteBuffer.wrap(chunk);
+            } else {
+                endOfData = true;
+            }
+        }
+
+        int length = Math.min(dst.remaining(), currentChunk.remaining());
+        dst.put(currentChunk.array(), currentChunk.position(), length);
+        currentChunk.position(currentChunk.position() + length);
+
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Closes the pipeline, and stops the reader once it's done with the current chunk. The source is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        chunks.clear();
+    }
+
+    /**
+     * Reads the source up to its end, and queues every chunk (or the task that processes it), followed by the end of
+     * the data (a null chunk).
+     */
+    private void readChunks() {
+        long offset = 0;
+
+        try {
+            byte[] chunk;
+            while ((chunk = readChunk()) != null) {
+                if (!enqueue(processor != null ? submitProcess(chunk, offset) : createResult(chunk, null))) {
+                    return;
+                }
+
+                offset += chunk.length;
+            }
+
+            enqueue(createResult(null, null));
+        } catch (InterruptedException e) {
+            logger.debug("Chunk pipeline reader interrupted", e);
+
+            enqueueQuietly(createResult(null, new InterruptedIOException("Chunk pipeline reader interrupted")));
+        } catch (Exception e) {
+            enqueueQuietly(createResult(null, e));
+        }
+    }
+
+    /**
+     * Reads the next chunk of the source, which is shorter than the chunk size only if it's the last. Returns null if
+     * the source is finished.
+     */
+    private byte[] readChunk() throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(chunkSize);
+
+        while (chunk.hasRemaining() && !closed) {
+            if (source.read(chunk) < 0) {
+                break;
+            }
+        }
+
+        if (chunk.position() == 0) {
+            return null;
+        } else if (chunk.hasRemaining()) {
+            byte[] lastChunk = new byte[chunk.position()];
+            System.arraycopy(chunk.array(), 0, lastChunk, 0, lastChunk.length);
+
+            return lastChunk;
+        } else {
+            return chunk.array();
+        }
+    }
+
+    /**
+     * Submits the processing of the chunk, once a worker is free.
+     */
+    private Future<byte[]> submitProcess(final byte[] chunk, final long offset) throws InterruptedException {
+        workerPermits.acquire();
+
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+            @Override
+            public byte[] call() throws Exception {
+                try {
+                    byte[] processedChunk = processor.process(chunk, offset);
+                    if (processedChunk.length != chunk.length) {
+                        throw new IOException("The chunk at offset " + offset + " was processed into " +
+                                processedChunk.length + " bytes instead of " + chunk.length);
+                    }
+
+                    return processedChunk;
+                } finally {
+                    workerPermits.release();
+                }
+            }
+
+        });
+
+        taskExecutor.execute(task);
+
+        return task;
+    }
+
+    /**
+     * Queues the chunk, waiting while the queue is full. Returns false if the pipeline was closed while waiting.
+     */
+    private boolean enqueue(Future<byte[]> chunk) throws InterruptedException {
+        while (!chunks.offer(chunk, CLOSE_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void enqueueQuietly(Future<byte[]> chunk) {
+        try {
+            enqueue(chunk);
+        } catch (InterruptedException e) {
+            logger.debug("Chunk pipeline reader interrupted while queueing error", e);
+        }
+    }
+
+    /**
+     * Returns an already completed result, with the chunk, or with the error if not null.
+     */
+    private static Future<byte[]> createResult(final byte[] chunk, final Exception error) {
+        FutureTask<byte[]> result = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+            @Override
+            public byte[] call() throws Exception {
+                if (error != null) {
+                    throw error;
+                }
+
+                return chunk;
+            }
+
+        });
+
+        result.run();
+
+        return result;
+    }
+
+    /**
+     * Processes the chunks of a {@link ChunkPipeline}. It's called by several threads at the same time, for different
+     * chunks.
+     */
+    public interface Processor {
+
+        /**
+         * Processes the chunk of the data at the specified offset, and returns the processed chunk, of the same length.
+         */
+        byte[] process(byte[] chunk, long offset) throws Exception;
+
+    }
+
+}
@@ -2,27 +2,67 @@ package org.cloudraid.ida.persistence.impl;
 
 import org.apache.commons.lang.StringUtils;
 import org.cloudraid.ida.persistence.api.Configuration;
+import org.cloudraid.ida.persistence.api.FragmentPatch;
+import org.cloudraid.ida.persistence.api.FragmentRange;
 import org.cloudraid.ida.persistence.api.InformationDispersalAlgorithm;
+import org.cloudraid.ida.persistence.exception.CorruptFragmentException;
 import org.cloudraid.ida.persistence.exception.IdaException;
 import org.jigdfs.ida.base.InformationDispersalDecoder;
 import org.jigdfs.ida.base.InformationDispersalEncoder;
+import org.jigdfs.ida.cauchyreedsolomon.CauchyCodecTuner;
+import org.jigdfs.ida.cauchyreedsolomon.CauchyFragmentHeader;
+import org.jigdfs.ida.cauchyreedsolomon.CauchyIDAParameters;
 import org.jigdfs.ida.cauchyreedsolomon.CauchyInformationDispersalCodec;
+import org.jigdfs.ida.cauchyreedsolomon.XorKernel;
+import org.jigdfs.ida.exception.IDACorruptSliceException;
 
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 /**
  * The Cauchy-Reed-Solomon IDA, using the JigDFS implementation.
  *
+ * <p>
+ *     The chunk size and field width used to split data can be set with the ChunkSize and FieldWidth params, or
+ *     picked at startup by benchmarking several candidates when ChunkSize is "auto". Every fragment records the
+ *     parameters it was encoded with, so data split with other values (or with the original 4096 chunk size,
+ *     before fragments had a header) is still combined with the right codec.
+ * </p>
+ *
+ * <p>
+ *     If VerifyDecode is true, the fragments are checked against each other while they're combined (see
+ *     {@link org.jigdfs.ida.cauchyreedsolomon.CauchyInformationDispersalDecoder#setVerifying(boolean)}), so a corrupt
+ *     fragment fails the combine instead of being decoded into corrupt data. This needs more fragments than data
+ *     slices, which is the case when the redundant fragment number is less than half the fragment number. With two
+ *     more fragments than data slices, the corrupt fragment is also located, and reported by a
+ *     {@link CorruptFragmentException} so the service can combine the data again without it.
+ * </p>
+ *
  * @author avasquez
  */
 public class CrsInformationDispersalAlgorithm implements InformationDispersalAlgorithm {
 
     public static final int DEFAULT_REDUNDANT_FRAG_NUM = 2;
+    public static final int DEFAULT_PARALLELISM = 1;
     public static final int CHUNK_SIZE = 4096;
+    public static final String AUTO_CHUNK_SIZE = "auto";
 
     private int fragmentNumber;
     private int redundantFragmentNumber;
+    private int parallelism;
+    private int chunkSize;
+    private int fieldWidth;
+    private boolean verifyDecode;
+    private XorKernel kernel;
+    private Executor executor;
     private CauchyInformationDispersalCodec codec;
+    private ConcurrentMap<String, CauchyInformationDispersalCodec> codecs;
 
     @Override
     public int getFragmentNumber() {
@@ -38,6 +78,11 @@ public class CrsInformationDispersalAlgorithm implements InformationDispersalAlg
     public void init(Configuration config) throws IdaException {
         String fragmentNumParam = config.getInitParameter("FragmentNum");
         String redundantFragmentNumParam = config.getInitParameter("RedundantFragmentNum");
+        String kernelParam = config.getInitParameter("Kernel");
+        String parallelismParam = config.getInitParameter("Parallelism");
+        String chunkSizeParam = config.getInitParameter("ChunkSize");
+        String fieldWidthParam = config.getInitParameter("FieldWidth");
+        String verifyDecodeParam = config.getInitParameter("VerifyDecode");
 
         if (StringUtils.isEmpty(fragmentNumParam)) {
             throw new IdaException("No FragmentNum param specified");
@@ -65,16 +110,82 @@ public class CrsInformationDispersalAlgorithm implements InformationDispersalAlg
                     "or equal to fragment number '" + fragmentNumber + "'");
         }
 
+        if (StringUtils.isNotEmpty(parallelismParam)) {
+            try {
+                parallelism = Integer.parseInt(parallelismParam);
+            } catch (NumberFormatException e) {
+                throw new IdaException("Invalid format for Parallelism param '" + parallelismParam + "'", e);
+            }
+        } else {
+            parallelism = DEFAULT_PARALLELISM;
+        }
+
+        if (StringUtils.isNotEmpty(fieldWidthParam)) {
+            try {
+                fieldWidth = Integer.parseInt(fieldWidthParam);
+            } catch (NumberFormatException e) {
+                throw new IdaException("Invalid format for FieldWidth param '" + fieldWidthParam + "'", e);
+            }
+        } else {
+            fieldWidth = 0;
+        }
+
+        verifyDecode = Boolean.parseBoolean(StringUtils.trim(verifyDecodeParam));
+
+        // The codec threshold is fragmentNumber - redundantFragmentNumber, so there are as many data slices as
+        // redundant fragments, and fragmentNumber - redundantFragmentNumber fragments are loaded to combine the data
+        if (verifyDecode && fragmentNumber - redundantFragmentNumber <= redundantFragmentNumber) {
+            throw new IdaException("VerifyDecode needs more than " + redundantFragmentNumber + " fragments to " +
+                    "combine the data, but only " + (fragmentNumber - redundantFragmentNumber) + " are loaded");
+        }
+
         int numSlices = fragmentNumber;
         int threshold = fragmentNumber - redundantFragmentNumber;
-        int chunkSize = CHUNK_SIZE;
 
+        // If the vector kernel is requested but not available, the default scalar kernel is returned
         try {
-            codec = new CauchyInformationDispersalCodec(numSlices, threshold, chunkSize);
-        } catch (Exception e) {
-            throw new IdaException("Unable to create CauchyInformationDispersalCodec with numSlices = " +  numSlices +
-                    ", threshold = " + threshold + " and chunkSize = " + chunkSize, e);
+            kernel = XorKernel.forName(kernelParam);
+        } catch (IllegalArgumentException e) {
+            throw new IdaException("Invalid Kernel param '" + kernelParam + "'", e);
+        }
+
+        if (AUTO_CHUNK_SIZE.equalsIgnoreCase(StringUtils.trim(chunkSizeParam))) {
+            // Benchmark the candidates and keep the fastest (only with the specified field width, if there's one)
+            int[] fieldWidths = fieldWidth > 0 ? new int[] {fieldWidth} : CauchyCodecTuner.DEFAULT_FIELD_WIDTHS;
+            CauchyCodecTuner.Result result;
+            try {
+                result = CauchyCodecTuner.tune(numSlices, threshold, kernel, CauchyCodecTuner.DEFAULT_CHUNK_SIZES,
+                        fieldWidths, CauchyCodecTuner.DEFAULT_SAMPLE_SIZE);
+            } catch (Exception e) {
+                throw new IdaException("Unable to find the fastest chunk size and field width", e);
+            }
+
+            chunkSize = result.getChunkSize();
+            fieldWidth = result.getLogOfFieldLength();
+        } else if (StringUtils.isNotEmpty(chunkSizeParam)) {
+            try {
+                chunkSize = Integer.parseInt(chunkSizeParam);
+            } catch (NumberFormatException e) {
+                throw new IdaException("Invalid format for ChunkSize param '" + chunkSizeParam + "'", e);
+            }
+        } else {
+            chunkSize = CHUNK_SIZE;
+        }
+
+        if (fieldWidth <= 0) {
+            fieldWidth = CauchyIDAParameters.DEFAULT_LOG_OF_FIELD_LENGTH;
+        }
+
+        if (parallelism > 1) {
+            // The messages are encoded and decoded in the thread pool of the context, which is shut down by its owner
+            executor = config.getContext() != null ? config.getContext().getThreadPoolExecutor() : null;
+            if (executor == null) {
+                throw new IdaException("Parallelism " + parallelism + " needs a ThreadPoolExecutor in the Context");
+            }
         }
+
+        codecs = new ConcurrentHashMap<String, CauchyInformationDispersalCodec>();
+        codec = getCodec(chunkSize, fieldWidth);
     }
 
     @Override
@@ -94,7 +205,33 @@ public class CrsInformationDispersalAlgorithm implements InformationDispersalAlg
     }
 
     @Override
-    public byte[] combine(List<byte[]> fragments) throws IdaException {
+    public long split(ReadableByteChannel data, List<? extends WritableByteChannel> fragments) throws IdaException {
+        return split(data, fragments, CauchyFragmentHeader.UNKNOWN_DATA_LENGTH);
+    }
+
+    @Override
+    public long split(ReadableByteChannel data, List<? extends WritableByteChannel> fragments, long dataLength)
+            throws IdaException {
+        InformationDispersalEncoder encoder;
+        try {
+            encoder = codec.getEncoder();
+        } catch (Exception e) {
+            throw new IdaException("Unable to retrieve encoder", e);
+        }
+
+        try {
+            return encoder.process(data, fragments, dataLength);
+        } catch (Exception e) {
+            throw new IdaException("Error while splitting data", e);
+        }
+    }
+
+    /**
+     * Returns the length of the fragments of the streamed split: the header and a message for every message size bytes
+     * of the data, plus one (the last message always carries at least the filler byte).
+     */
+    @Override
+    public long getFragmentLength(long dataLength) throws IdaException {
         InformationDispersalDecoder decoder;
         try {
             decoder = codec.getDecoder();
@@ -102,11 +239,362 @@ public class CrsInformationDispersalAlgorithm implements InformationDispersalAlg
             throw new IdaException("Unable to retrieve decoder", e);
         }
 
+        long messageNum = dataLength / decoder.getMessageSize() + 1;
+
+        return CauchyFragmentHeader.LENGTH + messageNum * decoder.getFragmentSize();
+    }
+
+    @Override
+    public byte[] combine(List<byte[]> fragments) throws IdaException {
+        InformationDispersalDecoder decoder;
+        try {
+            decoder = getCodec(fragments).getDecoder();
+        } catch (IdaException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IdaException("Unable to retrieve decoder", e);
+        }
+
         try {
             return decoder.process(fragments);
         } catch (Exception e) {
-            throw new IdaException("Error while combining data", e);
+            throw createCombineException("Error while combining data", e);
+        }
+    }
+
+    @Override
+    public int getFragmentHeaderLength() {
+        return CauchyFragmentHeader.LENGTH;
+    }
+
+    /**
+     * Returns the range of the messages that hold the data range. If the length of the data isn't in the header, the
+     * range has one byte more, which tells the decoder if the last message of the range is the last of the fragments.
+     */
+    @Override
+    public FragmentRange getFragmentRange(byte[] fragmentHeader, long offset, int length) throws IdaException {
+        CauchyFragmentHeader header = readHeader(fragmentHeader);
+        InformationDispersalDecoder decoder = getDecoder(header);
+
+        int headerLength = header != null ? CauchyFragmentHeader.LENGTH : 0;
+        boolean dataLengthKnown = header != null && header.isDataLengthKnown();
+
+        if (dataLengthKnown) {
+            length = (int) Math.max(0, Math.min(length, header.getDataLength() - offset));
+        }
+        if (length <= 0) {
+            return new FragmentRange(headerLength, 0);
+        }
+
+        long firstMessage = offset / decoder.getMessageSize();
+        long messageNum = (offset + length - 1) / decoder.getMessageSize() - firstMessage + 1;
+        long rangeLength = messageNum * decoder.getFragmentSize() + (dataLengthKnown ? 0 : 1);
+
+        if (rangeLength > Integer.MAX_VALUE) {
+            throw new IdaException("Range of " + length + " bytes is too big to be combined in memory");
+        }
+
+        return new FragmentRange(headerLength + firstMessage * decoder.getFragmentSize(), (int) rangeLength);
+    }
+
+    @Override
+    public byte[] combineRange(List<byte[]> fragmentRanges, long offset, int length) throws IdaException {
+        byte[] fragmentRange = null;
+        for (byte[] range : fragmentRanges) {
+            if (range != null) {
+                fragmentRange = range;
+                break;
+            }
+        }
+
+        if (fragmentRange == null) {
+            throw new IdaException("No fragment ranges to combine");
+        }
+
+        CauchyFragmentHeader header = readHeader(fragmentRange);
+        InformationDispersalDecoder decoder = getDecoder(header);
+
+        if (header != null && header.isDataLengthKnown() && offset >= header.getDataLength()) {
+            return new byte[0];
+        }
+
+        // Fragments without header start with a message instead, so the bytes loaded as the header are removed
+        if (header == null) {
+            List<byte[]> ranges = new ArrayList<byte[]>(fragmentRanges.size());
+            for (byte[] range : fragmentRanges) {
+                ranges.add(range != null ? Arrays.copyOfRange(range, Math.min(CauchyFragmentHeader.LENGTH,
+                        range.length), range.length) : null);
+            }
+
+            fragmentRanges = ranges;
+        }
+
+        long firstMessage = offset / decoder.getMessageSize();
+        if (firstMessage > Integer.MAX_VALUE) {
+            throw new IdaException("Offset " + offset + " is out of the range of the data that can be combined");
+        }
+
+        byte[] data;
+        try {
+            data = decoder.processRange(fragmentRanges, (int) firstMessage);
+        } catch (Exception e) {
+            throw createCombineException("Error while combining data range", e);
+        }
+
+        int start = (int) Math.min(offset - firstMessage * decoder.getMessageSize(), data.length);
+        int end = (int) Math.min((long) start + length, data.length);
+
+        return start == 0 && end == data.length ? data : Arrays.copyOfRange(data, start, end);
+    }
+
+    @Override
+    public long getDataLength(byte[] fragmentHeader) throws IdaException {
+        CauchyFragmentHeader header = readHeader(fragmentHeader);
+
+        return header != null && header.isDataLengthKnown() ? header.getDataLength() : -1;
+    }
+
+    /**
+     * Returns the patches encoded with the chunk size and field width in the fragment header (the original ones if
+     * the fragments don't have a header, in which case the patches start that many bytes before).
+     */
+    @Override
+    public List<FragmentPatch> createPatches(byte[] fragmentHeader, long offset, byte[] oldData, byte[] newData)
+            throws IdaException {
+        if (offset + oldData.length > Integer.MAX_VALUE) {
+            throw new IdaException("Offset " + offset + " is out of the range of the data that can be split");
+        }
+
+        CauchyFragmentHeader header = readHeader(fragmentHeader);
+        InformationDispersalEncoder encoder;
+        try {
+            encoder = getCodec(header).getEncoder();
+        } catch (IdaException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IdaException("Unable to retrieve encoder", e);
+        }
+
+        List<byte[]> deltas;
+        try {
+            deltas = encoder.encodeDelta((int) offset, oldData, newData);
+        } catch (Exception e) {
+            throw new IdaException("Error while encoding the data delta", e);
+        }
+
+        int deltaOffset = encoder.getDeltaOffset((int) offset);
+        if (header == null) {
+            deltaOffset -= CauchyFragmentHeader.LENGTH;
+        }
+
+        List<FragmentPatch> patches = new ArrayList<FragmentPatch>(deltas.size());
+
+        for (int i = 0; i < deltas.size(); i++) {
+            FragmentPatch patch = FragmentPatch.create(i, deltaOffset, deltas.get(i));
+            if (patch != null) {
+                patches.add(patch);
+            }
+        }
+
+        return patches;
+    }
+
+    /**
+     * Returns the first fragments other than the lost one, since any {@code fragmentNumber - redundantFragmentNumber}
+     * fragments are needed to rebuild it.
+     */
+    @Override
+    public int[] getRepairFragmentIndexes(int fragmentIndex) throws IdaException {
+        if (fragmentIndex < 0 || fragmentIndex >= fragmentNumber) {
+            throw new IdaException("Invalid fragment index " + fragmentIndex);
+        }
+
+        int[] indexes = new int[fragmentNumber - redundantFragmentNumber];
+        for (int i = 0, j = 0; j < indexes.length; i++) {
+            if (i != fragmentIndex) {
+                indexes[j++] = i;
+            }
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Rebuilds the fragment by combining the data and splitting it again, with the parameters the fragments were
+     * split with. The rebuilt fragment gets the header of the other fragments (the decoder needs all the headers to be
+     * equal), or no header if they don't have one.
+     */
+    @Override
+    public byte[] repair(List<byte[]> fragments, int fragmentIndex) throws IdaException {
+        if (fragmentIndex < 0 || fragmentIndex >= fragmentNumber) {
+            throw new IdaException("Invalid fragment index " + fragmentIndex);
+        }
+
+        byte[] data = combine(fragments);
+
+        byte[] source = null;
+        for (byte[] f : fragments) {
+            if (f != null) {
+                source = f;
+                break;
+            }
+        }
+
+        CauchyFragmentHeader header = readHeader(source);
+        InformationDispersalEncoder encoder;
+        try {
+            encoder = getCodec(header).getEncoder();
+        } catch (IdaException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IdaException("Unable to retrieve encoder", e);
+        }
+
+        byte[] fragment;
+        try {
+            fragment = encoder.process(data).get(fragmentIndex);
+        } catch (Exception e) {
+            throw new IdaException("Error while splitting data to repair fragment " + fragmentIndex, e);
+        }
+
+        if (header != null) {
+            System.arraycopy(source, 0, fragment, 0, CauchyFragmentHeader.LENGTH);
+        } else {
+            fragment = Arrays.copyOfRange(fragment, CauchyFragmentHeader.LENGTH, fragment.length);
+        }
+
+        return fragment;
+    }
+
+    /**
+     * Returns the codec for the parameters the fragments were encoded with: the ones in the fragment header, or the
+     * original chunk size and field width if the fragments don't have a header.
+     */
+    protected CauchyInformationDispersalCodec getCodec(List<byte[]> fragments) throws IdaException {
+        byte[] fragment = null;
+        for (byte[] f : fragments) {
+            if (f != null) {
+                fragment = f;
+                break;
+            }
+        }
+
+        if (fragment == null) {
+            // The decoder will complain about the number of fragments
+            return codec;
+        }
+
+        return getCodec(readHeader(fragment));
+    }
+
+    /**
+     * Returns the codec for the parameters in the fragment header, or for the original chunk size and field width if
+     * the header is null (the fragments don't have one).
+     */
+    protected CauchyInformationDispersalCodec getCodec(CauchyFragmentHeader header) throws IdaException {
+        if (header == null) {
+            return getCodec(CHUNK_SIZE, CauchyIDAParameters.DEFAULT_LOG_OF_FIELD_LENGTH);
+        }
+
+        // The codec threshold is fragmentNumber - redundantFragmentNumber, so there are as many data slices as
+        // redundant fragments
+        if (header.getNumDataSlices() + header.getNumCodeSlices() != fragmentNumber ||
+                header.getNumDataSlices() != redundantFragmentNumber) {
+            throw new IdaException("Fragments were split into " + header.getNumDataSlices() + " data and " +
+                    header.getNumCodeSlices() + " code slices, but " + this + " expects " + fragmentNumber +
+                    " fragments with " + redundantFragmentNumber + " redundant");
+        }
+
+        return getCodec(header.getChunkSize(), header.getLogOfFieldLength());
+    }
+
+    protected InformationDispersalDecoder getDecoder(CauchyFragmentHeader header) throws IdaException {
+        try {
+            return getCodec(header).getDecoder();
+        } catch (IdaException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IdaException("Unable to retrieve decoder", e);
+        }
+    }
+
+    /**
+     * Returns the exception for an error of the decoder: a {@link CorruptFragmentException} if the verifying decoder
+     * found that the slices are inconsistent (the index of a slice is the index of its fragment), or an
+     * {@link IdaException} otherwise.
+     */
+    protected IdaException createCombineException(String message, Exception e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IDACorruptSliceException) {
+                return new CorruptFragmentException(message + ": " + cause.getMessage(),
+                        ((IDACorruptSliceException) cause).getSliceIndex(), e);
+            }
+        }
+
+        return new IdaException(message, e);
+    }
+
+    /**
+     * Reads the header at the start of the fragment, or returns null if the fragment doesn't have one.
+     */
+    protected CauchyFragmentHeader readHeader(byte[] fragment) throws IdaException {
+        try {
+            return CauchyFragmentHeader.read(fragment);
+        } catch (Exception e) {
+            throw new IdaException("Invalid fragment header", e);
+        }
+    }
+
+    /**
+     * Returns the codec for the specified chunk size and field width, creating it the first time.
+     */
+    protected CauchyInformationDispersalCodec getCodec(int chunkSize, int fieldWidth) throws IdaException {
+        String key = chunkSize + ":" + fieldWidth;
+
+        CauchyInformationDispersalCodec codec = codecs.get(key);
+        if (codec == null) {
+            codec = createCodec(chunkSize, fieldWidth);
+
+            CauchyInformationDispersalCodec previous = codecs.putIfAbsent(key, codec);
+            if (previous != null) {
+                codec = previous;
+            }
+        }
+
+        return codec;
+    }
+
+    protected CauchyInformationDispersalCodec createCodec(int chunkSize, int fieldWidth) throws IdaException {
+        int numSlices = fragmentNumber;
+        int threshold = fragmentNumber - redundantFragmentNumber;
+
+        CauchyInformationDispersalCodec codec;
+        try {
+            codec = new CauchyInformationDispersalCodec(numSlices, threshold, chunkSize, fieldWidth, kernel);
+        } catch (Exception e) {
+            throw new IdaException("Unable to create CauchyInformationDispersalCodec with numSlices = " +  numSlices +
+                    ", threshold = " + threshold + ", chunkSize = " + chunkSize + ", fieldWidth = " + fieldWidth +
+                    " and kernel = " + kernel, e);
         }
+
+        try {
+            codec.getDecoder().setVerifying(verifyDecode);
+        } catch (Exception e) {
+            throw new IdaException("Unable to set up verifying decoding", e);
+        }
+
+        if (parallelism > 1) {
+            try {
+                codec.getEncoder().setTaskExecutor(executor);
+                codec.getEncoder().setParallelism(parallelism);
+                codec.getDecoder().setTaskExecutor(executor);
+                codec.getDecoder().setParallelism(parallelism);
+            } catch (Exception e) {
+                throw new IdaException("Unable to set up parallel encoding/decoding", e);
+            }
+        }
+
+        return codec;
     }
 
     @Override
@@ -114,6 +602,10 @@ public class CrsInformationDispersalAlgorithm implements InformationDispersalAlg
         return "CrsInformationDispersalAlgorithm[" +
                 "fragmentNumber=" + fragmentNumber +
                 ", redundantFragmentNumber=" + redundantFragmentNumber +
+                ", parallelism=" + parallelism +
+                ", chunkSize=" + chunkSize +
+                ", fieldWidth=" + fieldWidth +
+                ", verifyDecode=" + verifyDecode +
                 ", codec=" + codec +
                 ']';
     }
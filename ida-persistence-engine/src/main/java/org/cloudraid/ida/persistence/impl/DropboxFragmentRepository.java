@@ -7,10 +7,14 @@ import org.cloudraid.dropbox.DropboxAccountManager;
 import org.cloudraid.dropbox.DropboxClient;
 import org.cloudraid.dropbox.DropboxContext;
 import org.cloudraid.ida.persistence.api.Configuration;
+import org.cloudraid.ida.persistence.api.FragmentPatch;
 import org.cloudraid.ida.persistence.api.FragmentRepository;
 import org.cloudraid.ida.persistence.exception.RepositoryException;
 
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * {@link FragmentRepository} that uses Dropbox as the backend repository.
@@ -75,6 +79,15 @@ public class DropboxFragmentRepository implements FragmentRepository {
         }
     }
 
+    @Override
+    public void saveFragment(String name, ReadableByteChannel fragment, long length) throws RepositoryException {
+        try {
+            dropboxClient.upload(name, Channels.newInputStream(fragment), length);
+        } catch (Exception e) {
+            throw new RepositoryException("Unable to upload fragment '" + name + "' to " + repositoryUrl, e);
+        }
+    }
+
     @Override
     public byte[] loadFragment(String name) throws RepositoryException {
         try {
@@ -84,6 +97,41 @@ public class DropboxFragmentRepository implements FragmentRepository {
         }
     }
 
+    @Override
+    public void loadFragment(String name, WritableByteChannel fragment) throws RepositoryException {
+        try {
+            dropboxClient.download(name, Channels.newOutputStream(fragment));
+        } catch (Exception e) {
+            throw new RepositoryException("Unable to download fragment '" + name + "' from " + repositoryUrl, e);
+        }
+    }
+
+    @Override
+    public byte[] loadFragment(String name, long offset, int length) throws RepositoryException {
+        try {
+            return dropboxClient.download(name, offset, length);
+        } catch (Exception e) {
+            throw new RepositoryException("Unable to download range of " + length + " bytes at offset " + offset +
+                    " of fragment '" + name + "' from " + repositoryUrl, e);
+        }
+    }
+
+    /**
+     * Dropbox files can't be partially rewritten, so the fragment is downloaded, patched and uploaded again.
+     */
+    @Override
+    public void patchFragment(String name, FragmentPatch patch) throws RepositoryException {
+        byte[] fragment = loadFragment(name);
+
+        try {
+            patch.applyTo(fragment);
+        } catch (IllegalArgumentException e) {
+            throw new RepositoryException("Unable to patch fragment '" + name + "' from " + repositoryUrl, e);
+        }
+
+        saveFragment(name, fragment);
+    }
+
     @Override
     public boolean deleteFragment(String name) throws RepositoryException {
         try {
@@ -4,11 +4,17 @@ import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cloudraid.ida.persistence.api.Configuration;
+import org.cloudraid.ida.persistence.crypto.Decryptor;
 import org.cloudraid.ida.persistence.crypto.EncryptionKeyRepository;
 import org.cloudraid.ida.persistence.crypto.EncryptionParams;
 import org.cloudraid.ida.persistence.crypto.EncryptionProvider;
+import org.cloudraid.ida.persistence.crypto.Encryptor;
 import org.cloudraid.ida.persistence.exception.IdaPersistenceException;
 
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
 /**
  * Extends the {@link InformationDispersalPersistenceServiceImpl} to encrypt the data before saving, and decrypt it after
  * loading.
@@ -21,9 +27,17 @@ public class EncryptingInformationDispersalPersistenceServiceImpl extends Inform
 
     private static final String SERIALIZED_KEY_SEPARATOR = "$";
 
+    public static final int DEFAULT_ENCRYPT_WORKERS = 1;
+
     protected EncryptionProvider encryptionProvider;
     protected EncryptionKeyRepository keyRepository;
+    protected int encryptWorkers;
 
+    /**
+     * Initializes the service. Besides the params of the {@link InformationDispersalPersistenceServiceImpl}, the
+     * EncryptWorkers param can be specified: the number of chunks of a streamed save that are encrypted at the same
+     * time, if the encryptor can encrypt the chunks on their own (like with the CTR mode).
+     */
     @Override
     public void init(Configuration config) throws IdaPersistenceException {
         super.init(config);
@@ -36,6 +50,22 @@ public class EncryptingInformationDispersalPersistenceServiceImpl extends Inform
         if (keyRepository == null) {
             throw new IdaPersistenceException("No EncryptionKeyRepository found in Context");
         }
+
+        String encryptWorkersParam = config.getInitParameter("EncryptWorkers");
+        if (StringUtils.isNotEmpty(encryptWorkersParam)) {
+            try {
+                encryptWorkers = Integer.parseInt(encryptWorkersParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for EncryptWorkers param '" + encryptWorkersParam +
+                        "'", e);
+            }
+
+            if (encryptWorkers <= 0) {
+                throw new IdaPersistenceException("EncryptWorkers '" + encryptWorkers + "' should be positive");
+            }
+        } else {
+            encryptWorkers = DEFAULT_ENCRYPT_WORKERS;
+        }
     }
 
     /**
@@ -62,12 +92,7 @@ public class EncryptingInformationDispersalPersistenceServiceImpl extends Inform
             throw new IdaPersistenceException("Failed to encrypt data '" + id + "'", e);
         }
 
-        String serializedKey = Hex.encodeHexString(params.getKey()) + SERIALIZED_KEY_SEPARATOR + Hex.encodeHexString(params.getIv());
-        try {
-            keyRepository.saveKey(id, serializedKey);
-        } catch (Exception e) {
-            throw new IdaPersistenceException("Unable to save encryption key for data '" + id + "' in repository", e);
-        }
+        saveKey(id, params);
 
         if (logger.isDebugEnabled()) {
             logger.debug("Data '" + id + "' successfully encrypted");
@@ -76,6 +101,65 @@ public class EncryptingInformationDispersalPersistenceServiceImpl extends Inform
         super.saveData(id, data);
     }
 
+    /**
+     * Saves the data read from the channel, encrypting it while it's being read and split, and stores the encryption
+     * key in the key repository. If the encryptor can encrypt ranges of the data (like with the CTR mode), the chunks
+     * of the data are encrypted by up to EncryptWorkers tasks at the same time, as a stage of the save pipeline.
+     * Otherwise the data is encrypted in order by the task that reads it ahead of the IDA.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param data
+     *          the channel to read the data to save and encrypt from
+     * @param size
+     *          the size of the data (the number of bytes that are read from the channel)
+     * @throws IdaPersistenceException
+     */
+    @Override
+    public void saveData(String id, ReadableByteChannel data, long size) throws IdaPersistenceException {
+        EncryptionParams params;
+        try {
+            params = encryptionProvider.createDefaultParams();
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Unable to create default encryption params", e);
+        }
+
+        final Encryptor encryptor;
+        try {
+            encryptor = encryptionProvider.getEncryptor(params);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Failed to start encryption of data '" + id + "'", e);
+        }
+
+        if (encryptor.isRandomAccess()) {
+            saveKey(id, params);
+
+            super.saveData(id, data, size, new ChunkPipeline.Processor() {
+
+                @Override
+                public byte[] process(byte[] chunk, long offset) throws Exception {
+                    return encryptor.encrypt(chunk, offset);
+                }
+
+            }, encryptWorkers);
+        } else {
+            ReadableByteChannel encryptedData;
+            try {
+                encryptedData = encryptor.encrypt(data);
+            } catch (Exception e) {
+                throw new IdaPersistenceException("Failed to start encryption of data '" + id + "'", e);
+            }
+
+            saveKey(id, params);
+
+            super.saveData(id, encryptedData, encryptor.getEncryptedLength(size));
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Data '" + id + "' successfully encrypted and saved");
+        }
+    }
+
     /**
      * Loads the data, and then decrypts it, using the key stored for the data ID.
      *
@@ -87,47 +171,112 @@ public class EncryptingInformationDispersalPersistenceServiceImpl extends Inform
     @Override
     public byte[] loadData(String id) throws IdaPersistenceException {
         byte[] data = super.loadData(id);
+        Decryptor decryptor = getDecryptor(id);
 
-        String serializedKey;
         try {
-            serializedKey = keyRepository.getKey(id);
+            data = decryptor.decrypt(data);
         } catch (Exception e) {
-            throw new IdaPersistenceException("Unable to get encryption key for data '" + id + "'", e);
+            throw new IdaPersistenceException("Failed to decrypt data '" + id + "'", e);
         }
 
-        if (serializedKey == null) {
-            throw new IdaPersistenceException("No encryption key found for data '" + id + "'");
+        if (logger.isDebugEnabled()) {
+            logger.debug("Data '" + id + "' successfully decrypted");
         }
 
-        byte[] key;
-        byte[] iv;
-        try {
-            key = Hex.decodeHex(StringUtils.substringBefore(serializedKey, SERIALIZED_KEY_SEPARATOR).toCharArray());
-            iv = Hex.decodeHex(StringUtils.substringAfter(serializedKey, SERIALIZED_KEY_SEPARATOR).toCharArray());
-        } catch (Exception e) {
-            throw new IdaPersistenceException("Unable to decode serialized encryption key from hex for data '" + id + "'", e);
-        }
+        return data;
+    }
 
-        EncryptionParams params;
+    /**
+     * Loads the data and writes it decrypted to the channel, using the key stored for the data ID. The data is
+     * decrypted while it's being loaded.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param data
+     *          the channel to write the loaded data, decrypted, to
+     * @throws IdaPersistenceException
+     */
+    @Override
+    public void loadData(String id, WritableByteChannel data) throws IdaPersistenceException {
+        WritableByteChannel encryptedData;
         try {
-            params = encryptionProvider.createParams(key, iv);
+            encryptedData = getDecryptor(id).decrypt(data);
+        } catch (IdaPersistenceException e) {
+            throw e;
         } catch (Exception e) {
-            throw new IdaPersistenceException("Unable to create encryption params from stored key and IV", e);
+            throw new IdaPersistenceException("Failed to start decryption of data '" + id + "'", e);
         }
 
+        super.loadData(id, encryptedData);
+
         try {
-            data = encryptionProvider.getDecryptor(params).decrypt(data);
+            encryptedData.close();
         } catch (Exception e) {
             throw new IdaPersistenceException("Failed to decrypt data '" + id + "'", e);
         }
 
         if (logger.isDebugEnabled()) {
-            logger.debug("Data '" + id + "' successfully decrypted");
+            logger.debug("Data '" + id + "' successfully loaded and decrypted");
+        }
+    }
+
+    /**
+     * Loads a range of the data, and then decrypts it, using the key stored for the data ID. If the decryptor can't
+     * decrypt a range on its own (the cipher is not in CTR mode), the whole data is loaded and decrypted instead.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param offset
+     *          the offset in the data of the first byte to load
+     * @param length
+     *          the number of bytes to load
+     * @return the loaded range, decrypted
+     * @throws IdaPersistenceException
+     */
+    @Override
+    public byte[] loadData(String id, long offset, int length) throws IdaPersistenceException {
+        Decryptor decryptor = getDecryptor(id);
+        byte[] data;
+
+        if (decryptor.isRandomAccess()) {
+            data = super.loadData(id, offset, length);
+
+            try {
+                data = decryptor.decrypt(data, offset);
+            } catch (Exception e) {
+                throw new IdaPersistenceException("Failed to decrypt range of data '" + id + "'", e);
+            }
+        } else {
+            if (offset < 0 || length < 0) {
+                throw new IdaPersistenceException("Invalid range with offset " + offset + " and length " + length);
+            }
+
+            data = loadData(id);
+
+            int start = (int) Math.min(offset, data.length);
+            int end = (int) Math.min(offset + length, data.length);
+
+            data = Arrays.copyOfRange(data, start, end);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Range of data '" + id + "' successfully decrypted");
         }
 
         return data;
     }
 
+    /**
+     * Not supported: patching the encrypted data in place would mean encrypting the new contents with the same key and
+     * IV as the old ones, which with a stream mode like CTR reveals the XOR of the old and new contents. The data
+     * needs to be saved again with {@link #saveData(String, byte[])}.
+     */
+    @Override
+    public void updateData(String id, long offset, byte[] oldData, byte[] newData) throws IdaPersistenceException {
+        throw new IdaPersistenceException("Encrypted data '" + id + "' can't be updated in place, it needs to be " +
+                "saved again");
+    }
+
     /**
      * Deletes the fragments for the given data ID from their respective repositories. It also deletes the encryption key for the data
      * from the key repository.
@@ -149,4 +298,54 @@ public class EncryptingInformationDispersalPersistenceServiceImpl extends Inform
         return fragmentsDeleted;
     }
 
+    /**
+     * Stores the key and IV of the encryption params of the data in the key repository.
+     */
+    protected void saveKey(String id, EncryptionParams params) throws IdaPersistenceException {
+        String serializedKey = Hex.encodeHexString(params.getKey()) + SERIALIZED_KEY_SEPARATOR + Hex.encodeHexString(params.getIv());
+        try {
+            keyRepository.saveKey(id, serializedKey);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Unable to save encryption key for data '" + id + "' in repository", e);
+        }
+    }
+
+    /**
+     * Returns the decryptor for the data, created with the key and IV stored for the data ID.
+     */
+    protected Decryptor getDecryptor(String id) throws IdaPersistenceException {
+        String serializedKey;
+        try {
+            serializedKey = keyRepository.getKey(id);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Unable to get encryption key for data '" + id + "'", e);
+        }
+
+        if (serializedKey == null) {
+            throw new IdaPersistenceException("No encryption key found for data '" + id + "'");
+        }
+
+        byte[] key;
+        byte[] iv;
+        try {
+            key = Hex.decodeHex(StringUtils.substringBefore(serializedKey, SERIALIZED_KEY_SEPARATOR).toCharArray());
+            iv = Hex.decodeHex(StringUtils.substringAfter(serializedKey, SERIALIZED_KEY_SEPARATOR).toCharArray());
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Unable to decode serialized encryption key from hex for data '" + id + "'", e);
+        }
+
+        EncryptionParams params;
+        try {
+            params = encryptionProvider.createParams(key, iv);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Unable to create encryption params from stored key and IV", e);
+        }
+
+        try {
+            return encryptionProvider.getDecryptor(params);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Unable to create decryptor for data '" + id + "'", e);
+        }
+    }
+
 }
@@ -1,18 +1,31 @@
 package org.cloudraid.ida.persistence.impl;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.cloudraid.ida.persistence.api.Configuration;
+import org.cloudraid.ida.persistence.api.FragmentPatch;
 import org.cloudraid.ida.persistence.api.FragmentRepository;
 import org.cloudraid.ida.persistence.exception.RepositoryException;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Implementation of {@link FragmentRepository} that uses a directory in the local filesystem to store the fragments.
  */
 public class FilesystemFragmentRepository implements FragmentRepository {
 
+    private static final int TRANSFER_BUFFER_SIZE = 65536;
+
     private String repositoryUrl;
     private File rootDir;
 
@@ -49,14 +62,145 @@ public class FilesystemFragmentRepository implements FragmentRepository {
         }
     }
 
+    @Override
+    public void saveFragment(String name, ReadableByteChannel fragment, long length) throws RepositoryException {
+        File fragmentFile = new File(rootDir, name);
+        FileOutputStream out = null;
+        boolean saved = false;
+
+        try {
+            out = new FileOutputStream(fragmentFile);
+
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+            long remaining = length;
+
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+
+                if (fragment.read(buffer) < 0) {
+                    throw new RepositoryException("The fragment channel ended " + remaining + " bytes before the " +
+                            "end of the fragment");
+                }
+
+                buffer.flip();
+                remaining -= buffer.remaining();
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            saved = true;
+        } catch (RepositoryException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RepositoryException("Error while trying to write fragment to file " + fragmentFile, e);
+        } finally {
+            IOUtils.closeQuietly(out);
+
+            // Don't leave a truncated fragment behind
+            if (!saved) {
+                fragmentFile.delete();
+            }
+        }
+    }
+
+    @Override
+    public void patchFragment(String name, FragmentPatch patch) throws RepositoryException {
+        File fragmentFile = new File(rootDir, name);
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(fragmentFile, "rw");
+
+            if (patch.getOffset() + patch.getLength() > file.length()) {
+                throw new RepositoryException(patch + " is out of the bounds of fragment file " + fragmentFile +
+                        " of " + file.length() + " bytes");
+            }
+
+            // Only the region that changes is read and written back
+            byte[] region = new byte[patch.getLength()];
+            file.seek(patch.getOffset());
+            file.readFully(region);
+
+            patch.applyTo(region, 0);
+
+            file.seek(patch.getOffset());
+            file.write(region);
+        } catch (RepositoryException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RepositoryException("Error while trying to patch fragment file " + fragmentFile, e);
+        } finally {
+            IOUtils.closeQuietly(file);
+        }
+    }
+
     @Override
     public byte[] loadFragment(String name) throws RepositoryException {
         File fragmentFile = new File(rootDir, name);
+        FileInputStream in = null;
 
         try {
-            return FileUtils.readFileToByteArray(fragmentFile);
+            in = new FileInputStream(fragmentFile);
+
+            FileChannel channel = in.getChannel();
+
+            return readFully(channel, 0, (int) channel.size());
+        } catch (Exception e) {
+            throw new RepositoryException("Error while trying to read fragment from file " + fragmentFile, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    @Override
+    public void loadFragment(String name, WritableByteChannel fragment) throws RepositoryException {
+        File fragmentFile = new File(rootDir, name);
+        FileInputStream in = null;
+
+        try {
+            in = new FileInputStream(fragmentFile);
+
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+
+                while (buffer.hasRemaining()) {
+                    fragment.write(buffer);
+                }
+
+                buffer.clear();
+            }
         } catch (Exception e) {
             throw new RepositoryException("Error while trying to read fragment from file " + fragmentFile, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    @Override
+    public byte[] loadFragment(String name, long offset, int length) throws RepositoryException {
+        File fragmentFile = new File(rootDir, name);
+        FileInputStream in = null;
+
+        try {
+            in = new FileInputStream(fragmentFile);
+
+            FileChannel channel = in.getChannel();
+
+            return readFully(channel, offset, (int) Math.max(0, Math.min(length, channel.size() - offset)));
+        } catch (Exception e) {
+            throw new RepositoryException("Error while trying to read range of " + length + " bytes at offset " +
+                    offset + " from fragment file " + fragmentFile, e);
+        } finally {
+            IOUtils.closeQuietly(in);
         }
     }
 
@@ -71,6 +215,26 @@ public class FilesystemFragmentRepository implements FragmentRepository {
         }
     }
 
+    /**
+     * Reads the bytes of the file channel at the offset, a buffer at a time. The channel is interruptible, so if the
+     * load is cancelled (its thread interrupted) the read stops with a
+     * {@link java.nio.channels.ClosedByInterruptException} instead of reading the rest of the fragment.
+     */
+    private byte[] readFully(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+
+        while (bytes.position() < length) {
+            bytes.limit(Math.min(length, bytes.position() + TRANSFER_BUFFER_SIZE));
+
+            if (channel.read(bytes, offset + bytes.position()) < 0) {
+                throw new EOFException("The fragment file ended " + (length - bytes.position()) + " bytes before " +
+                        "the end of the read");
+            }
+        }
+
+        return bytes.array();
+    }
+
     @Override
     public String toString() {
         return "FilesystemFragmentRepository[" +
@@ -0,0 +1,59 @@
+package org.cloudraid.ida.persistence.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Channel that reads exactly the specified length from another channel: it ends after the last byte of the length,
+ * even if the other channel has more, and fails if the other channel ends before it. Used to stream data and fragments
+ * whose length has to be known before they're read.
+ */
+public class FixedLengthChannel implements ReadableByteChannel {
+
+    private ReadableByteChannel channel;
+    private long remaining;
+
+    public FixedLengthChannel(ReadableByteChannel channel, long length) {
+        this.channel = channel;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (remaining == 0) {
+            return -1;
+        }
+
+        int limit = dst.limit();
+        if (dst.remaining() > remaining) {
+            dst.limit(dst.position() + (int) remaining);
+        }
+
+        int read;
+        try {
+            read = channel.read(dst);
+        } finally {
+            dst.limit(limit);
+        }
+
+        if (read < 0) {
+            throw new IOException("The channel ended " + remaining + " bytes before its length");
+        }
+
+        remaining -= read;
+
+        return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
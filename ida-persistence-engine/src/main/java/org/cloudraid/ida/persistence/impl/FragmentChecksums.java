@@ -0,0 +1,353 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.cloudraid.ida.persistence.api.FragmentPatch;
+import org.cloudraid.ida.persistence.api.FragmentRange;
+import org.cloudraid.ida.persistence.exception.RepositoryException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Adds per-block checksums to the fragments before they're saved in the repositories, and verifies them when they're
+ * loaded back, so a corrupt fragment is dropped (and loaded from another repository) instead of being combined into
+ * corrupt data.
+ *
+ * <p>
+ *     Layout of a checksummed fragment (big endian):
+ *     <ul>
+ *         <li>marker (1 byte): always 0xFE (fragments without it are loaded as they are)</li>
+ *         <li>version (1 byte): the version of the checksum format</li>
+ *         <li>blockSize (4 bytes)</li>
+ *         <li>for every block of blockSize bytes of the fragment (the last one can be shorter): the CRC-32 of the block
+ *         (4 bytes), followed by the block</li>
+ *     </ul>
+ *     The CRC of the last block is computed as if the block was padded with zeros up to blockSize, so every CRC is
+ *     over blockSize bytes. Since a CRC over a fixed length is affine, the change of the CRC of a block only depends
+ *     on the change of the block, and {@link #addChecksums(FragmentPatch, int)} can patch the checksums without
+ *     reading the fragment.
+ * </p>
+ */
+public class FragmentChecksums {
+
+    public static final byte MARKER = (byte) 0xFE;
+    public static final byte VERSION = 1;
+    public static final int HEADER_LENGTH = 6;
+    public static final int CHECKSUM_LENGTH = 4;
+
+    /**
+     * Zeros the CRC of a short last block is padded with, a chunk at a time, instead of allocating the padding.
+     */
+    private static final byte[] PADDING = new byte[4096];
+
+    private FragmentChecksums() {
+    }
+
+    /**
+     * Returns true if the fragment starts with a checksum header.
+     */
+    public static boolean hasChecksums(byte[] fragment) {
+        return fragment.length >= HEADER_LENGTH && fragment[0] == MARKER;
+    }
+
+    /**
+     * Returns the block size of a fragment that starts with a checksum header.
+     *
+     * @throws RepositoryException if the version of the header is unknown or the block size is invalid
+     */
+    public static int getBlockSize(byte[] checksummed) throws RepositoryException {
+        ByteBuffer buffer = ByteBuffer.wrap(checksummed, 0, HEADER_LENGTH);
+        buffer.get();
+
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new RepositoryException("Unsupported checksum format version " + version);
+        }
+
+        int blockSize = buffer.getInt();
+        if (blockSize <= 0) {
+            throw new RepositoryException("Invalid checksum block size " + blockSize);
+        }
+
+        return blockSize;
+    }
+
+    /**
+     * Returns the fragment with a checksum every {@code blockSize} bytes.
+     */
+    public static byte[] addChecksums(byte[] fragment, int blockSize) {
+        int blockNum = (fragment.length + blockSize - 1) / blockSize;
+        ByteBuffer checksummed = ByteBuffer.allocate(HEADER_LENGTH + blockNum * CHECKSUM_LENGTH + fragment.length);
+        CRC32 crc = new CRC32();
+
+        checksummed.put(MARKER);
+        checksummed.put(VERSION);
+        checksummed.putInt(blockSize);
+
+        for (int offset = 0; offset < fragment.length; offset += blockSize) {
+            int length = Math.min(blockSize, fragment.length - offset);
+
+            checksummed.putInt(computeChecksum(crc, fragment, offset, length, blockSize));
+            checksummed.put(fragment, offset, length);
+        }
+
+        return checksummed.array();
+    }
+
+    /**
+     * Returns a channel that reads the fragment from the given channel and returns it with a checksum every
+     * {@code blockSize} bytes, like {@link #addChecksums(byte[], int)}. Only a block of the fragment is held in memory.
+     */
+    public static ReadableByteChannel addChecksums(ReadableByteChannel fragment, int blockSize) {
+        return new ChecksummingChannel(fragment, blockSize);
+    }
+
+    /**
+     * Returns a channel that verifies the checksums of a fragment while it's written to the channel, a block at a time,
+     * so a corrupt fragment fails as soon as the corrupt block is written, instead of after the whole fragment.
+     */
+    public static ChecksumVerifyingChannel removeChecksums() {
+        return new ChecksumVerifyingChannel();
+    }
+
+    /**
+     * Returns the length of a fragment of the given length once the checksums are added.
+     */
+    public static long getChecksummedLength(long length, int blockSize) {
+        long blockNum = (length + blockSize - 1) / blockSize;
+
+        return HEADER_LENGTH + blockNum * CHECKSUM_LENGTH + length;
+    }
+
+    /**
+     * Verifies the checksums of the fragment and returns the fragment without them. Fragments that don't start with a
+     * checksum header (saved before checksums were added or with them disabled) are returned as they are.
+     *
+     * @throws RepositoryException if the checksum of a block doesn't match (the fragment is corrupt)
+     */
+    public static byte[] removeChecksums(byte[] checksummed) throws RepositoryException {
+        if (!hasChecksums(checksummed)) {
+            return checksummed;
+        }
+
+        int blockSize = getBlockSize(checksummed);
+
+        return verifyBlocks(ByteBuffer.wrap(checksummed, HEADER_LENGTH, checksummed.length - HEADER_LENGTH),
+                blockSize);
+    }
+
+    /**
+     * Returns the range of whole blocks (with their checksums) of a fragment with checksums that holds a range of the
+     * fragment without them.
+     */
+    public static FragmentRange getChecksummedRange(FragmentRange range, int blockSize) {
+        if (range.getLength() == 0) {
+            return new FragmentRange(getBlockOffset(range.getOffset() / blockSize, blockSize), 0);
+        }
+
+        long firstBlock = range.getOffset() / blockSize;
+        long lastBlock = (range.getOffset() + range.getLength() - 1) / blockSize;
+
+        return new FragmentRange(getBlockOffset(firstBlock, blockSize),
+                (int) ((lastBlock - firstBlock + 1) * (blockSize + CHECKSUM_LENGTH)));
+    }
+
+    /**
+     * Verifies the checksums of the blocks loaded for a range (see {@link #getChecksummedRange(FragmentRange, int)})
+     * and returns the range without them.
+     *
+     * @param blocks
+     *          the blocks with their checksums (the last one can be shorter, if it's the last of the fragment)
+     * @param range
+     *          the range of the fragment without checksums
+     * @param blockSize
+     *          the block size of the fragment
+     * @return the bytes of the range (fewer if the fragment ends before the end of the range)
+     * @throws RepositoryException if the checksum of a block doesn't match (the fragment is corrupt)
+     */
+    public static byte[] removeChecksums(byte[] blocks, FragmentRange range, int blockSize)
+            throws RepositoryException {
+        byte[] data = verifyBlocks(ByteBuffer.wrap(blocks), blockSize);
+
+        int start = (int) Math.min(range.getOffset() % blockSize, data.length);
+        int end = Math.min(start + range.getLength(), data.length);
+
+        return start == 0 && end == data.length ? data : Arrays.copyOfRange(data, start, end);
+    }
+
+    /**
+     * Translates a patch of a fragment to a patch of the fragment with checksums: the offset of the patch is moved to
+     * the checksum of the first block that changes, and the delta gets the change of the checksum of every block that
+     * changes.
+     *
+     * @param patch
+     *          the patch of the fragment without checksums
+     * @param blockSize
+     *          the block size the fragment was saved with
+     * @return the patch of the fragment with checksums
+     */
+    public static FragmentPatch addChecksums(FragmentPatch patch, int blockSize) {
+        long start = patch.getOffset();
+        long end = start + patch.getLength();
+        long firstBlock = start / blockSize;
+        long lastBlock = (end - 1) / blockSize;
+
+        long patchStart = getBlockOffset(firstBlock, blockSize);
+        long patchEnd = getBlockOffset(lastBlock, blockSize) + CHECKSUM_LENGTH + (end - lastBlock * blockSize);
+        ByteBuffer delta = ByteBuffer.allocate((int) (patchEnd - patchStart));
+        byte[] blockDelta = new byte[blockSize];
+        byte[] zeros = new byte[blockSize];
+        CRC32 crc = new CRC32();
+
+        int zerosChecksum = computeChecksum(crc, zeros, 0, blockSize, blockSize);
+
+        for (long block = firstBlock; block <= lastBlock; block++) {
+            long blockStart = block * blockSize;
+            int from = (int) (Math.max(start, blockStart) - blockStart);
+            int to = (int) (Math.min(end, blockStart + blockSize) - blockStart);
+
+            System.arraycopy(zeros, 0, blockDelta, 0, blockSize);
+            System.arraycopy(patch.getDelta(), (int) (blockStart + from - start), blockDelta, from, to - from);
+
+            delta.position((int) (getBlockOffset(block, blockSize) - patchStart));
+            delta.putInt(computeChecksum(crc, blockDelta, 0, blockSize, blockSize) ^ zerosChecksum);
+            delta.position(delta.position() + from);
+            delta.put(blockDelta, from, to - from);
+        }
+
+        return new FragmentPatch(patch.getFragmentIndex(), patchStart, delta.array());
+    }
+
+    /**
+     * Verifies the remaining blocks of the buffer and returns them without the checksums.
+     */
+    private static byte[] verifyBlocks(ByteBuffer buffer, int blockSize) throws RepositoryException {
+        int blockNum = (buffer.remaining() + blockSize + CHECKSUM_LENGTH - 1) / (blockSize + CHECKSUM_LENGTH);
+        if (buffer.remaining() - blockNum * CHECKSUM_LENGTH < 0) {
+            throw new RepositoryException("The last block of the fragment is truncated");
+        }
+
+        byte[] fragment = new byte[buffer.remaining() - blockNum * CHECKSUM_LENGTH];
+        CRC32 crc = new CRC32();
+
+        for (int block = 0, offset = 0; block < blockNum; block++, offset += blockSize) {
+            int length = Math.min(blockSize, fragment.length - offset);
+            if (length <= 0) {
+                throw new RepositoryException("Block " + block + " of the fragment is truncated");
+            }
+
+            int checksum = buffer.getInt();
+            buffer.get(fragment, offset, length);
+
+            if (computeChecksum(crc, fragment, offset, length, blockSize) != checksum) {
+                throw new RepositoryException("Checksum mismatch in block " + block + " of the fragment");
+            }
+        }
+
+        return fragment;
+    }
+
+    /**
+     * Returns the offset of the checksum of the block in the fragment with checksums.
+     */
+    private static long getBlockOffset(long block, int blockSize) {
+        return HEADER_LENGTH + block * (blockSize + CHECKSUM_LENGTH);
+    }
+
+    /**
+     * Returns the CRC-32 of the block, padded with zeros up to {@code blockSize}.
+     */
+    static int computeChecksum(CRC32 crc, byte[] block, int offset, int length, int blockSize) {
+        crc.reset();
+        crc.update(block, offset, length);
+
+        for (int padding = blockSize - length; padding > 0; padding -= PADDING.length) {
+            crc.update(PADDING, 0, Math.min(padding, PADDING.length));
+        }
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Channel returned by {@link #addChecksums(ReadableByteChannel, int)}. It returns the checksum header, and then
+     * reads a block of the fragment at a time and returns it after its checksum.
+     */
+    private static class ChecksummingChannel implements ReadableByteChannel {
+
+        private final ReadableByteChannel fragment;
+        private final int blockSize;
+        private final ByteBuffer block;
+        private final CRC32 crc;
+        private boolean endOfFragment;
+
+        public ChecksummingChannel(ReadableByteChannel fragment, int blockSize) {
+            this.fragment = fragment;
+            this.blockSize = blockSize;
+            this.block = ByteBuffer.allocate(Math.max(HEADER_LENGTH, CHECKSUM_LENGTH + blockSize));
+            this.crc = new CRC32();
+
+            block.put(MARKER);
+            block.put(VERSION);
+            block.putInt(blockSize);
+            block.flip();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!block.hasRemaining() && !readBlock()) {
+                return -1;
+            }
+
+            int length = Math.min(dst.remaining(), block.remaining());
+            dst.put(block.array(), block.position(), length);
+            block.position(block.position() + length);
+
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return fragment.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            fragment.close();
+        }
+
+        /**
+         * Reads the next block of the fragment, after the space for its checksum, and then puts the checksum. Returns
+         * false if the fragment is finished.
+         */
+        private boolean readBlock() throws IOException {
+            if (endOfFragment) {
+                return false;
+            }
+
+            block.clear();
+            block.position(CHECKSUM_LENGTH);
+            block.limit(CHECKSUM_LENGTH + blockSize);
+
+            while (block.hasRemaining()) {
+                if (fragment.read(block) < 0) {
+                    endOfFragment = true;
+                    break;
+                }
+            }
+
+            int length = block.position() - CHECKSUM_LENGTH;
+            if (length == 0) {
+                return false;
+            }
+
+            block.putInt(0, computeChecksum(crc, block.array(), CHECKSUM_LENGTH, length, blockSize));
+            block.flip();
+
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,140 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.apache.log4j.Logger;
+import org.cloudraid.ida.persistence.api.FragmentRange;
+import org.cloudraid.ida.persistence.api.FragmentRepository;
+import org.cloudraid.ida.persistence.api.InformationDispersalAlgorithm;
+
+import java.util.Arrays;
+
+/**
+ * Asynchronous task, implemented as a {@link java.util.concurrent.Callable}, to load only the header of a fragment:
+ * its first {@link InformationDispersalAlgorithm#getFragmentHeaderLength()} bytes (fewer if the fragment is shorter).
+ *
+ * <p>
+ *     If the fragment was saved with checksums, the whole blocks that hold the header are loaded, and their checksums
+ *     verified. The header is loaded with the blocks of the configured checksum block size, so only fragments saved
+ *     with another block size need another request. The block size the fragment was saved with is kept, so the rest
+ *     of the fragment can be read (or patched) with it.
+ * </p>
+ *
+ * <p>
+ *     The header is loaded only once: a task can be given the header already loaded by another task for the same
+ *     fragment (see {@link #setHeader(byte[], int)}), so it doesn't request it again.
+ * </p>
+ */
+public class FragmentHeaderLoadTask extends FragmentLoadTask {
+
+    private static final Logger logger = Logger.getLogger(FragmentHeaderLoadTask.class);
+
+    protected InformationDispersalAlgorithm ida;
+    protected int checksumBlockSize;
+    protected int storedChecksumBlockSize;
+    protected byte[] header;
+
+    public FragmentHeaderLoadTask(String dataId, FragmentRepository fragmentRepository,
+                                  InformationDispersalAlgorithm ida, int checksumBlockSize) {
+        super(dataId, fragmentRepository);
+
+        this.ida = ida;
+        this.checksumBlockSize = checksumBlockSize;
+    }
+
+    @Override
+    public byte[] call() throws Exception {
+        String fragmentName = getFragmentName();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loading header of fragment '" + fragmentName + "' from " + fragmentRepository);
+        }
+
+        try {
+            return loadHeader(fragmentName);
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                logger.debug("Load of header of fragment '" + fragmentName + "' from " + fragmentRepository +
+                        " cancelled", e);
+            } else {
+                logger.error("Error while trying to load header of fragment '" + fragmentName + "' from " +
+                        fragmentRepository, e);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Returns the checksum block size the fragment was saved with (0 if it was saved without checksums), once its
+     * header has been loaded.
+     */
+    public int getStoredChecksumBlockSize() {
+        return storedChecksumBlockSize;
+    }
+
+    /**
+     * Returns the header of the fragment, without the checksums, once it has been loaded (null before).
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+
+    /**
+     * Sets the header of the fragment, and the checksum block size the fragment was saved with, when they were
+     * already loaded by another task, so they're not loaded again.
+     */
+    public void setHeader(byte[] header, int storedChecksumBlockSize) {
+        this.header = header;
+        this.storedChecksumBlockSize = storedChecksumBlockSize;
+    }
+
+    /**
+     * Loads the header of the fragment, without the checksums, and keeps the checksum block size the fragment was
+     * saved with. If the header was already set, it's returned without loading it.
+     */
+    protected byte[] loadHeader(String fragmentName) throws Exception {
+        if (header != null) {
+            return header;
+        }
+
+        byte[] blocks = fragmentRepository.loadFragment(fragmentName, 0, getHeaderBlocksLength(checksumBlockSize));
+        int blockSize = 0;
+
+        if (FragmentChecksums.hasChecksums(blocks)) {
+            blockSize = FragmentChecksums.getBlockSize(blocks);
+            if (blockSize != checksumBlockSize) {
+                blocks = fragmentRepository.loadFragment(fragmentName, 0, getHeaderBlocksLength(blockSize));
+            }
+
+            blocks = FragmentChecksums.removeChecksums(blocks);
+        }
+
+        storedChecksumBlockSize = blockSize;
+        header = Arrays.copyOf(blocks, Math.min(ida.getFragmentHeaderLength(), blocks.length));
+
+        return header;
+    }
+
+    /**
+     * Returns the number of bytes at the start of the fragment that hold the fragment header, if the fragment was
+     * saved with checksums of the specified block size (0 if it was saved without checksums).
+     */
+    protected int getHeaderBlocksLength(int blockSize) {
+        int headerLength = ida.getFragmentHeaderLength();
+        if (blockSize <= 0) {
+            return headerLength;
+        }
+
+        FragmentRange blocks = FragmentChecksums.getChecksummedRange(new FragmentRange(0, headerLength), blockSize);
+
+        return (int) blocks.getOffset() + blocks.getLength();
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentHeaderLoadTask[" +
+                "dataId='" + dataId + '\'' +
+                ", fragmentRepository=" + fragmentRepository +
+                ']';
+    }
+
+}
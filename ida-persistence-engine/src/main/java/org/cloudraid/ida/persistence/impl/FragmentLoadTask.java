@@ -6,7 +6,10 @@ import org.cloudraid.ida.persistence.api.FragmentRepository;
 import java.util.concurrent.Callable;
 
 /**
- * Asynchronous task, implemented as a {@link Callable}, to load a fragment from the repository.
+ * Asynchronous task, implemented as a {@link Callable}, to load a fragment from the repository. The checksums of
+ * fragments saved with them are verified block by block while the fragment is loaded, and a corrupt fragment is
+ * treated like one that couldn't be loaded, without loading the rest of it. The task is cancelled by interrupting its
+ * thread, once the service has enough fragments from other repositories.
  *
  * @author avasquez
  */
@@ -31,9 +34,18 @@ public class FragmentLoadTask implements Callable<byte[]> {
         }
 
         try {
-            return fragmentRepository.loadFragment(fragmentName);
+            ChecksumVerifyingChannel fragment = FragmentChecksums.removeChecksums();
+
+            fragmentRepository.loadFragment(fragmentName, fragment);
+
+            return fragment.getFragment();
         } catch (Exception e) {
-            logger.error("Error while trying to load fragment '" + fragmentName + "' from " + fragmentRepository, e);
+            if (Thread.currentThread().isInterrupted()) {
+                logger.debug("Load of fragment '" + fragmentName + "' from " + fragmentRepository + " cancelled", e);
+            } else {
+                logger.error("Error while trying to load fragment '" + fragmentName + "' from " + fragmentRepository,
+                        e);
+            }
 
             return null;
         }
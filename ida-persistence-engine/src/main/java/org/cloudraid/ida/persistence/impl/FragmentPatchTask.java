@@ -0,0 +1,79 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.apache.log4j.Logger;
+import org.cloudraid.ida.persistence.api.FragmentMetaData;
+import org.cloudraid.ida.persistence.api.FragmentMetaDataRepository;
+import org.cloudraid.ida.persistence.api.FragmentPatch;
+import org.cloudraid.ida.persistence.api.FragmentRepository;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Asynchronous task, implemented as a {@link Callable}, to patch a fragment in the repository. If the fragment can't
+ * be patched, it's recorded as a missing fragment, so the outdated fragment is never combined with the patched ones
+ * and can be repaired later.
+ */
+public class FragmentPatchTask implements Callable<Boolean> {
+
+    private static final Logger logger = Logger.getLogger(FragmentPatchTask.class);
+
+    protected FragmentPatch patch;
+    protected FragmentMetaData fragmentMetaData;
+    protected FragmentRepository fragmentRepository;
+    protected FragmentMetaDataRepository fragmentMetaDataRepository;
+
+    public FragmentPatchTask(FragmentPatch patch, FragmentMetaData fragmentMetaData,
+                             FragmentRepository fragmentRepository,
+                             FragmentMetaDataRepository fragmentMetaDataRepository) {
+        this.patch = patch;
+        this.fragmentMetaData = fragmentMetaData;
+        this.fragmentRepository = fragmentRepository;
+        this.fragmentMetaDataRepository = fragmentMetaDataRepository;
+    }
+
+    /**
+     * Patches the fragment in the repository.
+     *
+     * @return true if the fragment was patched successfully
+     */
+    @Override
+    public Boolean call() {
+        String fragmentName = getFragmentName();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Applying " + patch + " to fragment '" + fragmentName + "' in " + fragmentRepository);
+        }
+
+        try {
+            fragmentRepository.patchFragment(fragmentName, patch);
+        } catch (Exception e) {
+            logger.error("Error while trying to patch fragment '" + fragmentName + "' in " + fragmentRepository +
+                    ". It will be recorded as missing", e);
+
+            try {
+                fragmentMetaDataRepository.saveMissingFragmentMetaData(fragmentMetaData);
+            } catch (Exception e2) {
+                logger.error("Error while trying to save missing fragment metadata " + fragmentMetaData, e2);
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    protected String getFragmentName() {
+        return fragmentMetaData.getDataId() + "." + InformationDispersalPersistenceServiceImpl.FRAGMENT_FILE_EXT;
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentPatchTask[" +
+                "patch=" + patch +
+                ", fragmentMetaData=" + fragmentMetaData +
+                ", fragmentRepository=" + fragmentRepository +
+                ", fragmentMetaDataRepository=" + fragmentMetaDataRepository +
+                ']';
+    }
+
+}
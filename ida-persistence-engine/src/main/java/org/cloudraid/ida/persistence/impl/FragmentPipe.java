@@ -0,0 +1,164 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Disk-backed pipe between the IDA, which writes a fragment while it splits streamed data, and the task that saves the
+ * fragment in its repository, which reads the fragment from a source (see {@link #getSource()}). The fragment is
+ * spooled to a temporary file, and the sources read the file while it's written, so the split never waits for a
+ * repository: a repository that is slower than the rest just falls behind in the spooled fragment.
+ *
+ * <p>
+ *     Since the whole fragment is kept in the file, a save that fails can be retried from a new source once the
+ *     split is done. Closing the pipe tells the sources that the fragment is finished. The file is deleted with
+ *     {@link #delete()}, once the fragment is saved or the save is given up.
+ * </p>
+ */
+public class FragmentPipe implements WritableByteChannel {
+
+    private File spoolFile;
+    private FileChannel spool;
+    private long spooledLength;
+    private boolean closed;
+
+    public FragmentPipe(File spoolDirectory) throws IOException {
+        spoolFile = File.createTempFile("fragment", ".spool", spoolDirectory);
+        spool = new RandomAccessFile(spoolFile, "rw").getChannel();
+    }
+
+    /**
+     * Returns a new channel that reads the fragment from the start, waiting for the bytes that haven't been written
+     * yet until the pipe is closed.
+     */
+    public ReadableByteChannel getSource() throws IOException {
+        return new Source(new FileInputStream(spoolFile).getChannel());
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+
+        while (src.hasRemaining()) {
+            spool.write(src);
+        }
+
+        synchronized (this) {
+            spooledLength += length;
+            notifyAll();
+        }
+
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return spool.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        spool.close();
+    }
+
+    /**
+     * Closes the pipe, if it isn't closed yet, and deletes the spooled fragment.
+     */
+    public void delete() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        IOUtils.closeQuietly(spool);
+        FileUtils.deleteQuietly(spoolFile);
+    }
+
+    /**
+     * Waits until the fragment has more bytes than the specified position, and returns the number of bytes after it
+     * (0 if the pipe was closed at the position).
+     */
+    private synchronized long waitForBytes(long position) throws IOException {
+        while (position >= spooledLength && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new InterruptedIOException("Interrupted while waiting for the fragment to be written");
+            }
+        }
+
+        return spooledLength - position;
+    }
+
+    /**
+     * Channel that reads the spooled fragment, following the writes of the IDA.
+     */
+    private class Source implements ReadableByteChannel {
+
+        private FileChannel file;
+        private long position;
+
+        public Source(FileChannel file) {
+            this.file = file;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+
+            long available = waitForBytes(position);
+            if (available <= 0) {
+                return -1;
+            }
+
+            int limit = dst.limit();
+            if (dst.remaining() > available) {
+                dst.limit(dst.position() + (int) available);
+            }
+
+            int read;
+            try {
+                read = file.read(dst, position);
+            } finally {
+                dst.limit(limit);
+            }
+
+            if (read > 0) {
+                position += read;
+            }
+
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return file.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.apache.log4j.Logger;
+import org.cloudraid.ida.persistence.api.FragmentRange;
+import org.cloudraid.ida.persistence.api.FragmentRepository;
+import org.cloudraid.ida.persistence.api.InformationDispersalAlgorithm;
+
+import java.util.Arrays;
+
+/**
+ * Asynchronous task, implemented as a {@link java.util.concurrent.Callable}, to load only the range of a fragment that
+ * holds a range of the data. The header of the fragment is loaded first, unless it was already loaded (see
+ * {@link FragmentHeaderLoadTask}), to find the range with
+ * {@link InformationDispersalAlgorithm#getFragmentRange(byte[], long, int)}, and then the range. The result is the
+ * header followed by the range, as expected by
+ * {@link InformationDispersalAlgorithm#combineRange(java.util.List, long, int)}.
+ *
+ * <p>
+ *     If the fragment was saved with checksums, the whole blocks that hold the range are loaded, with the block size
+ *     the fragment was saved with, and their checksums verified.
+ * </p>
+ */
+public class FragmentRangeLoadTask extends FragmentHeaderLoadTask {
+
+    private static final Logger logger = Logger.getLogger(FragmentRangeLoadTask.class);
+
+    protected long offset;
+    protected int length;
+
+    public FragmentRangeLoadTask(String dataId, FragmentRepository fragmentRepository, InformationDispersalAlgorithm ida,
+                                 long offset, int length, int checksumBlockSize) {
+        super(dataId, fragmentRepository, ida, checksumBlockSize);
+
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public byte[] call() throws Exception {
+        String fragmentName = getFragmentName();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loading range of " + length + " bytes at offset " + offset + " of the data from fragment '" +
+                    fragmentName + "' in " + fragmentRepository);
+        }
+
+        try {
+            byte[] header = loadHeader(fragmentName);
+            int blockSize = storedChecksumBlockSize;
+
+            FragmentRange range = ida.getFragmentRange(header, offset, length);
+            byte[] fragmentRange;
+
+            if (blockSize > 0) {
+                FragmentRange blocks = FragmentChecksums.getChecksummedRange(range, blockSize);
+                fragmentRange = FragmentChecksums.removeChecksums(fragmentRepository.loadFragment(fragmentName,
+                        blocks.getOffset(), blocks.getLength()), range, blockSize);
+            } else {
+                fragmentRange = fragmentRepository.loadFragment(fragmentName, range.getOffset(), range.getLength());
+            }
+
+            byte[] headerAndRange = Arrays.copyOf(header, header.length + fragmentRange.length);
+            System.arraycopy(fragmentRange, 0, headerAndRange, header.length, fragmentRange.length);
+
+            return headerAndRange;
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                logger.debug("Load of range of fragment '" + fragmentName + "' from " + fragmentRepository +
+                        " cancelled", e);
+            } else {
+                logger.error("Error while trying to load range of fragment '" + fragmentName + "' from " +
+                        fragmentRepository, e);
+            }
+
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentRangeLoadTask[" +
+                "dataId='" + dataId + '\'' +
+                ", fragmentRepository=" + fragmentRepository +
+                ", offset=" + offset +
+                ", length=" + length +
+                ']';
+    }
+
+}
@@ -4,11 +4,13 @@ import org.apache.log4j.Logger;
 import org.cloudraid.ida.persistence.api.FragmentMetaData;
 import org.cloudraid.ida.persistence.api.FragmentMetaDataRepository;
 import org.cloudraid.ida.persistence.api.FragmentRepository;
+import org.cloudraid.ida.persistence.exception.RepositoryException;
 
 import java.util.concurrent.Callable;
 
 /**
- * Asynchronous task, implemented as a {@link Callable}, to save a fragment in the repository.
+ * Asynchronous task, implemented as a {@link Callable}, to save a fragment in the repository. If a checksum block size
+ * is specified, the fragment is saved with the checksums of {@link FragmentChecksums}.
  *
  * @author avasquez
  */
@@ -17,13 +19,16 @@ public class FragmentSaveTask implements Callable<Boolean> {
     private static final Logger logger = Logger.getLogger(FragmentSaveTask.class);
 
     protected byte[] fragment;
+    protected int checksumBlockSize;
     protected FragmentMetaData fragmentMetaData;
     protected FragmentRepository fragmentRepository;
     protected FragmentMetaDataRepository fragmentMetaDataRepository;
 
-    public FragmentSaveTask(byte[] fragment, FragmentMetaData fragmentMetaData, FragmentRepository fragmentRepository,
+    public FragmentSaveTask(byte[] fragment, int checksumBlockSize, FragmentMetaData fragmentMetaData,
+                            FragmentRepository fragmentRepository,
                             FragmentMetaDataRepository fragmentMetaDataRepository) {
         this.fragment = fragment;
+        this.checksumBlockSize = checksumBlockSize;
         this.fragmentMetaData = fragmentMetaData;
         this.fragmentRepository = fragmentRepository;
         this.fragmentMetaDataRepository = fragmentMetaDataRepository;
@@ -43,7 +48,7 @@ public class FragmentSaveTask implements Callable<Boolean> {
         }
 
         try {
-            fragmentRepository.saveFragment(fragmentName, fragment);
+            saveFragment(fragmentName);
         } catch (Exception e) {
             logger.error("Error while trying to save fragment '" + fragmentName + "' in " + fragmentRepository, e);
 
@@ -65,6 +70,35 @@ public class FragmentSaveTask implements Callable<Boolean> {
         return true;
     }
 
+    /**
+     * Saves the fragment in the repository, with checksums if a checksum block size is specified.
+     */
+    protected void saveFragment(String fragmentName) throws RepositoryException {
+        if (checksumBlockSize > 0) {
+            fragmentRepository.saveFragment(fragmentName, FragmentChecksums.addChecksums(fragment, checksumBlockSize));
+        } else {
+            fragmentRepository.saveFragment(fragmentName, fragment);
+        }
+    }
+
+    public FragmentMetaData getFragmentMetaData() {
+        return fragmentMetaData;
+    }
+
+    /**
+     * Returns true if the task can be called again to retry the save, after it failed.
+     */
+    public boolean isRetryable() {
+        return true;
+    }
+
+    /**
+     * Called once the save is over (the fragment was saved, or it won't be retried anymore), to release what the task
+     * keeps to retry the save.
+     */
+    public void finish() {
+    }
+
     protected String getFragmentName() {
         return fragmentMetaData.getDataId() + "." + InformationDispersalPersistenceServiceImpl.FRAGMENT_FILE_EXT;
     }
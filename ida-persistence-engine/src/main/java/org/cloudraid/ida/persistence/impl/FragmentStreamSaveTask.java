@@ -0,0 +1,78 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.apache.commons.io.IOUtils;
+import org.cloudraid.ida.persistence.api.FragmentMetaData;
+import org.cloudraid.ida.persistence.api.FragmentMetaDataRepository;
+import org.cloudraid.ida.persistence.api.FragmentRepository;
+import org.cloudraid.ida.persistence.exception.RepositoryException;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * {@link FragmentSaveTask} that streams the fragment to the repository from a {@link FragmentPipe} while the data is
+ * being split, instead of saving a fragment that is already in memory. Every save reads the spooled fragment from the
+ * start, so a failed save can be retried once the split is done. The spooled fragment is deleted when the task is
+ * finished.
+ */
+public class FragmentStreamSaveTask extends FragmentSaveTask {
+
+    protected FragmentPipe fragmentPipe;
+    protected long fragmentLength;
+
+    public FragmentStreamSaveTask(FragmentPipe fragmentPipe, long fragmentLength, int checksumBlockSize,
+                                  FragmentMetaData fragmentMetaData, FragmentRepository fragmentRepository,
+                                  FragmentMetaDataRepository fragmentMetaDataRepository) {
+        super(null, checksumBlockSize, fragmentMetaData, fragmentRepository, fragmentMetaDataRepository);
+
+        this.fragmentPipe = fragmentPipe;
+        this.fragmentLength = fragmentLength;
+    }
+
+    /**
+     * Streams the fragment to the repository, with checksums if a checksum block size is specified. If the pipe is
+     * closed before the length of the fragment (the split failed), the save fails instead of saving a truncated
+     * fragment.
+     */
+    @Override
+    protected void saveFragment(String fragmentName) throws RepositoryException {
+        ReadableByteChannel source;
+        try {
+            source = fragmentPipe.getSource();
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to read spooled fragment '" + fragmentName + "'", e);
+        }
+
+        ReadableByteChannel channel = new FixedLengthChannel(source, fragmentLength);
+
+        try {
+            if (checksumBlockSize > 0) {
+                fragmentRepository.saveFragment(fragmentName, FragmentChecksums.addChecksums(channel,
+                        checksumBlockSize), FragmentChecksums.getChecksummedLength(fragmentLength, checksumBlockSize));
+            } else {
+                fragmentRepository.saveFragment(fragmentName, channel, fragmentLength);
+            }
+        } finally {
+            IOUtils.closeQuietly(source);
+        }
+    }
+
+    /**
+     * Deletes the spooled fragment.
+     */
+    @Override
+    public void finish() {
+        fragmentPipe.delete();
+    }
+
+    @Override
+    public String toString() {
+        return "FragmentStreamSaveTask[" +
+                "fragmentMetaData=" + fragmentMetaData +
+                ", fragmentLength=" + fragmentLength +
+                ", fragmentRepository=" + fragmentRepository +
+                ", fragmentMetaDataRepository=" + fragmentMetaDataRepository +
+                ']';
+    }
+
+}
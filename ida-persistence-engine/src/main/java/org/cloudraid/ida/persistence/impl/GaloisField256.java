@@ -0,0 +1,154 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.jigdfs.ida.cauchyreedsolomon.XorKernel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Arithmetic over GF(2^8), with the primitive polynomial x^8 + x^4 + x^3 + x^2 + 1 (0x11D) and 2 as generator.
+ *
+ * <p>
+ *     Products of single elements are computed with log/antilog tables. Regions of bytes are multiplied with a full
+ *     256x256 multiplication table (64 KB), so multiplying a byte by a constant is a single lookup in a 256 byte row
+ *     that stays in the L1 cache, and multiplying by 1 (the most common coefficient in parity codes) is just a XOR
+ *     done by the {@link XorKernel}.
+ * </p>
+ */
+public final class GaloisField256 {
+
+    public static final int FIELD_SIZE = 256;
+    public static final int PRIMITIVE_POLYNOMIAL = 0x11D;
+    public static final int GENERATOR = 2;
+
+    private static final int[] LOG = new int[FIELD_SIZE];
+    private static final int[] EXP = new int[2 * FIELD_SIZE];
+    private static final byte[][] MULTIPLICATION_TABLE = new byte[FIELD_SIZE][FIELD_SIZE];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < FIELD_SIZE - 1; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+
+            x <<= 1;
+            if (x >= FIELD_SIZE) {
+                x ^= PRIMITIVE_POLYNOMIAL;
+            }
+        }
+
+        // Duplicate the antilog table, so the sum of two logs never has to be reduced
+        for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+            EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+        }
+
+        for (int a = 1; a < FIELD_SIZE; a++) {
+            for (int b = 1; b < FIELD_SIZE; b++) {
+                MULTIPLICATION_TABLE[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private GaloisField256() {
+    }
+
+    public static int add(int a, int b) {
+        return a ^ b;
+    }
+
+    public static int multiply(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    public static int divide(int a, int b) {
+        if (b == 0) {
+            throw new ArithmeticException("Division by zero in GF(2^8)");
+        }
+        if (a == 0) {
+            return 0;
+        }
+
+        return EXP[LOG[a] + FIELD_SIZE - 1 - LOG[b]];
+    }
+
+    public static int inverse(int a) {
+        return divide(1, a);
+    }
+
+    /**
+     * Returns the generator raised to the specified power.
+     */
+    public static int exp(int power) {
+        return EXP[power % (FIELD_SIZE - 1)];
+    }
+
+    /**
+     * Returns the row of the multiplication table for the specified coefficient: the product of the coefficient and
+     * a byte {@code b} is {@code row[b & 0xFF]}.
+     */
+    public static byte[] getMultiplicationTable(int coefficient) {
+        return MULTIPLICATION_TABLE[coefficient];
+    }
+
+    /**
+     * Multiplies a region of bytes by a coefficient: {@code dst = coefficient * src}.
+     */
+    public static void multiply(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length, int coefficient) {
+        if (coefficient == 0) {
+            Arrays.fill(dst, dstOffset, dstOffset + length, (byte) 0);
+        } else if (coefficient == 1) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, length);
+        } else {
+            byte[] row = MULTIPLICATION_TABLE[coefficient];
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] = row[src[srcOffset + i] & 0xFF];
+            }
+        }
+    }
+
+    /**
+     * Multiplies a region of bytes by the generator (2) in place. The bytes are processed 8 at a time as longs: each
+     * byte is shifted left, and the ones that overflowed are reduced by XORing the low byte of the polynomial.
+     */
+    public static void multiplyByGenerator(byte[] region, int offset, int length) {
+        ByteBuffer words = ByteBuffer.wrap(region).order(ByteOrder.nativeOrder());
+        int wordsEnd = offset + (length & ~7);
+        int end = offset + length;
+        int i = offset;
+
+        for (; i < wordsEnd; i += 8) {
+            long word = words.getLong(i);
+            long overflow = (word >>> 7) & 0x0101010101010101L;
+            words.putLong(i, ((word & 0x7F7F7F7F7F7F7F7FL) << 1) ^ (overflow * (PRIMITIVE_POLYNOMIAL & 0xFF)));
+        }
+
+        for (; i < end; i++) {
+            int b = region[i] & 0xFF;
+            region[i] = (byte) ((b << 1) ^ ((b >>> 7) * PRIMITIVE_POLYNOMIAL));
+        }
+    }
+
+    /**
+     * Multiplies a region of bytes by a coefficient and adds it to another region:
+     * {@code dst = dst + coefficient * src}.
+     */
+    public static void multiplyAdd(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length, int coefficient,
+                                   XorKernel kernel) {
+        if (coefficient == 0) {
+            return;
+        } else if (coefficient == 1) {
+            kernel.xor(dst, dstOffset, src, srcOffset, length);
+        } else {
+            byte[] row = MULTIPLICATION_TABLE[coefficient];
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] ^= row[src[srcOffset + i] & 0xFF];
+            }
+        }
+    }
+
+}
@@ -1,24 +1,51 @@
 package org.cloudraid.ida.persistence.impl;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cloudraid.ida.persistence.api.*;
+import org.cloudraid.ida.persistence.exception.CorruptFragmentException;
 import org.cloudraid.ida.persistence.exception.IdaPersistenceException;
 import org.cloudraid.ida.persistence.exception.RepositoryException;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default implementation of the {@link org.cloudraid.ida.persistence.api.InformationDispersalPersistenceService}.
  *
  * <p>
  *     <strong>WARN:</strong> This class is not thread-safe, for performance reasons (an instance of this object will
- *     probably used in JLAN, which handles locking). So make sure classes that use it are thread-safe.
+ *     probably used in JLAN, which handles locking). So make sure classes that use it are thread-safe. Only the
+ *     saves that are completed in the background (see {@link #saveData(String, byte[])}) and the parts of a streamed
+ *     load loaded ahead (see {@link #loadData(String, WritableByteChannel)}) run in other threads.
  * </p>
  *
  * @author avasquez
@@ -28,12 +55,86 @@ public class InformationDispersalPersistenceServiceImpl implements InformationDi
     private static final Logger logger = Logger.getLogger(InformationDispersalPersistenceServiceImpl.class);
 
     public static final String FRAGMENT_FILE_EXT = "frag";
+    public static final int DEFAULT_CHECKSUM_BLOCK_SIZE = 65536;
+    public static final int DEFAULT_STREAM_WINDOW_SIZE = 1048576;
+    public static final int DEFAULT_PIPELINE_QUEUE_SIZE = 4;
+    public static final int DEFAULT_SAVE_RETRY_NUM = 3;
+    public static final long DEFAULT_SAVE_RETRY_DELAY = 5000;
+    public static final int DEFAULT_HEDGE_PERCENTILE = 95;
+    public static final int DEFAULT_MAX_HEDGES_PER_LOAD = 1;
+    public static final int DEFAULT_HEDGE_BUDGET_PERCENT = 10;
+    public static final long DEFAULT_MIN_HEDGE_DELAY = 20;
+
+    /**
+     * Length passed to {@link #loadFragments(DataLoad, long, int)} to load the whole fragments.
+     */
+    protected static final int WHOLE_DATA = -1;
 
     protected List<FragmentRepository> repositories;
     protected FragmentMetaDataRepository metaDataRepository;
     protected InformationDispersalAlgorithm ida;
     protected Executor taskExecutor;
+    protected int checksumBlockSize;
+    protected int streamWindowSize;
+    protected File spoolDirectory;
+    protected int pipelineQueueSize;
+    protected int writeQuorum;
+    protected int saveRetryNum;
+    protected long saveRetryDelay;
+    protected ConcurrentMap<String, Future<?>> backgroundSaves = new ConcurrentHashMap<String, Future<?>>();
+    protected int hedgePercentile;
+    protected int maxHedgesPerLoad;
+    protected int hedgeBudgetPercent;
+    protected long minHedgeDelay;
+    protected RepositoryLatencies latencies = new RepositoryLatencies();
+    protected AtomicLong loadTaskCount = new AtomicLong();
+    protected AtomicLong hedgeTaskCount = new AtomicLong();
 
+    /**
+     * Initializes the service. Besides the objects of the context, the ChecksumBlockSize param can be specified: the
+     * fragments are saved with a checksum every ChecksumBlockSize bytes (see {@link FragmentChecksums}), or without
+     * checksums if it's 0. It can be changed once data has been saved: fragments are read and patched with the block
+     * size in their checksum header.
+     *
+     * <p>
+     *     The StreamWindowSize param bounds the memory used by the streamed saves and loads: a streamed save splits
+     *     StreamWindowSize bytes of the data at a time, and a streamed load loads StreamWindowSize bytes of the data at
+     *     a time.
+     * </p>
+     *
+     * <p>
+     *     The SpoolDirectory param is the directory where streamed saves spool the fragments until they're saved
+     *     (default the temporary directory of the JVM, see {@link FragmentPipe}).
+     * </p>
+     *
+     * <p>
+     *     The PipelineQueueSize param is the number of chunks of StreamWindowSize bytes that a streamed save reads (and
+     *     processes) ahead of the IDA (see {@link ChunkPipeline}).
+     * </p>
+     *
+     * <p>
+     *     The WriteQuorum param is the number of fragments that need to be saved before a save returns, from the
+     *     number of fragments required to rebuild the data up to all of them (the default). The rest of the fragments
+     *     are saved in the background, and the ones that fail are retried up to SaveRetryNum times, SaveRetryDelay
+     *     milliseconds apart, before they're recorded as missing fragments to be repaired (see
+     *     {@link #repairData(String)}).
+     * </p>
+     *
+     * <p>
+     *     Loads are hedged: if a fragment takes longer to load than the HedgePercentile (default 95) of the last loads
+     *     of its repository of about the same size, it's also loaded from a repository that isn't used by the load
+     *     yet, and the first fragments to arrive are used. A load is never hedged before MinHedgeDelay milliseconds
+     *     (default 20), so repositories that are usually very fast (like local filesystems) aren't hedged right away.
+     *     A load sends up to MaxHedgesPerLoad hedges (0 disables hedging), and the hedges of all loads are at most
+     *     HedgeBudgetPercent percent of the fragment loads.
+     * </p>
+     *
+     * <p>
+     *     If the IDA checks the fragments against each other while combining them (like the CRS IDA with VerifyDecode),
+     *     a corrupt fragment costs an extra read: it's replaced with the fragment of another repository. If the IDA
+     *     can't tell which fragment is corrupt, another fragment is read first, so the IDA can locate it.
+     * </p>
+     */
     @Override
     public void init(Configuration config) throws IdaPersistenceException {
         repositories = config.getContext().getFragmentRepositories();
@@ -55,10 +156,190 @@ public class InformationDispersalPersistenceServiceImpl implements InformationDi
         if (taskExecutor == null) {
             throw new IdaPersistenceException("No ThreadPoolExecutor found in Context");
         }
+
+        String checksumBlockSizeParam = config.getInitParameter("ChecksumBlockSize");
+        if (StringUtils.isNotEmpty(checksumBlockSizeParam)) {
+            try {
+                checksumBlockSize = Integer.parseInt(checksumBlockSizeParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for ChecksumBlockSize param '" +
+                        checksumBlockSizeParam + "'", e);
+            }
+
+            if (checksumBlockSize < 0) {
+                throw new IdaPersistenceException("ChecksumBlockSize '" + checksumBlockSize + "' can't be negative");
+            }
+        } else {
+            checksumBlockSize = DEFAULT_CHECKSUM_BLOCK_SIZE;
+        }
+
+        String streamWindowSizeParam = config.getInitParameter("StreamWindowSize");
+        if (StringUtils.isNotEmpty(streamWindowSizeParam)) {
+            try {
+                streamWindowSize = Integer.parseInt(streamWindowSizeParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for StreamWindowSize param '" +
+                        streamWindowSizeParam + "'", e);
+            }
+
+            if (streamWindowSize <= 0) {
+                throw new IdaPersistenceException("StreamWindowSize '" + streamWindowSize + "' should be positive");
+            }
+        } else {
+            streamWindowSize = DEFAULT_STREAM_WINDOW_SIZE;
+        }
+
+        String spoolDirectoryParam = config.getInitParameter("SpoolDirectory");
+        if (StringUtils.isNotEmpty(spoolDirectoryParam)) {
+            spoolDirectory = new File(spoolDirectoryParam);
+        } else {
+            spoolDirectory = FileUtils.getTempDirectory();
+        }
+
+        if (!spoolDirectory.exists()) {
+            try {
+                FileUtils.forceMkdir(spoolDirectory);
+            } catch (Exception e) {
+                throw new IdaPersistenceException("Unable to create spool directory " + spoolDirectory, e);
+            }
+        }
+
+        String pipelineQueueSizeParam = config.getInitParameter("PipelineQueueSize");
+        if (StringUtils.isNotEmpty(pipelineQueueSizeParam)) {
+            try {
+                pipelineQueueSize = Integer.parseInt(pipelineQueueSizeParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for PipelineQueueSize param '" +
+                        pipelineQueueSizeParam + "'", e);
+            }
+
+            if (pipelineQueueSize <= 0) {
+                throw new IdaPersistenceException("PipelineQueueSize '" + pipelineQueueSize + "' should be positive");
+            }
+        } else {
+            pipelineQueueSize = DEFAULT_PIPELINE_QUEUE_SIZE;
+        }
+
+        String writeQuorumParam = config.getInitParameter("WriteQuorum");
+        if (StringUtils.isNotEmpty(writeQuorumParam)) {
+            try {
+                writeQuorum = Integer.parseInt(writeQuorumParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for WriteQuorum param '" + writeQuorumParam + "'", e);
+            }
+
+            int requiredFragmentNum = ida.getFragmentNumber() - ida.getRedundantFragmentNumber();
+            if (writeQuorum < requiredFragmentNum || writeQuorum > ida.getFragmentNumber()) {
+                throw new IdaPersistenceException("WriteQuorum '" + writeQuorum + "' should be between " +
+                        requiredFragmentNum + " and " + ida.getFragmentNumber());
+            }
+        } else {
+            writeQuorum = ida.getFragmentNumber();
+        }
+
+        String saveRetryNumParam = config.getInitParameter("SaveRetryNum");
+        if (StringUtils.isNotEmpty(saveRetryNumParam)) {
+            try {
+                saveRetryNum = Integer.parseInt(saveRetryNumParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for SaveRetryNum param '" + saveRetryNumParam + "'",
+                        e);
+            }
+
+            if (saveRetryNum < 0) {
+                throw new IdaPersistenceException("SaveRetryNum '" + saveRetryNum + "' can't be negative");
+            }
+        } else {
+            saveRetryNum = DEFAULT_SAVE_RETRY_NUM;
+        }
+
+        String saveRetryDelayParam = config.getInitParameter("SaveRetryDelay");
+        if (StringUtils.isNotEmpty(saveRetryDelayParam)) {
+            try {
+                saveRetryDelay = Long.parseLong(saveRetryDelayParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for SaveRetryDelay param '" + saveRetryDelayParam +
+                        "'", e);
+            }
+
+            if (saveRetryDelay < 0) {
+                throw new IdaPersistenceException("SaveRetryDelay '" + saveRetryDelay + "' can't be negative");
+            }
+        } else {
+            saveRetryDelay = DEFAULT_SAVE_RETRY_DELAY;
+        }
+
+        String hedgePercentileParam = config.getInitParameter("HedgePercentile");
+        if (StringUtils.isNotEmpty(hedgePercentileParam)) {
+            try {
+                hedgePercentile = Integer.parseInt(hedgePercentileParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for HedgePercentile param '" +
+                        hedgePercentileParam + "'", e);
+            }
+
+            if (hedgePercentile < 1 || hedgePercentile > 100) {
+                throw new IdaPersistenceException("HedgePercentile '" + hedgePercentile + "' should be between 1 " +
+                        "and 100");
+            }
+        } else {
+            hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+        }
+
+        String maxHedgesPerLoadParam = config.getInitParameter("MaxHedgesPerLoad");
+        if (StringUtils.isNotEmpty(maxHedgesPerLoadParam)) {
+            try {
+                maxHedgesPerLoad = Integer.parseInt(maxHedgesPerLoadParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for MaxHedgesPerLoad param '" +
+                        maxHedgesPerLoadParam + "'", e);
+            }
+
+            if (maxHedgesPerLoad < 0) {
+                throw new IdaPersistenceException("MaxHedgesPerLoad '" + maxHedgesPerLoad + "' can't be negative");
+            }
+        } else {
+            maxHedgesPerLoad = DEFAULT_MAX_HEDGES_PER_LOAD;
+        }
+
+        String hedgeBudgetPercentParam = config.getInitParameter("HedgeBudgetPercent");
+        if (StringUtils.isNotEmpty(hedgeBudgetPercentParam)) {
+            try {
+                hedgeBudgetPercent = Integer.parseInt(hedgeBudgetPercentParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for HedgeBudgetPercent param '" +
+                        hedgeBudgetPercentParam + "'", e);
+            }
+
+            if (hedgeBudgetPercent < 0) {
+                throw new IdaPersistenceException("HedgeBudgetPercent '" + hedgeBudgetPercent + "' can't be " +
+                        "negative");
+            }
+        } else {
+            hedgeBudgetPercent = DEFAULT_HEDGE_BUDGET_PERCENT;
+        }
+
+        String minHedgeDelayParam = config.getInitParameter("MinHedgeDelay");
+        if (StringUtils.isNotEmpty(minHedgeDelayParam)) {
+            try {
+                minHedgeDelay = Long.parseLong(minHedgeDelayParam);
+            } catch (NumberFormatException e) {
+                throw new IdaPersistenceException("Invalid format for MinHedgeDelay param '" + minHedgeDelayParam +
+                        "'", e);
+            }
+
+            if (minHedgeDelay < 0) {
+                throw new IdaPersistenceException("MinHedgeDelay '" + minHedgeDelay + "' can't be negative");
+            }
+        } else {
+            minHedgeDelay = DEFAULT_MIN_HEDGE_DELAY;
+        }
     }
 
     /**
-     * Stores the given data across several fragment repositories through the IDA.
+     * Stores the given data across several fragment repositories through the IDA. The save returns as soon as
+     * WriteQuorum fragments are saved, and the rest of the fragments are saved in the background (retrying the ones
+     * that fail).
      *
      * @param id
      *          the ID used to identify the data in all repositories
@@ -76,33 +357,146 @@ public class InformationDispersalPersistenceServiceImpl implements InformationDi
 
         AvailableFragmentRepositories availableRepositories = new AvailableFragmentRepositories(repositories);
         CompletionService<Boolean> saveCompletionService = new ExecutorCompletionService<Boolean>(taskExecutor);
+        Map<Future<Boolean>, FragmentSaveTask> saveTasks = new HashMap<Future<Boolean>, FragmentSaveTask>();
 
         for (int i = 0; i < fragments.size(); i++) {
             byte[] fragment = fragments.get(i);
             FragmentRepository repository = availableRepositories.take();
             FragmentMetaData metaData = new FragmentMetaData(id, i, repository.getRepositoryUrl());
+            FragmentSaveTask task = new FragmentSaveTask(fragment, checksumBlockSize, metaData, repository,
+                    metaDataRepository);
 
-            saveCompletionService.submit(new FragmentSaveTask(fragment, metaData, repository, metaDataRepository));
+            saveTasks.put(saveCompletionService.submit(task), task);
         }
 
-        int savedNum = 0;
+        int savedNum = waitForSaveTasks(id, saveCompletionService, saveTasks);
 
-        for (int i = 0; i < fragments.size(); i++) {
-            boolean saved;
+        if (savedNum < writeQuorum) {
+            throw new IdaPersistenceException("Only " + savedNum + " fragments could be saved, the write quorum is " +
+                    writeQuorum);
+        }
+    }
+
+    /**
+     * Stores the data read from the channel across several fragment repositories through the IDA. The save is a
+     * pipeline of stages that run at the same time, so its throughput is the one of the slowest stage instead of the
+     * sum of all of them:
+     *
+     * <ul>
+     *     <li>the data is read ahead of the IDA, in chunks, by a {@link ChunkPipeline}</li>
+     *     <li>the IDA splits the data (with the workers of its own, if it has a Parallelism param)</li>
+     *     <li>every fragment is spooled to a local file, and streamed from it to its repository, through a
+     *     {@link FragmentPipe}</li>
+     * </ul>
+     *
+     * So the executor of the context needs to be able to run a task per fragment, plus the reader of the data, at
+     * once. Since the split writes the fragments to the spool files, it doesn't wait for the slowest repositories: the
+     * save returns once the split is done and WriteQuorum fragments are saved, and the fragments that are behind are
+     * saved from their spool files in the background, where the ones that fail are retried like the fragments of
+     * {@link #saveData(String, byte[])}. Every fragment is spooled (the fragments that fall behind or fail aren't known
+     * until the split has passed their start), so SpoolDirectory needs room for all the fragments of the data.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param data
+     *          the channel to read the data to store from
+     * @param size
+     *          the size of the data (the number of bytes that are read from the channel)
+     */
+    @Override
+    public void saveData(String id, ReadableByteChannel data, long size) throws IdaPersistenceException {
+        saveData(id, data, size, null, 0);
+    }
+
+    /**
+     * Stores the data read from the channel like {@link #saveData(String, ReadableByteChannel, long)}, but processing
+     * the chunks of the data (like encrypting them) before the IDA splits them. Up to {@code processorWorkers} chunks
+     * are processed at the same time, while the IDA splits the chunks before them.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param data
+     *          the channel to read the data to store from
+     * @param size
+     *          the size of the data (the number of bytes that are read from the channel)
+     * @param processor
+     *          the processor of the chunks of the data, or null to save the data as it's read
+     * @param processorWorkers
+     *          the number of chunks that can be processed at the same time
+     */
+    protected void saveData(String id, ReadableByteChannel data, long size, ChunkPipeline.Processor processor,
+                            int processorWorkers) throws IdaPersistenceException {
+        if (size < 0) {
+            throw new IdaPersistenceException("Invalid data size " + size);
+        }
+
+        long fragmentLength;
+        try {
+            fragmentLength = ida.getFragmentLength(size);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Error while trying to compute the fragment length", e);
+        }
+
+        int fragmentNum = ida.getFragmentNumber();
+        List<FragmentPipe> pipes = new ArrayList<FragmentPipe>(fragmentNum);
+        for (int i = 0; i < fragmentNum; i++) {
             try {
-                saved = saveCompletionService.take().get();
-                if (saved) {
-                    savedNum++;
+                pipes.add(new FragmentPipe(spoolDirectory));
+            } catch (IOException e) {
+                for (FragmentPipe pipe : pipes) {
+                    pipe.delete();
                 }
-            } catch (Exception e) {
-                logger.error("Error while trying to retrieve save task result", e);
+
+                throw new IdaPersistenceException("Unable to create fragment pipe in " + spoolDirectory, e);
+            }
+        }
+
+        AvailableFragmentRepositories availableRepositories = new AvailableFragmentRepositories(repositories);
+        CompletionService<Boolean> saveCompletionService = new ExecutorCompletionService<Boolean>(taskExecutor);
+        Map<Future<Boolean>, FragmentSaveTask> saveTasks = new HashMap<Future<Boolean>, FragmentSaveTask>();
+
+        for (int i = 0; i < fragmentNum; i++) {
+            FragmentRepository repository = availableRepositories.take();
+            FragmentMetaData metaData = new FragmentMetaData(id, i, repository.getRepositoryUrl());
+            FragmentSaveTask task = new FragmentStreamSaveTask(pipes.get(i), fragmentLength,
+                    checksumBlockSize, metaData, repository, metaDataRepository);
+
+            saveTasks.put(saveCompletionService.submit(task), task);
+        }
+
+        // The data is read up to its size, and the split fails if the channel ends before
+        ChunkPipeline pipeline = new ChunkPipeline(new FixedLengthChannel(data, size), streamWindowSize, processor,
+                processorWorkers, pipelineQueueSize, taskExecutor);
+        long splitLength = -1;
+        Exception splitException = null;
+        try {
+            pipeline.start();
+
+            splitLength = ida.split(pipeline, pipes, size);
+        } catch (Exception e) {
+            splitException = e;
+        } finally {
+            IOUtils.closeQuietly(pipeline);
+
+            // Closing the pipes ends the fragments. If the split failed, the tasks find the fragments truncated and
+            // fail instead of saving them.
+            for (FragmentPipe pipe : pipes) {
+                IOUtils.closeQuietly(pipe);
             }
         }
 
-        // TODO: Try to save on the background the fragments that couldn't be saved, only if the total of required
-        // fragments to restore the data were successfully saved.
-        if (savedNum < fragments.size()) {
-            throw new IdaPersistenceException("Some fragments couldn't be saved");
+        int savedNum = waitForSaveTasks(id, saveCompletionService, saveTasks);
+
+        if (splitException != null) {
+            throw new IdaPersistenceException("Error while trying to split the data", splitException);
+        }
+        if (splitLength != fragmentLength) {
+            throw new IdaPersistenceException("The IDA split the data into fragments of " + splitLength + " bytes " +
+                    "instead of " + fragmentLength);
+        }
+        if (savedNum < writeQuorum) {
+            throw new IdaPersistenceException("Only " + savedNum + " fragments could be saved, the write quorum is " +
+                    writeQuorum);
         }
     }
 
@@ -115,76 +509,207 @@ public class InformationDispersalPersistenceServiceImpl implements InformationDi
      */
     @Override
     public byte[] loadData(String id) throws IdaPersistenceException {
-        List<FragmentMetaData> fragmentsMetaData;
-        try {
-            fragmentsMetaData = metaDataRepository.getAllFragmentMetaDataForData(id);
-        } catch (RepositoryException e) {
-            throw new IdaPersistenceException("Error while trying to retrieve all fragment metadata for the data", e);
+        return combineFragments(new DataLoad(id, getAvailableFragmentMetaData(id)), 0, WHOLE_DATA);
+    }
+
+    /**
+     * Loads the data and writes it to the channel, {@code StreamWindowSize} bytes at a time. Every part is a range of
+     * the data (see {@link #loadData(String, long, int)}), so only the ranges of the fragments that hold it are loaded.
+     * The fragment metadata is retrieved once, and the header of every fragment is loaded only once, by the first part
+     * that loads the fragment. While a part is written to the channel, the next part is loaded and combined in a task
+     * of the executor.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param data
+     *          the channel to write the loaded data to
+     */
+    @Override
+    public void loadData(String id, WritableByteChannel data) throws IdaPersistenceException {
+        DataLoad dataLoad = new DataLoad(id, getAvailableFragmentMetaData(id));
+        long offset = 0;
+        byte[] range = loadDataRange(dataLoad, offset, streamWindowSize);
+
+        while (true) {
+            FutureTask<byte[]> nextRange = null;
+            if (range.length == streamWindowSize) {
+                nextRange = new FutureTask<byte[]>(createRangeLoad(dataLoad, offset + range.length));
+                taskExecutor.execute(nextRange);
+            }
+
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(range);
+                while (buffer.hasRemaining()) {
+                    data.write(buffer);
+                }
+            } catch (IOException e) {
+                if (nextRange != null) {
+                    nextRange.cancel(true);
+                }
+
+                throw new IdaPersistenceException("Error while trying to write the data to the channel", e);
+            }
+
+            if (nextRange == null) {
+                return;
+            }
+
+            offset += range.length;
+            range = getNextRange(nextRange);
+        }
+    }
+
+    /**
+     * Loads a range of the data, which is recombined (through the IDA) from the ranges of the fragments that hold it.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param offset
+     *          the offset in the data of the range
+     * @param length
+     *          the length of the range
+     * @return the loaded range of the data
+     */
+    @Override
+    public byte[] loadData(String id, long offset, int length) throws IdaPersistenceException {
+        return loadDataRange(id, offset, length);
+    }
+
+    /**
+     * Rewrites a region of the stored data. The headers of the fragments are loaded first, so the IDA computes the
+     * patches of the fragments that change with the parameters the fragments were split with, and each patch is
+     * applied in the repository of its fragment. Fragments that can't be patched are recorded as missing, since
+     * combining them with the patched ones would corrupt the data, so they're not loaded until they're repaired.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param offset
+     *          the offset in the data of the rewritten region
+     * @param oldData
+     *          the old contents of the region
+     * @param newData
+     *          the new contents of the region (same length as the old contents)
+     */
+    @Override
+    public void updateData(String id, long offset, byte[] oldData, byte[] newData) throws IdaPersistenceException {
+        if (offset < 0 || oldData.length != newData.length) {
+            throw new IdaPersistenceException("Invalid region of " + oldData.length + " bytes at offset " + offset +
+                    " with " + newData.length + " new bytes");
         }
+        if (oldData.length == 0) {
+            return;
+        }
+
+        List<FragmentMetaData> fragmentsMetaData = getAvailableFragmentMetaData(id);
 
         int requiredFragmentNum = ida.getFragmentNumber() - ida.getRedundantFragmentNumber();
         if (fragmentsMetaData.size() < requiredFragmentNum) {
             throw new IdaPersistenceException("Not enough fragments are saved to rebuild the data");
         }
 
-        // Make sure all repository URLs in the metadata are correct.
-        List<FragmentRepository> repositoriesUsed = new ArrayList<FragmentRepository>(fragmentsMetaData.size());
+        // Make sure all repository URLs in the metadata are correct before submitting any task.
+        List<FragmentRepository> fragmentRepositories = new ArrayList<FragmentRepository>(fragmentsMetaData.size());
         for (FragmentMetaData metaData : fragmentsMetaData) {
             FragmentRepository repository = getRepositoryForMetaData(metaData);
             if (repository == null) {
                 throw new IdaPersistenceException("No repository found for URL [" + metaData.getRepositoryUrl() + "]");
             }
 
-            repositoriesUsed.add(repository);
+            fragmentRepositories.add(repository);
         }
 
-        AvailableFragmentRepositories availableRepositories = getAvailableFragmentRepositories(repositoriesUsed);
-        CompletionService<byte[]> loadCompletionService = new ExecutorCompletionService<byte[]>(taskExecutor);
+        List<FragmentHeaderLoadTask> headerTasks = new ArrayList<FragmentHeaderLoadTask>(fragmentRepositories.size());
+        for (FragmentRepository repository : fragmentRepositories) {
+            headerTasks.add(new FragmentHeaderLoadTask(id, repository, ida, checksumBlockSize));
+        }
 
-        // Submit the main tasks (number of main tasks = required fragment number). If there are not enough repositories
-        // for the main tasks, then throw an exception indicating the data can't be loaded.
-        for (int i = 0; i < requiredFragmentNum; i++) {
-            FragmentRepository repository = availableRepositories.take();
-            if (repository == null) {
-                throw new IdaPersistenceException("Not enough available repositories to rebuild the data");
+        List<byte[]> headers = loadFragmentHeaders(headerTasks);
+        byte[] header = null;
+        int headerNum = 0;
+
+        for (byte[] h : headers) {
+            if (h != null) {
+                header = h;
+                headerNum++;
             }
+        }
 
-            loadCompletionService.submit(new FragmentLoadTask(id, repository));
+        if (headerNum < requiredFragmentNum) {
+            throw new IdaPersistenceException("Only " + headerNum + " fragment headers of the data could be loaded, " +
+                    "not enough to update it");
         }
 
-        // Keep polling for fragments until we reach the required number. If a fragment couldn't be loaded, try with a
-        // backup task. If there are no more repositories for backup tasks, then stop.
-        List<byte[]> fragments = new ArrayList<byte[]>();
-        while (fragments.size() < requiredFragmentNum) {
-            byte[] fragment = null;
-            try {
-                fragment = loadCompletionService.take().get();
-                if (fragment != null) {
-                    fragments.add(fragment);
+        checkRegion(id, header, offset, oldData.length);
+
+        List<FragmentPatch> patches;
+        try {
+            patches = ida.createPatches(header, offset, oldData, newData);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Error while trying to create the fragment patches", e);
+        }
+
+        List<FragmentPatchTask> patchTasks = new ArrayList<FragmentPatchTask>(patches.size());
+        int failedNum = 0;
+
+        for (FragmentPatch patch : patches) {
+            for (int i = 0; i < fragmentsMetaData.size(); i++) {
+                FragmentMetaData metaData = fragmentsMetaData.get(i);
+                if (metaData.getFragmentNumber() != patch.getFragmentIndex()) {
+                    continue;
                 }
-            } catch (Exception e) {
-                logger.error("Error while trying to retrieve load task result", e);
-            }
 
-            if (fragment == null) {
-                FragmentRepository repository = availableRepositories.take();
-                if (repository == null) {
-                    throw new IdaPersistenceException("Not enough available repositories to rebuild the data");
+                if (headers.get(i) != null) {
+                    // The checksums are written with the block size the fragment was saved with, not the current one
+                    int blockSize = headerTasks.get(i).getStoredChecksumBlockSize();
+                    FragmentPatch fragmentPatch = blockSize > 0 ? FragmentChecksums.addChecksums(patch, blockSize) :
+                            patch;
+
+                    patchTasks.add(new FragmentPatchTask(fragmentPatch, metaData, fragmentRepositories.get(i),
+                            metaDataRepository));
+                } else {
+                    logger.error("Fragment " + metaData + " can't be patched without its header, recording it as " +
+                            "missing");
+
+                    try {
+                        metaDataRepository.saveMissingFragmentMetaData(metaData);
+                    } catch (Exception e) {
+                        logger.error("Error while trying to save missing fragment metadata " + metaData, e);
+                    }
+
+                    failedNum++;
                 }
+            }
+        }
+
+        CompletionService<Boolean> patchCompletionService = new ExecutorCompletionService<Boolean>(taskExecutor);
+        for (FragmentPatchTask task : patchTasks) {
+            patchCompletionService.submit(task);
+        }
+
+        for (int i = 0; i < patchTasks.size(); i++) {
+            boolean patched = false;
+            try {
+                patched = patchCompletionService.take().get();
+            } catch (Exception e) {
+                logger.error("Error while trying to retrieve patch task result", e);
+            }
 
-                loadCompletionService.submit(new FragmentLoadTask(id, repository));
+            if (!patched) {
+                failedNum++;
             }
         }
 
-        try {
-            return ida.combine(fragments);
-        } catch (Exception e) {
-            throw new IdaPersistenceException("Error while trying to combine the fragments", e);
+        if (fragmentsMetaData.size() - failedNum < requiredFragmentNum) {
+            throw new IdaPersistenceException(failedNum + " fragments couldn't be patched, not enough fragments are " +
+                    "left to rebuild the data");
+        } else if (failedNum > 0) {
+            logger.warn(failedNum + " fragments of data '" + id + "' couldn't be patched and were recorded as missing");
         }
     }
 
     /**
-     * Deletes the fragments for the given data ID from their respective repositories.
+     * Deletes the fragments for the given data ID from their respective repositories, and the records of its missing
+     * fragments. If the data is still being saved in the background, the background save is waited for first.
      *
      * @param id
      *          the ID used to identify the data in all repositories
@@ -192,6 +717,17 @@ public class InformationDispersalPersistenceServiceImpl implements InformationDi
      */
     @Override
     public int deleteData(String id) throws IdaPersistenceException {
+        waitForBackgroundSave(id);
+
+        try {
+            for (FragmentMetaData missingMetaData : metaDataRepository.getAllMissingFragmentMetaDataForData(id)) {
+                metaDataRepository.deleteMissingFragmentMetaData(missingMetaData);
+            }
+        } catch (RepositoryException e) {
+            throw new IdaPersistenceException("Error while trying to delete the missing fragment metadata for the " +
+                    "data", e);
+        }
+
         List<FragmentMetaData> fragmentsMetaData;
         try {
             fragmentsMetaData = metaDataRepository.getAllFragmentMetaDataForData(id);
@@ -236,18 +772,1017 @@ public class InformationDispersalPersistenceServiceImpl implements InformationDi
         return deletedNum;
     }
 
-    protected AvailableFragmentRepositories getAvailableFragmentRepositories(Collection<FragmentRepository> repositories) {
-        return new AvailableFragmentRepositories(repositories);
+    /**
+     * Repairs the missing fragments of the data. Each fragment is rebuilt by the IDA from the fragments returned by
+     * {@link InformationDispersalAlgorithm#getRepairFragmentIndexes(int)} (with a locally repairable code, just the
+     * other fragments of its local group), saved in the repository of its missing fragment record, and the record is
+     * deleted. Fragments that can't be repaired stay recorded as missing. If the data is still being saved in the
+     * background, the background save is waited for first.
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @return the number of fragments that were repaired
+     */
+    @Override
+    public int repairData(String id) throws IdaPersistenceException {
+        waitForBackgroundSave(id);
+
+        List<FragmentMetaData> missingFragmentsMetaData;
+        try {
+            missingFragmentsMetaData = metaDataRepository.getAllMissingFragmentMetaDataForData(id);
+        } catch (RepositoryException e) {
+            throw new IdaPersistenceException("Error while trying to retrieve the missing fragment metadata for the " +
+                    "data", e);
+        }
+
+        if (CollectionUtils.isEmpty(missingFragmentsMetaData)) {
+            return 0;
+        }
+
+        DataLoad dataLoad = new DataLoad(id, getAvailableFragmentMetaData(id));
+        int repairedNum = 0;
+
+        for (FragmentMetaData metaData : missingFragmentsMetaData) {
+            try {
+                repairFragment(dataLoad, metaData);
+                repairedNum++;
+            } catch (IdaPersistenceException e) {
+                logger.error("Unable to repair missing fragment " + metaData, e);
+            }
+        }
+
+        return repairedNum;
     }
 
-    protected FragmentRepository getRepositoryForMetaData(FragmentMetaData metaData) {
-        for (FragmentRepository repository : repositories) {
-            if (repository.getRepositoryUrl().equals(metaData.getRepositoryUrl())) {
-                return repository;
+    /**
+     * Repairs the missing fragments of all the data, one data at a time (see {@link #repairData(String)}).
+     *
+     * @return the number of fragments that were repaired
+     */
+    @Override
+    public int repairMissingFragments() throws IdaPersistenceException {
+        List<FragmentMetaData> missingFragmentsMetaData;
+        try {
+            missingFragmentsMetaData = metaDataRepository.getAllMissingFragmentMetaData();
+        } catch (RepositoryException e) {
+            throw new IdaPersistenceException("Error while trying to retrieve the missing fragment metadata", e);
+        }
+
+        Set<String> ids = new LinkedHashSet<String>();
+        for (FragmentMetaData metaData : missingFragmentsMetaData) {
+            ids.add(metaData.getDataId());
+        }
+
+        int repairedNum = 0;
+
+        for (String id : ids) {
+            try {
+                repairedNum += repairData(id);
+            } catch (IdaPersistenceException e) {
+                logger.error("Error while trying to repair the missing fragments of data '" + id + "'", e);
+            }
+        }
+
+        return repairedNum;
+    }
+
+    /**
+     * Loads a range of the data from the fragment ranges. Called by {@link #loadData(String, long, int)}, so
+     * subclasses that process the loaded data (like decrypting it) can override the public methods without processing
+     * the parts of a streamed load twice.
+     */
+    protected byte[] loadDataRange(String id, long offset, int length) throws IdaPersistenceException {
+        return loadDataRange(new DataLoad(id, getAvailableFragmentMetaData(id)), offset, length);
+    }
+
+    /**
+     * Loads a range of the data from the fragment ranges, as part of the specified load (like a streamed load).
+     */
+    protected byte[] loadDataRange(DataLoad dataLoad, long offset, int length) throws IdaPersistenceException {
+        if (offset < 0 || length < 0) {
+            throw new IdaPersistenceException("Invalid range of " + length + " bytes at offset " + offset);
+        }
+        if (length == 0) {
+            return new byte[0];
+        }
+
+        return combineFragments(dataLoad, offset, length);
+    }
+
+    /**
+     * Creates the task that loads the part of a streamed load at the specified offset, to run it in the executor.
+     */
+    protected Callable<byte[]> createRangeLoad(final DataLoad dataLoad, final long offset) {
+        return new Callable<byte[]>() {
+
+            @Override
+            public byte[] call() throws Exception {
+                return loadDataRange(dataLoad, offset, streamWindowSize);
+            }
+
+        };
+    }
+
+    /**
+     * Waits for the task that loads the next part of a streamed load, and returns the part.
+     */
+    protected byte[] getNextRange(FutureTask<byte[]> nextRange) throws IdaPersistenceException {
+        try {
+            return nextRange.get();
+        } catch (InterruptedException e) {
+            nextRange.cancel(true);
+            Thread.currentThread().interrupt();
+
+            throw new IdaPersistenceException("Interrupted while waiting for the next part of the data", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IdaPersistenceException) {
+                throw (IdaPersistenceException) e.getCause();
+            } else {
+                throw new IdaPersistenceException("Error while trying to load the next part of the data",
+                        e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Loads the fragments, or the fragment ranges, and combines them. If the IDA finds that one of the fragments is
+     * corrupt while combining them (see {@link CorruptFragmentException}), the fragment is dropped, a fragment is
+     * loaded from a repository that isn't used yet, and they're combined again. If the corrupt fragment couldn't be
+     * located, none is dropped: the extra fragment lets the IDA locate it the next time.
+     *
+     * @param dataLoad
+     *          the load of the data: its ID and the metadata of its fragments
+     * @param offset
+     *          the offset in the data of the range
+     * @param length
+     *          the length of the range, or {@link #WHOLE_DATA} to combine the whole data
+     * @return the data, or the range of the data
+     */
+    protected byte[] combineFragments(DataLoad dataLoad, long offset, int length) throws IdaPersistenceException {
+        Map<FragmentRepository, byte[]> fragments = loadFragments(dataLoad, offset, length);
+        Set<FragmentRepository> droppedRepositories = new HashSet<FragmentRepository>();
+
+        while (true) {
+            List<byte[]> fragmentList = new ArrayList<byte[]>(fragments.values());
+            try {
+                if (length == WHOLE_DATA) {
+                    return ida.combine(fragmentList);
+                } else {
+                    return ida.combineRange(fragmentList, offset, length);
+                }
+            } catch (CorruptFragmentException e) {
+                logger.error("Corrupt fragment found while combining data '" + dataLoad.id + "'", e);
+
+                if (e.getFragmentIndex() >= 0) {
+                    FragmentRepository repository = getRepositoryForFragment(dataLoad.fragmentsMetaData,
+                            e.getFragmentIndex());
+                    if (repository == null || fragments.remove(repository) == null) {
+                        throw new IdaPersistenceException("Corrupt fragment " + e.getFragmentIndex() + " of data '" +
+                                dataLoad.id + "' wasn't loaded", e);
+                    }
+
+                    droppedRepositories.add(repository);
+                }
+
+                if (!loadNextFragment(dataLoad, offset, length, fragments, droppedRepositories)) {
+                    throw new IdaPersistenceException("Not enough available repositories to rebuild the data without " +
+                            "the corrupt fragments", e);
+                }
+            } catch (Exception e) {
+                if (length == WHOLE_DATA) {
+                    throw new IdaPersistenceException("Error while trying to combine the fragments", e);
+                } else {
+                    throw new IdaPersistenceException("Error while trying to combine the fragment ranges", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads a fragment, or fragment range, from a repository of the data that isn't used yet (not one of the loaded
+     * fragments, nor dropped), and adds it to the loaded fragments. Returns false if no repository is left.
+     */
+    protected boolean loadNextFragment(DataLoad dataLoad, long offset, int length,
+                                       Map<FragmentRepository, byte[]> fragments,
+                                       Set<FragmentRepository> droppedRepositories) {
+        for (FragmentMetaData metaData : dataLoad.fragmentsMetaData) {
+            FragmentRepository repository = getRepositoryForMetaData(metaData);
+            if (repository == null || fragments.containsKey(repository) || droppedRepositories.contains(repository)) {
+                continue;
+            }
+
+            byte[] fragment = null;
+            try {
+                fragment = createLoadTask(dataLoad, repository, offset, length).call();
+            } catch (Exception e) {
+                logger.error("Error while trying to load fragment of data '" + dataLoad.id + "' from " + repository,
+                        e);
+            }
+
+            if (fragment != null) {
+                fragments.put(repository, fragment);
+
+                return true;
+            } else {
+                droppedRepositories.add(repository);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Runs the header load tasks, all at the same time, and returns the headers (null for the ones that couldn't be
+     * loaded). Once they finish, the tasks also have the checksum block size of every fragment.
+     */
+    protected List<byte[]> loadFragmentHeaders(List<FragmentHeaderLoadTask> headerTasks)
+            throws IdaPersistenceException {
+        List<FutureTask<byte[]>> results = new ArrayList<FutureTask<byte[]>>(headerTasks.size());
+        for (FragmentHeaderLoadTask task : headerTasks) {
+            FutureTask<byte[]> result = new FutureTask<byte[]>(task);
+
+            taskExecutor.execute(result);
+            results.add(result);
+        }
+
+        List<byte[]> headers = new ArrayList<byte[]>(results.size());
+        for (FutureTask<byte[]> result : results) {
+            try {
+                headers.add(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new IdaPersistenceException("Interrupted while waiting for header load task results", e);
+            } catch (Exception e) {
+                logger.error("Error while trying to retrieve header load task result", e);
+
+                headers.add(null);
+            }
+        }
+
+        return headers;
+    }
+
+    /**
+     * Checks that a region is inside the data, before it's rewritten. The length of the data is read from the
+     * fragment header, or, if the header doesn't have it (the data was split from a stream of unknown length, or
+     * saved before the fragments had headers), the last byte of the region is loaded to check that it exists.
+     */
+    protected void checkRegion(String id, byte[] fragmentHeader, long offset, int length)
+            throws IdaPersistenceException {
+        long dataLength;
+        try {
+            dataLength = ida.getDataLength(fragmentHeader);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Error while trying to read the data length from the fragment header", e);
+        }
+
+        boolean inside;
+        if (dataLength >= 0) {
+            inside = offset + length <= dataLength;
+        } else {
+            inside = loadDataRange(id, offset + length - 1, 1).length == 1;
+        }
+
+        if (!inside) {
+            throw new IdaPersistenceException("The region of " + length + " bytes at offset " + offset + " is out " +
+                    "of data '" + id + "'");
+        }
+    }
+
+    /**
+     * Returns the metadata of the fragments of the data that can be loaded, leaving out the fragments recorded as
+     * missing (like the ones that couldn't be patched, which are outdated until they're repaired).
+     */
+    protected List<FragmentMetaData> getAvailableFragmentMetaData(String id) throws IdaPersistenceException {
+        List<FragmentMetaData> fragmentsMetaData;
+        List<FragmentMetaData> missingFragmentsMetaData;
+        try {
+            fragmentsMetaData = new ArrayList<FragmentMetaData>(metaDataRepository.getAllFragmentMetaDataForData(id));
+            missingFragmentsMetaData = metaDataRepository.getAllMissingFragmentMetaDataForData(id);
+        } catch (RepositoryException e) {
+            throw new IdaPersistenceException("Error while trying to retrieve all fragment metadata for the data", e);
+        }
+
+        for (FragmentMetaData missingMetaData : missingFragmentsMetaData) {
+            for (Iterator<FragmentMetaData> iter = fragmentsMetaData.iterator(); iter.hasNext();) {
+                if (iter.next().getFragmentNumber() == missingMetaData.getFragmentNumber()) {
+                    iter.remove();
+                }
+            }
+        }
+
+        return fragmentsMetaData;
+    }
+
+    /**
+     * Rebuilds a missing fragment of the data, saves it in the repository of its missing fragment record, and deletes
+     * the record. The fragment is added to the fragments of the data load, so the next repairs can use it.
+     */
+    protected void repairFragment(DataLoad dataLoad, FragmentMetaData missingMetaData)
+            throws IdaPersistenceException {
+        FragmentRepository repository = getRepositoryForMetaData(missingMetaData);
+        if (repository == null) {
+            throw new IdaPersistenceException("No repository found for URL [" + missingMetaData.getRepositoryUrl() +
+                    "]");
+        }
+
+        int fragmentNumber = missingMetaData.getFragmentNumber();
+        List<byte[]> fragments = loadRepairFragments(dataLoad, fragmentNumber);
+
+        byte[] fragment;
+        try {
+            fragment = ida.repair(fragments, fragmentNumber);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Error while trying to rebuild fragment " + missingMetaData, e);
+        }
+
+        FragmentSaveTask task = new FragmentSaveTask(fragment, checksumBlockSize, missingMetaData, repository,
+                metaDataRepository);
+        if (!task.call()) {
+            throw new IdaPersistenceException("Unable to save repaired fragment " + missingMetaData);
+        }
+
+        try {
+            metaDataRepository.deleteMissingFragmentMetaData(missingMetaData);
+        } catch (RepositoryException e) {
+            throw new IdaPersistenceException("Error while trying to delete missing fragment metadata " +
+                    missingMetaData, e);
+        }
+
+        dataLoad.fragmentsMetaData.add(missingMetaData);
+
+        logger.info("Repaired missing fragment " + missingMetaData + " from " + fragments.size() + " fragments");
+    }
+
+    /**
+     * Loads the fragments a missing fragment is rebuilt from (see
+     * {@link InformationDispersalAlgorithm#getRepairFragmentIndexes(int)}), all at the same time. If one of them is
+     * missing too, or can't be loaded, enough fragments to rebuild the whole data are loaded instead (see
+     * {@link #loadFragments(DataLoad, long, int)}).
+     */
+    protected List<byte[]> loadRepairFragments(DataLoad dataLoad, int fragmentNumber) throws IdaPersistenceException {
+        int[] repairIndexes;
+        try {
+            repairIndexes = ida.getRepairFragmentIndexes(fragmentNumber);
+        } catch (Exception e) {
+            throw new IdaPersistenceException("Error while trying to retrieve the fragments to repair fragment " +
+                    fragmentNumber + " from", e);
+        }
+
+        List<FragmentRepository> repairRepositories = new ArrayList<FragmentRepository>(repairIndexes.length);
+        for (int index : repairIndexes) {
+            FragmentRepository repository = getRepositoryForFragment(dataLoad.fragmentsMetaData, index);
+            if (repository == null) {
+                break;
+            }
+
+            repairRepositories.add(repository);
+        }
+
+        if (repairRepositories.size() == repairIndexes.length) {
+            List<FutureTask<byte[]>> results = new ArrayList<FutureTask<byte[]>>(repairRepositories.size());
+            for (FragmentRepository repository : repairRepositories) {
+                FutureTask<byte[]> result = new FutureTask<byte[]>(createLoadTask(dataLoad, repository, 0,
+                        WHOLE_DATA));
+
+                taskExecutor.execute(result);
+                results.add(result);
+            }
+
+            List<byte[]> fragments = new ArrayList<byte[]>(results.size());
+            for (FutureTask<byte[]> result : results) {
+                try {
+                    byte[] fragment = result.get();
+                    if (fragment != null) {
+                        fragments.add(fragment);
+                    }
+                } catch (InterruptedException e) {
+                    for (FutureTask<byte[]> r : results) {
+                        r.cancel(true);
+                    }
+
+                    Thread.currentThread().interrupt();
+
+                    throw new IdaPersistenceException("Interrupted while waiting for repair load task results", e);
+                } catch (Exception e) {
+                    logger.error("Error while trying to retrieve repair load task result", e);
+                }
+            }
+
+            if (fragments.size() == repairIndexes.length) {
+                return fragments;
+            }
+        }
+
+        logger.warn("Not all the fragments needed to repair fragment " + fragmentNumber + " of data '" +
+                dataLoad.id + "' are available, loading enough fragments to rebuild the data");
+
+        return new ArrayList<byte[]>(loadFragments(dataLoad, 0, WHOLE_DATA).values());
+    }
+
+    /**
+     * Waits for the save tasks submitted to the completion service until WriteQuorum fragments are saved, or all the
+     * tasks finish, and returns the number of fragments that were saved. If the quorum is met, the rest of the tasks,
+     * and the ones that failed, are completed in the background (see {@link #completeSave(Map, List)}). The rest of the
+     * tasks are finished (see {@link FragmentSaveTask#finish()}).
+     *
+     * @param id
+     *          the ID used to identify the data in all repositories
+     * @param saveCompletionService
+     *          the completion service the tasks were submitted to
+     * @param saveTasks
+     *          the tasks, mapped by their futures
+     * @return the number of fragments that were saved
+     */
+    protected int waitForSaveTasks(String id, CompletionService<Boolean> saveCompletionService,
+                                   Map<Future<Boolean>, FragmentSaveTask> saveTasks) {
+        Map<Future<Boolean>, FragmentSaveTask> pendingTasks = new HashMap<Future<Boolean>, FragmentSaveTask>(saveTasks);
+        List<FragmentSaveTask> failedTasks = new ArrayList<FragmentSaveTask>();
+        int savedNum = 0;
+
+        while (savedNum < writeQuorum && !pendingTasks.isEmpty()) {
+            Future<Boolean> result;
+            try {
+                result = saveCompletionService.take();
+            } catch (InterruptedException e) {
+                logger.error("Interrupted while waiting for save task results", e);
+
+                Thread.currentThread().interrupt();
+
+                break;
+            }
+
+            FragmentSaveTask task = pendingTasks.remove(result);
+            if (isSaved(result)) {
+                savedNum++;
+                task.finish();
+            } else {
+                failedTasks.add(task);
+            }
+        }
+
+        if (savedNum >= writeQuorum && (!pendingTasks.isEmpty() || !failedTasks.isEmpty())) {
+            completeSaveOnBackground(id, pendingTasks, failedTasks);
+        } else {
+            // The data wasn't saved, or it's saved completely: the tasks left won't be retried
+            for (FragmentSaveTask task : pendingTasks.values()) {
+                task.finish();
+            }
+            for (FragmentSaveTask task : failedTasks) {
+                task.finish();
+            }
+        }
+
+        return savedNum;
+    }
+
+    /**
+     * Submits a task to the executor that completes the save of the data (see {@link #completeSave(Map, List)}). The
+     * task is kept until it finishes, so {@link #deleteData(String)} can wait for it.
+     */
+    protected void completeSaveOnBackground(final String id, final Map<Future<Boolean>, FragmentSaveTask> pendingTasks,
+                                            final List<FragmentSaveTask> failedTasks) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Write quorum met for data '" + id + "', saving the remaining " +
+                    (pendingTasks.size() + failedTasks.size()) + " fragments in the background");
+        }
+
+        FutureTask<Object> backgroundSave = new FutureTask<Object>(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    completeSave(pendingTasks, failedTasks);
+                } finally {
+                    backgroundSaves.remove(id);
+                }
+            }
+
+        }, null);
+
+        backgroundSaves.put(id, backgroundSave);
+        taskExecutor.execute(backgroundSave);
+    }
+
+    /**
+     * Completes the save of the data once the write quorum is met: waits for the pending tasks, and retries the tasks
+     * that failed (if they can be retried) up to SaveRetryNum times. The fragments that still couldn't be saved are
+     * recorded as missing, to be repaired. Every task is finished once its fragment is saved or given up.
+     *
+     * @param pendingTasks
+     *          the tasks that haven't finished, mapped by their futures
+     * @param failedTasks
+     *          the tasks that already failed
+     */
+    protected void completeSave(Map<Future<Boolean>, FragmentSaveTask> pendingTasks,
+                                List<FragmentSaveTask> failedTasks) {
+        List<FragmentSaveTask> retryTasks = new ArrayList<FragmentSaveTask>(failedTasks);
+
+        for (Map.Entry<Future<Boolean>, FragmentSaveTask> entry : pendingTasks.entrySet()) {
+            if (isSaved(entry.getKey())) {
+                entry.getValue().finish();
+            } else {
+                retryTasks.add(entry.getValue());
+            }
+        }
+
+        for (FragmentSaveTask task : retryTasks) {
+            boolean saved = false;
+
+            if (task.isRetryable()) {
+                try {
+                    for (int i = 0; i < saveRetryNum && !saved; i++) {
+                        Thread.sleep(saveRetryDelay);
+
+                        logger.info("Retrying save of fragment " + task.getFragmentMetaData() + " (retry " + (i + 1) +
+                                " of " + saveRetryNum + ")");
+
+                        saved = task.call();
+                    }
+                } catch (InterruptedException e) {
+                    logger.error("Interrupted while retrying save of fragment " + task.getFragmentMetaData(), e);
+
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (!saved) {
+                saveMissingFragment(task.getFragmentMetaData());
+            }
+
+            task.finish();
+        }
+    }
+
+    /**
+     * Records the fragment as missing in the metadata repository, so it can be repaired later.
+     */
+    protected void saveMissingFragment(FragmentMetaData metaData) {
+        logger.error("Fragment " + metaData + " couldn't be saved, recording it as missing");
+
+        try {
+            metaDataRepository.saveMissingFragmentMetaData(metaData);
+        } catch (Exception e) {
+            logger.error("Error while trying to save missing fragment metadata " + metaData, e);
+        }
+    }
+
+    /**
+     * Waits for the background save of the data, if it's still running.
+     */
+    protected void waitForBackgroundSave(String id) throws IdaPersistenceException {
+        Future<?> backgroundSave = backgroundSaves.get(id);
+        if (backgroundSave != null) {
+            try {
+                backgroundSave.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                throw new IdaPersistenceException("Interrupted while waiting for background save of data '" + id +
+                        "'", e);
+            } catch (Exception e) {
+                logger.error("Error in background save of data '" + id + "'", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the result of the save task, waiting for it if it hasn't finished.
+     */
+    protected boolean isSaved(Future<Boolean> result) {
+        try {
+            return result.get();
+        } catch (Exception e) {
+            logger.error("Error while trying to retrieve save task result", e);
+
+            return false;
+        }
+    }
+
+    /**
+     * Loads the fragments needed to rebuild the data, or to rebuild a range of the data. If a fragment can't be loaded
+     * (or is corrupt), it's loaded from another repository.
+     *
+     * @param dataLoad
+     *          the load of the data: its ID and the metadata of its fragments
+     * @param offset
+     *          the offset in the data of the range
+     * @param length
+     *          the length of the range, or {@link #WHOLE_DATA} to load the whole fragments
+     * @return the fragments, or the ranges of the fragments (see {@link FragmentRangeLoadTask}), mapped by the
+     *          repositories they were loaded from
+     */
+    protected Map<FragmentRepository, byte[]> loadFragments(DataLoad dataLoad, long offset, int length)
+            throws IdaPersistenceException {
+        List<FragmentMetaData> fragmentsMetaData = dataLoad.fragmentsMetaData;
+
+        int requiredFragmentNum = ida.getFragmentNumber() - ida.getRedundantFragmentNumber();
+        if (fragmentsMetaData.size() < requiredFragmentNum) {
+            throw new IdaPersistenceException("Not enough fragments are saved to rebuild the data");
+        }
+
+        // Make sure all repository URLs in the metadata are correct.
+        List<FragmentRepository> repositoriesUsed = new ArrayList<FragmentRepository>(fragmentsMetaData.size());
+        for (FragmentMetaData metaData : fragmentsMetaData) {
+            FragmentRepository repository = getRepositoryForMetaData(metaData);
+            if (repository == null) {
+                throw new IdaPersistenceException("No repository found for URL [" + metaData.getRepositoryUrl() + "]");
+            }
+
+            repositoriesUsed.add(repository);
+        }
+
+        AvailableFragmentRepositories availableRepositories = getAvailableFragmentRepositories(repositoriesUsed);
+        CompletionService<byte[]> loadCompletionService = new ExecutorCompletionService<byte[]>(taskExecutor);
+        Map<Future<byte[]>, PendingLoad> pendingLoads = new HashMap<Future<byte[]>, PendingLoad>();
+        int hedgeNum = 0;
+
+        // Submit the main tasks (number of main tasks = required fragment number). If there are not enough repositories
+        // for the main tasks, then throw an exception indicating the data can't be loaded. If fragments of the data are
+        // missing, the fragments they're rebuilt from go first (with a locally repairable code, the fragments of their
+        // local groups), so the IDA can rebuild them from those instead of the global parities.
+        List<FragmentRepository> preferredRepositories = getMissingFragmentRepairRepositories(dataLoad);
+        for (int i = 0; i < requiredFragmentNum; i++) {
+            FragmentRepository repository = availableRepositories.take(preferredRepositories);
+            if (repository == null) {
+                throw new IdaPersistenceException("Not enough available repositories to rebuild the data");
+            }
+
+            submitLoadTask(loadCompletionService, pendingLoads, dataLoad, repository, offset, length);
+        }
+
+        // Keep polling for fragments until we reach the required number. If a fragment couldn't be loaded (or is
+        // corrupt), try with a backup task, from the fragments it's rebuilt from if there's one available. If there
+        // are no more repositories for backup tasks, then stop. If a
+        // fragment is late for its repository, hedge it with a task for another repository. Once there are enough
+        // fragments, the tasks still pending are cancelled.
+        Map<FragmentRepository, byte[]> fragments = new LinkedHashMap<FragmentRepository, byte[]>();
+        try {
+            while (fragments.size() < requiredFragmentNum) {
+                Future<byte[]> result;
+                try {
+                    long hedgeWait = getHedgeWait(pendingLoads, hedgeNum);
+                    if (hedgeWait >= 0) {
+                        result = loadCompletionService.poll(hedgeWait, TimeUnit.MILLISECONDS);
+                    } else {
+                        result = loadCompletionService.take();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    throw new IdaPersistenceException("Interrupted while waiting for load task results", e);
+                }
+
+                if (result == null) {
+                    hedgeNum += submitHedgeTasks(loadCompletionService, pendingLoads, availableRepositories, dataLoad,
+                            offset, length, hedgeNum);
+
+                    continue;
+                }
+
+                PendingLoad load = pendingLoads.remove(result);
+
+                byte[] fragment = null;
+                try {
+                    fragment = result.get();
+                    if (fragment != null) {
+                        fragments.put(load.repository, fragment);
+                    }
+                } catch (Exception e) {
+                    logger.error("Error while trying to retrieve load task result", e);
+                }
+
+                if (fragment == null && fragments.size() + pendingLoads.size() < requiredFragmentNum) {
+                    FragmentRepository repository = availableRepositories.take(getRepairRepositories(dataLoad,
+                            load.repository));
+                    if (repository == null) {
+                        throw new IdaPersistenceException("Not enough available repositories to rebuild the data");
+                    }
+
+                    submitLoadTask(loadCompletionService, pendingLoads, dataLoad, repository, offset, length);
+                }
+            }
+        } finally {
+            // The loads still pending are no longer needed (or the data can't be rebuilt): stop them, so they don't
+            // keep using the repositories and the threads of the executor
+            cancelLoadTasks(pendingLoads);
+        }
+
+        return fragments;
+    }
+
+    /**
+     * Submits the load task for the repository, which adds the latency of the load to the latencies of the
+     * repository if the load succeeds, and keeps the header of the fragment for the next loads of the data load.
+     */
+    protected void submitLoadTask(CompletionService<byte[]> loadCompletionService,
+                                  Map<Future<byte[]>, PendingLoad> pendingLoads, final DataLoad dataLoad,
+                                  final FragmentRepository repository, long offset, int length) {
+        final FragmentLoadTask task = createLoadTask(dataLoad, repository, offset, length);
+        final long size = getLoadSize(length);
+
+        Future<byte[]> result = loadCompletionService.submit(new Callable<byte[]>() {
+
+            @Override
+            public byte[] call() throws Exception {
+                long start = System.nanoTime();
+
+                byte[] fragment = task.call();
+                if (fragment != null) {
+                    latencies.addLatency(repository, size, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    dataLoad.addHeader(repository, task);
+                }
+
+                return fragment;
+            }
+
+        });
+
+        loadTaskCount.incrementAndGet();
+        pendingLoads.put(result, new PendingLoad(repository, size, System.nanoTime()));
+    }
+
+    /**
+     * Returns the milliseconds to wait for a load task result before the next pending load is late for its repository
+     * and should be hedged, or -1 if no pending load can be hedged.
+     */
+    protected long getHedgeWait(Map<Future<byte[]>, PendingLoad> pendingLoads, int hedgeNum) {
+        if (hedgeNum >= maxHedgesPerLoad) {
+            return -1;
+        }
+
+        long wait = -1;
+        long now = System.nanoTime();
+
+        for (PendingLoad load : pendingLoads.values()) {
+            if (!load.hedged) {
+                long hedgeDelay = getHedgeDelay(load);
+                if (hedgeDelay >= 0) {
+                    long loadWait = Math.max(0, hedgeDelay - TimeUnit.NANOSECONDS.toMillis(now - load.startTime));
+                    if (wait < 0 || loadWait < wait) {
+                        wait = loadWait;
+                    }
+                }
+            }
+        }
+
+        return wait;
+    }
+
+    /**
+     * Submits a hedge task, for a repository that isn't used by the load yet (preferably one of the fragments the late
+     * fragment is rebuilt from), for every pending load that is late for its repository, while the hedges of the load
+     * and the hedge budget allow it. Returns the number of hedge tasks submitted.
+     */
+    protected int submitHedgeTasks(CompletionService<byte[]> loadCompletionService,
+                                   Map<Future<byte[]>, PendingLoad> pendingLoads,
+                                   AvailableFragmentRepositories availableRepositories, DataLoad dataLoad,
+                                   long offset, int length, int hedgeNum) {
+        long now = System.nanoTime();
+        int submittedNum = 0;
+
+        for (PendingLoad load : new ArrayList<PendingLoad>(pendingLoads.values())) {
+            if (hedgeNum + submittedNum >= maxHedgesPerLoad) {
+                break;
+            }
+
+            long hedgeDelay = getHedgeDelay(load);
+            if (load.hedged || hedgeDelay < 0 || TimeUnit.NANOSECONDS.toMillis(now - load.startTime) < hedgeDelay) {
+                continue;
+            }
+
+            // The load is only hedged once, even if the hedge can't be sent
+            load.hedged = true;
+
+            if ((hedgeTaskCount.get() + 1) * 100 > hedgeBudgetPercent * loadTaskCount.get()) {
+                logger.debug("Hedge budget exhausted, not hedging late load from " + load.repository);
+
+                continue;
+            }
+
+            FragmentRepository repository = availableRepositories.take(getRepairRepositories(dataLoad,
+                    load.repository));
+            if (repository == null) {
+                continue;
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Load of data '" + dataLoad.id + "' from " + load.repository + " is late (more than " +
+                        hedgeDelay + " ms), hedging it with a load from " + repository);
+            }
+
+            hedgeTaskCount.incrementAndGet();
+            submitLoadTask(loadCompletionService, pendingLoads, dataLoad, repository, offset, length);
+            submittedNum++;
+        }
+
+        return submittedNum;
+    }
+
+    /**
+     * Returns the milliseconds a pending load can take before it's late for its repository: the HedgePercentile of
+     * the last loads of the repository of about the same size, but at least MinHedgeDelay. Returns -1 if the repository
+     * doesn't have enough latencies yet.
+     */
+    protected long getHedgeDelay(PendingLoad load) {
+        long hedgeDelay = latencies.getPercentile(load.repository, load.size, hedgePercentile);
+
+        return hedgeDelay >= 0 ? Math.max(hedgeDelay, minHedgeDelay) : -1;
+    }
+
+    /**
+     * Returns the size of the loads of the fragments for a load of the specified length of the data (see
+     * {@link RepositoryLatencies}): about the length divided between the fragments needed to rebuild it.
+     */
+    protected long getLoadSize(int length) {
+        if (length == WHOLE_DATA) {
+            return RepositoryLatencies.WHOLE_FRAGMENT;
+        }
+
+        int requiredFragmentNum = ida.getFragmentNumber() - ida.getRedundantFragmentNumber();
+
+        return (length + requiredFragmentNum - 1) / requiredFragmentNum;
+    }
+
+    /**
+     * Returns the repositories of the fragments the fragment of the repository is rebuilt from (see
+     * {@link InformationDispersalAlgorithm#getRepairFragmentIndexes(int)}), to load them instead of the fragment.
+     * Returns an empty list if the repository doesn't have a fragment of the data.
+     */
+    protected List<FragmentRepository> getRepairRepositories(DataLoad dataLoad, FragmentRepository repository) {
+        for (FragmentMetaData metaData : dataLoad.fragmentsMetaData) {
+            if (repository.getRepositoryUrl().equals(metaData.getRepositoryUrl())) {
+                return getRepairRepositories(dataLoad, metaData.getFragmentNumber());
+            }
+        }
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the repositories of the fragments the specified fragment is rebuilt from (the ones that aren't missing
+     * too), or an empty list if the IDA can't tell.
+     */
+    protected List<FragmentRepository> getRepairRepositories(DataLoad dataLoad, int fragmentNumber) {
+        int[] repairIndexes;
+        try {
+            repairIndexes = ida.getRepairFragmentIndexes(fragmentNumber);
+        } catch (Exception e) {
+            logger.debug("Unable to retrieve the fragments to repair fragment " + fragmentNumber + " from", e);
+
+            return Collections.emptyList();
+        }
+
+        List<FragmentRepository> repairRepositories = new ArrayList<FragmentRepository>(repairIndexes.length);
+        for (int index : repairIndexes) {
+            FragmentRepository repository = getRepositoryForFragment(dataLoad.fragmentsMetaData, index);
+            if (repository != null) {
+                repairRepositories.add(repository);
+            }
+        }
+
+        return repairRepositories;
+    }
+
+    /**
+     * Returns the repositories of the fragments the missing fragments of the data are rebuilt from (see
+     * {@link #getRepairRepositories(DataLoad, int)}), or an empty list if no fragment is missing.
+     */
+    protected List<FragmentRepository> getMissingFragmentRepairRepositories(DataLoad dataLoad) {
+        if (dataLoad.fragmentsMetaData.size() >= ida.getFragmentNumber()) {
+            return Collections.emptyList();
+        }
+
+        List<FragmentRepository> repairRepositories = new ArrayList<FragmentRepository>();
+        for (int i = 0; i < ida.getFragmentNumber(); i++) {
+            if (getRepositoryForFragment(dataLoad.fragmentsMetaData, i) == null) {
+                for (FragmentRepository repository : getRepairRepositories(dataLoad, i)) {
+                    if (!repairRepositories.contains(repository)) {
+                        repairRepositories.add(repository);
+                    }
+                }
+            }
+        }
+
+        return repairRepositories;
+    }
+
+    /**
+     * Cancels the pending load tasks, interrupting the ones that are running so that the repositories stop the loads.
+     */
+    protected void cancelLoadTasks(Map<Future<byte[]>, PendingLoad> pendingLoads) {
+        for (Map.Entry<Future<byte[]>, PendingLoad> entry : pendingLoads.entrySet()) {
+            if (entry.getKey().cancel(true) && logger.isDebugEnabled()) {
+                logger.debug("Cancelled load from " + entry.getValue().repository + ", not needed anymore");
+            }
+        }
+
+        pendingLoads.clear();
+    }
+
+    /**
+     * Creates the task that loads the fragment, or the fragment range, from the repository. A range task is given the
+     * header of the fragment if the data load already loaded it.
+     */
+    protected FragmentLoadTask createLoadTask(DataLoad dataLoad, FragmentRepository repository, long offset,
+                                              int length) {
+        if (length == WHOLE_DATA) {
+            return new FragmentLoadTask(dataLoad.id, repository);
+        } else {
+            FragmentRangeLoadTask task = new FragmentRangeLoadTask(dataLoad.id, repository, ida, offset, length,
+                    checksumBlockSize);
+            dataLoad.setHeader(repository, task);
+
+            return task;
+        }
+    }
+
+    protected AvailableFragmentRepositories getAvailableFragmentRepositories(Collection<FragmentRepository> repositories) {
+        return new AvailableFragmentRepositories(repositories);
+    }
+
+    /**
+     * Returns the repository of the fragment with the specified number, from the metadata of the fragments of the
+     * data, or null if the metadata isn't found.
+     */
+    protected FragmentRepository getRepositoryForFragment(List<FragmentMetaData> fragmentsMetaData,
+                                                          int fragmentNumber) {
+        for (FragmentMetaData metaData : fragmentsMetaData) {
+            if (metaData.getFragmentNumber() == fragmentNumber) {
+                return getRepositoryForMetaData(metaData);
+            }
+        }
+
+        return null;
+    }
+
+    protected FragmentRepository getRepositoryForMetaData(FragmentMetaData metaData) {
+        for (FragmentRepository repository : repositories) {
+            if (repository.getRepositoryUrl().equals(metaData.getRepositoryUrl())) {
+                return repository;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * A load task that hasn't returned yet: the repository it loads from, the size of the load, and when it was
+     * submitted.
+     */
+    protected static class PendingLoad {
+
+        protected final FragmentRepository repository;
+        protected final long size;
+        protected final long startTime;
+        protected boolean hedged;
+
+        public PendingLoad(FragmentRepository repository, long size, long startTime) {
+            this.repository = repository;
+            this.size = size;
+            this.startTime = startTime;
+        }
+
+    }
+
+    /**
+     * A load of the data, that can be made of several loads of the fragments (like a streamed load, which loads a
+     * range of the data at a time): the metadata of the fragments, retrieved once per load, and the headers of the
+     * fragments already loaded, mapped by repository, so they're only loaded once.
+     */
+    protected static class DataLoad {
+
+        protected final String id;
+        protected final List<FragmentMetaData> fragmentsMetaData;
+        protected final ConcurrentMap<FragmentRepository, FragmentHeaderLoadTask> headers =
+                new ConcurrentHashMap<FragmentRepository, FragmentHeaderLoadTask>();
+
+        public DataLoad(String id, List<FragmentMetaData> fragmentsMetaData) {
+            this.id = id;
+            this.fragmentsMetaData = fragmentsMetaData;
+        }
+
+        /**
+         * Keeps the header loaded by the task, if it's a task that loads the header and it's the first one for the
+         * repository.
+         */
+        public void addHeader(FragmentRepository repository, FragmentLoadTask task) {
+            if (task instanceof FragmentHeaderLoadTask && ((FragmentHeaderLoadTask) task).getHeader() != null) {
+                headers.putIfAbsent(repository, (FragmentHeaderLoadTask) task);
+            }
+        }
+
+        /**
+         * Sets the header already loaded from the repository, if any, to the task, so it isn't loaded again.
+         */
+        public void setHeader(FragmentRepository repository, FragmentHeaderLoadTask task) {
+            FragmentHeaderLoadTask headerTask = headers.get(repository);
+            if (headerTask != null) {
+                task.setHeader(headerTask.getHeader(), headerTask.getStoredChecksumBlockSize());
             }
         }
 
-        return null;
     }
 
 }
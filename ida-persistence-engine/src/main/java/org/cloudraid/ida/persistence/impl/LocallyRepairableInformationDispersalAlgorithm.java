@@ -0,0 +1,164 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.cloudraid.ida.persistence.api.Configuration;
+import org.cloudraid.ida.persistence.exception.IdaException;
+
+/**
+ * Locally repairable code (LRC) IDA. The data fragments are divided in LocalGroupNum groups of consecutive fragments,
+ * and each group gets a local parity fragment (the XOR of the data fragments of the group). GlobalParityNum global
+ * parity fragments are computed from all the data fragments with a Cauchy matrix, like in the
+ * {@link ReedSolomonInformationDispersalAlgorithm}. Fragment layout: data fragments, local parities, global parities.
+ *
+ * <p>
+ *     A single lost data or local parity fragment is rebuilt from the other fragments of its local group only (see
+ *     {@link #getRepairFragmentIndexes(int)} and {@link #repair(java.util.List, int)}), so repairs download
+ *     {@code dataFragmentNumber / LocalGroupNum} fragments instead of {@code dataFragmentNumber}. In exchange the code
+ *     isn't MDS: any {@code GlobalParityNum + 1} lost fragments can be recovered, which is what
+ *     {@link #getRedundantFragmentNumber()} returns (the RedundantFragmentNum param isn't used), and many patterns of
+ *     more lost fragments too.
+ * </p>
+ */
+public class LocallyRepairableInformationDispersalAlgorithm extends AbstractStripedInformationDispersalAlgorithm {
+
+    private static final Logger logger = Logger.getLogger(LocallyRepairableInformationDispersalAlgorithm.class);
+
+    public static final int ALGORITHM_ID = 3;
+    public static final int DEFAULT_LOCAL_GROUP_NUM = 2;
+    public static final int DEFAULT_GLOBAL_PARITY_NUM = 2;
+
+    private int localGroupNumber;
+    private int globalParityNumber;
+
+    public int getLocalGroupNumber() {
+        return localGroupNumber;
+    }
+
+    public int getGlobalParityNumber() {
+        return globalParityNumber;
+    }
+
+    /**
+     * Returns the local group of the specified data or local parity fragment, or -1 for global parity fragments.
+     */
+    public int getLocalGroup(int fragmentIndex) {
+        if (fragmentIndex < dataFragmentNumber) {
+            return fragmentIndex * localGroupNumber / dataFragmentNumber;
+        } else if (fragmentIndex < dataFragmentNumber + localGroupNumber) {
+            return fragmentIndex - dataFragmentNumber;
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    protected void initParameters(Configuration config) throws IdaException {
+        String localGroupNumParam = config.getInitParameter("LocalGroupNum");
+        String globalParityNumParam = config.getInitParameter("GlobalParityNum");
+
+        if (StringUtils.isNotEmpty(localGroupNumParam)) {
+            try {
+                localGroupNumber = Integer.parseInt(localGroupNumParam);
+            } catch (NumberFormatException e) {
+                throw new IdaException("Invalid format for LocalGroupNum param '" + localGroupNumParam + "'", e);
+            }
+        } else {
+            localGroupNumber = DEFAULT_LOCAL_GROUP_NUM;
+        }
+
+        if (StringUtils.isNotEmpty(globalParityNumParam)) {
+            try {
+                globalParityNumber = Integer.parseInt(globalParityNumParam);
+            } catch (NumberFormatException e) {
+                throw new IdaException("Invalid format for GlobalParityNum param '" + globalParityNumParam + "'", e);
+            }
+        } else {
+            globalParityNumber = DEFAULT_GLOBAL_PARITY_NUM;
+        }
+
+        if (localGroupNumber < 1) {
+            throw new IdaException("LocalGroupNum '" + localGroupNumber + "' should be at least 1");
+        }
+        if (globalParityNumber < 0) {
+            throw new IdaException("GlobalParityNum '" + globalParityNumber + "' can't be negative");
+        }
+        if (fragmentNumber - localGroupNumber - globalParityNumber < localGroupNumber) {
+            throw new IdaException("Fragment number '" + fragmentNumber + "' is too small for " + localGroupNumber +
+                    " local groups and " + globalParityNumber + " global parity fragments");
+        }
+
+        if (StringUtils.isNotEmpty(config.getInitParameter("RedundantFragmentNum"))) {
+            logger.warn("The RedundantFragmentNum param is ignored by " + getClass().getSimpleName() + ", the " +
+                    "number of fragments that can be lost is GlobalParityNum + 1");
+        }
+
+        parityFragmentNumber = localGroupNumber + globalParityNumber;
+        redundantFragmentNumber = globalParityNumber + 1;
+    }
+
+    @Override
+    protected int getAlgorithmId() {
+        return ALGORITHM_ID;
+    }
+
+    @Override
+    protected int[][] createParityMatrix() {
+        int[][] matrix = new int[parityFragmentNumber][dataFragmentNumber];
+
+        for (int i = 0; i < dataFragmentNumber; i++) {
+            matrix[getLocalGroup(i)][i] = 1;
+        }
+
+        for (int j = 0; j < globalParityNumber; j++) {
+            for (int i = 0; i < dataFragmentNumber; i++) {
+                matrix[localGroupNumber + j][i] = GaloisField256.inverse(GaloisField256.add(
+                        dataFragmentNumber + localGroupNumber + j, i));
+            }
+        }
+
+        return matrix;
+    }
+
+    @Override
+    protected void encodeStripe(byte[][] fragments, int offset, int length) {
+        // Local parities are plain XORs of their group
+        for (int group = 0; group < localGroupNumber; group++) {
+            byte[] parity = fragments[dataFragmentNumber + group];
+            boolean first = true;
+
+            for (int i = 0; i < dataFragmentNumber; i++) {
+                if (getLocalGroup(i) == group) {
+                    if (first) {
+                        System.arraycopy(fragments[i], offset, parity, offset, length);
+                        first = false;
+                    } else {
+                        kernel.xor(parity, offset, fragments[i], offset, length);
+                    }
+                }
+            }
+        }
+
+        for (int j = localGroupNumber; j < parityFragmentNumber; j++) {
+            byte[] parity = fragments[dataFragmentNumber + j];
+            int[] coefficients = generatorMatrix[dataFragmentNumber + j];
+
+            GaloisField256.multiply(parity, offset, fragments[0], offset, length, coefficients[0]);
+            for (int i = 1; i < dataFragmentNumber; i++) {
+                GaloisField256.multiplyAdd(parity, offset, fragments[i], offset, length, coefficients[i], kernel);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LocallyRepairableInformationDispersalAlgorithm[" +
+                "fragmentNumber=" + fragmentNumber +
+                ", localGroupNumber=" + localGroupNumber +
+                ", globalParityNumber=" + globalParityNumber +
+                ", stripeUnit=" + stripeUnit +
+                ", kernel=" + kernel +
+                ']';
+    }
+
+}
@@ -0,0 +1,46 @@
+package org.cloudraid.ida.persistence.impl;
+
+/**
+ * Systematic Reed-Solomon IDA over GF(2^8). The data is stored as is in the first
+ * {@code fragmentNumber - redundantFragmentNumber} fragments, and the redundant fragments are computed with a Cauchy
+ * matrix ({@code 1 / (x_j + y_i)}, with {@code x_j = dataFragmentNumber + j} and {@code y_i = i}), so any
+ * {@code fragmentNumber - redundantFragmentNumber} fragments are enough to combine the data.
+ *
+ * <p>
+ *     Unlike the {@link CrsInformationDispersalAlgorithm}, which works over bit matrices and writes a slice index per
+ *     message, this codec works on whole bytes with multiplication tables and only has a header per fragment, so
+ *     reading the data when all the data fragments are available is just a copy.
+ * </p>
+ */
+public class ReedSolomonInformationDispersalAlgorithm extends AbstractStripedInformationDispersalAlgorithm {
+
+    public static final int ALGORITHM_ID = 1;
+
+    @Override
+    protected int getAlgorithmId() {
+        return ALGORITHM_ID;
+    }
+
+    @Override
+    protected int[][] createParityMatrix() {
+        int[][] matrix = new int[parityFragmentNumber][dataFragmentNumber];
+        for (int j = 0; j < parityFragmentNumber; j++) {
+            for (int i = 0; i < dataFragmentNumber; i++) {
+                matrix[j][i] = GaloisField256.inverse(GaloisField256.add(dataFragmentNumber + j, i));
+            }
+        }
+
+        return matrix;
+    }
+
+    @Override
+    public String toString() {
+        return "ReedSolomonInformationDispersalAlgorithm[" +
+                "fragmentNumber=" + fragmentNumber +
+                ", redundantFragmentNumber=" + redundantFragmentNumber +
+                ", stripeUnit=" + stripeUnit +
+                ", kernel=" + kernel +
+                ']';
+    }
+
+}
@@ -0,0 +1,152 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.cloudraid.ida.persistence.api.FragmentRepository;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the latencies of the last loads of every repository, so the service can tell when a load is taking longer
+ * than usual for its repository (see {@link #getPercentile(FragmentRepository, long, int)}). The latencies are kept
+ * by the size of the loads, in buckets that grow 4 times each, since the latency of a load of a few KB and of a few
+ * MB are very different. The loads of whole fragments, whose size isn't known until they're loaded, are kept apart.
+ *
+ * <p>
+ *     This class is thread-safe: the latencies are added by the load tasks.
+ * </p>
+ */
+public class RepositoryLatencies {
+
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    public static final int DEFAULT_MIN_SAMPLES = 10;
+    public static final int MIN_BUCKET_SIZE = 65536;
+    public static final int MAX_BUCKET = 8;
+
+    /**
+     * Size of the loads of whole fragments.
+     */
+    public static final long WHOLE_FRAGMENT = -1;
+
+    private final int windowSize;
+    private final int minSamples;
+    private final ConcurrentMap<String, LatencyWindow> windows;
+
+    public RepositoryLatencies() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MIN_SAMPLES);
+    }
+
+    /**
+     * @param windowSize
+     *          the number of latencies kept per repository (the last ones)
+     * @param minSamples
+     *          the number of latencies a repository needs before its percentiles are returned
+     */
+    public RepositoryLatencies(int windowSize, int minSamples) {
+        this.windowSize = windowSize;
+        this.minSamples = minSamples;
+        this.windows = new ConcurrentHashMap<String, LatencyWindow>();
+    }
+
+    /**
+     * Adds the latency of a load of the repository.
+     *
+     * @param repository
+     *          the repository the fragment (or range) was loaded from
+     * @param size
+     *          the number of bytes of the fragment range that was loaded, or {@link #WHOLE_FRAGMENT}
+     * @param latency
+     *          the latency of the load, in milliseconds
+     */
+    public void addLatency(FragmentRepository repository, long size, long latency) {
+        String key = getKey(repository, size);
+        LatencyWindow window = windows.get(key);
+
+        if (window == null) {
+            LatencyWindow newWindow = new LatencyWindow(windowSize);
+
+            window = windows.putIfAbsent(key, newWindow);
+            if (window == null) {
+                window = newWindow;
+            }
+        }
+
+        window.add(latency);
+    }
+
+    /**
+     * Returns the percentile of the last latencies of the repository for loads of about the same size, in
+     * milliseconds, or -1 if the repository doesn't have enough latencies for that size yet.
+     *
+     * @param repository
+     *          the repository
+     * @param size
+     *          the number of bytes of the fragment range to load, or {@link #WHOLE_FRAGMENT}
+     * @param percentile
+     *          the percentile, from 1 to 100
+     */
+    public long getPercentile(FragmentRepository repository, long size, int percentile) {
+        LatencyWindow window = windows.get(getKey(repository, size));
+        if (window == null) {
+            return -1;
+        }
+
+        long[] latencies = window.getLatencies();
+        if (latencies.length < minSamples) {
+            return -1;
+        }
+
+        Arrays.sort(latencies);
+
+        int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+
+        return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+    }
+
+    private String getKey(FragmentRepository repository, long size) {
+        if (size < 0) {
+            return "whole:" + repository.getRepositoryUrl();
+        } else {
+            return "range" + getBucket(size) + ":" + repository.getRepositoryUrl();
+        }
+    }
+
+    /**
+     * Returns the bucket of the size: 0 for less than {@link #MIN_BUCKET_SIZE} bytes, and then one more every time the
+     * size is 4 times bigger, up to {@link #MAX_BUCKET}.
+     */
+    private int getBucket(long size) {
+        int bucket = 0;
+        for (long bucketSize = MIN_BUCKET_SIZE; size >= bucketSize && bucket < MAX_BUCKET; bucketSize *= 4) {
+            bucket++;
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Ring buffer with the last latencies of a repository.
+     */
+    private static class LatencyWindow {
+
+        private final long[] latencies;
+        private int next;
+        private int size;
+
+        public LatencyWindow(int windowSize) {
+            latencies = new long[windowSize];
+        }
+
+        public synchronized void add(long latency) {
+            latencies[next] = latency;
+            next = (next + 1) % latencies.length;
+            size = Math.min(size + 1, latencies.length);
+        }
+
+        public synchronized long[] getLatencies() {
+            return Arrays.copyOf(latencies, size);
+        }
+
+    }
+
+}
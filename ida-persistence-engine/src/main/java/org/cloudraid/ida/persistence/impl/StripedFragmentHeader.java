@@ -0,0 +1,148 @@
+package org.cloudraid.ida.persistence.impl;
+
+import org.cloudraid.ida.persistence.exception.IdaException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Header written at the start of every fragment by the {@link AbstractStripedInformationDispersalAlgorithm}s. Since
+ * the fragments don't have a slice index per message, the header tells which fragment it is, so the fragments can be
+ * combined in any order.
+ *
+ * <p>
+ *     Layout (big endian):
+ *     <ul>
+ *         <li>marker (1 byte): always 0xFD</li>
+ *         <li>version (1 byte): the version of the fragment format</li>
+ *         <li>algorithm (1 byte): the ID of the algorithm that split the data</li>
+ *         <li>fragmentIndex (1 byte)</li>
+ *         <li>dataFragmentNumber (1 byte)</li>
+ *         <li>parityFragmentNumber (1 byte)</li>
+ *         <li>stripeUnit (4 bytes)</li>
+ *         <li>dataLength (8 bytes): the length of the original data, or -1 if it wasn't known when the fragment was
+ *         written (the data is then followed by a 0x01 byte and zeros up to the end of the stripe)</li>
+ *     </ul>
+ * </p>
+ */
+public class StripedFragmentHeader {
+
+    public static final byte MARKER = (byte) 0xFD;
+    public static final byte VERSION = 1;
+    public static final int LENGTH = 18;
+    public static final long UNKNOWN_DATA_LENGTH = -1;
+
+    private final int algorithm;
+    private final int fragmentIndex;
+    private final int dataFragmentNumber;
+    private final int parityFragmentNumber;
+    private final int stripeUnit;
+    private final long dataLength;
+
+    public StripedFragmentHeader(int algorithm, int fragmentIndex, int dataFragmentNumber, int parityFragmentNumber,
+                                 int stripeUnit, long dataLength) {
+        this.algorithm = algorithm;
+        this.fragmentIndex = fragmentIndex;
+        this.dataFragmentNumber = dataFragmentNumber;
+        this.parityFragmentNumber = parityFragmentNumber;
+        this.stripeUnit = stripeUnit;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Reads the header at the start of the fragment.
+     *
+     * @throws IdaException if the fragment doesn't start with a valid header
+     */
+    public static StripedFragmentHeader read(byte[] fragment) throws IdaException {
+        if (fragment.length < LENGTH) {
+            throw new IdaException("Fragment of " + fragment.length + " bytes is too short for the header");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(fragment, 0, LENGTH);
+
+        if (buffer.get() != MARKER) {
+            throw new IdaException("Fragment doesn't start with a striped fragment header");
+        }
+
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IdaException("Unsupported fragment format version " + version);
+        }
+
+        int algorithm = buffer.get() & 0xFF;
+        int fragmentIndex = buffer.get() & 0xFF;
+        int dataFragmentNumber = buffer.get() & 0xFF;
+        int parityFragmentNumber = buffer.get() & 0xFF;
+        int stripeUnit = buffer.getInt();
+        long dataLength = buffer.getLong();
+
+        return new StripedFragmentHeader(algorithm, fragmentIndex, dataFragmentNumber, parityFragmentNumber,
+                stripeUnit, dataLength);
+    }
+
+    /**
+     * Returns the bytes of the header.
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+
+        buffer.put(MARKER);
+        buffer.put(VERSION);
+        buffer.put((byte) algorithm);
+        buffer.put((byte) fragmentIndex);
+        buffer.put((byte) dataFragmentNumber);
+        buffer.put((byte) parityFragmentNumber);
+        buffer.putInt(stripeUnit);
+        buffer.putLong(dataLength);
+
+        return buffer.array();
+    }
+
+    /**
+     * Writes the header at the start of the fragment.
+     */
+    public void write(byte[] fragment) {
+        System.arraycopy(toBytes(), 0, fragment, 0, LENGTH);
+    }
+
+    public int getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getFragmentIndex() {
+        return fragmentIndex;
+    }
+
+    public int getDataFragmentNumber() {
+        return dataFragmentNumber;
+    }
+
+    public int getParityFragmentNumber() {
+        return parityFragmentNumber;
+    }
+
+    public int getStripeUnit() {
+        return stripeUnit;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public boolean isDataLengthKnown() {
+        return dataLength >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "StripedFragmentHeader[" +
+                "algorithm=" + algorithm +
+                ", fragmentIndex=" + fragmentIndex +
+                ", dataFragmentNumber=" + dataFragmentNumber +
+                ", parityFragmentNumber=" + parityFragmentNumber +
+                ", stripeUnit=" + stripeUnit +
+                ", dataLength=" + dataLength +
+                ']';
+    }
+
+}
@@ -0,0 +1,56 @@
+package org.jigdfs.ida.cauchyreedsolomon.vector;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.jigdfs.ida.cauchyreedsolomon.XorKernel;
+
+/**
+ * {@link XorKernel} that uses the JDK Vector API, so the segments are XORed using the full
+ * SIMD width of the CPU (AVX2/AVX-512 lanes). The tail of each segment that doesn't fill a
+ * whole vector is XORed byte by byte, so the output is the same as the one of the scalar
+ * kernels.
+ * 
+ * <p>
+ * Selected with the <b>vector</b> kernel name. If this class or the jdk.incubator.vector
+ * module aren't available, {@link XorKernel#forName(String)} falls back to the default
+ * scalar kernel.
+ * </p>
+ */
+public class VectorXorKernel extends XorKernel
+{
+   private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+   @Override
+   public void xor(final byte[] dst, final int dstOffset, final byte[] src, final int srcOffset,
+         final int length)
+   {
+      final int vectorsEnd = SPECIES.loopBound(length);
+
+      int i = 0;
+
+      while (i < vectorsEnd)
+      {
+         ByteVector dstVector = ByteVector.fromArray(SPECIES, dst, dstOffset + i);
+         ByteVector srcVector = ByteVector.fromArray(SPECIES, src, srcOffset + i);
+
+         dstVector.lanewise(VectorOperators.XOR, srcVector).intoArray(dst, dstOffset + i);
+
+         i += SPECIES.length();
+      }
+
+      // Segment tail
+      while (i < length)
+      {
+         dst[dstOffset + i] ^= src[srcOffset + i];
+         i++;
+      }
+   }
+
+   @Override
+   public String getName()
+   {
+      return VECTOR_KERNEL;
+   }
+
+}
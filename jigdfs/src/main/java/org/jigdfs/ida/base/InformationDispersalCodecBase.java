@@ -63,9 +63,10 @@ public abstract class InformationDispersalCodecBase implements
 	// Size of the chunk of data processed as input with each call to encode
 	protected int chunkSize = DEFAULT_CHUNK_SIZE;
 
-	// Encoder and decoder
-	protected static InformationDispersalEncoder _encoder = null;
-	protected static InformationDispersalDecoder _decoder = null;
+	// Encoder and decoder (one per codec, so codecs with different parameters can be used at
+	// the same time)
+	protected InformationDispersalEncoder _encoder = null;
+	protected InformationDispersalDecoder _decoder = null;
 
 	protected abstract InformationDispersalEncoder getNewEncoder() throws IDAInvalidParametersException;
 
@@ -31,6 +31,34 @@ public interface InformationDispersalDecoder
    public byte[] process(List<byte[]> encodedBuffers) 
       throws IDADecodeException, IDANotInitializedException;
 
+   /**
+    * Decodes only the messages in ranges of the fragments. Every range starts
+    * with the fragment header (if the fragments have one), followed by whole
+    * messages starting at firstMessage.
+    * 
+    * @param encodedRanges A list of ranges of the encoded buffers
+    * @param firstMessage The index of the first message of the ranges
+    * 
+    * @return Decoded data of the messages
+    * @throws IDADecodeException 
+    */
+   public byte[] processRange(List<byte[]> encodedRanges, int firstMessage)
+      throws IDADecodeException, IDANotInitializedException;
+
+   /**
+    * Returns the number of data bytes in each message
+    * 
+    * @return The message size
+    */
+   public int getMessageSize();
+
+   /**
+    * Returns the number of bytes each message takes in every fragment
+    * 
+    * @return The size of a message in a fragment
+    */
+   public int getFragmentSize();
+
    /**
     * Returns the number of slices
     * 
@@ -5,6 +5,10 @@ import org.jigdfs.ida.exception.IDAEncodeException;
 import org.jigdfs.ida.exception.IDAInvalidParametersException;
 import org.jigdfs.ida.exception.IDANotInitializedException;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 
 
@@ -27,6 +31,100 @@ public interface InformationDispersalEncoder
    public List<byte[]> process(byte buffer[])
          throws IDAEncodeException, IDANotInitializedException;
 
+   /**
+    * Performs a complete encoding operation over a channel. The data is read
+    * one message at a time and every encoded slice is written right away to
+    * the channel of its fragment, so the memory used doesn't depend on the
+    * size of the data.
+    * 
+    * @param input
+    *           The channel to read the data to encode from
+    * @param outputs
+    *           One channel per slice, where the fragments are written
+    * 
+    * @return The number of bytes written to each output channel
+    */
+   public long process(ReadableByteChannel input, List<? extends WritableByteChannel> outputs)
+         throws IDAEncodeException, IDANotInitializedException, IOException;
+
+   /**
+    * Performs a complete encoding operation over a channel, like
+    * process(ReadableByteChannel, List), of data whose length is known before
+    * it's read. The length is written in the fragment headers, so the data
+    * can be decoded without looking for its padding.
+    * 
+    * @param input
+    *           The channel to read the data to encode from
+    * @param outputs
+    *           One channel per slice, where the fragments are written
+    * @param dataLength
+    *           The number of bytes of the input, or -1 if it's unknown
+    * 
+    * @return The number of bytes written to each output channel
+    * @throws IDAEncodeException
+    *            if the input doesn't have dataLength bytes
+    */
+   public long process(ReadableByteChannel input, List<? extends WritableByteChannel> outputs, long dataLength)
+         throws IDAEncodeException, IDANotInitializedException, IOException;
+
+   /**
+    * Performs a complete encoding operation of the remaining bytes of the data
+    * buffer, writing the fragments straight into the output buffers (heap or
+    * direct) starting at their position. No memory is allocated per message.
+    * Every output buffer must have at least getFragmentLength(data.remaining())
+    * bytes remaining.
+    * 
+    * @param data
+    *           The data to encode. Its position is moved to its limit
+    * @param outputs
+    *           One buffer per slice, where the fragments are written. Their
+    *           positions are moved past the fragments
+    * 
+    * @return The number of bytes written to each output buffer
+    */
+   public int process(ByteBuffer data, List<? extends ByteBuffer> outputs)
+         throws IDAEncodeException, IDANotInitializedException;
+
+   /**
+    * Encodes the difference between the old and new contents of a region of the
+    * data. Since the code is linear, XORing each delta into its fragment
+    * (starting at getDeltaOffset(dataOffset)) gives the same fragments as
+    * encoding the new data, and only the messages that cover the region are
+    * encoded.
+    * 
+    * @param dataOffset
+    *           The offset of the region in the data
+    * @param oldData
+    *           The old contents of the region
+    * @param newData
+    *           The new contents of the region (same length as oldData)
+    * 
+    * @return One delta per slice
+    */
+   public List<byte[]> encodeDelta(int dataOffset, byte oldData[], byte newData[])
+         throws IDAEncodeException, IDANotInitializedException;
+
+   /**
+    * Returns the offset in the fragments of the deltas returned by
+    * encodeDelta for a region at the specified data offset
+    * 
+    * @param dataOffset
+    *           The offset of the region in the data
+    * 
+    * @return The offset of the deltas in the fragments
+    */
+   public int getDeltaOffset(int dataOffset);
+
+   /**
+    * Returns the length of each fragment of data with the specified length
+    * 
+    * @param dataLength
+    *           The length of the data to encode
+    * 
+    * @return The length of each fragment
+    */
+   public int getFragmentLength(int dataLength);
+
    /**
     * Returns the number of slices
     * 
@@ -0,0 +1,30 @@
+package org.jigdfs.ida.cauchyreedsolomon;
+
+/**
+ * {@link XorKernel} that XORs one byte at a time, as the original JigDFS code did.
+ */
+public class ByteXorKernel extends XorKernel
+{
+   @Override
+   public void xor(final byte[] dst, final int dstOffset, final byte[] src, final int srcOffset,
+         final int length)
+   {
+      final int difference = srcOffset - dstOffset;
+      final int end = dstOffset + length;
+
+      int dstIterator = dstOffset;
+
+      while (dstIterator < end)
+      {
+         dst[dstIterator] ^= src[dstIterator + difference];
+         dstIterator++;
+      }
+   }
+
+   @Override
+   public String getName()
+   {
+      return BYTE_KERNEL;
+   }
+
+}
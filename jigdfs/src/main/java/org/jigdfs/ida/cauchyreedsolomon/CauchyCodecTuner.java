@@ -0,0 +1,267 @@
+package org.jigdfs.ida.cauchyreedsolomon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Micro-benchmarks the Cauchy Reed-Solomon codec with several chunk sizes and field widths for a
+ * given number of slices and threshold, and returns the fastest combination. Bigger chunks
+ * reduce the per-message overhead (slice indexes, padding, table lookups, array copies), while
+ * the field width changes the number and length of the segments XORed, so the best values
+ * depend on the (n, k) configuration and on the machine.
+ *
+ * <p>
+ * Each candidate encodes a random sample and then decodes it from the last slices only (the
+ * worst case, where as many data slices as possible have to be recovered). All the candidates
+ * are warmed up before any of them is measured, so the JIT compilation of the shared code isn't
+ * charged to the first ones. Then each candidate is run for at least a minimum time, and the
+ * candidate with the best throughput for its median run wins, so a GC pause or an unlucky
+ * scheduling in a single run doesn't decide the result.
+ * </p>
+ */
+public class CauchyCodecTuner
+{
+   public static final int[] DEFAULT_CHUNK_SIZES = {4096, 8192, 16384, 32768, 65536, 131072};
+
+   public static final int[] DEFAULT_FIELD_WIDTHS = {4, 5, 6, 7, 8};
+
+   public static final int DEFAULT_SAMPLE_SIZE = 1 << 20;
+
+   private static final int WARMUP_ITERATIONS = 3;
+
+   private static final int MIN_MEASURED_ITERATIONS = 5;
+
+   private static final long MIN_MEASUREMENT_NANOS = 50000000L;
+
+   private static Logger logger = Logger.getLogger(CauchyCodecTuner.class);
+
+   /**
+    * Returns the fastest combination of the default chunk sizes and field widths.
+    *
+    * @param numSlices
+    *           Number of slices to produce
+    * @param threshold
+    *           Number of recoverable slice losses
+    * @param xorKernel
+    *           The kernel used to XOR the segments
+    */
+   public static Result tune(int numSlices, int threshold, XorKernel xorKernel)
+   {
+      return tune(numSlices, threshold, xorKernel, DEFAULT_CHUNK_SIZES, DEFAULT_FIELD_WIDTHS, DEFAULT_SAMPLE_SIZE);
+   }
+
+   /**
+    * Returns the fastest combination of the specified chunk sizes and field widths. Field widths
+    * that can't hold the number of slices are skipped.
+    *
+    * @param numSlices
+    *           Number of slices to produce
+    * @param threshold
+    *           Number of recoverable slice losses
+    * @param xorKernel
+    *           The kernel used to XOR the segments
+    * @param chunkSizes
+    *           The candidate chunk sizes
+    * @param fieldWidths
+    *           The candidate field widths (logs of the field length)
+    * @param sampleSize
+    *           The size of the data encoded and decoded with each candidate
+    *
+    * @throws IllegalArgumentException if none of the candidates can be used
+    */
+   public static Result tune(int numSlices, int threshold, XorKernel xorKernel, int[] chunkSizes,
+         int[] fieldWidths, int sampleSize)
+   {
+      byte sample[] = new byte[sampleSize];
+      new Random(numSlices * 31 + threshold).nextBytes(sample);
+
+      List<Candidate> candidates = new ArrayList<Candidate>();
+
+      for (int fieldWidth : fieldWidths)
+      {
+         if (fieldWidth < 1 || fieldWidth > CauchyIDAParameters.MAX_LOG_OF_FIELD_LENGTH
+               || numSlices > 1 << (fieldWidth - 1))
+         {
+            continue;
+         }
+
+         for (int chunkSize : chunkSizes)
+         {
+            try
+            {
+               Candidate candidate = new Candidate(numSlices, threshold, chunkSize, fieldWidth, xorKernel);
+               for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++)
+               {
+                  candidate.run(sample);
+               }
+
+               candidates.add(candidate);
+            }
+            catch (Exception e)
+            {
+               logger.warn("Unable to benchmark chunk size " + chunkSize + " and field width " + fieldWidth, e);
+            }
+         }
+      }
+
+      Result best = null;
+
+      for (Candidate candidate : candidates)
+      {
+         Result result;
+         try
+         {
+            result = candidate.benchmark(sample);
+         }
+         catch (Exception e)
+         {
+            logger.warn("Unable to benchmark chunk size " + candidate.chunkSize + " and field width "
+                  + candidate.fieldWidth, e);
+            continue;
+         }
+
+         if (logger.isDebugEnabled())
+         {
+            logger.debug(result);
+         }
+
+         if (best == null || result.getThroughput() > best.getThroughput())
+         {
+            best = result;
+         }
+      }
+
+      if (best == null)
+      {
+         throw new IllegalArgumentException("None of the chunk sizes " + Arrays.toString(chunkSizes)
+               + " and field widths " + Arrays.toString(fieldWidths) + " can be used with " + numSlices + " slices");
+      }
+
+      logger.info("Fastest parameters for " + numSlices + " slices and threshold " + threshold + ": " + best);
+
+      return best;
+   }
+
+   /**
+    * An encoder and decoder pair for a chunk size and field width.
+    */
+   private static class Candidate
+   {
+      private final int threshold;
+      private final int chunkSize;
+      private final int fieldWidth;
+      private final CauchyInformationDispersalEncoder encoder;
+      private final CauchyInformationDispersalDecoder decoder;
+
+      private Candidate(int numSlices, int threshold, int chunkSize, int fieldWidth, XorKernel xorKernel)
+            throws Exception
+      {
+         this.threshold = threshold;
+         this.chunkSize = chunkSize;
+         this.fieldWidth = fieldWidth;
+
+         encoder = new CauchyInformationDispersalEncoder(numSlices, threshold, chunkSize, fieldWidth, xorKernel);
+         decoder = new CauchyInformationDispersalDecoder(numSlices, threshold, chunkSize, fieldWidth, xorKernel);
+      }
+
+      /**
+       * Runs the candidate for at least a minimum number of runs and a minimum time, and returns
+       * the throughput of the median run.
+       */
+      private Result benchmark(byte sample[]) throws Exception
+      {
+         List<Long> runs = new ArrayList<Long>();
+         long measurementStart = System.nanoTime();
+
+         while (runs.size() < MIN_MEASURED_ITERATIONS
+               || System.nanoTime() - measurementStart < MIN_MEASUREMENT_NANOS)
+         {
+            runs.add(run(sample));
+         }
+
+         Collections.sort(runs);
+
+         long median = runs.get(runs.size() / 2);
+         double throughput = (double) sample.length / (1 << 20) / (median / 1e9);
+
+         return new Result(chunkSize, fieldWidth, throughput);
+      }
+
+      /**
+       * Encodes the sample, decodes it from the last slices and returns the elapsed time in
+       * nanoseconds.
+       */
+      private long run(byte sample[]) throws Exception
+      {
+         long start = System.nanoTime();
+
+         List<byte[]> fragments = encoder.process(sample);
+
+         // Keep only the last slices, the ones needed to decode
+         List<byte[]> received = new ArrayList<byte[]>(fragments);
+         for (int fragmentIdx = 0; fragmentIdx < threshold; fragmentIdx++)
+         {
+            received.set(fragmentIdx, null);
+         }
+
+         byte decoded[] = decoder.process(received);
+
+         long elapsed = System.nanoTime() - start;
+
+         if (!Arrays.equals(decoded, sample))
+         {
+            throw new IllegalStateException("Decoded data doesn't match the encoded data");
+         }
+
+         return elapsed;
+      }
+   }
+
+   /**
+    * The parameters of a benchmarked candidate and its throughput.
+    */
+   public static class Result
+   {
+      private final int chunkSize;
+      private final int logOfFieldLength;
+      private final double throughput;
+
+      public Result(int chunkSize, int logOfFieldLength, double throughput)
+      {
+         this.chunkSize = chunkSize;
+         this.logOfFieldLength = logOfFieldLength;
+         this.throughput = throughput;
+      }
+
+      public int getChunkSize()
+      {
+         return chunkSize;
+      }
+
+      public int getLogOfFieldLength()
+      {
+         return logOfFieldLength;
+      }
+
+      /**
+       * Returns the combined encode and decode throughput of the median run, in MB/s.
+       */
+      public double getThroughput()
+      {
+         return throughput;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "chunkSize = " + chunkSize + ", logOfFieldLength = " + logOfFieldLength + ", throughput = "
+               + String.format("%.1f", throughput) + " MB/s";
+      }
+   }
+
+}
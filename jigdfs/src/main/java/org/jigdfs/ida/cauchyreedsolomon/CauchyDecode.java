@@ -63,8 +63,7 @@
 
 package org.jigdfs.ida.cauchyreedsolomon;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
 
 /**
  * CauchyEncode decodes a msg that was previously encoded using Cauchy
@@ -82,10 +81,6 @@ import java.util.Map;
  */
 public class CauchyDecode
 {
-   private static final int STACK_SIZE = 32;
-
-   private static Map<Integer, FiniteStack> _decodeTable = new HashMap<Integer, FiniteStack>();
-
    /**
     * decode uses the cauchy erasure coding method to decode an array of
     * fragments back into a msg.
@@ -107,59 +102,59 @@ public class CauchyDecode
          final CauchyIDAParameters p) throws Exception
    {
       byte[] rec_message = new byte[p.getMessageLength()];
-      
-      int i, j, k, l, m, index, seg_ind;
-      int col_ind, row_ind, col_eqn, row_eqn;
-      int Nfirstrec, Nextra;
-      int ExpFE;
 
-      int diff;
-      
-      final int numSegments = p.getSegmentsPerSlice();
-      final int logOfField = p.getLogOfFieldLength();
+      decode(rec_fragments, Nrec, p, rec_message, 0);
 
-      final int[] COLBIT = InitField.getCOLBIT(logOfField);
-      final int[] BIT = InitField.getBIT(logOfField);
-      final int[] ExptoFE = InitField.getExptoFE(logOfField);
-      final int[] FEtoExp = InitField.getFEtoExp(logOfField);
-
-      Integer key = new Integer(p.getNumDataSlices() + numSegments * p.getNumCodeSlices()
-            * logOfField);
-      FiniteStack stack = (FiniteStack) _decodeTable.get(key);
+      return rec_message;
+   }
 
-      if (stack == null)
-      {
-         synchronized (_decodeTable)
-         {
-            if ((stack = (FiniteStack) _decodeTable.get(key)) == null)
-            {
-               Object bucket = null;
-               stack = new FiniteStack(STACK_SIZE);
-               if ((bucket = _decodeTable.put(key, stack)) != null)
-                  System.err.println("CauchyDecode.decode: bucket=" + bucket
-                        + " for key=" + key + " stack=" + stack);
-            }
-         }
-      }
+   /**
+    * Decodes the message straight into the specified array, at the specified offset. This
+    * version wraps the array for the XOR kernel on every call, so loops over many messages
+    * should wrap it once and call the version that takes the view.
+    */
+   public static void decode(
+         final byte[] rec_fragments,
+         final int Nrec,
+         final CauchyIDAParameters p,
+         final byte[] rec_message,
+         final int messageOffset) throws Exception
+   {
+      decode(rec_fragments, Nrec, p, XorKernel.wrap(rec_message), messageOffset);
+   }
 
-      ArrayObj arrayObj = (ArrayObj) stack.pop();
-      if (arrayObj == null)
-         arrayObj = new ArrayObj(p.getNumDataSlices(), p.getNumCodeSlices(), numSegments, logOfField);
+   /**
+    * Decodes the message straight into the array of the specified view (see
+    * {@link XorKernel#wrap(byte[])}), at the specified offset. The scratch space comes from
+    * the pool of the current thread (see CauchyScratchSpace), so nothing is allocated per
+    * message.
+    */
+   public static void decode(
+         final byte[] rec_fragments,
+         final int Nrec,
+         final CauchyIDAParameters p,
+         final ByteBuffer rec_message,
+         final int messageOffset) throws Exception
+   {
+      int i, j, k, m, index;
+      int row_ind;
+      int Nfirstrec, Nextra;
 
-      int[] Rec_index = arrayObj.Rec_index;
-      int[] Col_Ind = arrayObj.Col_Ind;
-      int[] Row_Ind = arrayObj.Row_Ind;
-      byte[] M = arrayObj.M;
-      int[] C = arrayObj.C;
-      int[] D = arrayObj.D;
-      int[] E = arrayObj.E;
-      int[] F = arrayObj.F;
+      final int numSegments = p.getSegmentsPerSlice();
+      final int logOfField = p.getLogOfFieldLength();
+      final XorKernel xorKernel = p.getXorKernel();
 
       if (Nrec < p.getNumDataSlices())
       {
          throw new Exception("Decode error");
       }
 
+      CauchyScratchSpace scratchSpace = CauchyScratchSpace.get(p);
+
+      int[] Rec_index = scratchSpace.getReceivedIndexes();
+      int[] Row_Ind = scratchSpace.getRowIndexes();
+      byte[] M = scratchSpace.getCodeSegments();
+
       /**
        * Move information from fragments into received message. Fill in parts of
        * received message that requires no processing and figure out how many of
@@ -181,10 +176,9 @@ public class CauchyDecode
             j = index * p.getSliceLength();
             Rec_index[index] = 1;
 
-            diff = (m + 1) - j;
-            
-            System.arraycopy(rec_fragments, j + diff, rec_message, j, numSegments * logOfField);
-            
+            System.arraycopy(rec_fragments, m + 1, rec_message.array(), messageOffset + j,
+                  numSegments * logOfField);
+
             Nfirstrec++;
          }
          m += p.getTotalSliceLength();
@@ -195,166 +189,43 @@ public class CauchyDecode
        */
       Nextra = p.getNumDataSlices() - Nfirstrec;
 
-      /**
-       * Compute the indices of the missing words in the message
-       */
-      col_ind = 0;
-      for (i = 0; i < p.getNumDataSlices(); i++)
-      {
-         if (Rec_index[i] == 0)
-            Col_Ind[col_ind++] = i;
-      }
-
       /**
        * Keep track of indices of extra fragments in Row_Ind array and
        * initialize M array from the received extra fragments
        */
       row_ind = 0;
       m = 0;
-      for (i = 0; i < Nrec; i++)
+      for (i = 0; i < Nrec && row_ind < Nextra; i++)
       {
          if (rec_fragments[m] >= p.getNumDataSlices())
          {
             k = numSegments * row_ind * logOfField;
             Row_Ind[row_ind] = rec_fragments[m] - p.getNumDataSlices();
-            
+
             System.arraycopy(rec_fragments, m + 1, M, k, numSegments * logOfField);
-            
+
             row_ind++;
-            if (row_ind >= Nextra)
-               break;
          }
          m += p.getTotalSliceLength();
       }
 
       /**
        * Adjust M array according to the equations and the contents of
-       * rec_message.
+       * rec_message, and fill in the recovered information in the message from
+       * the inverted matrix and from M. The inverted matrix only depends on the
+       * erasure pattern, so its XOR schedule is compiled once and cached (see
+       * CauchyDecodeSchedule).
        */
-      for (row_ind = 0; row_ind < Nextra; row_ind++)
+      if (Nextra > 0)
       {
-         for (col_ind = 0; col_ind < p.getNumDataSlices(); col_ind++)
+         CauchyDecodeSchedule schedule = scratchSpace.getSchedule(Rec_index, Row_Ind, Nextra);
+         if (schedule == null)
          {
-            if (Rec_index[col_ind] == 1)
-            {
-               ExpFE = (p.getMultiplicationFieldSize() - FEtoExp[Row_Ind[row_ind] ^ col_ind
-                     ^ COLBIT[0]])
-                     % p.getMultiplicationFieldSize();
-               for (row_eqn = 0; row_eqn < logOfField; row_eqn++)
-               {
-                  j = numSegments * (row_eqn + row_ind * logOfField);
-                  for (col_eqn = 0; col_eqn < logOfField; col_eqn++)
-                  {
-                     k = numSegments * (col_eqn + col_ind * logOfField);
-                     if ((ExptoFE[ExpFE + row_eqn] & BIT[col_eqn]) > 0)
-                     {
-                        
-                        diff = (k - j);
-                        int stop = j + numSegments;
-                        
-                        for (seg_ind = j; seg_ind < stop; seg_ind++)
-                        {
-                           M[seg_ind] ^= rec_message[seg_ind + diff];
-                        }
-
-                     }
-                  }
-               }
-            }
+            schedule = CauchyDecodeSchedule.getSchedule(p, Rec_index, Row_Ind, Nextra);
+            scratchSpace.setSchedule(Rec_index, Row_Ind, Nextra, schedule);
          }
-      }
 
-      /**
-       * Compute the determinant of the matrix in the finite field and then
-       * compute the inverse matrix
-       */
-      for (row_ind = 0; row_ind < Nextra; row_ind++)
-      {
-         for (col_ind = 0; col_ind < Nextra; col_ind++)
-         {
-            if (col_ind != row_ind)
-            {
-               C[row_ind] += FEtoExp[Row_Ind[row_ind] ^ Row_Ind[col_ind]];
-               D[col_ind] += FEtoExp[Col_Ind[row_ind] ^ Col_Ind[col_ind]];
-            }
-            E[row_ind] += FEtoExp[Row_Ind[row_ind] ^ Col_Ind[col_ind]
-                  ^ COLBIT[0]];
-            F[col_ind] += FEtoExp[Row_Ind[row_ind] ^ Col_Ind[col_ind]
-                  ^ COLBIT[0]];
-         }
-      }
-
-      /**
-       * Fill in the recovered information in the message from the inverted
-       * matrix and from M.
-       */
-      for (row_ind = 0; row_ind < Nextra; row_ind++)
-      {
-         for (col_ind = 0; col_ind < Nextra; col_ind++)
-         {
-            ExpFE = E[col_ind] + F[row_ind] - C[col_ind] - D[row_ind]
-                  - FEtoExp[Row_Ind[col_ind] ^ Col_Ind[row_ind] ^ COLBIT[0]];
-            if (ExpFE < 0)
-               ExpFE = p.getMultiplicationFieldSize() - ((-ExpFE) % p.getMultiplicationFieldSize());
-            ExpFE = ExpFE % p.getMultiplicationFieldSize();
-            j = Col_Ind[row_ind] * logOfField * numSegments;
-            for (row_eqn = 0; row_eqn < logOfField; row_eqn++)
-            {
-               k = row_eqn * numSegments + j;
-               for (col_eqn = 0; col_eqn < logOfField; col_eqn++)
-               {
-                  l = numSegments * (col_eqn + col_ind * logOfField);
-                  if ((ExptoFE[ExpFE + row_eqn] & BIT[col_eqn]) > 0)
-                  {
-                     diff = (l - k);
-                     int stop = k + numSegments;
-                     
-                     for (seg_ind = k; seg_ind < stop; seg_ind++)
-                     {
-                        rec_message[seg_ind] ^= M[seg_ind + diff];
-                     }
-                     
-                  }
-               }
-            }
-         }
-      }
-
-      return rec_message;
-   }
-
-   private static class ArrayObj
-   {
-      public int[] Rec_index;
-
-      public int[] Col_Ind;
-
-      public int[] Row_Ind;
-
-      public int[] C;
-
-      public int[] D;
-
-      public int[] E;
-
-      public int[] F;
-
-      public byte[] M;
-
-      public ArrayObj(
-            int numMsgFrags,
-            int numRedundantFrags,
-            int nSegs,
-            int Lfield)
-      {
-         Rec_index = new int[numMsgFrags];
-         Col_Ind = new int[numMsgFrags];
-         Row_Ind = new int[numRedundantFrags];
-         C = new int[numRedundantFrags];
-         D = new int[numMsgFrags];
-         E = new int[numMsgFrags];
-         F = new int[numRedundantFrags];
-         M = new byte[nSegs * numRedundantFrags * Lfield];
+         schedule.run(rec_message, messageOffset, scratchSpace.getCodeSegmentsWords(), xorKernel);
       }
    }
 }
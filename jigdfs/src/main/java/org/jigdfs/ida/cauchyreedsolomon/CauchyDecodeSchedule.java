@@ -0,0 +1,410 @@
+package org.jigdfs.ida.cauchyreedsolomon;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The recovery equations of the Cauchy Reed-Solomon code for one erasure pattern, compiled
+ * into two flat lists of XOR operations. The pattern is defined by which data slices were
+ * received and which code slices are used to recover the missing ones. Inverting the Cauchy
+ * submatrix only depends on that pattern and the {@link CauchyIDAParameters}, so it's done
+ * once per pattern and the schedule is kept in an LRU cache. {@link CauchyDecode} then only
+ * runs the XORs for every message.
+ *
+ * <p>
+ * The operations of the first list remove the received data slices from the code slices
+ * (XOR segments of the message into M). The operations of the second list apply the inverted
+ * matrix (XOR segments of M into the missing data slices of the message).
+ * </p>
+ */
+public class CauchyDecodeSchedule
+{
+   /** Max number of erasure patterns whose schedules are kept in the cache */
+   public static final int MAX_CACHED_SCHEDULES = 256;
+
+   private static final Map<PatternKey, CauchyDecodeSchedule> schedules =
+         new LinkedHashMap<PatternKey, CauchyDecodeSchedule>(16, 0.75f, true)
+         {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PatternKey, CauchyDecodeSchedule> eldest)
+            {
+               return size() > MAX_CACHED_SCHEDULES;
+            }
+         };
+
+   /** Key used by each thread to look up the cache */
+   private static final ThreadLocal<PatternKey> lookupKeys = new ThreadLocal<PatternKey>()
+   {
+      @Override
+      protected PatternKey initialValue()
+      {
+         return new PatternKey(null, new int[0], 0);
+      }
+   };
+
+   /** Length in bytes of the segment XORed by each operation */
+   private final int segmentLength;
+
+   /** Offsets in M of the destination segments of the first list of operations */
+   private final int[] reduceDestinationOffsets;
+
+   /** Offsets in the message of the source segments of the first list of operations */
+   private final int[] reduceSourceOffsets;
+
+   /** Offsets in the message of the destination segments of the second list of operations */
+   private final int[] recoverDestinationOffsets;
+
+   /** Offsets in M of the source segments of the second list of operations */
+   private final int[] recoverSourceOffsets;
+
+   private CauchyDecodeSchedule(int segmentLength, int[] reduceDestinationOffsets,
+         int[] reduceSourceOffsets, int[] recoverDestinationOffsets, int[] recoverSourceOffsets)
+   {
+      this.segmentLength = segmentLength;
+      this.reduceDestinationOffsets = reduceDestinationOffsets;
+      this.reduceSourceOffsets = reduceSourceOffsets;
+      this.recoverDestinationOffsets = recoverDestinationOffsets;
+      this.recoverSourceOffsets = recoverSourceOffsets;
+   }
+
+   /**
+    * Returns the schedule for the specified parameters and erasure pattern, compiling it the
+    * first time (or after it has been evicted from the cache).
+    *
+    * @param p
+    *           The IDA parameters
+    * @param recIndex
+    *           1 for each data slice received, 0 for each missing one
+    * @param rowInd
+    *           The code slices (0 to numCodeSlices - 1) used to recover the missing data
+    *           slices, in the order they're copied into M
+    * @param numExtra
+    *           The number of missing data slices (and code slices used)
+    */
+   public static CauchyDecodeSchedule getSchedule(CauchyIDAParameters p, int[] recIndex,
+         int[] rowInd, int numExtra)
+   {
+      // The key of the lookup is reused by the thread, only the cached keys are allocated
+      PatternKey key = lookupKeys.get();
+      key.set(p, recIndex, rowInd, numExtra);
+
+      CauchyDecodeSchedule schedule;
+
+      synchronized (schedules)
+      {
+         schedule = schedules.get(key);
+      }
+
+      if (schedule == null)
+      {
+         // Compile outside the lock: at worst two threads compile the same schedule
+         schedule = compile(p, recIndex, rowInd, numExtra);
+
+         // Copy the parameters for the cached key, so later changes to them can't corrupt the
+         // cache
+         CauchyIDAParameters params = new CauchyIDAParameters(p.getNumDataSlices(), p.getNumCodeSlices(),
+               p.getChunkSize());
+         params.setLogOfFieldLength(p.getLogOfFieldLength());
+
+         synchronized (schedules)
+         {
+            schedules.put(key.copy(params), schedule);
+         }
+      }
+
+      return schedule;
+   }
+
+   /**
+    * Compiles the schedule, following the same equations of the original JigDFS decoder.
+    */
+   private static CauchyDecodeSchedule compile(CauchyIDAParameters p, int[] recIndex,
+         int[] rowInd, int numExtra)
+   {
+      int i, j, k, l;
+      int col_ind, row_ind, col_eqn, row_eqn;
+      int ExpFE;
+
+      final int numSegments = p.getSegmentsPerSlice();
+      final int logOfField = p.getLogOfFieldLength();
+      final int numDataSlices = p.getNumDataSlices();
+      final int multFieldSize = p.getMultiplicationFieldSize();
+
+      final int[] COLBIT = InitField.getCOLBIT(logOfField);
+      final int[] BIT = InitField.getBIT(logOfField);
+      final int[] ExptoFE = InitField.getExptoFE(logOfField);
+      final int[] FEtoExp = InitField.getFEtoExp(logOfField);
+
+      int[] Col_Ind = new int[numDataSlices];
+      int[] C = new int[numExtra];
+      int[] D = new int[numExtra];
+      int[] E = new int[numExtra];
+      int[] F = new int[numExtra];
+
+      /**
+       * Compute the indices of the missing words in the message
+       */
+      col_ind = 0;
+      for (i = 0; i < numDataSlices; i++)
+      {
+         if (recIndex[i] == 0)
+            Col_Ind[col_ind++] = i;
+      }
+
+      /**
+       * Operations that adjust the M array according to the equations and the contents of
+       * the received data slices.
+       */
+      int maxOperations = numExtra * numDataSlices * logOfField * logOfField;
+      int[] reduceDestinationOffsets = new int[maxOperations];
+      int[] reduceSourceOffsets = new int[maxOperations];
+      int numReduceOperations = 0;
+
+      for (row_ind = 0; row_ind < numExtra; row_ind++)
+      {
+         for (col_ind = 0; col_ind < numDataSlices; col_ind++)
+         {
+            if (recIndex[col_ind] == 1)
+            {
+               ExpFE = (multFieldSize - FEtoExp[rowInd[row_ind] ^ col_ind ^ COLBIT[0]])
+                     % multFieldSize;
+               for (row_eqn = 0; row_eqn < logOfField; row_eqn++)
+               {
+                  j = numSegments * (row_eqn + row_ind * logOfField);
+                  for (col_eqn = 0; col_eqn < logOfField; col_eqn++)
+                  {
+                     k = numSegments * (col_eqn + col_ind * logOfField);
+                     if ((ExptoFE[ExpFE + row_eqn] & BIT[col_eqn]) > 0)
+                     {
+                        reduceDestinationOffsets[numReduceOperations] = j;
+                        reduceSourceOffsets[numReduceOperations] = k;
+                        numReduceOperations++;
+                     }
+                  }
+               }
+            }
+         }
+      }
+
+      /**
+       * Compute the determinant of the matrix in the finite field and then
+       * compute the inverse matrix
+       */
+      for (row_ind = 0; row_ind < numExtra; row_ind++)
+      {
+         for (col_ind = 0; col_ind < numExtra; col_ind++)
+         {
+            if (col_ind != row_ind)
+            {
+               C[row_ind] += FEtoExp[rowInd[row_ind] ^ rowInd[col_ind]];
+               D[col_ind] += FEtoExp[Col_Ind[row_ind] ^ Col_Ind[col_ind]];
+            }
+            E[row_ind] += FEtoExp[rowInd[row_ind] ^ Col_Ind[col_ind] ^ COLBIT[0]];
+            F[col_ind] += FEtoExp[rowInd[row_ind] ^ Col_Ind[col_ind] ^ COLBIT[0]];
+         }
+      }
+
+      /**
+       * Operations that fill in the recovered information in the message from the inverted
+       * matrix and from M.
+       */
+      maxOperations = numExtra * numExtra * logOfField * logOfField;
+      int[] recoverDestinationOffsets = new int[maxOperations];
+      int[] recoverSourceOffsets = new int[maxOperations];
+      int numRecoverOperations = 0;
+
+      for (row_ind = 0; row_ind < numExtra; row_ind++)
+      {
+         for (col_ind = 0; col_ind < numExtra; col_ind++)
+         {
+            ExpFE = E[col_ind] + F[row_ind] - C[col_ind] - D[row_ind]
+                  - FEtoExp[rowInd[col_ind] ^ Col_Ind[row_ind] ^ COLBIT[0]];
+            if (ExpFE < 0)
+               ExpFE = multFieldSize - ((-ExpFE) % multFieldSize);
+            ExpFE = ExpFE % multFieldSize;
+            j = Col_Ind[row_ind] * logOfField * numSegments;
+            for (row_eqn = 0; row_eqn < logOfField; row_eqn++)
+            {
+               k = row_eqn * numSegments + j;
+               for (col_eqn = 0; col_eqn < logOfField; col_eqn++)
+               {
+                  l = numSegments * (col_eqn + col_ind * logOfField);
+                  if ((ExptoFE[ExpFE + row_eqn] & BIT[col_eqn]) > 0)
+                  {
+                     recoverDestinationOffsets[numRecoverOperations] = k;
+                     recoverSourceOffsets[numRecoverOperations] = l;
+                     numRecoverOperations++;
+                  }
+               }
+            }
+         }
+      }
+
+      return new CauchyDecodeSchedule(numSegments,
+            Arrays.copyOf(reduceDestinationOffsets, numReduceOperations),
+            Arrays.copyOf(reduceSourceOffsets, numReduceOperations),
+            Arrays.copyOf(recoverDestinationOffsets, numRecoverOperations),
+            Arrays.copyOf(recoverSourceOffsets, numRecoverOperations));
+   }
+
+   /**
+    * Runs the schedule: removes the received data slices from the code slices in M and then
+    * XORs M into the missing data slices of the message.
+    *
+    * @param message
+    *           The message, with the received data slices in place and the missing ones
+    *           zeroed
+    * @param M
+    *           The code slices used for recovery, in the order given when the schedule was
+    *           compiled
+    * @param xorKernel
+    *           The kernel used to XOR the segments
+    */
+   public void run(byte[] message, byte[] M, XorKernel xorKernel)
+   {
+      run(message, 0, M, xorKernel);
+   }
+
+   /**
+    * Runs the schedule over a message that starts at the specified offset of its array. The
+    * arrays are wrapped on every call, so loops over many messages should use the version that
+    * takes the views.
+    */
+   public void run(byte[] message, int messageOffset, byte[] M, XorKernel xorKernel)
+   {
+      run(XorKernel.wrap(message), messageOffset, XorKernel.wrap(M), xorKernel);
+   }
+
+   /**
+    * Runs the schedule over views of the message and of M returned by
+    * {@link XorKernel#wrap(byte[])}, so the arrays aren't wrapped on every operation.
+    */
+   public void run(ByteBuffer message, int messageOffset, ByteBuffer M, XorKernel xorKernel)
+   {
+      for (int i = 0; i < reduceDestinationOffsets.length; i++)
+      {
+         xorKernel.xor(M, reduceDestinationOffsets[i], message, messageOffset + reduceSourceOffsets[i],
+               segmentLength);
+      }
+
+      for (int i = 0; i < recoverDestinationOffsets.length; i++)
+      {
+         xorKernel.xor(message, messageOffset + recoverDestinationOffsets[i], M, recoverSourceOffsets[i],
+               segmentLength);
+      }
+   }
+
+   /**
+    * Returns the number of XOR operations of the schedule.
+    */
+   public int getNumOperations()
+   {
+      return reduceDestinationOffsets.length + recoverDestinationOffsets.length;
+   }
+
+   /**
+    * Removes all the schedules from the cache.
+    */
+   public static void clearCache()
+   {
+      synchronized (schedules)
+      {
+         schedules.clear();
+      }
+   }
+
+   /**
+    * Cache key: the parameters plus the erasure pattern (received data slices and code slices
+    * used, in order). The lookup key of each thread is filled in place by
+    * {@link #set(CauchyIDAParameters, int[], int[], int)}, the cached keys are copies of it.
+    */
+   private static class PatternKey
+   {
+      private CauchyIDAParameters params;
+      private int[] pattern;
+      private int length;
+      private int hashCode;
+
+      public PatternKey(CauchyIDAParameters params, int[] pattern, int length)
+      {
+         this.params = params;
+         this.pattern = pattern;
+         this.length = length;
+         this.hashCode = computeHashCode();
+      }
+
+      /**
+       * Fills the key with the specified parameters and erasure pattern, growing the pattern
+       * array if needed.
+       */
+      public void set(CauchyIDAParameters params, int[] recIndex, int[] rowInd, int numExtra)
+      {
+         int numDataSlices = params.getNumDataSlices();
+
+         if (pattern.length < numDataSlices + numExtra)
+         {
+            pattern = new int[numDataSlices + numExtra];
+         }
+
+         System.arraycopy(recIndex, 0, pattern, 0, numDataSlices);
+         System.arraycopy(rowInd, 0, pattern, numDataSlices, numExtra);
+
+         this.params = params;
+         this.length = numDataSlices + numExtra;
+         this.hashCode = computeHashCode();
+      }
+
+      /**
+       * Returns a copy of the key with the specified parameters, that doesn't share the
+       * pattern array.
+       */
+      public PatternKey copy(CauchyIDAParameters params)
+      {
+         return new PatternKey(params, Arrays.copyOf(pattern, length), length);
+      }
+
+      private int computeHashCode()
+      {
+         int result = 1;
+         for (int i = 0; i < length; i++)
+         {
+            result = 31 * result + pattern[i];
+         }
+
+         return 31 * (params == null ? 0 : params.hashCode()) + result;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (this == o)
+            return true;
+         if (!(o instanceof PatternKey))
+            return false;
+
+         PatternKey other = (PatternKey) o;
+
+         if (length != other.length || !params.equals(other.params))
+            return false;
+
+         for (int i = 0; i < length; i++)
+         {
+            if (pattern[i] != other.pattern[i])
+               return false;
+         }
+
+         return true;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+   }
+
+}
@@ -63,6 +63,8 @@
 
 package org.jigdfs.ida.cauchyreedsolomon;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * CauchyEncode erasure encodes an object using cauchy reed solomon method.
@@ -89,126 +91,147 @@ public class CauchyEncode
     */
    public static byte[] encode(final byte[] message, final CauchyIDAParameters p)
    {
-      //////////////////////////////////////////////////////////////////////////
-      // Local variable declaration
-      
       // Array to be filled with data and code slices
       byte slices[] = new byte[p.getTotalSliceLength() * p.getNumSlices()];
 
-      // Finite Field Parameters
-      final int[] COLBIT = InitField.getCOLBIT(p.getLogOfFieldLength());
-      final int[] equationBitMask = InitField.getBIT(p.getLogOfFieldLength());
-      final int[] exponentToFiniteFieldElement = InitField.getExptoFE(p.getLogOfFieldLength());
-      final int[] finiteFieldElementToExponent = InitField.getFEtoExp(p.getLogOfFieldLength());
+      byte sliceArrays[][] = new byte[p.getNumSlices()][];
+      int sliceOffsets[] = new int[p.getNumSlices()];
+      for (int itr = 0; itr < p.getNumSlices(); itr++)
+      {
+         sliceArrays[itr] = slices;
+         sliceOffsets[itr] = itr * p.getTotalSliceLength();
+      }
+
+      encode(message, 0, p, sliceArrays, sliceOffsets);
+
+      return slices;
+   }
+
+   /**
+    * Encodes a message straight into the arrays of the slices, without allocating anything, so
+    * the slices can be written in place in the fragments. Every slice is written as its index
+    * followed by the slice data (getTotalSliceLength() bytes in total).
+    *
+    * <p>
+    * This version wraps the arrays for the XOR kernel on every call, so loops over many
+    * messages should wrap them once (see {@link #wrap(byte[][])}) and call the version that
+    * takes the views.
+    * </p>
+    *
+    * @param message
+    *           The array that contains the message
+    * @param messageOffset
+    *           The offset of the message in the array (the message is getMessageLength() bytes)
+    * @param p
+    *           The IDA parameters
+    * @param slices
+    *           The array each slice is written to (several slices can share the same array)
+    * @param sliceOffsets
+    *           The offset in its array each slice is written at
+    */
+   public static void encode(final byte[] message, final int messageOffset, final CauchyIDAParameters p,
+         final byte[][] slices, final int[] sliceOffsets)
+   {
+      encode(XorKernel.wrap(message), messageOffset, p, wrap(slices), sliceOffsets);
+   }
+
+   /**
+    * Wraps the arrays of the slices for the XOR kernel (see {@link XorKernel#wrap(byte[])}).
+    * Slices that share the same array share the same view.
+    */
+   public static ByteBuffer[] wrap(final byte[][] slices)
+   {
+      ByteBuffer[] views = new ByteBuffer[slices.length];
+
+      for (int itr = 0; itr < slices.length; itr++)
+      {
+         if (itr > 0 && slices[itr] == slices[itr - 1])
+         {
+            views[itr] = views[itr - 1];
+         }
+         else
+         {
+            views[itr] = XorKernel.wrap(slices[itr]);
+         }
+      }
+
+      return views;
+   }
+
+   /**
+    * Encodes a message like {@link #encode(byte[], int, CauchyIDAParameters, byte[][], int[])},
+    * from and into the views of the arrays returned by {@link XorKernel#wrap(byte[])}, so
+    * nothing is allocated per message.
+    *
+    * @param message
+    *           The view of the array that contains the message
+    * @param messageOffset
+    *           The offset of the message in the array (the message is getMessageLength() bytes)
+    * @param p
+    *           The IDA parameters
+    * @param slices
+    *           The view of the array each slice is written to
+    * @param sliceOffsets
+    *           The offset in its array each slice is written at
+    */
+   public static void encode(final ByteBuffer message, final int messageOffset, final CauchyIDAParameters p,
+         final ByteBuffer[] slices, final int[] sliceOffsets)
+   {
+      //////////////////////////////////////////////////////////////////////////
+      // Local variable declaration
 
       // Constants taken from parameters
-      final int numSegments = p.getSegmentsPerSlice();
-      final int logOfField = p.getLogOfFieldLength();
       final int numDataSlices = p.getNumDataSlices();
-      final int numCodeSlices = p.getNumCodeSlices();
-      final int multFieldSize = p.getMultiplicationFieldSize();
+      final int sliceLength = p.getSliceLength();
+      final XorKernel xorKernel = p.getXorKernel();
+      final byte[] messageArray = message.array();
       
       // For Loop Iterators
-      int itr, row, col, rowEquation, columnEquation;
-      
-      // Miscellaneous variables used in code slice calculation
-      int sliceArrayPosition, messageArrayPosition;
-      int ExpFE, ExpFEplusRow;
-      int arrayPositionDifference, sliceArrayPositionPlusNumSegments;
-      int sliceArrayIterator;
+      int itr;
       
       //////////////////////////////////////////////////////////////////////////
 
       // Set the slice index in the first byte of every slices      
       for (itr = 0; itr < p.getNumSlices(); itr++)
       {
-         slices[itr * p.getTotalSliceLength()] = (byte) itr;
+         slices[itr].array()[sliceOffsets[itr]] = (byte) itr;
       }
 
       // Copy data slices from the message into position
-      int sliceOffset = 0;
+      int messagePosition = messageOffset;
       for (itr = 0; itr < numDataSlices; itr++)
       {
-         System.arraycopy(message, sliceOffset, slices, sliceOffset + itr + 1, p.getSliceLength());
-         sliceOffset += p.getSliceLength();
+         System.arraycopy(messageArray, messagePosition, slices[itr].array(), sliceOffsets[itr] + 1,
+               sliceLength);
+         messagePosition += sliceLength;
+      }
+
+      // Clear code slices, since the slices may be reused
+      for (itr = numDataSlices; itr < p.getNumSlices(); itr++)
+      {
+         Arrays.fill(slices[itr].array(), sliceOffsets[itr] + 1, sliceOffsets[itr] + 1 + sliceLength,
+               (byte) 0);
       }
 
       /*
-       * Pseudo code for Cauchy Reed-Solomon Encoding
-       *
-       *  for (codeSlice in CodeSlices) // 4
-       *  {
-       *     for (dataSlice in DataSlices) // 12
-       *     {
-       *        for (equationRow in FieldLength) // 8
-       *        {
-       *           for (equationCol in FieldLength) // 8
-       *           {
-       *              if (exponent[equationRow + exponent] & bit[equationCol] > 0)
-       *              {
-       *                 for (i = 0 to segments) // 43 (MessageLength / DataSlices / 8)
-       *                 {
-       *                    codeSlice[i + equationRow * segments] ^= dataSlice[i + equationCol * segments];
-       *                 }
-       *              }
-       *           }
-       *        }
-       *     }
-       *  }
-       *
+       * Calculate code slices by running the precompiled XOR schedule of the parity bit-matrix
+       * (see CauchyEncodeSchedule for the equations). Each operation XORs a whole segment of
+       * the message into a segment of a code slice.
        */
-      
-      // Calculate code slices and put them into the correct position
-      for (row = 0; row < numCodeSlices; row++)
+      final CauchyEncodeSchedule schedule = CauchyEncodeSchedule.getSchedule(p);
+      final int numOperations = schedule.getNumOperations();
+      final int segmentLength = schedule.getSegmentLength();
+      final int[] sourceOffsets = schedule.getSourceOffsets();
+      final int[] destinationSlices = schedule.getDestinationSlices();
+      final int[] destinationOffsets = schedule.getDestinationOffsets();
+
+      for (itr = 0; itr < numOperations; itr++)
       {
-         /**
-          * Compute values of equations applied to message and fill into
-          * fragment(row+DataSlices).
-          */
-         final int rowOffset = ((row + numDataSlices) * p.getTotalSliceLength()) + 1;   
-         
-         /**
-          * Second, fill in contents relevant portions of fragment
-          */
-         for (col = 0; col < numDataSlices; col++)
-         {
-            messageArrayPosition = col * p.getSliceLength();
-            
-            ExpFE = (multFieldSize - finiteFieldElementToExponent[row ^ col ^ COLBIT[0]])
-                  % multFieldSize;
-
-            for (rowEquation = 0; rowEquation < logOfField; rowEquation++)
-            {
-               ExpFEplusRow = ExpFE + rowEquation;
-               sliceArrayPosition = rowOffset + (rowEquation * numSegments);
-               
-               for (columnEquation = 0; columnEquation < logOfField; columnEquation++)
-               {
-                  if ((exponentToFiniteFieldElement[ExpFEplusRow] & equationBitMask[columnEquation]) > 0)
-                  {  
-                     /*
-                      * Warning: the following code is heavily optimized and difficult to read
-                      * The following loop is the result of much optimization
-                      * and is an attempt to use as few instructions as possible
-                      * within this very deeply nested loop.
-                      */
-                     arrayPositionDifference = ((columnEquation * numSegments + messageArrayPosition) - sliceArrayPosition);
-                     sliceArrayPositionPlusNumSegments = sliceArrayPosition + numSegments;
-                     sliceArrayIterator = sliceArrayPosition;
-                     
-                     while (sliceArrayIterator < sliceArrayPositionPlusNumSegments)
-                     {
-                        slices[sliceArrayIterator] ^= message[sliceArrayIterator + arrayPositionDifference];
-                        sliceArrayIterator++;
-                     }
-                     
-                  }
-               }
-            }
-         }
+         int slice = numDataSlices + destinationSlices[itr];
+
+         xorKernel.xor(slices[slice], sliceOffsets[slice] + 1 + destinationOffsets[itr], message,
+               messageOffset + sourceOffsets[itr], segmentLength);
       }
-      
-      return slices;
    }
    
 }
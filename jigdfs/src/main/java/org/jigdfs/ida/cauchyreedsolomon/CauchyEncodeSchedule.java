@@ -0,0 +1,182 @@
+package org.jigdfs.ida.cauchyreedsolomon;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The parity bit-matrix of the Cauchy Reed-Solomon code compiled into a flat list of XOR
+ * operations. Each operation XORs one segment of the message into one segment of a code
+ * slice. Which operations apply depends only on the {@link CauchyIDAParameters}, so the
+ * schedule is compiled once per parameter set and cached, and {@link CauchyEncode} just runs
+ * it for every message, without testing the field elements again.
+ *
+ * <p>
+ * The operations are sorted by destination segment, so all the XORs into the same segment are
+ * contiguous (which also makes the schedule suitable for common-subexpression elimination).
+ * </p>
+ */
+public class CauchyEncodeSchedule
+{
+   private static final ConcurrentMap<CauchyIDAParameters, CauchyEncodeSchedule> schedules =
+         new ConcurrentHashMap<CauchyIDAParameters, CauchyEncodeSchedule>();
+
+   /** Length in bytes of the segment XORed by each operation */
+   private final int segmentLength;
+
+   /** Offset in the message of the source segment of each operation */
+   private final int[] sourceOffsets;
+
+   /** Code slice (0 to numCodeSlices - 1) of the destination segment of each operation */
+   private final int[] destinationSlices;
+
+   /** Offset of the destination segment of each operation, relative to the slice data */
+   private final int[] destinationOffsets;
+
+   private CauchyEncodeSchedule(int segmentLength, int[] sourceOffsets, int[] destinationSlices,
+         int[] destinationOffsets)
+   {
+      this.segmentLength = segmentLength;
+      this.sourceOffsets = sourceOffsets;
+      this.destinationSlices = destinationSlices;
+      this.destinationOffsets = destinationOffsets;
+   }
+
+   /**
+    * Returns the schedule for the specified parameters, compiling it the first time.
+    */
+   public static CauchyEncodeSchedule getSchedule(CauchyIDAParameters p)
+   {
+      CauchyEncodeSchedule schedule = schedules.get(p);
+      if (schedule == null)
+      {
+         schedule = compile(p);
+
+         // Copy the parameters for the key, so later changes to them can't corrupt the cache
+         CauchyIDAParameters key = new CauchyIDAParameters(p.getNumDataSlices(), p.getNumCodeSlices(),
+               p.getChunkSize());
+         key.setLogOfFieldLength(p.getLogOfFieldLength());
+
+         CauchyEncodeSchedule previous = schedules.putIfAbsent(key, schedule);
+         if (previous != null)
+         {
+            schedule = previous;
+         }
+      }
+
+      return schedule;
+   }
+
+   /**
+    * Compiles the schedule, following the same equations of the original JigDFS encoder:
+    *
+    * <pre>
+    *  for (codeSlice in CodeSlices)
+    *     for (equationRow in FieldLength)
+    *        for (dataSlice in DataSlices)
+    *           for (equationCol in FieldLength)
+    *              if (exponent[equationRow + exponent] &amp; bit[equationCol] &gt; 0)
+    *                 codeSlice[equationRow segment] ^= dataSlice[equationCol segment];
+    * </pre>
+    */
+   private static CauchyEncodeSchedule compile(CauchyIDAParameters p)
+   {
+      // Finite Field Parameters
+      final int[] COLBIT = InitField.getCOLBIT(p.getLogOfFieldLength());
+      final int[] equationBitMask = InitField.getBIT(p.getLogOfFieldLength());
+      final int[] exponentToFiniteFieldElement = InitField.getExptoFE(p.getLogOfFieldLength());
+      final int[] finiteFieldElementToExponent = InitField.getFEtoExp(p.getLogOfFieldLength());
+
+      // Constants taken from parameters
+      final int numSegments = p.getSegmentsPerSlice();
+      final int logOfField = p.getLogOfFieldLength();
+      final int numDataSlices = p.getNumDataSlices();
+      final int numCodeSlices = p.getNumCodeSlices();
+      final int multFieldSize = p.getMultiplicationFieldSize();
+
+      // At most one operation per (code slice, data slice, equation row, equation column)
+      final int maxOperations = numCodeSlices * numDataSlices * logOfField * logOfField;
+
+      int[] sourceOffsets = new int[maxOperations];
+      int[] destinationSlices = new int[maxOperations];
+      int[] destinationOffsets = new int[maxOperations];
+      int numOperations = 0;
+
+      for (int row = 0; row < numCodeSlices; row++)
+      {
+         for (int rowEquation = 0; rowEquation < logOfField; rowEquation++)
+         {
+            for (int col = 0; col < numDataSlices; col++)
+            {
+               int ExpFE = (multFieldSize - finiteFieldElementToExponent[row ^ col ^ COLBIT[0]])
+                     % multFieldSize;
+               int ExpFEplusRow = ExpFE + rowEquation;
+
+               for (int columnEquation = 0; columnEquation < logOfField; columnEquation++)
+               {
+                  if ((exponentToFiniteFieldElement[ExpFEplusRow] & equationBitMask[columnEquation]) > 0)
+                  {
+                     sourceOffsets[numOperations] = col * p.getSliceLength() + columnEquation * numSegments;
+                     destinationSlices[numOperations] = row;
+                     destinationOffsets[numOperations] = rowEquation * numSegments;
+                     numOperations++;
+                  }
+               }
+            }
+         }
+      }
+
+      return new CauchyEncodeSchedule(numSegments, trim(sourceOffsets, numOperations),
+            trim(destinationSlices, numOperations), trim(destinationOffsets, numOperations));
+   }
+
+   private static int[] trim(int[] array, int length)
+   {
+      int[] trimmed = new int[length];
+      System.arraycopy(array, 0, trimmed, 0, length);
+
+      return trimmed;
+   }
+
+   /**
+    * Returns the length in bytes of the segment XORed by each operation.
+    */
+   public int getSegmentLength()
+   {
+      return segmentLength;
+   }
+
+   /**
+    * Returns the number of XOR operations of the schedule.
+    */
+   public int getNumOperations()
+   {
+      return sourceOffsets.length;
+   }
+
+   /**
+    * Returns the offset in the message of the source segment of each operation.
+    */
+   public int[] getSourceOffsets()
+   {
+      return sourceOffsets;
+   }
+
+   /**
+    * Returns the code slice (0 to numCodeSlices - 1) of the destination segment of each
+    * operation.
+    */
+   public int[] getDestinationSlices()
+   {
+      return destinationSlices;
+   }
+
+   /**
+    * Returns the offset of the destination segment of each operation, relative to the start of
+    * the slice data (after the slice index).
+    */
+   public int[] getDestinationOffsets()
+   {
+      return destinationOffsets;
+   }
+
+}
@@ -0,0 +1,227 @@
+package org.jigdfs.ida.cauchyreedsolomon;
+
+import java.nio.ByteBuffer;
+
+import org.jigdfs.ida.exception.IDAInvalidSliceFormatException;
+
+/**
+ * Header written at the start of every fragment, so the decoder knows the codec parameters
+ * the fragment was encoded with and the length of the original data, without having to decode
+ * the last message and look for the padding.
+ *
+ * <p>
+ * Layout (big endian):
+ * <ul>
+ *    <li>marker (1 byte): always 0xFF. Fragments without header start with the index of their
+ *    first slice, which is always less than 128, so they can still be read</li>
+ *    <li>version (1 byte): the version of the fragment format</li>
+ *    <li>logOfFieldLength (1 byte)</li>
+ *    <li>numDataSlices (1 byte)</li>
+ *    <li>numCodeSlices (1 byte)</li>
+ *    <li>chunkSize (4 bytes)</li>
+ *    <li>dataLength (8 bytes): the length of the original data, or -1 if it wasn't known when
+ *    the fragment was written (the decoder then looks for the padding)</li>
+ * </ul>
+ * </p>
+ */
+public class CauchyFragmentHeader
+{
+   public static final byte MARKER = (byte) 0xFF;
+
+   public static final byte VERSION = 1;
+
+   /** Length in bytes of the header */
+   public static final int LENGTH = 17;
+
+   /** dataLength value when the length of the original data is unknown */
+   public static final long UNKNOWN_DATA_LENGTH = -1;
+
+   private final int version;
+   private final int logOfFieldLength;
+   private final int numDataSlices;
+   private final int numCodeSlices;
+   private final int chunkSize;
+   private final long dataLength;
+
+   public CauchyFragmentHeader(CauchyIDAParameters p, long dataLength)
+   {
+      this(VERSION, p.getLogOfFieldLength(), p.getNumDataSlices(), p.getNumCodeSlices(), p.getChunkSize(),
+            dataLength);
+   }
+
+   private CauchyFragmentHeader(int version, int logOfFieldLength, int numDataSlices, int numCodeSlices,
+         int chunkSize, long dataLength)
+   {
+      this.version = version;
+      this.logOfFieldLength = logOfFieldLength;
+      this.numDataSlices = numDataSlices;
+      this.numCodeSlices = numCodeSlices;
+      this.chunkSize = chunkSize;
+      this.dataLength = dataLength;
+   }
+
+   /**
+    * Returns true if the fragment starts with a header (otherwise it's in the original format,
+    * without header).
+    */
+   public static boolean hasHeader(byte fragment[])
+   {
+      return fragment.length > 0 && fragment[0] == MARKER;
+   }
+
+   /**
+    * Reads the header at the start of the fragment.
+    *
+    * @return The header, or null if the fragment is in the original format, without header
+    * @throws IDAInvalidSliceFormatException if the header is truncated or its version is unknown
+    */
+   public static CauchyFragmentHeader read(byte fragment[]) throws IDAInvalidSliceFormatException
+   {
+      if (!hasHeader(fragment))
+      {
+         return null;
+      }
+      if (fragment.length < LENGTH)
+      {
+         throw new IDAInvalidSliceFormatException("Fragment of " + fragment.length
+               + " bytes is too short for the header");
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(fragment, 0, LENGTH);
+      buffer.get();
+
+      int version = buffer.get();
+      if (version != VERSION)
+      {
+         throw new IDAInvalidSliceFormatException("Unsupported fragment format version " + version);
+      }
+
+      int logOfFieldLength = buffer.get() & 0xFF;
+      int numDataSlices = buffer.get() & 0xFF;
+      int numCodeSlices = buffer.get() & 0xFF;
+      int chunkSize = buffer.getInt();
+      long dataLength = buffer.getLong();
+
+      return new CauchyFragmentHeader(version, logOfFieldLength, numDataSlices, numCodeSlices, chunkSize,
+            dataLength);
+   }
+
+   /**
+    * Returns the bytes of the header.
+    */
+   public byte[] toBytes()
+   {
+      // A new buffer is always big endian, whatever the order of the buffer it's written to
+      ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+
+      buffer.put(MARKER);
+      buffer.put((byte) version);
+      buffer.put((byte) logOfFieldLength);
+      buffer.put((byte) numDataSlices);
+      buffer.put((byte) numCodeSlices);
+      buffer.putInt(chunkSize);
+      buffer.putLong(dataLength);
+
+      return buffer.array();
+   }
+
+   /**
+    * Writes the header at the position of the buffer (the position is moved past the header).
+    */
+   public void write(ByteBuffer buffer)
+   {
+      buffer.put(toBytes());
+   }
+
+   /**
+    * Writes the header at the start of the fragment.
+    */
+   public void write(byte fragment[])
+   {
+      System.arraycopy(toBytes(), 0, fragment, 0, LENGTH);
+   }
+
+   /**
+    * Returns true if the fragment was encoded with the specified parameters.
+    */
+   public boolean matches(CauchyIDAParameters p)
+   {
+      return logOfFieldLength == p.getLogOfFieldLength() && numDataSlices == p.getNumDataSlices()
+            && numCodeSlices == p.getNumCodeSlices() && chunkSize == p.getChunkSize();
+   }
+
+   public int getVersion()
+   {
+      return version;
+   }
+
+   public int getLogOfFieldLength()
+   {
+      return logOfFieldLength;
+   }
+
+   public int getNumDataSlices()
+   {
+      return numDataSlices;
+   }
+
+   public int getNumCodeSlices()
+   {
+      return numCodeSlices;
+   }
+
+   public int getChunkSize()
+   {
+      return chunkSize;
+   }
+
+   public long getDataLength()
+   {
+      return dataLength;
+   }
+
+   /**
+    * Returns true if the length of the original data is known.
+    */
+   public boolean isDataLengthKnown()
+   {
+      return dataLength >= 0;
+   }
+
+   @Override
+   public boolean equals(Object o)
+   {
+      if (this == o)
+         return true;
+      if (!(o instanceof CauchyFragmentHeader))
+         return false;
+
+      CauchyFragmentHeader other = (CauchyFragmentHeader) o;
+
+      return version == other.version && logOfFieldLength == other.logOfFieldLength
+            && numDataSlices == other.numDataSlices && numCodeSlices == other.numCodeSlices
+            && chunkSize == other.chunkSize && dataLength == other.dataLength;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      int result = version;
+      result = 31 * result + logOfFieldLength;
+      result = 31 * result + numDataSlices;
+      result = 31 * result + numCodeSlices;
+      result = 31 * result + chunkSize;
+      result = 31 * result + (int) (dataLength ^ (dataLength >>> 32));
+
+      return result;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Fragment header: version = " + version + ", logOfFieldLength = " + logOfFieldLength
+            + ", numDataSlices = " + numDataSlices + ", numCodeSlices = " + numCodeSlices + ", chunkSize = "
+            + chunkSize + ", dataLength = " + dataLength;
+   }
+
+}
@@ -71,6 +71,16 @@ package org.jigdfs.ida.cauchyreedsolomon;
  */
 public class CauchyIDAParameters
 {
+   /**
+    * The default log of the length of the field (the field width in bits).
+    */
+   public static final int DEFAULT_LOG_OF_FIELD_LENGTH = 8;
+
+   /**
+    * The max log of the length of the field supported.
+    */
+   public static final int MAX_LOG_OF_FIELD_LENGTH = 8;
+
    /**
     * chunkSize is the size of data that is will be sent to the IDA
     * for each encoding.  Should include the block size plus any size change 
@@ -81,7 +91,7 @@ public class CauchyIDAParameters
    /**
     * logOfFieldLength is the log of the length of the field.
     */
-   protected int logOfFieldLength = 8;
+   protected int logOfFieldLength = DEFAULT_LOG_OF_FIELD_LENGTH;
 
    /**
     * segmentsPerFragment is the number of segments in a slice. Length of slice in bytes
@@ -147,6 +157,11 @@ public class CauchyIDAParameters
     */
    protected int dispersedMessageLength;
 
+   /**
+    * xorKernel is the kernel used to XOR the segments while encoding and decoding.
+    */
+   protected XorKernel xorKernel = XorKernel.getDefault();
+
    /**
     * CONSTRUCTOR
     * 
@@ -316,6 +331,23 @@ public class CauchyIDAParameters
       return dispersedMessageLength;
    }
 
+   /**
+    * Returns the kernel used to XOR the segments while encoding and decoding.
+    */
+   public XorKernel getXorKernel()
+   {
+      return xorKernel;
+   }
+
+   /**
+    * Sets the kernel used to XOR the segments while encoding and decoding. All kernels
+    * produce the same output, so this doesn't affect the format of the slices.
+    */
+   public void setXorKernel(XorKernel xorKernel)
+   {
+      this.xorKernel = xorKernel;
+   }
+
    /**
     * logOfFieldLength (length of field) must be (1 <= logOfFieldLength <= 16) otherwise function
     * returns false and logOfFieldLength stays default.
@@ -327,7 +359,7 @@ public class CauchyIDAParameters
     */
    public boolean setLogOfFieldLength(int logOfFieldLength)
    {
-      if (logOfFieldLength <= 8 && logOfFieldLength >= 1)
+      if (logOfFieldLength <= MAX_LOG_OF_FIELD_LENGTH && logOfFieldLength >= 1)
          this.logOfFieldLength = logOfFieldLength;
       else
          return false;
@@ -351,8 +383,42 @@ public class CauchyIDAParameters
       calculateOptimumSliceSize();
       this.sliceLength = this.segmentsPerSlice * this.logOfFieldLength;
       this.totalSliceLength = this.sliceLength + 1;
+      this.numSlices = this.numDataSlices + this.numCodeSlices;
+      this.messageLength = this.sliceLength * this.numDataSlices;
+      this.dispersedMessageLength = this.sliceLength * (this.numDataSlices + this.numCodeSlices);
    }
    
+   /**
+    * Two parameter sets are equal if they produce the same slices: same chunk size, field
+    * length and number of data and code slices (the rest of the values are derived from them).
+    */
+   @Override
+   public boolean equals(Object o)
+   {
+      if (this == o)
+         return true;
+      if (!(o instanceof CauchyIDAParameters))
+         return false;
+
+      CauchyIDAParameters other = (CauchyIDAParameters) o;
+
+      return chunkSize == other.chunkSize
+            && logOfFieldLength == other.logOfFieldLength
+            && numDataSlices == other.numDataSlices
+            && numCodeSlices == other.numCodeSlices;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      int result = chunkSize;
+      result = 31 * result + logOfFieldLength;
+      result = 31 * result + numDataSlices;
+      result = 31 * result + numCodeSlices;
+
+      return result;
+   }
+
    public String toString() {
 	   return "number of segments: " + this.segmentsPerSlice + "; "
 	   	+ "slice size:" + this.getSliceLength() + "; "
@@ -6,6 +6,7 @@ import org.jigdfs.ida.base.InformationDispersalCodecBase;
 import org.jigdfs.ida.base.InformationDispersalDecoder;
 import org.jigdfs.ida.base.InformationDispersalEncoder;
 import org.jigdfs.ida.exception.IDAInvalidParametersException;
+import org.jigdfs.ida.exception.IDANotInitializedException;
 
 
 
@@ -25,15 +26,21 @@ public class CauchyInformationDispersalCodec extends InformationDispersalCodecBa
 	   super();	   
    }
    
+   /** The kernel used by the encoder and decoder to XOR the segments */
+   protected XorKernel xorKernel = XorKernel.getDefault();
+
+   /** The log of the length of the field (the field width in bits) */
+   protected int logOfFieldLength = CauchyIDAParameters.DEFAULT_LOG_OF_FIELD_LENGTH;
+   
    protected InformationDispersalEncoder getNewEncoder() throws IDAInvalidParametersException
    {	   
-      CauchyInformationDispersalEncoder encoder = new CauchyInformationDispersalEncoder(this.numSlices, this.threshold, this.chunkSize);
+      CauchyInformationDispersalEncoder encoder = new CauchyInformationDispersalEncoder(this.numSlices, this.threshold, this.chunkSize, this.logOfFieldLength, this.xorKernel);
       return encoder;
    }
    
    protected InformationDispersalDecoder getNewDecoder() throws IDAInvalidParametersException
    {
-      CauchyInformationDispersalDecoder decoder = new CauchyInformationDispersalDecoder(this.numSlices, this.threshold, this.chunkSize);
+      CauchyInformationDispersalDecoder decoder = new CauchyInformationDispersalDecoder(this.numSlices, this.threshold, this.chunkSize, this.logOfFieldLength, this.xorKernel);
       return decoder;
    }
 
@@ -51,9 +58,50 @@ public class CauchyInformationDispersalCodec extends InformationDispersalCodecBa
     */
    public CauchyInformationDispersalCodec(int numSlices, int threshold, int chunkSize) throws
          IDAInvalidParametersException
+   {
+      this(numSlices, threshold, chunkSize, XorKernel.getDefault());
+   }
+
+   /**
+    * Construct a new Cauchy Reed-Solomon IDA that uses a specific XOR kernel
+    * 
+    * @param numSlices
+    *           Number of slices to produce
+    * @param threshold
+    *           Number of recoverable slice losses
+    * @param chunkSize
+    *           The size of data that the IDA will process at a time
+    * @param xorKernel
+    *           The kernel used to XOR the segments (see {@link XorKernel#forName(String)})
+    */
+   public CauchyInformationDispersalCodec(int numSlices, int threshold, int chunkSize, XorKernel xorKernel) throws
+         IDAInvalidParametersException
+   {
+      this(numSlices, threshold, chunkSize, CauchyIDAParameters.DEFAULT_LOG_OF_FIELD_LENGTH, xorKernel);
+   }
+
+   /**
+    * Construct a new Cauchy Reed-Solomon IDA that uses a specific field width and XOR kernel
+    * 
+    * @param numSlices
+    *           Number of slices to produce
+    * @param threshold
+    *           Number of recoverable slice losses
+    * @param chunkSize
+    *           The size of data that the IDA will process at a time
+    * @param logOfFieldLength
+    *           The log of the length of the field (1 to 8). Up to 2^(logOfFieldLength - 1) slices
+    *           are supported
+    * @param xorKernel
+    *           The kernel used to XOR the segments (see {@link XorKernel#forName(String)})
+    */
+   public CauchyInformationDispersalCodec(int numSlices, int threshold, int chunkSize, int logOfFieldLength,
+         XorKernel xorKernel) throws IDAInvalidParametersException
    {
       super(numSlices, threshold, chunkSize);
       this.setName("optimizedcauchy");
+      this.xorKernel = xorKernel;
+      this.logOfFieldLength = logOfFieldLength;
 
       if (this.numSlices < 1) 
       {
@@ -72,6 +120,30 @@ public class CauchyInformationDispersalCodec extends InformationDispersalCodecBa
    }
 
    
+   @Override
+   public CauchyInformationDispersalEncoder getEncoder() throws IDANotInitializedException,
+         IDAInvalidParametersException
+   {
+      return (CauchyInformationDispersalEncoder) super.getEncoder();
+   }
+   
+   @Override
+   public CauchyInformationDispersalDecoder getDecoder() throws IDANotInitializedException,
+         IDAInvalidParametersException
+   {
+      return (CauchyInformationDispersalDecoder) super.getDecoder();
+   }
+   
+   public XorKernel getXorKernel()
+   {
+      return xorKernel;
+   }
+
+   public int getLogOfFieldLength()
+   {
+      return logOfFieldLength;
+   }
+   
    public long getDispersedSize(long inputSize)
    {
       CauchyIDAParameters parameters = new CauchyIDAParameters(this.threshold, this.numSlices - this.threshold, this.chunkSize);
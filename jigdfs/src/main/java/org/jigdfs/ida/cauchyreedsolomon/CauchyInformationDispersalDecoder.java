@@ -6,7 +6,14 @@ import org.jigdfs.ida.base.InformationDispersalCodecBase;
 import org.jigdfs.ida.base.InformationDispersalDecoder;
 import org.jigdfs.ida.exception.*;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 
 
 public class CauchyInformationDispersalDecoder implements InformationDispersalDecoder
@@ -23,6 +30,24 @@ public class CauchyInformationDispersalDecoder implements InformationDispersalDe
    /** The number of slices required to restore */
    private int threshold;
 
+   /** The log of the length of the field (the field width in bits) */
+   private int logOfFieldLength = CauchyIDAParameters.DEFAULT_LOG_OF_FIELD_LENGTH;
+
+   /** The kernel used to XOR the segments */
+   private XorKernel xorKernel = XorKernel.getDefault();
+
+   /** Executor used to decode messages in parallel (if null, messages are decoded sequentially) */
+   private Executor taskExecutor;
+
+   /** The maximum number of tasks the fragments are split into when decoding in parallel */
+   private int parallelism = 1;
+
+   /** If true, the decoded messages are re-encoded and checked against all the received slices */
+   private boolean verifying = false;
+
+   /** The minimum number of messages a parallel task should decode, so the task overhead pays off */
+   private static final int MIN_MESSAGES_PER_TASK = 64;
+
    private boolean initialized = false;
 
    /** Buffer for unencoded data */
@@ -46,6 +71,27 @@ public class CauchyInformationDispersalDecoder implements InformationDispersalDe
       initialize();
    }
 
+   public CauchyInformationDispersalDecoder(int numSlices, int threshold, int chunkSize, XorKernel xorKernel)
+      throws IDAInvalidParametersException
+   {
+      this.numSlices = numSlices;
+      this.threshold = threshold;
+      this.chunkSize = chunkSize;
+      this.xorKernel = xorKernel;
+      initialize();
+   }
+
+   public CauchyInformationDispersalDecoder(int numSlices, int threshold, int chunkSize, int logOfFieldLength,
+         XorKernel xorKernel) throws IDAInvalidParametersException
+   {
+      this.numSlices = numSlices;
+      this.threshold = threshold;
+      this.chunkSize = chunkSize;
+      this.logOfFieldLength = logOfFieldLength;
+      this.xorKernel = xorKernel;
+      initialize();
+   }
+
    public synchronized void initialize() throws IDAInvalidParametersException
    {
       // Configuration already calls initialize, but we need to reinitialize with the
@@ -69,7 +115,20 @@ public class CauchyInformationDispersalDecoder implements InformationDispersalDe
          throw new IDAInvalidParametersException("Chunk size must be positive");
       }
 
+      if (this.logOfFieldLength < 1 || this.logOfFieldLength > CauchyIDAParameters.MAX_LOG_OF_FIELD_LENGTH)
+      {
+         throw new IDAInvalidParametersException("Log of field length must be between 1 and "
+               + CauchyIDAParameters.MAX_LOG_OF_FIELD_LENGTH);
+      }
+      if (this.numSlices > 1 << (this.logOfFieldLength - 1))
+      {
+         throw new IDAInvalidParametersException("A field of " + this.logOfFieldLength + " bits supports at most "
+               + (1 << (this.logOfFieldLength - 1)) + " slices");
+      }
+
       this.params = new CauchyIDAParameters(numSlices - threshold, threshold, chunkSize);
+      this.params.setLogOfFieldLength(logOfFieldLength);
+      this.params.setXorKernel(xorKernel);
 
       if (logger.isTraceEnabled())
       {
@@ -81,107 +140,568 @@ public class CauchyInformationDispersalDecoder implements InformationDispersalDe
 
    public byte[] process(List<byte[]> encodedBuffers) throws IDADecodeException,
          IDANotInitializedException
+   {
+      List<byte[]> receivedBuffers = getReceivedBuffers(encodedBuffers);
+      CauchyFragmentHeader header = readHeader(receivedBuffers);
+      int headerLength = header != null ? CauchyFragmentHeader.LENGTH : 0;
+      int fragmentSize = getFragmentSize();
+
+      // Establish slice length
+      int dataLength = getSliceLength(receivedBuffers);
+      if (dataLength <= headerLength || (dataLength - headerLength) % fragmentSize != 0)
+      {
+         throw new IDAInvalidSliceLengthException("Slice length " + (dataLength - headerLength)
+               + " is not a multiple of " + fragmentSize);
+      }
+
+      int numMessages = (dataLength - headerLength) / fragmentSize;
+
+      // The last message always carries the padding, all the others are full of data
+      if (header != null && header.isDataLengthKnown()
+            && header.getDataLength() / getMessageSize() != numMessages - 1)
+      {
+         throw new IDAInvalidSliceLengthException("Fragments with " + numMessages + " messages can't hold "
+               + header.getDataLength() + " bytes");
+      }
+
+      return decodeRange(receivedBuffers, header, headerLength, numMessages, true);
+   }
+
+   /**
+    * Decodes the messages of ranges of the fragments, instead of whole fragments, so a part of the
+    * data can be read without downloading the whole fragments. Every range starts with the
+    * fragment header (if the fragments have one), followed by whole messages from firstMessage on
+    * (the messages are at fixed offsets, see {@link #getFragmentSize()}).
+    *
+    * <p>
+    * If the length of the data isn't in the header, each range should have one byte more than
+    * its messages. Ranges without it are the end of the fragments, and the padding is removed
+    * from their last message.
+    * </p>
+    *
+    * @return the data of the messages, starting with the data of firstMessage
+    */
+   public byte[] processRange(List<byte[]> encodedRanges, int firstMessage) throws IDADecodeException,
+         IDANotInitializedException
+   {
+      List<byte[]> receivedBuffers = getReceivedBuffers(encodedRanges);
+      CauchyFragmentHeader header = readHeader(receivedBuffers);
+      int headerLength = header != null ? CauchyFragmentHeader.LENGTH : 0;
+      int fragmentSize = getFragmentSize();
+
+      int rangeLength = getSliceLength(receivedBuffers) - headerLength;
+      if (rangeLength < 0)
+      {
+         throw new IDAInvalidSliceLengthException("Range of " + (rangeLength + headerLength)
+               + " bytes is shorter than the header");
+      }
+
+      int numMessages = rangeLength / fragmentSize;
+      boolean includesLast;
+
+      if (header != null && header.isDataLengthKnown())
+      {
+         if (rangeLength % fragmentSize != 0)
+         {
+            throw new IDAInvalidSliceLengthException("Range length " + rangeLength
+                  + " is not a multiple of " + fragmentSize);
+         }
+
+         long totalMessages = header.getDataLength() / getMessageSize() + 1;
+         if (firstMessage + numMessages > totalMessages)
+         {
+            throw new IDAInvalidSliceLengthException("Range of " + numMessages + " messages from message "
+                  + firstMessage + " is out of the " + totalMessages + " messages of the fragments");
+         }
+
+         includesLast = firstMessage + numMessages == totalMessages;
+      }
+      else
+      {
+         if (rangeLength % fragmentSize > 1)
+         {
+            throw new IDAInvalidSliceLengthException("Range length " + rangeLength
+                  + " is not a multiple of " + fragmentSize + " (plus one byte)");
+         }
+
+         includesLast = rangeLength % fragmentSize == 0;
+      }
+
+      if (numMessages == 0)
+      {
+         return new byte[0];
+      }
+
+      return decodeRange(receivedBuffers, header, headerLength, numMessages, includesLast);
+   }
+
+   /**
+    * Decodes numMessages messages from the received buffers (after the header). If includesLast
+    * is true, the last of them is the last message of the fragments, which carries the padding.
+    */
+   private byte[] decodeRange(List<byte[]> receivedBuffers, CauchyFragmentHeader header, int headerLength,
+         int numMessages, boolean includesLast) throws IDADecodeException
+   {
+      int messageSize = getMessageSize();
+
+      // If all the data slices were received, most messages can be just copied from them
+      byte dataBuffers[][] = getDataBuffers(receivedBuffers, headerLength);
+
+      int numFullMessages = includesLast ? numMessages - 1 : numMessages;
+      int lastMessageSize = 0;
+      byte lastMessage[] = null;
+
+      if (!includesLast)
+      {
+         // All the messages are full of data
+      }
+      else if (header != null && header.isDataLengthKnown())
+      {
+         // The length of the data is in the header, so the padding doesn't need to be decoded
+         lastMessageSize = (int) (header.getDataLength() % messageSize);
+
+         // The padding-only last message isn't needed, except to verify it
+         if (lastMessageSize > 0 || verifying)
+         {
+            lastMessage = new byte[messageSize];
+            decodeMessages(receivedBuffers, dataBuffers, headerLength, lastMessage, 0, numFullMessages,
+                  numMessages);
+         }
+      }
+      else
+      {
+         // Decode the last message first, to find out the length of the padding and allocate the
+         // output with the exact size (the filler byte is always in the last message)
+         lastMessage = new byte[messageSize];
+         decodeMessages(receivedBuffers, dataBuffers, headerLength, lastMessage, 0, numFullMessages, numMessages);
+
+         // Truncate padding
+         lastMessageSize = messageSize;
+         while (lastMessageSize > 0 && lastMessage[lastMessageSize - 1] == 0)
+         {
+            lastMessageSize--;
+         }
+
+         if (lastMessageSize == 0)
+         {
+            throw new IDAInvalidSliceFormatException("Padding not found in the last message");
+         }
+
+         lastMessageSize--;
+      }
+
+      byte output[] = new byte[numFullMessages * messageSize + lastMessageSize];
+      if (lastMessageSize > 0)
+      {
+         System.arraycopy(lastMessage, 0, output, numFullMessages * messageSize, lastMessageSize);
+      }
+
+      if (taskExecutor != null && parallelism > 1 && numFullMessages >= 2 * MIN_MESSAGES_PER_TASK)
+      {
+         decodeMessagesInParallel(receivedBuffers, dataBuffers, headerLength, output, numFullMessages);
+      }
+      else
+      {
+         decodeMessages(receivedBuffers, dataBuffers, headerLength, output, 0, 0, numFullMessages);
+      }
+
+      return output;
+   }
+
+   /**
+    * Returns the buffers that were received (the non null ones), checking there are enough.
+    */
+   private List<byte[]> getReceivedBuffers(List<byte[]> encodedBuffers) throws IDADecodeException,
+         IDANotInitializedException
    {
       if (!this.initialized)
       {
          throw new IDANotInitializedException("IDA is not initialized, Call initialize() first");
       }
 
+      // Skip null buffers
+      List<byte[]> receivedBuffers = new ArrayList<byte[]>(encodedBuffers.size());
+      for (byte[] encodedBuffer : encodedBuffers)
+      {
+         if (encodedBuffer != null)
+         {
+            receivedBuffers.add(encodedBuffer);
+         }
+      }
+
+      if (receivedBuffers.size() < numSlices - threshold)
+      {
+         throw new IDAInvalidSliceCountException("Expected " + (numSlices - threshold) + " but got only "
+               + receivedBuffers.size() + " slices");
+      }
+      if (verifying && receivedBuffers.size() < numSlices - threshold + 1)
+      {
+         throw new IDAInvalidSliceCountException("A verifying decode expects at least "
+               + (numSlices - threshold + 1) + " but got only " + receivedBuffers.size() + " slices");
+      }
+
+      return receivedBuffers;
+   }
+
+   /**
+    * Reads the header, if the fragments have one (fragments in the original format don't), and
+    * checks all the fragments have the same one.
+    */
+   private CauchyFragmentHeader readHeader(List<byte[]> receivedBuffers) throws IDADecodeException
+   {
+      CauchyFragmentHeader header = CauchyFragmentHeader.read(receivedBuffers.get(0));
+
+      if (header != null && !header.matches(params))
+      {
+         throw new IDAInvalidSliceFormatException("Fragments encoded with different parameters: " + header);
+      }
+
+      for (byte[] receivedBuffer : receivedBuffers)
+      {
+         if (header != null ? !header.equals(CauchyFragmentHeader.read(receivedBuffer))
+               : CauchyFragmentHeader.hasHeader(receivedBuffer))
+         {
+            throw new IDAInvalidSliceFormatException("Inconsistent fragment headers");
+         }
+      }
+
+      return header;
+   }
+
+   /**
+    * Returns the length of the received buffers, checking they all have the same one.
+    */
+   private int getSliceLength(List<byte[]> receivedBuffers) throws IDADecodeException
+   {
+      int dataLength = receivedBuffers.get(0).length;
+      for (byte[] receivedBuffer : receivedBuffers)
+      {
+         if (receivedBuffer.length != dataLength)
+         {
+            throw new IDAInvalidSliceLengthException("Inconsistent slice length: " + receivedBuffer.length
+                  + " expected " + dataLength);
+         }
+      }
+
+      return dataLength;
+   }
+
+   /**
+    * Returns the received buffers of the data slices, indexed by slice, or null if any of them
+    * is missing. The code is systematic, so the data slices carry the message as is.
+    */
+   private byte[][] getDataBuffers(List<byte[]> receivedBuffers, int headerLength)
+   {
+      byte dataBuffers[][] = new byte[params.getNumDataSlices()][];
+
+      for (byte[] receivedBuffer : receivedBuffers)
+      {
+         int sliceIdx = receivedBuffer[headerLength];
+         if (sliceIdx >= 0 && sliceIdx < dataBuffers.length)
+         {
+            dataBuffers[sliceIdx] = receivedBuffer;
+         }
+      }
+
+      for (byte[] dataBuffer : dataBuffers)
+      {
+         if (dataBuffer == null)
+         {
+            return null;
+         }
+      }
+
+      return dataBuffers;
+   }
+
+   /**
+    * Returns true if the data slices of the message at the specified position are the ones
+    * expected (every message carries its slice index, so this is checked for each message).
+    */
+   private boolean isSystematic(byte dataBuffers[][], int encodedBufferPosition)
+   {
+      for (int sliceIdx = 0; sliceIdx < dataBuffers.length; sliceIdx++)
+      {
+         if (dataBuffers[sliceIdx][encodedBufferPosition] != sliceIdx)
+         {
+            return false;
+         }
+      }
+
+      return true;
+   }
+
+   /**
+    * Decodes the messages from firstMessage (inclusive) to lastMessage (exclusive) into the output,
+    * starting at outputPosition. Every message is read from a fixed offset of the fragments (after
+    * the header, if any), so
+    * several ranges of messages can be decoded at the same time, each one with its own scratch
+    * space. When all the data slices are available (dataBuffers not null) the messages are copied
+    * straight from them, without going through the decoding. In verifying mode every message is
+    * checked against all the received slices once decoded.
+    */
+   private void decodeMessages(List<byte[]> receivedBuffers, byte dataBuffers[][], int headerLength,
+         byte output[], int outputPosition, int firstMessage, int lastMessage) throws IDADecodeException
+   {
       int fragmentSize = getFragmentSize();
+      int sliceLength = params.getSliceLength();
 
-      byte data[];
-      byte fragments[] = new byte[encodedBuffers.size() * fragmentSize];
-      byte output[] = new byte[getMessageSize()];
+      byte fragments[] = null;
+      ByteBuffer encodedSlices[] = null;
+      int encodedSliceOffsets[] = null;
 
-      // Establish slice length
-      int dataLength = -1;
-      for (int i = 0; i < encodedBuffers.size(); i++)
+      // The output is wrapped for the XOR kernel once, not once per message
+      ByteBuffer outputWords = XorKernel.wrap(output);
+
+      int encodedBufferPosition = headerLength + firstMessage * fragmentSize;
+
+      for (int messageIdx = firstMessage; messageIdx < lastMessage; messageIdx++)
       {
-         if (encodedBuffers.get(i) != null)
+         int messagePosition = outputPosition;
+
+         if (dataBuffers != null && isSystematic(dataBuffers, encodedBufferPosition))
+         {
+            // Copy the data slices (skipping the slice index) into position
+            for (int sliceIdx = 0; sliceIdx < dataBuffers.length; sliceIdx++)
+            {
+               System.arraycopy(dataBuffers[sliceIdx], encodedBufferPosition + 1, output, outputPosition,
+                     sliceLength);
+               outputPosition += sliceLength;
+            }
+         }
+         else
+         {
+            if (fragments == null)
+            {
+               // The slices of the message are copied to the scratch space of the thread
+               fragments = CauchyScratchSpace.get(params).getSlices();
+               if (fragments.length < receivedBuffers.size() * fragmentSize)
+               {
+                  fragments = new byte[receivedBuffers.size() * fragmentSize];
+               }
+            }
+
+            // Copy encoded data into fragments array
+            for (int fragmentIdx = 0; fragmentIdx < receivedBuffers.size(); fragmentIdx++)
+            {
+               System.arraycopy(receivedBuffers.get(fragmentIdx), encodedBufferPosition, fragments,
+                     fragmentIdx * fragmentSize, fragmentSize);
+            }
+
+            try
+            {
+               CauchyDecode.decode(fragments, receivedBuffers.size(), params, outputWords, outputPosition);
+            }
+            catch (Exception e)
+            {
+               throw new IDAInvalidSliceFormatException("Decode error", e);
+            }
+
+            outputPosition += params.getMessageLength();
+         }
+
+         if (verifying)
          {
-            if (dataLength == -1)
+            if (encodedSlices == null)
             {
-               dataLength = encodedBuffers.get(i).length;
+               // All the slices of the re-encoded message share the same array
+               encodedSlices = new ByteBuffer[params.getNumSlices()];
+               encodedSliceOffsets = new int[params.getNumSlices()];
+
+               ByteBuffer slices = XorKernel.wrap(new byte[params.getNumSlices() * fragmentSize]);
+               for (int sliceIdx = 0; sliceIdx < params.getNumSlices(); sliceIdx++)
+               {
+                  encodedSlices[sliceIdx] = slices;
+                  encodedSliceOffsets[sliceIdx] = sliceIdx * fragmentSize;
+               }
             }
-            else
+
+            CauchyEncode.encode(outputWords, messagePosition, params, encodedSlices, encodedSliceOffsets);
+
+            if (!matchesReceivedSlices(receivedBuffers, encodedBufferPosition, encodedSlices[0].array()))
             {
-               assert dataLength == encodedBuffers.get(i).length : "Inconsistent slice length: "
-                     + encodedBuffers.get(i).length + " expected " + dataLength;
+               int corruptSlice = locateCorruptSlice(receivedBuffers, encodedBufferPosition);
+               if (corruptSlice >= 0)
+               {
+                  throw new IDACorruptSliceException("Slice " + corruptSlice + " is corrupt in message "
+                        + messageIdx, corruptSlice);
+               }
+               else
+               {
+                  throw new IDACorruptSliceException("Inconsistent slices in message " + messageIdx
+                        + ", at least " + (params.getNumDataSlices() + 2)
+                        + " slices are needed to locate the corrupt one", -1);
+               }
             }
          }
+
+         encodedBufferPosition += fragmentSize;
       }
-      assert dataLength != -1 : "Data length can't be calculated";
-  
-      int outputBufferSize = dataLength / fragmentSize * getMessageSize();
-      if (outputBufferSize != output.length)
+   }
+
+   /**
+    * Returns true if every received slice of the message at the specified position is equal to
+    * the slice with the same index in the re-encoded slices.
+    */
+   private boolean matchesReceivedSlices(List<byte[]> receivedBuffers, int encodedBufferPosition,
+         byte encodedSlices[])
+   {
+      int fragmentSize = getFragmentSize();
+
+      for (byte[] receivedBuffer : receivedBuffers)
       {
-         output = new byte[outputBufferSize];
+         int sliceIdx = receivedBuffer[encodedBufferPosition];
+         if (sliceIdx < 0 || sliceIdx >= params.getNumSlices()
+               || !regionEquals(receivedBuffer, encodedBufferPosition, encodedSlices, sliceIdx * fragmentSize,
+                     fragmentSize))
+         {
+            return false;
+         }
       }
 
+      return true;
+   }
 
-      int outputPosition = 0;
+   /**
+    * Finds the corrupt slice of the message at the specified position by leaving each received
+    * slice out in turn: only when the corrupt slice is left out do the others decode to a message
+    * they all agree with. With k+1 slices any k of them agree with the message they decode to, so
+    * this needs at least k+2 slices, and finds a single corrupt slice.
+    *
+    * @return the index of the corrupt slice, or -1 if it can't be located
+    */
+   private int locateCorruptSlice(List<byte[]> receivedBuffers, int encodedBufferPosition)
+   {
+      int fragmentSize = getFragmentSize();
+      int numReceived = receivedBuffers.size();
 
-      int encodedBufferPosition = 0;
-      do
+      if (numReceived < params.getNumDataSlices() + 2)
       {
-         // Copy encoded data into fragments array
-         int fragmentIdx = 0;
-         for (int i = 0; i < encodedBuffers.size() && (fragmentIdx < encodedBuffers.size()); i++)
-         {
-            // Skip null buffers
-            if (encodedBuffers.get(i) != null)
-            {
-               byte encodedBuffer[] = encodedBuffers.get(i);
-               int fragmentOffset = fragmentIdx * fragmentSize;
-               System.arraycopy(encodedBuffer, encodedBufferPosition, fragments, fragmentOffset,
-            		   fragmentSize);
-               fragmentIdx++;
-            }
-         }
+         return -1;
+      }
+
+      byte fragments[] = new byte[(numReceived - 1) * fragmentSize];
+      int corruptSlice = -1;
 
-         if (fragmentIdx < numSlices - threshold)
+      for (int candidateIdx = 0; candidateIdx < numReceived; candidateIdx++)
+      {
+         List<byte[]> otherBuffers = new ArrayList<byte[]>(receivedBuffers);
+         otherBuffers.remove(candidateIdx);
+
+         for (int fragmentIdx = 0; fragmentIdx < otherBuffers.size(); fragmentIdx++)
          {
-            throw new IDAInvalidSliceCountException("Expected " + (numSlices - threshold) + " but got only "
-                  + fragmentIdx + " slices");
+            System.arraycopy(otherBuffers.get(fragmentIdx), encodedBufferPosition, fragments,
+                  fragmentIdx * fragmentSize, fragmentSize);
          }
+
+         byte encodedSlices[];
          try
-         {//treshold=redundant fragments < data slices?
-        	 data = CauchyDecode.decode(fragments, fragmentIdx, params);
+         {
+            encodedSlices = CauchyEncode.encode(CauchyDecode.decode(fragments, otherBuffers.size(), params),
+                  params);
          }
          catch (Exception e)
          {
-        	 e.printStackTrace();
-            throw new IDAInvalidSliceFormatException("Decode error");
+            // The slices left can't even be decoded, so the candidate isn't the corrupt one
+            continue;
          }
 
-         System.arraycopy(data, 0, output, outputPosition, data.length);
-         outputPosition += data.length;
+         if (matchesReceivedSlices(otherBuffers, encodedBufferPosition, encodedSlices))
+         {
+            if (corruptSlice >= 0)
+            {
+               // More than one candidate fits, so there's more than one corrupt slice
+               return -1;
+            }
 
-         encodedBufferPosition += fragmentSize;
-      } while (encodedBufferPosition < dataLength);
+            corruptSlice = receivedBuffers.get(candidateIdx)[encodedBufferPosition];
+         }
+      }
+
+      return corruptSlice;
+   }
 
-      // Truncate padding
-      int outputSize = output.length;
-      while (outputSize > 0 && output[outputSize - 1] == 0)
+   private static boolean regionEquals(byte a[], int aOffset, byte b[], int bOffset, int length)
+   {
+      for (int i = 0; i < length; i++)
       {
-         outputSize--;
+         if (a[aOffset + i] != b[bOffset + i])
+         {
+            return false;
+         }
       }
 
-      outputSize--;
+      return true;
+   }
 
-      byte buffer[] = new byte[outputSize];
-      System.arraycopy(output, 0, buffer, 0, outputSize);
+   /**
+    * Splits the messages in ranges and decodes each range in a different task of the executor.
+    * The calling thread decodes the first range, and then waits for the other tasks to finish.
+    */
+   private void decodeMessagesInParallel(final List<byte[]> receivedBuffers, final byte dataBuffers[][],
+         final int headerLength, final byte output[], int numMessages)
+      throws IDADecodeException
+   {
+      int numTasks = Math.min(parallelism, numMessages / MIN_MESSAGES_PER_TASK);
 
-      return buffer;
-   }
+      CompletionService<Void> decodeCompletionService = new ExecutorCompletionService<Void>(taskExecutor);
 
+      for (int taskIdx = 1; taskIdx < numTasks; taskIdx++)
+      {
+         final int firstMessage = (int) ((long) numMessages * taskIdx / numTasks);
+         final int lastMessage = (int) ((long) numMessages * (taskIdx + 1) / numTasks);
 
-   private int getMessageSize()
+         decodeCompletionService.submit(new Callable<Void>()
+         {
+            public Void call() throws IDADecodeException
+            {
+               decodeMessages(receivedBuffers, dataBuffers, headerLength, output,
+                     firstMessage * getMessageSize(), firstMessage, lastMessage);
+               return null;
+            }
+         });
+      }
+
+      decodeMessages(receivedBuffers, dataBuffers, headerLength, output, 0, 0, numMessages / numTasks);
+
+      try
+      {
+         for (int taskIdx = 1; taskIdx < numTasks; taskIdx++)
+         {
+            decodeCompletionService.take().get();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IDAParallelDecodeException("Interrupted while waiting for the decoding tasks", e);
+      }
+      catch (ExecutionException e)
+      {
+         if (e.getCause() instanceof IDADecodeException)
+         {
+            throw (IDADecodeException) e.getCause();
+         }
+         else
+         {
+            throw new IDAParallelDecodeException("Decoding task failed", e.getCause());
+         }
+      }
+   }
+
+   /**
+    * Returns the number of data bytes in each message.
+    */
+   public int getMessageSize()
    {
       return params.getSliceLength() * params.getNumDataSlices();
    }
 
-   private int getFragmentSize()
+   /**
+    * Returns the number of bytes of each message in every fragment (a slice and its index), so
+    * message i starts at {@code i * getFragmentSize()} after the header.
+    */
+   public int getFragmentSize()
    {
       return params.getTotalSliceLength();
    }
@@ -216,6 +736,70 @@ public class CauchyInformationDispersalDecoder implements InformationDispersalDe
       this.chunkSize = chunkSize;
    }
 
+   public int getLogOfFieldLength()
+   {
+      return logOfFieldLength;
+   }
+
+   public void setLogOfFieldLength(int logOfFieldLength)
+   {
+      this.logOfFieldLength = logOfFieldLength;
+   }
+
+   public XorKernel getXorKernel()
+   {
+      return xorKernel;
+   }
+
+   public Executor getTaskExecutor()
+   {
+      return taskExecutor;
+   }
+
+   /**
+    * Sets the executor used to decode the messages of big fragments in parallel. If null (the
+    * default), fragments are decoded sequentially by the calling thread.
+    */
+   public void setTaskExecutor(Executor taskExecutor)
+   {
+      this.taskExecutor = taskExecutor;
+   }
+
+   public int getParallelism()
+   {
+      return parallelism;
+   }
+
+   /**
+    * Sets the maximum number of tasks (including the calling thread) the fragments are split into
+    * when decoding in parallel.
+    */
+   public void setParallelism(int parallelism)
+   {
+      this.parallelism = parallelism;
+   }
+
+   public boolean isVerifying()
+   {
+      return verifying;
+   }
+
+   /**
+    * Sets the verifying mode: every decoded message is re-encoded and checked against all the
+    * received slices, so at least k+1 slices (one more than the number of data slices) are
+    * needed. If they don't match an IDACorruptSliceException is thrown, with the index of the
+    * corrupt slice when there are at least k+2 slices to locate it.
+    */
+   public void setVerifying(boolean verifying)
+   {
+      this.verifying = verifying;
+   }
+
+   public void setXorKernel(XorKernel xorKernel)
+   {
+      this.xorKernel = xorKernel;
+   }
+
    @Override
    public String toString()
    {
@@ -225,6 +809,8 @@ public class CauchyInformationDispersalDecoder implements InformationDispersalDe
       stringBuff.append("threshold = " + threshold + ", ");
       stringBuff.append("Message size: " + this.getMessageSize() + ", ");
       stringBuff.append("Fragment size: " + this.getFragmentSize() + ", ");
+      stringBuff.append("Field width: " + logOfFieldLength + ", ");
+      stringBuff.append("XOR kernel: " + xorKernel + ", ");
 
       stringBuff.append("Blowup = "
             + ((float) getFragmentSize() * (float) numSlices / (float) getMessageSize()) + ", ");
@@ -5,12 +5,23 @@ import org.apache.log4j.Logger;
 import org.jigdfs.ida.base.InformationDispersalCodecBase;
 import org.jigdfs.ida.base.InformationDispersalEncoder;
 import org.jigdfs.ida.exception.IDAEncodeException;
+import org.jigdfs.ida.exception.IDAInvalidDataLengthException;
 import org.jigdfs.ida.exception.IDAInvalidParametersException;
 import org.jigdfs.ida.exception.IDANotInitializedException;
+import org.jigdfs.ida.exception.IDAParallelEncodeException;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 
 
 
@@ -42,6 +53,21 @@ public class CauchyInformationDispersalEncoder
    /** The number of slices required to restore */
    private int threshold;
 
+   /** The log of the length of the field (the field width in bits) */
+   private int logOfFieldLength = CauchyIDAParameters.DEFAULT_LOG_OF_FIELD_LENGTH;
+
+   /** The kernel used to XOR the segments */
+   private XorKernel xorKernel = XorKernel.getDefault();
+
+   /** Executor used to encode messages in parallel (if null, messages are encoded sequentially) */
+   private Executor taskExecutor;
+
+   /** The maximum number of tasks a buffer is split into when encoding in parallel */
+   private int parallelism = 1;
+
+   /** The minimum number of messages a parallel task should encode, so the task overhead pays off */
+   private static final int MIN_MESSAGES_PER_TASK = 64;
+
    private static Logger logger = Logger.getLogger(CauchyInformationDispersalEncoder.class);
    
    public CauchyInformationDispersalEncoder(int numSlices, int threshold, int chunkSize) throws IDAInvalidParametersException
@@ -53,6 +79,29 @@ public class CauchyInformationDispersalEncoder
       initialize();
    }
 
+   public CauchyInformationDispersalEncoder(int numSlices, int threshold, int chunkSize, XorKernel xorKernel)
+      throws IDAInvalidParametersException
+   {
+      this.numSlices = numSlices;
+      this.threshold = threshold;
+      this.chunkSize = chunkSize;
+      this.xorKernel = xorKernel;
+
+      initialize();
+   }
+
+   public CauchyInformationDispersalEncoder(int numSlices, int threshold, int chunkSize, int logOfFieldLength,
+         XorKernel xorKernel) throws IDAInvalidParametersException
+   {
+      this.numSlices = numSlices;
+      this.threshold = threshold;
+      this.chunkSize = chunkSize;
+      this.logOfFieldLength = logOfFieldLength;
+      this.xorKernel = xorKernel;
+
+      initialize();
+   }
+
    public synchronized void initialize() throws IDAInvalidParametersException
    {
       // Configuration already calls initialize, but we need to reinitialize with the
@@ -80,7 +129,20 @@ public class CauchyInformationDispersalEncoder
          throw new IDAInvalidParametersException("Threshold must be less than or equal to number of slices");
       }
       
+      if (this.logOfFieldLength < 1 || this.logOfFieldLength > CauchyIDAParameters.MAX_LOG_OF_FIELD_LENGTH)
+      {
+         throw new IDAInvalidParametersException("Log of field length must be between 1 and "
+               + CauchyIDAParameters.MAX_LOG_OF_FIELD_LENGTH);
+      }
+      if (this.numSlices > 1 << (this.logOfFieldLength - 1))
+      {
+         throw new IDAInvalidParametersException("A field of " + this.logOfFieldLength + " bits supports at most "
+               + (1 << (this.logOfFieldLength - 1)) + " slices");
+      }
+      
       this.params = new CauchyIDAParameters(this.numSlices - this.threshold, this.threshold, this.chunkSize);
+      this.params.setLogOfFieldLength(this.logOfFieldLength);
+      this.params.setXorKernel(this.xorKernel);
       this.messageSize = params.getSliceLength() * params.getNumDataSlices();
       this.totalSliceLength = params.getTotalSliceLength();
       
@@ -103,66 +165,560 @@ public class CauchyInformationDispersalEncoder
                "IDA is not initialized, Call initialize() first");
       }
       
-      byte message[] = new byte[getMessageSize()];
-
-      int inputPosition = 0;
-      int outputPosition = 0;
-
       // Calculate the size of each output buffer
-      int outputSize = 
-         ((buffer.length + 1) / getMessageSize()) * getTotalSliceLength();
-
-      if ( (buffer.length + 1) % getMessageSize() != 0 )
-      {
-         outputSize += getTotalSliceLength();
-      }
+      int outputSize = getFragmentLength(buffer.length);
 
       // Allocate new buffers for output        
       List<byte[]> outputBuffers  = new ArrayList<byte[]>(this.getNumSlices());   
 
-      // Allocate the output buffers
+      // Allocate the output buffers, and write the header at the start of each one
+      CauchyFragmentHeader header = new CauchyFragmentHeader(params, buffer.length);
+
       for (int fragmentIdx = 0; fragmentIdx < getNumSlices(); fragmentIdx++)
       {
-         outputBuffers.add(new byte[outputSize]);
+         byte outputBuffer[] = new byte[outputSize];
+         header.write(outputBuffer);
+         outputBuffers.add(outputBuffer);
       }
+
+      int numMessages = (outputSize - CauchyFragmentHeader.LENGTH) / getTotalSliceLength();
       
+      if (taskExecutor != null && parallelism > 1 && numMessages >= 2 * MIN_MESSAGES_PER_TASK)
+      {
+         encodeMessagesInParallel(buffer, outputBuffers, numMessages);
+      }
+      else
+      {
+         encodeMessages(buffer, outputBuffers, 0, numMessages);
+      }
+
+      return outputBuffers;
+   }
+
+   /**
+    * Encodes the messages of the buffer from firstMessage (inclusive) to lastMessage (exclusive).
+    * Every message is written at a fixed offset of the output buffers (after the header), so
+    * several ranges of messages can be encoded at the same time.
+    */
+   private void encodeMessages(byte buffer[], List<byte[]> outputBuffers, int firstMessage, int lastMessage)
+   {
+      byte message[] = null;
+      ByteBuffer messageWords = null;
 
-      while (outputPosition < outputSize)
+      // Slices are encoded in place in the output buffers. The arrays are wrapped for the XOR
+      // kernel once, not once per message
+      ByteBuffer bufferWords = XorKernel.wrap(buffer);
+      ByteBuffer slices[] = CauchyEncode.wrap(outputBuffers.toArray(new byte[numSlices][]));
+      int sliceOffsets[] = new int[numSlices];
+
+      int inputPosition = firstMessage * getMessageSize();
+      int outputPosition = CauchyFragmentHeader.LENGTH + firstMessage * getTotalSliceLength();
+
+      for (int messageIdx = firstMessage; messageIdx < lastMessage; messageIdx++)
       {
-         final byte fillerByte = 1;
-         
-         // Copy data from the input buffer into the data buffer
-         int freeBufferSpace = buffer.length - inputPosition;
-         int maxWriteAmount = (message.length < freeBufferSpace ? message.length : freeBufferSpace);
+         Arrays.fill(sliceOffsets, outputPosition);
 
-         System.arraycopy(buffer, inputPosition, message, 0, maxWriteAmount);
-         inputPosition += maxWriteAmount;
-         
-         // Add padding if needed
-         if (maxWriteAmount < message.length)
+         if (buffer.length - inputPosition >= getMessageSize())
+         {
+            // Full message, encode it straight from the input buffer
+            CauchyEncode.encode(bufferWords, inputPosition, params, slices, sliceOffsets);
+            inputPosition += getMessageSize();
+         }
+         else
          {
-            message[maxWriteAmount] = fillerByte;
-            Arrays.fill(message, maxWriteAmount+1, message.length, (byte) 0x00);
+            // Copy the rest of the data into the message and add the padding
+            int dataLength = buffer.length - inputPosition;
+
+            if (message == null)
+            {
+               message = CauchyScratchSpace.get(params).getMessage();
+               messageWords = XorKernel.wrap(message);
+            }
+
+            System.arraycopy(buffer, inputPosition, message, 0, dataLength);
+            inputPosition += dataLength;
+
+            pad(message, dataLength);
+
+            CauchyEncode.encode(messageWords, 0, params, slices, sliceOffsets);
+         }
+
+         outputPosition += totalSliceLength;
+      }
+   }
+
+   /**
+    * Splits the messages in ranges and encodes each range in a different task of the executor.
+    * The calling thread encodes the first range, and then waits for the other tasks to finish.
+    */
+   private void encodeMessagesInParallel(final byte buffer[], final List<byte[]> outputBuffers, int numMessages)
+      throws IDAEncodeException
+   {
+      int numTasks = Math.min(parallelism, numMessages / MIN_MESSAGES_PER_TASK);
+
+      CompletionService<Void> encodeCompletionService = new ExecutorCompletionService<Void>(taskExecutor);
+
+      for (int taskIdx = 1; taskIdx < numTasks; taskIdx++)
+      {
+         final int firstMessage = (int) ((long) numMessages * taskIdx / numTasks);
+         final int lastMessage = (int) ((long) numMessages * (taskIdx + 1) / numTasks);
+
+         encodeCompletionService.submit(new Callable<Void>()
+         {
+            public Void call()
+            {
+               encodeMessages(buffer, outputBuffers, firstMessage, lastMessage);
+               return null;
+            }
+         });
+      }
+
+      encodeMessages(buffer, outputBuffers, 0, numMessages / numTasks);
+
+      try
+      {
+         for (int taskIdx = 1; taskIdx < numTasks; taskIdx++)
+         {
+            encodeCompletionService.take().get();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IDAParallelEncodeException("Interrupted while waiting for the encoding tasks", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IDAParallelEncodeException("Encoding task failed", e.getCause());
+      }
+   }
+
+   public long process(ReadableByteChannel input, List<? extends WritableByteChannel> outputs)
+      throws IDAEncodeException, IDANotInitializedException, IOException
+   {
+      return process(input, outputs, CauchyFragmentHeader.UNKNOWN_DATA_LENGTH);
+   }
+
+   public long process(ReadableByteChannel input, List<? extends WritableByteChannel> outputs, long dataLength)
+      throws IDAEncodeException, IDANotInitializedException, IOException
+   {
+      if (!this.initialized)
+      {
+         throw new IDANotInitializedException(
+               "IDA is not initialized, Call initialize() first");
+      }
+      if (outputs.size() != getNumSlices())
+      {
+         throw new IllegalArgumentException("Expected " + getNumSlices() + " output channels but got "
+               + outputs.size());
+      }
+
+      if (taskExecutor != null && parallelism > 1)
+      {
+         writeHeader(outputs, dataLength);
+
+         return CauchyFragmentHeader.LENGTH + encodeBatchesInParallel(input, outputs, dataLength);
+      }
+
+      // Allocated once per call and not taken from the scratch space of the thread, since they're
+      // held while the channels (which could use the encoder too) are read and written
+      byte message[] = new byte[getMessageSize()];
+      ByteBuffer messageBuffer = ByteBuffer.wrap(message);
+
+      // Slices are encoded one after the other in the same array, reused for every message
+      byte slicesArray[] = new byte[numSlices * totalSliceLength];
+      byte slices[][] = new byte[numSlices][];
+      int sliceOffsets[] = new int[numSlices];
+      ByteBuffer sliceBuffers[] = new ByteBuffer[numSlices];
+      for (int fragmentIdx = 0; fragmentIdx < numSlices; fragmentIdx++)
+      {
+         slices[fragmentIdx] = slicesArray;
+         sliceOffsets[fragmentIdx] = fragmentIdx * totalSliceLength;
+         sliceBuffers[fragmentIdx] =
+               ByteBuffer.wrap(slicesArray, sliceOffsets[fragmentIdx], totalSliceLength).slice();
+      }
+
+      // The arrays are wrapped for the XOR kernel once, not once per message
+      ByteBuffer messageWords = XorKernel.wrap(message);
+      ByteBuffer sliceWords[] = CauchyEncode.wrap(slices);
+
+      writeHeader(outputs, dataLength);
+
+      long outputPosition = CauchyFragmentHeader.LENGTH;
+      long inputLength = 0;
+      boolean endOfInput = false;
+
+      while (!endOfInput)
+      {
+         // Fill the message with data from the input channel
+         messageBuffer.clear();
+         while (messageBuffer.hasRemaining())
+         {
+            if (input.read(messageBuffer) < 0)
+            {
+               endOfInput = true;
+               break;
+            }
+         }
+
+         // Add padding if needed. The last message always carries at least the filler byte, so
+         // the input is finished once a message couldn't be completely filled
+         int readAmount = messageBuffer.position();
+         inputLength += readAmount;
+         if (readAmount < message.length)
+         {
+            pad(message, readAmount);
+            endOfInput = true;
          }
 
          // Perform encoding of the data buffer into slices array
-         byte[] slices;
-         slices = CauchyEncode.encode(message, params);
+         CauchyEncode.encode(messageWords, 0, params, sliceWords, sliceOffsets);
 
-         // For each fragment
+         // Write each slice to its fragment
          for (int fragmentIdx = 0; fragmentIdx < numSlices; fragmentIdx++)
          {
-            byte fragment[] = outputBuffers.get(fragmentIdx);
-
-            int fragmentOffset = fragmentIdx * totalSliceLength;
-            
-            System.arraycopy(slices, fragmentOffset, fragment, outputPosition, totalSliceLength);
+            WritableByteChannel fragment = outputs.get(fragmentIdx);
+            ByteBuffer slice = sliceBuffers[fragmentIdx];
+            slice.clear();
+
+            while (slice.hasRemaining())
+            {
+               fragment.write(slice);
+            }
          }
 
          outputPosition += totalSliceLength;
       }
 
-      return outputBuffers;
+      checkDataLength(dataLength, inputLength);
+
+      return outputPosition;
+   }
+
+   /**
+    * Writes the header at the start of each fragment written to a channel. If the length of the
+    * data isn't known until the end of the input, the decoder will look for the padding.
+    */
+   private void writeHeader(List<? extends WritableByteChannel> outputs, long dataLength) throws IOException
+   {
+      CauchyFragmentHeader header = new CauchyFragmentHeader(params, dataLength);
+      ByteBuffer headerBuffer = ByteBuffer.wrap(header.toBytes());
+
+      for (WritableByteChannel fragment : outputs)
+      {
+         headerBuffer.rewind();
+         while (headerBuffer.hasRemaining())
+         {
+            fragment.write(headerBuffer);
+         }
+      }
+   }
+
+   /**
+    * Checks that the input had the length written in the fragment headers, if it was known.
+    */
+   private void checkDataLength(long dataLength, long inputLength) throws IDAInvalidDataLengthException
+   {
+      if (dataLength != CauchyFragmentHeader.UNKNOWN_DATA_LENGTH && inputLength != dataLength)
+      {
+         throw new IDAInvalidDataLengthException("The input had " + inputLength + " bytes instead of the "
+               + dataLength + " in the fragment headers");
+      }
+   }
+
+   /**
+    * Reads the input channel in batches of MIN_MESSAGES_PER_TASK messages per task, encodes the
+    * messages of each batch in parallel and then writes the slices of the batch to the output
+    * channels. The fragments are the same as the ones encoded one message at a time. Returns the
+    * number of bytes written to each output channel after the header.
+    */
+   private long encodeBatchesInParallel(ReadableByteChannel input, List<? extends WritableByteChannel> outputs,
+         long dataLength) throws IDAEncodeException, IOException
+   {
+      int batchMessages = parallelism * MIN_MESSAGES_PER_TASK;
+      byte batch[] = new byte[batchMessages * getMessageSize()];
+
+      // The messages are encoded after the space of the header, like in the buffers of process(byte[])
+      List<byte[]> outputBuffers = new ArrayList<byte[]>(numSlices);
+      for (int fragmentIdx = 0; fragmentIdx < numSlices; fragmentIdx++)
+      {
+         outputBuffers.add(new byte[CauchyFragmentHeader.LENGTH + batchMessages * totalSliceLength]);
+      }
+
+      long outputLength = 0;
+      long inputLength = 0;
+      boolean endOfInput = false;
+
+      while (!endOfInput)
+      {
+         ByteBuffer batchBuffer = ByteBuffer.wrap(batch);
+         while (batchBuffer.hasRemaining())
+         {
+            if (input.read(batchBuffer) < 0)
+            {
+               endOfInput = true;
+               break;
+            }
+         }
+
+         inputLength += batchBuffer.position();
+
+         byte data[] = batch;
+         int numMessages = batchMessages;
+
+         if (endOfInput)
+         {
+            // The last batch ends with the message that carries the padding
+            data = Arrays.copyOf(batch, batchBuffer.position());
+            numMessages = data.length / getMessageSize() + 1;
+         }
+
+         if (numMessages >= 2 * MIN_MESSAGES_PER_TASK)
+         {
+            encodeMessagesInParallel(data, outputBuffers, numMessages);
+         }
+         else
+         {
+            encodeMessages(data, outputBuffers, 0, numMessages);
+         }
+
+         int length = numMessages * totalSliceLength;
+         for (int fragmentIdx = 0; fragmentIdx < numSlices; fragmentIdx++)
+         {
+            ByteBuffer slices = ByteBuffer.wrap(outputBuffers.get(fragmentIdx), CauchyFragmentHeader.LENGTH, length);
+            while (slices.hasRemaining())
+            {
+               outputs.get(fragmentIdx).write(slices);
+            }
+         }
+
+         outputLength += length;
+      }
+
+      checkDataLength(dataLength, inputLength);
+
+      return outputLength;
+   }
+
+   public int process(ByteBuffer data, List<? extends ByteBuffer> outputs)
+      throws IDAEncodeException, IDANotInitializedException
+   {
+      if (!this.initialized)
+      {
+         throw new IDANotInitializedException(
+               "IDA is not initialized, Call initialize() first");
+      }
+      if (outputs.size() != getNumSlices())
+      {
+         throw new IllegalArgumentException("Expected " + getNumSlices() + " output buffers but got "
+               + outputs.size());
+      }
+
+      int outputSize = getFragmentLength(data.remaining());
+      int numMessages = (outputSize - CauchyFragmentHeader.LENGTH) / getTotalSliceLength();
+
+      for (ByteBuffer output : outputs)
+      {
+         if (output.remaining() < outputSize)
+         {
+            throw new IllegalArgumentException("Output buffer has " + output.remaining()
+                  + " bytes remaining but " + outputSize + " are needed");
+         }
+      }
+
+      // Write the header at the start of each fragment
+      CauchyFragmentHeader header = new CauchyFragmentHeader(params, data.remaining());
+      for (ByteBuffer output : outputs)
+      {
+         header.write(output);
+      }
+
+      // Slices of heap buffers are encoded in place in their arrays. Slices of direct (or read
+      // only) buffers are encoded in a scratch array and then put in the buffer
+      byte slices[][] = new byte[numSlices][];
+      int sliceOffsets[] = new int[numSlices];
+      boolean inPlace[] = new boolean[numSlices];
+      byte scratch[] = null;
+
+      for (int fragmentIdx = 0; fragmentIdx < numSlices; fragmentIdx++)
+      {
+         ByteBuffer output = outputs.get(fragmentIdx);
+
+         if (output.hasArray())
+         {
+            inPlace[fragmentIdx] = true;
+            slices[fragmentIdx] = output.array();
+            sliceOffsets[fragmentIdx] = output.arrayOffset() + output.position();
+         }
+         else
+         {
+            if (scratch == null)
+            {
+               scratch = CauchyScratchSpace.get(params).getSlices();
+            }
+
+            slices[fragmentIdx] = scratch;
+            sliceOffsets[fragmentIdx] = fragmentIdx * totalSliceLength;
+         }
+      }
+
+      // The arrays are wrapped for the XOR kernel once, not once per message
+      ByteBuffer dataWords = data.hasArray() ? XorKernel.wrap(data.array()) : null;
+      ByteBuffer sliceWords[] = CauchyEncode.wrap(slices);
+      byte message[] = null;
+      ByteBuffer messageWords = null;
+
+      for (int messageIdx = 0; messageIdx < numMessages; messageIdx++)
+      {
+         if (dataWords != null && data.remaining() >= getMessageSize())
+         {
+            // Full message, encode it straight from the input buffer
+            CauchyEncode.encode(dataWords, data.arrayOffset() + data.position(), params, sliceWords,
+                  sliceOffsets);
+            data.position(data.position() + getMessageSize());
+         }
+         else
+         {
+            if (message == null)
+            {
+               message = CauchyScratchSpace.get(params).getMessage();
+               messageWords = XorKernel.wrap(message);
+            }
+
+            int dataLength = Math.min(data.remaining(), getMessageSize());
+            data.get(message, 0, dataLength);
+
+            // Add padding if needed
+            if (dataLength < message.length)
+            {
+               pad(message, dataLength);
+            }
+
+            CauchyEncode.encode(messageWords, 0, params, sliceWords, sliceOffsets);
+         }
+
+         for (int fragmentIdx = 0; fragmentIdx < numSlices; fragmentIdx++)
+         {
+            if (inPlace[fragmentIdx])
+            {
+               sliceOffsets[fragmentIdx] += totalSliceLength;
+            }
+            else
+            {
+               outputs.get(fragmentIdx).put(scratch, sliceOffsets[fragmentIdx], totalSliceLength);
+            }
+         }
+      }
+
+      // Advance the buffers that were written through their arrays
+      for (int fragmentIdx = 0; fragmentIdx < numSlices; fragmentIdx++)
+      {
+         if (inPlace[fragmentIdx])
+         {
+            ByteBuffer output = outputs.get(fragmentIdx);
+            output.position(output.position() + outputSize - CauchyFragmentHeader.LENGTH);
+         }
+      }
+
+      return outputSize;
+   }
+
+   public List<byte[]> encodeDelta(int dataOffset, byte oldData[], byte newData[])
+      throws IDAEncodeException, IDANotInitializedException
+   {
+      if (!this.initialized)
+      {
+         throw new IDANotInitializedException(
+               "IDA is not initialized, Call initialize() first");
+      }
+      if (oldData.length != newData.length)
+      {
+         throw new IllegalArgumentException("The old and new data of the region have different lengths: "
+               + oldData.length + " and " + newData.length);
+      }
+      if (dataOffset < 0)
+      {
+         throw new IllegalArgumentException("Invalid data offset " + dataOffset);
+      }
+
+      int numMessages = 0;
+      if (oldData.length > 0)
+      {
+         numMessages = (dataOffset + oldData.length - 1) / getMessageSize() - dataOffset / getMessageSize() + 1;
+      }
+
+      List<byte[]> deltas = new ArrayList<byte[]>(getNumSlices());
+      for (int sliceIdx = 0; sliceIdx < getNumSlices(); sliceIdx++)
+      {
+         deltas.add(new byte[numMessages * getTotalSliceLength()]);
+      }
+
+      byte message[] = CauchyScratchSpace.get(params).getMessage();
+      byte slices[][] = deltas.toArray(new byte[numSlices][]);
+      int sliceOffsets[] = new int[numSlices];
+
+      // The arrays are wrapped for the XOR kernel once, not once per message
+      ByteBuffer messageWords = XorKernel.wrap(message);
+      ByteBuffer sliceWords[] = CauchyEncode.wrap(slices);
+
+      // Offset of the first message in the data, and of the region in that message
+      int messageStart = dataOffset - dataOffset % getMessageSize();
+      int regionPosition = 0;
+
+      for (int messageIdx = 0; messageIdx < numMessages; messageIdx++)
+      {
+         Arrays.fill(message, (byte) 0);
+
+         int messagePosition = Math.max(0, dataOffset - messageStart);
+         for (; messagePosition < getMessageSize() && regionPosition < oldData.length; messagePosition++)
+         {
+            message[messagePosition] = (byte) (oldData[regionPosition] ^ newData[regionPosition]);
+            regionPosition++;
+         }
+
+         Arrays.fill(sliceOffsets, messageIdx * getTotalSliceLength());
+         CauchyEncode.encode(messageWords, 0, params, sliceWords, sliceOffsets);
+
+         // The slice indexes don't change
+         for (int sliceIdx = 0; sliceIdx < getNumSlices(); sliceIdx++)
+         {
+            slices[sliceIdx][sliceOffsets[sliceIdx]] = 0;
+         }
+
+         messageStart += getMessageSize();
+      }
+
+      return deltas;
+   }
+
+   public int getDeltaOffset(int dataOffset)
+   {
+      return CauchyFragmentHeader.LENGTH + (dataOffset / getMessageSize()) * getTotalSliceLength();
+   }
+
+   public int getFragmentLength(int dataLength)
+   {
+      // There is always at least the filler byte of the padding
+      int numMessages = (dataLength + 1) / getMessageSize();
+
+      if ((dataLength + 1) % getMessageSize() != 0)
+      {
+         numMessages++;
+      }
+
+      return CauchyFragmentHeader.LENGTH + numMessages * getTotalSliceLength();
+   }
+
+   /**
+    * Pads the message after the last data byte: a filler byte followed by zeros, so the
+    * decoder can find where the data ends.
+    */
+   private void pad(byte message[], int dataLength)
+   {
+      final byte fillerByte = 1;
+
+      message[dataLength] = fillerByte;
+      Arrays.fill(message, dataLength + 1, message.length, (byte) 0x00);
    }
 
    public int getNumSlices()
@@ -204,6 +760,54 @@ public class CauchyInformationDispersalEncoder
    {
       this.chunkSize = inputMessageLength;
    }
+
+   public int getLogOfFieldLength()
+   {
+      return logOfFieldLength;
+   }
+
+   public void setLogOfFieldLength(int logOfFieldLength)
+   {
+      this.logOfFieldLength = logOfFieldLength;
+   }
+
+   public XorKernel getXorKernel()
+   {
+      return xorKernel;
+   }
+
+   public Executor getTaskExecutor()
+   {
+      return taskExecutor;
+   }
+
+   /**
+    * Sets the executor used to encode the messages of big buffers in parallel. If null (the
+    * default), buffers are encoded sequentially by the calling thread.
+    */
+   public void setTaskExecutor(Executor taskExecutor)
+   {
+      this.taskExecutor = taskExecutor;
+   }
+
+   public int getParallelism()
+   {
+      return parallelism;
+   }
+
+   /**
+    * Sets the maximum number of tasks (including the calling thread) a buffer is split into when
+    * encoding in parallel.
+    */
+   public void setParallelism(int parallelism)
+   {
+      this.parallelism = parallelism;
+   }
+
+   public void setXorKernel(XorKernel xorKernel)
+   {
+      this.xorKernel = xorKernel;
+   }
    
    @Override
    public String toString()
@@ -214,6 +818,8 @@ public class CauchyInformationDispersalEncoder
       stringBuff.append( "threshold = " + threshold + ", " );
       stringBuff.append( "Message size: " + this.getMessageSize() + ", " );
       stringBuff.append( "Fragment size: " + this.getTotalSliceLength() + ", " );
+      stringBuff.append( "Field width: " + logOfFieldLength + ", " );
+      stringBuff.append( "XOR kernel: " + xorKernel + ", " );
 
       stringBuff.append( "Blowup = " + ( (float)getTotalSliceLength() *
          (float)numSlices / (float)getMessageSize()) + ", " );
@@ -0,0 +1,176 @@
+package org.jigdfs.ida.cauchyreedsolomon;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Scratch buffers used by the encoder and decoder to process one message at a time, pooled
+ * per thread and per {@link CauchyIDAParameters}. Each thread only ever sees its own buffers,
+ * so getting them takes no lock and no buffer can be used by two threads at the same time.
+ *
+ * <p>
+ * The buffers are keyed by the full parameters (chunk size, field length and number of data
+ * and code slices), and only the last {@link #MAX_PARAMETERS_PER_THREAD} parameter sets used
+ * by each thread are kept. The buffers of a thread must not be held across calls that can use
+ * them again in the same thread (the encoder and decoder only use them inside a single call).
+ * </p>
+ */
+public class CauchyScratchSpace
+{
+   public static final int MAX_PARAMETERS_PER_THREAD = 4;
+
+   private static final ThreadLocal<Map<CauchyIDAParameters, CauchyScratchSpace>> scratchSpaces =
+         new ThreadLocal<Map<CauchyIDAParameters, CauchyScratchSpace>>()
+         {
+            @Override
+            protected Map<CauchyIDAParameters, CauchyScratchSpace> initialValue()
+            {
+               return new LinkedHashMap<CauchyIDAParameters, CauchyScratchSpace>(8, 0.75f, true)
+               {
+                  private static final long serialVersionUID = 1L;
+
+                  @Override
+                  protected boolean removeEldestEntry(Map.Entry<CauchyIDAParameters, CauchyScratchSpace> eldest)
+                  {
+                     return size() > MAX_PARAMETERS_PER_THREAD;
+                  }
+               };
+            }
+         };
+
+   /** Which data slices were received (decoder) */
+   private final int[] receivedIndexes;
+
+   /** Which code slices are used to recover the missing data slices (decoder) */
+   private final int[] rowIndexes;
+
+   /** The code slices used to recover the missing data slices (decoder) */
+   private final byte[] codeSegments;
+
+   /** The view of the code slices passed to the XOR kernel (see XorKernel#wrap) */
+   private final ByteBuffer codeSegmentsWords;
+
+   /** A whole message */
+   private final byte[] message;
+
+   /** All the slices of a message, one after the other */
+   private final byte[] slices;
+
+   /** The erasure pattern of the last decode schedule used by the thread, and the schedule */
+   private final int[] schedulePattern;
+   private int scheduleNumExtra = -1;
+   private CauchyDecodeSchedule schedule;
+
+   private CauchyScratchSpace(CauchyIDAParameters p)
+   {
+      schedulePattern = new int[p.getNumDataSlices() + p.getNumCodeSlices()];
+      receivedIndexes = new int[p.getNumDataSlices()];
+      rowIndexes = new int[p.getNumCodeSlices()];
+      codeSegments = new byte[p.getSegmentsPerSlice() * p.getNumCodeSlices() * p.getLogOfFieldLength()];
+      codeSegmentsWords = XorKernel.wrap(codeSegments);
+      message = new byte[p.getMessageLength()];
+      slices = new byte[p.getNumSlices() * p.getTotalSliceLength()];
+   }
+
+   /**
+    * Returns the scratch space of the current thread for the specified parameters.
+    */
+   public static CauchyScratchSpace get(CauchyIDAParameters p)
+   {
+      Map<CauchyIDAParameters, CauchyScratchSpace> threadScratchSpaces = scratchSpaces.get();
+
+      CauchyScratchSpace scratchSpace = threadScratchSpaces.get(p);
+      if (scratchSpace == null)
+      {
+         scratchSpace = new CauchyScratchSpace(p);
+
+         // Copy the parameters for the key, so later changes to them can't corrupt the pool
+         CauchyIDAParameters key = new CauchyIDAParameters(p.getNumDataSlices(), p.getNumCodeSlices(),
+               p.getChunkSize());
+         key.setLogOfFieldLength(p.getLogOfFieldLength());
+
+         threadScratchSpaces.put(key, scratchSpace);
+      }
+
+      return scratchSpace;
+   }
+
+   /**
+    * Returns the received data slice flags, cleared.
+    */
+   public int[] getReceivedIndexes()
+   {
+      Arrays.fill(receivedIndexes, 0);
+
+      return receivedIndexes;
+   }
+
+   public int[] getRowIndexes()
+   {
+      return rowIndexes;
+   }
+
+   public byte[] getCodeSegments()
+   {
+      return codeSegments;
+   }
+
+   public ByteBuffer getCodeSegmentsWords()
+   {
+      return codeSegmentsWords;
+   }
+
+   public byte[] getMessage()
+   {
+      return message;
+   }
+
+   public byte[] getSlices()
+   {
+      return slices;
+   }
+
+   /**
+    * Returns the decode schedule last used by the thread if it's for the same erasure pattern,
+    * so all the messages of a decode but the first skip the shared schedule cache.
+    *
+    * @return the schedule, or null if the last one was for another pattern
+    */
+   public CauchyDecodeSchedule getSchedule(int[] recIndex, int[] rowInd, int numExtra)
+   {
+      if (numExtra != scheduleNumExtra)
+      {
+         return null;
+      }
+
+      int numDataSlices = recIndex.length;
+      for (int i = 0; i < numDataSlices; i++)
+      {
+         if (schedulePattern[i] != recIndex[i])
+         {
+            return null;
+         }
+      }
+      for (int i = 0; i < numExtra; i++)
+      {
+         if (schedulePattern[numDataSlices + i] != rowInd[i])
+         {
+            return null;
+         }
+      }
+
+      return schedule;
+   }
+
+   public void setSchedule(int[] recIndex, int[] rowInd, int numExtra, CauchyDecodeSchedule schedule)
+   {
+      System.arraycopy(recIndex, 0, schedulePattern, 0, recIndex.length);
+      System.arraycopy(rowInd, 0, schedulePattern, recIndex.length, numExtra);
+
+      this.scheduleNumExtra = numExtra;
+      this.schedule = schedule;
+   }
+
+}
@@ -0,0 +1,61 @@
+package org.jigdfs.ida.cauchyreedsolomon;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link XorKernel} that processes the bytes 8 at a time as longs, through {@link ByteBuffer}
+ * views of the arrays. The remaining tail of each segment is processed byte by byte, so the
+ * result is exactly the same as XORing byte by byte.
+ * 
+ * <p>
+ * The encoder and decoder pass views that are created once per message (see
+ * {@link XorKernel#wrap(byte[])}), so nothing is allocated per segment. The array version
+ * wraps the arrays on every call, and is only meant for calls outside the codec loops.
+ * </p>
+ */
+public class WordXorKernel extends XorKernel
+{
+   /** Number of bytes processed per word */
+   private static final int WORD_SIZE = 8;
+
+   @Override
+   public void xor(final byte[] dst, final int dstOffset, final byte[] src, final int srcOffset,
+         final int length)
+   {
+      xor(wrap(dst), dstOffset, wrap(src), srcOffset, length);
+   }
+
+   @Override
+   public void xor(final ByteBuffer dst, final int dstOffset, final ByteBuffer src,
+         final int srcOffset, final int length)
+   {
+      final byte[] dstArray = dst.array();
+      final byte[] srcArray = src.array();
+
+      final int difference = srcOffset - dstOffset;
+      final int wordsEnd = dstOffset + (length & ~(WORD_SIZE - 1));
+      final int end = dstOffset + length;
+
+      int dstIterator = dstOffset;
+
+      while (dstIterator < wordsEnd)
+      {
+         dst.putLong(dstIterator, dst.getLong(dstIterator) ^ src.getLong(dstIterator + difference));
+         dstIterator += WORD_SIZE;
+      }
+
+      // Segment tail
+      while (dstIterator < end)
+      {
+         dstArray[dstIterator] ^= srcArray[dstIterator + difference];
+         dstIterator++;
+      }
+   }
+
+   @Override
+   public String getName()
+   {
+      return WORD_KERNEL;
+   }
+
+}
@@ -0,0 +1,173 @@
+package org.jigdfs.ida.cauchyreedsolomon;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * XOR kernel used by the Cauchy Reed-Solomon encoder and decoder to add (XOR) segments of
+ * the message into the slices and vice versa. Every implementation must produce exactly the
+ * same bytes as XORing byte by byte, so fragments are the same whatever kernel is used.
+ * 
+ * <p>
+ * The kernels available by name are:
+ * <ul>
+ *    <li><b>byte</b>: XORs one byte at a time (the original JigDFS loop)</li>
+ *    <li><b>word</b>: XORs 8 bytes at a time as longs (the default)</li>
+ *    <li><b>vector</b>: uses the JDK Vector API (jdk.incubator.vector) through the
+ *    jigdfs-vector module. If the module or the classes aren't present the default kernel is
+ *    used instead.</li>
+ * </ul>
+ * Any other name is taken as the class name of a custom kernel.
+ * </p>
+ */
+public abstract class XorKernel
+{
+   public static final String BYTE_KERNEL = "byte";
+   public static final String WORD_KERNEL = "word";
+   public static final String VECTOR_KERNEL = "vector";
+
+   public static final String VECTOR_KERNEL_CLASS = "org.jigdfs.ida.cauchyreedsolomon.vector.VectorXorKernel";
+
+   private static final int KERNEL_CHECK_LENGTH = 257;
+
+   private static final XorKernel DEFAULT_KERNEL = new WordXorKernel();
+
+   private static Logger logger = Logger.getLogger(XorKernel.class);
+
+   /**
+    * XORs {@code length} bytes of {@code src}, starting at {@code srcOffset}, into {@code dst},
+    * starting at {@code dstOffset}.
+    *
+    * @param dst
+    *           The array that gets the result of the XOR
+    * @param dstOffset
+    *           The offset of the first byte in dst
+    * @param src
+    *           The array whose bytes are XORed into dst
+    * @param srcOffset
+    *           The offset of the first byte in src
+    * @param length
+    *           The number of bytes to XOR
+    */
+   public abstract void xor(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length);
+
+   /**
+    * XORs like {@link #xor(byte[], int, byte[], int, int)}, between the arrays of two views
+    * returned by {@link #wrap(byte[])}. The encoder and decoder wrap their arrays once per
+    * message and XOR through the views, so kernels that read the arrays a word at a time don't
+    * need to wrap them on every call. The offsets are offsets in the arrays.
+    */
+   public void xor(ByteBuffer dst, int dstOffset, ByteBuffer src, int srcOffset, int length)
+   {
+      xor(dst.array(), dstOffset, src.array(), srcOffset, length);
+   }
+
+   /**
+    * Returns the view of the whole array that {@link #xor(ByteBuffer, int, ByteBuffer, int, int)}
+    * expects (in native byte order).
+    */
+   public static ByteBuffer wrap(byte[] array)
+   {
+      return ByteBuffer.wrap(array).order(ByteOrder.nativeOrder());
+   }
+
+   /**
+    * Returns the name of the kernel
+    */
+   public abstract String getName();
+
+   /**
+    * Returns the kernel used when none is specified.
+    */
+   public static XorKernel getDefault()
+   {
+      return DEFAULT_KERNEL;
+   }
+
+   /**
+    * Returns the kernel for the specified name, or the default kernel if the name is empty or
+    * the vector kernel was requested but can't be loaded.
+    * 
+    * @param name
+    *           The kernel name (byte, word or vector) or the class name of a custom kernel
+    * 
+    * @return The kernel
+    * @throws IllegalArgumentException if the name is not recognized
+    */
+   public static XorKernel forName(String name)
+   {
+      if (name == null || name.trim().length() == 0 || name.trim().equals(WORD_KERNEL))
+      {
+         return DEFAULT_KERNEL;
+      }
+
+      name = name.trim();
+
+      if (name.equals(BYTE_KERNEL))
+      {
+         return new ByteXorKernel();
+      }
+      else if (name.equals(VECTOR_KERNEL))
+      {
+         try
+         {
+            return newInstance(VECTOR_KERNEL_CLASS);
+         }
+         catch (Throwable e)
+         {
+            // The classes or the jdk.incubator.vector module are missing
+            logger.warn("Vector XOR kernel not available, falling back to the '" + DEFAULT_KERNEL.getName()
+                  + "' kernel: " + e);
+
+            return DEFAULT_KERNEL;
+         }
+      }
+      else
+      {
+         try
+         {
+            return newInstance(name);
+         }
+         catch (Throwable e)
+         {
+            throw new IllegalArgumentException("Unrecognized XOR kernel '" + name + "'", e);
+         }
+      }
+   }
+
+   private static XorKernel newInstance(String className) throws Exception
+   {
+      XorKernel kernel = (XorKernel) Class.forName(className).newInstance();
+
+      // Make sure the kernel really works (the classes of the vector module are only linked
+      // on first use)
+      byte[] dst = new byte[KERNEL_CHECK_LENGTH];
+      byte[] src = new byte[KERNEL_CHECK_LENGTH];
+      for (int i = 0; i < KERNEL_CHECK_LENGTH; i++)
+      {
+         dst[i] = (byte) i;
+         src[i] = (byte) i;
+      }
+
+      kernel.xor(dst, 0, src, 0, KERNEL_CHECK_LENGTH);
+
+      for (int i = 0; i < KERNEL_CHECK_LENGTH; i++)
+      {
+         if (dst[i] != 0)
+         {
+            throw new IllegalStateException("Kernel " + className + " returned a wrong result");
+         }
+      }
+
+      return kernel;
+   }
+
+   @Override
+   public String toString()
+   {
+      return getName();
+   }
+
+}
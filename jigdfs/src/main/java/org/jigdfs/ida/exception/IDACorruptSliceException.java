@@ -0,0 +1,27 @@
+package org.jigdfs.ida.exception;
+
+/**
+ * Thrown by a verifying decode when the received slices are inconsistent, which means at least
+ * one of them is corrupt. If the corrupt slice could be located, its index is reported.
+ */
+public class IDACorruptSliceException extends IDADecodeException
+{
+   private static final long serialVersionUID = 4385120587014633281L;
+
+   private final int sliceIndex;
+
+   public IDACorruptSliceException(String reason, int sliceIndex)
+   {
+      super(reason);
+      this.sliceIndex = sliceIndex;
+   }
+
+   /**
+    * Returns the index of the corrupt slice, or -1 if it couldn't be located (there were not
+    * enough slices to tell which one is corrupt).
+    */
+   public int getSliceIndex()
+   {
+      return sliceIndex;
+   }
+}
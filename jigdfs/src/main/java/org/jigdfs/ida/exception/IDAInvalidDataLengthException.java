@@ -0,0 +1,17 @@
+package org.jigdfs.ida.exception;
+
+public class IDAInvalidDataLengthException extends IDAEncodeException
+{
+   private static final long serialVersionUID = -3716309476851257320L;
+
+   
+   public IDAInvalidDataLengthException(String reason)
+   {
+      super(reason);
+   }
+
+   public IDAInvalidDataLengthException(String reason, Throwable cause)
+   {
+      super(reason, cause);
+   }
+}
@@ -0,0 +1,17 @@
+package org.jigdfs.ida.exception;
+
+public class IDAParallelDecodeException extends IDADecodeException
+{
+   private static final long serialVersionUID = -3150961474403287466L;
+
+   
+   public IDAParallelDecodeException(String reason)
+   {
+      super(reason);
+   }
+
+   public IDAParallelDecodeException(String reason, Throwable cause)
+   {
+      super(reason, cause);
+   }
+}
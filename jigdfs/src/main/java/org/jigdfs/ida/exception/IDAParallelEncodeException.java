@@ -0,0 +1,17 @@
+package org.jigdfs.ida.exception;
+
+public class IDAParallelEncodeException extends IDAEncodeException
+{
+   private static final long serialVersionUID = 2604472517880418223L;
+
+   
+   public IDAParallelEncodeException(String reason)
+   {
+      super(reason);
+   }
+
+   public IDAParallelEncodeException(String reason, Throwable cause)
+   {
+      super(reason, cause);
+   }
+}
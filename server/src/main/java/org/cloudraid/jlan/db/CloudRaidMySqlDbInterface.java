@@ -15,16 +15,19 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Extends {@link MySQLDBInterface} to add a table for IDA fragment records and a table for encryption keys.
+ * Extends {@link MySQLDBInterface} to add a table for IDA fragment records, a table for the records of the IDA fragments
+ * that couldn't be saved (and need to be repaired) and a table for encryption keys.
  *
  * @author avasquez
  */
 public class CloudRaidMySqlDbInterface extends MySQLDBInterface implements FragmentMetaDataRepository, EncryptionKeyRepository {
 
     public static final String DEFAULT_IDA_FRAGMENTS_TABLE_NAME = "CloudRaidIdaFragments";
+    public static final String DEFAULT_IDA_MISSING_FRAGMENTS_TABLE_NAME = "CloudRaidIdaMissingFragments";
     public static final String DEFAULT_ENCRYPTION_KEYS_TABLE_NAME = "CloudRaidEncryptionKeys";
 
     protected String idaFragmentsTableName;
+    protected String idaMissingFragmentsTableName;
     protected String encryptionKeysTableName;
 
     /**
@@ -83,6 +86,7 @@ public class CloudRaidMySqlDbInterface extends MySQLDBInterface implements Fragm
             boolean foundObjId = false;
             boolean foundSymLink = false;
             boolean foundIdaFragments = false;
+            boolean foundIdaMissingFragments = false;
             boolean foundEncryptionKeys = false;
 
             while (rs.next()) {
@@ -110,6 +114,8 @@ public class CloudRaidMySqlDbInterface extends MySQLDBInterface implements Fragm
                     foundSymLink = true;
                 else if (tblName.equalsIgnoreCase(getIdaFragmentsTableName()))
                     foundIdaFragments = true;
+                else if (tblName.equalsIgnoreCase(getIdaMissingFragmentsTableName()))
+                    foundIdaMissingFragments = true;
                 else if (tblName.equalsIgnoreCase(getEncryptionKeysTableName()))
                     foundEncryptionKeys = true;
             }
@@ -304,6 +310,21 @@ public class CloudRaidMySqlDbInterface extends MySQLDBInterface implements Fragm
                 if (Debug.EnableInfo && hasDebug())
                     Debug.println("[mySQL] Created table " + getIdaFragmentsTableName());
             }
+            // Check if the IDA missing fragments table should be created
+            if (foundIdaMissingFragments == false && hasIdaMissingFragmentsTableName()) {
+                // Create the IDA missing fragments table
+                Statement stmt = conn.createStatement();
+
+                stmt.execute(
+                        "CREATE TABLE " + getIdaMissingFragmentsTableName() +
+                        " (DataId VARCHAR(255) NOT NULL, FragmentNumber INTEGER NOT NULL, " +
+                        "FragmentRepositoryUrl VARCHAR(2000) NOT NULL, PRIMARY KEY (DataId, FragmentNumber));"
+                );
+
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("[mySQL] Created table " + getIdaMissingFragmentsTableName());
+            }
             // Check if the encryption keys table should be created
             if (foundEncryptionKeys == false && hasEncryptionKeysTableName()) {
                 // Create the encryption keys table
@@ -342,6 +363,20 @@ public class CloudRaidMySqlDbInterface extends MySQLDBInterface implements Fragm
         return idaFragmentsTableName != null;
     }
 
+    /**
+     * Returns the name of the IDA missing fragments table.
+     */
+    protected String getIdaMissingFragmentsTableName() {
+        return idaMissingFragmentsTableName;
+    }
+
+    /**
+     * Returns true if this interface has an IDA missing fragments table name.
+     */
+    protected boolean hasIdaMissingFragmentsTableName() {
+        return idaMissingFragmentsTableName != null;
+    }
+
     /**
      * Returns the name of the encryption keys table.
      */
@@ -370,6 +405,13 @@ public class CloudRaidMySqlDbInterface extends MySQLDBInterface implements Fragm
             idaFragmentsTableName = DEFAULT_IDA_FRAGMENTS_TABLE_NAME;
         }
 
+        configElement = params.getChild("IdaMissingFragmentsTable");
+        if (configElement != null) {
+            idaMissingFragmentsTableName = configElement.getValue();
+        } else {
+            idaMissingFragmentsTableName = DEFAULT_IDA_MISSING_FRAGMENTS_TABLE_NAME;
+        }
+
         configElement = params.getChild("EncryptionKeysTable");
         if (configElement != null) {
             encryptionKeysTableName = configElement.getValue();
@@ -523,6 +565,143 @@ public class CloudRaidMySqlDbInterface extends MySQLDBInterface implements Fragm
         }
     }
 
+    /**
+     * Inserts the given {@link FragmentMetaData} of a missing fragment into the database.
+     *
+     * @param metaData
+     *          the metaData to insert.
+     * @throws RepositoryException
+     */
+    @Override
+    public void saveMissingFragmentMetaData(FragmentMetaData metaData) throws RepositoryException {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            conn = getConnection();
+            pstmt = conn.prepareStatement(
+                    "INSERT INTO " + getIdaMissingFragmentsTableName() + " " +
+                    "VALUES (?, ?, ?) " +
+                    "ON DUPLICATE KEY UPDATE FragmentRepositoryUrl = ?;"
+            );
+
+            pstmt.setString(1, metaData.getDataId());
+            pstmt.setInt(2, metaData.getFragmentNumber());
+            pstmt.setString(3, metaData.getRepositoryUrl());
+            pstmt.setString(4, metaData.getRepositoryUrl());
+
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RepositoryException("SQL error while trying to insert missing fragment record " + metaData, e);
+        } finally {
+            closeQuietly(pstmt);
+            closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Selects the metadata for all missing fragments.
+     *
+     * @return the list of missing fragment metadata
+     * @throws RepositoryException
+     */
+    @Override
+    public List<FragmentMetaData> getAllMissingFragmentMetaData() throws RepositoryException {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        List<FragmentMetaData> fragmentsMetaData = new ArrayList<FragmentMetaData>();
+
+        try {
+            conn = getConnection();
+            pstmt = conn.prepareStatement(
+                    "SELECT * " +
+                    "FROM " + getIdaMissingFragmentsTableName() + ";"
+            );
+
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                fragmentsMetaData.add(mapFragmentMetaDataRow(rs));
+            }
+
+            return fragmentsMetaData;
+        } catch (SQLException e) {
+            throw new RepositoryException("SQL error while querying metadata for missing fragments", e);
+        } finally {
+            closeQuietly(pstmt);
+            closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Selects the metadata for the missing fragments of the given data ID.
+     *
+     * @param dataId
+     *          the data ID
+     * @return the list of missing fragment metadata
+     * @throws RepositoryException
+     */
+    @Override
+    public List<FragmentMetaData> getAllMissingFragmentMetaDataForData(String dataId) throws RepositoryException {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+        List<FragmentMetaData> fragmentsMetaData = new ArrayList<FragmentMetaData>();
+
+        try {
+            conn = getConnection();
+            pstmt = conn.prepareStatement(
+                    "SELECT * " +
+                    "FROM " + getIdaMissingFragmentsTableName() + " " +
+                    "WHERE DataId = ?;"
+            );
+
+            pstmt.setString(1, dataId);
+
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                fragmentsMetaData.add(mapFragmentMetaDataRow(rs));
+            }
+
+            return fragmentsMetaData;
+        } catch (SQLException e) {
+            throw new RepositoryException("SQL error while querying metadata for missing fragments of data ID '" +
+                    dataId + "'", e);
+        } finally {
+            closeQuietly(pstmt);
+            closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Deletes the given missing fragment metadata record.
+     *
+     * @param metaData
+     *          the metadata to delete
+     * @throws RepositoryException
+     */
+    @Override
+    public void deleteMissingFragmentMetaData(FragmentMetaData metaData) throws RepositoryException {
+        Connection conn = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            conn = getConnection();
+            pstmt = conn.prepareStatement(
+                    "DELETE FROM " + getIdaMissingFragmentsTableName() + " " +
+                    "WHERE DataId = ? AND FragmentNumber = ?;"
+            );
+
+            pstmt.setString(1, metaData.getDataId());
+            pstmt.setInt(2, metaData.getFragmentNumber());
+
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RepositoryException("SQL error while trying to delete missing fragment record " + metaData, e);
+        } finally {
+            closeQuietly(pstmt);
+            closeQuietly(conn);
+        }
+    }
+
     /**
      * Inserts a new encryption key record.
      *
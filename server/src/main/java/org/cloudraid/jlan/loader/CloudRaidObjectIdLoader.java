@@ -6,7 +6,7 @@ import org.alfresco.jlan.server.filesys.db.ObjectIdFileLoader;
 import org.alfresco.jlan.server.filesys.loader.FileLoaderException;
 import org.alfresco.jlan.server.filesys.loader.FileSegment;
 import org.alfresco.jlan.util.NameValueList;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.cloudraid.ida.persistence.api.*;
@@ -20,10 +20,14 @@ import org.cloudraid.jlan.util.JlanConfiguration;
 import org.springframework.extensions.config.ConfigElement;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of {@link ObjectIdFileLoader} that uses the IDA Persistence Engine for storing/loading files.
@@ -32,8 +36,11 @@ public class CloudRaidObjectIdLoader extends ObjectIdFileLoader {
 
     private static final Logger logger = Logger.getLogger(CloudRaidObjectIdLoader.class);
 
+    public static final long DEFAULT_REPAIR_INTERVAL = 600000;
+
     protected InformationDispersalPersistenceService persistenceService;
     protected Executor threadPoolExecutor;
+    protected ScheduledExecutorService repairExecutor;
 
     @Override
     public void initializeLoader(ConfigElement params, DeviceContext ctx) throws FileLoaderException, IOException {
@@ -61,80 +68,77 @@ public class CloudRaidObjectIdLoader extends ObjectIdFileLoader {
         setUpIda(informationDispersalConfig, context);
         setUpEncryptionProvider(informationDispersalConfig, context);
         setUpInformationDispersalPersistenceService(informationDispersalConfig, context);
+        setUpRepairExecutor(informationDispersalConfig);
+    }
+
+    @Override
+    public void shutdownLoader(boolean immediate) {
+        super.shutdownLoader(immediate);
+
+        if (repairExecutor != null) {
+            repairExecutor.shutdownNow();
+        }
     }
 
     @Override
     public void loadFileData(int fileId, int streamId, String objectId, FileSegment fileSeg) throws IOException {
         File dataFile = new File(fileSeg.getTemporaryFile());
-        byte[] data;
+        FileOutputStream out = null;
+        long dataLength;
 
         if (logger.isDebugEnabled()) {
             String fileInfoStr = getFileInfoString(fileId, streamId, objectId);
-            logger.debug("Loading data of " + fileInfoStr);
+            logger.debug("Loading data of " + fileInfoStr + " to temp file " + dataFile);
         }
 
+        // The data is written to the temp file while it's being loaded, so the whole file is never in memory
         try {
-            data = persistenceService.loadData(objectId);
+            out = new FileOutputStream(dataFile);
+
+            persistenceService.loadData(objectId, out.getChannel());
+
+            dataLength = out.getChannel().position();
         } catch (Exception e) {
             String fileInfoStr = getFileInfoString(fileId, streamId, objectId);
-            logger.error("Error while loading data of " + fileInfoStr, e);
+            logger.error("Error while loading data of " + fileInfoStr + " to temp file " + dataFile, e);
 
-            throw new IOException("Error while loading data of " + fileInfoStr, e);
+            throw new IOException("Error while loading data of " + fileInfoStr + " to temp file " + dataFile, e);
+        } finally {
+            IOUtils.closeQuietly(out);
         }
 
         if (logger.isDebugEnabled()) {
             String fileInfoStr = getFileInfoString(fileId, streamId, objectId);
-
             logger.debug("Finished loading data of " + fileInfoStr);
-            logger.debug("Writing data of " + fileInfoStr + " to temp file " + dataFile);
-        }
-
-        try {
-            FileUtils.writeByteArrayToFile(dataFile, data);
-        } catch (IOException e) {
-            String fileInfoStr = getFileInfoString(fileId, streamId, objectId);
-            logger.error("Unable to write data of " + fileInfoStr + " to temp file " + dataFile, e);
-
-            throw new IOException("Unable to write data of " + fileInfoStr + " to temp file " + dataFile, e);
         }
 
-        fileSeg.setReadableLength(data.length);
+        fileSeg.setReadableLength(dataLength);
         fileSeg.signalDataAvailable();
     }
 
     @Override
     public String saveFileData(int fileId, int streamId, FileSegment fileSeg, NameValueList attrs) throws IOException {
         File dataFile = new File(fileSeg.getTemporaryFile());
-        byte[] data;
-
-        if (logger.isDebugEnabled()) {
-            String fileInfoStr = getFileInfoString(fileId, streamId, null);
-            logger.debug("Reading data of " + fileInfoStr + " from temp file " + dataFile);
-        }
-
-        try {
-            data = FileUtils.readFileToByteArray(dataFile);
-        } catch (Exception e) {
-            String fileInfoStr = getFileInfoString(fileId, streamId, null);
-            logger.error("Unable to read data of " + fileInfoStr + " from temp file " + dataFile, e);
-
-            throw new IOException("Unable to read data of " + fileInfoStr + " from temp file " + dataFile, e);
-        }
-
-        String dataId = createDataId(fileId, streamId, data);
+        String dataId = createDataId(fileId, streamId, dataFile);
+        FileInputStream in = null;
 
         if (logger.isDebugEnabled()) {
             String fileInfoStr = getFileInfoString(fileId, streamId, dataId);
-            logger.debug("Saving data of " + fileInfoStr);
+            logger.debug("Saving data of " + fileInfoStr + " from temp file " + dataFile);
         }
 
+        // The data is read from the temp file while it's being saved, so the whole file is never in memory
         try {
-            persistenceService.saveData(dataId, data);
+            in = new FileInputStream(dataFile);
+
+            persistenceService.saveData(dataId, in.getChannel(), in.getChannel().size());
         } catch (Exception e) {
             String fileInfoStr = getFileInfoString(fileId, streamId, dataId);
-            logger.error("Error while saving data of " + fileInfoStr, e);
+            logger.error("Error while saving data of " + fileInfoStr + " from temp file " + dataFile, e);
 
-            throw new IOException("Error while saving data of " + fileInfoStr, e);
+            throw new IOException("Error while saving data of " + fileInfoStr + " from temp file " + dataFile, e);
+        } finally {
+            IOUtils.closeQuietly(in);
         }
 
         if (logger.isDebugEnabled()) {
@@ -366,6 +370,48 @@ public class CloudRaidObjectIdLoader extends ObjectIdFileLoader {
         context.setInformationDispersalPersistenceService(persistenceService);
     }
 
+    /**
+     * Sets up the background job that repairs the fragments recorded as missing, which runs every
+     * &lt;RepairInterval&gt; milliseconds (default {@link #DEFAULT_REPAIR_INTERVAL}, 0 disables it).
+     *
+     * @param informationDispersalConfig
+     *          the &lt;InformationDispersal&gt; config node
+     * @throws FileLoaderException
+     */
+    protected void setUpRepairExecutor(ConfigElement informationDispersalConfig) throws FileLoaderException {
+        long repairInterval = DEFAULT_REPAIR_INTERVAL;
+
+        ConfigElement repairIntervalConfig = informationDispersalConfig.getChild("RepairInterval");
+        if (repairIntervalConfig != null && StringUtils.isNotEmpty(repairIntervalConfig.getValue())) {
+            try {
+                repairInterval = Long.parseLong(repairIntervalConfig.getValue());
+            } catch (NumberFormatException e) {
+                throw new FileLoaderException("Invalid RepairInterval: " + repairIntervalConfig.getValue());
+            }
+        }
+
+        if (repairInterval <= 0) {
+            return;
+        }
+
+        repairExecutor = Executors.newSingleThreadScheduledExecutor();
+        repairExecutor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    int repairedNum = persistenceService.repairMissingFragments();
+                    if (repairedNum > 0) {
+                        logger.info("Repaired " + repairedNum + " missing fragments");
+                    }
+                } catch (Exception e) {
+                    logger.error("Error while repairing missing fragments", e);
+                }
+            }
+
+        }, repairInterval, repairInterval, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Creates the data ID for a specific file/stream. Default implementation generates a UUID. A hash can also be used,
      * but the problem is that if another file has the same hash, synchronization is probably needed.
@@ -374,11 +420,11 @@ public class CloudRaidObjectIdLoader extends ObjectIdFileLoader {
      *          the file ID
      * @param streamId
      *          the stream ID
-     * @param data
-     *          the actual contents
+     * @param dataFile
+     *          the temp file with the actual contents
      * @return the data ID
      */
-    protected String createDataId(int fileId, int streamId, byte[] data) {
+    protected String createDataId(int fileId, int streamId, File dataFile) {
         return UUID.randomUUID().toString();
     }
 